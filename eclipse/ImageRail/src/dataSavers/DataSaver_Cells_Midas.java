@@ -107,10 +107,14 @@ public class DataSaver_Cells_Midas implements DataSaver
 						for (int c =0; c < numC; c++)
 						{
 							Model_Well theWell = plate.getWells()[r][c];
-							if (theWell.isSelected() && theWell.getCell_values()!=null)
+							int numCells = theWell.getNumCells();
+							if (theWell.isSelected() && numCells>0)
 							{
-								int numCells = 	theWell.getCell_values().length;
-								float[][] fVals = theWell.getCell_values();
+								// One column of cell values per feature to save
+								int[] fIndices = new int[featuresToSave.length];
+								for (int i=0; i< featuresToSave.length; i++)
+									fIndices[i] = featuresToSave[i].getGUIindex();
+								float[][] fVals = theWell.getCellColumns(fIndices);
 								for (int j =0; j < numCells; j++)
 								{
 									headerValues = new ArrayList();
@@ -128,7 +132,7 @@ public class DataSaver_Cells_Midas implements DataSaver
 									
 										
 									for (int i=0; i< featuresToSave.length; i++)
-										pw.print(" "+fVals[j][featuresToSave[i].getGUIindex()]+",");
+										pw.print(" "+fVals[i][j]+",");
 									
 									pw.println();
 								}
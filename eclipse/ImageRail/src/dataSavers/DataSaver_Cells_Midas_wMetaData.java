@@ -291,21 +291,22 @@ public class DataSaver_Cells_Midas_wMetaData implements DataSaver
 				//
 								Model_Well theWell = wells.get(w);
 								clearCellData = false;
-								int numCells = 0;
-								float[][] fvals = theWell.getCell_values();
-								if(fvals!=null)
-									numCells = fvals.length;
+								int numCells = theWell.getNumCells();
 								//See if cells already loaded, else try to load them
 								if(numCells==0)
 								{
 									theWell.getCells_forceLoad(false, true);
 									clearCellData = true;
-									fvals = theWell.getCell_values();
-									if(fvals!=null)
-										numCells = fvals.length;
+									numCells = theWell.getNumCells();
 								}
-								if(numCells>0 && fvals!=null)
+								if(numCells>0)
 								{
+									// One column of cell values per feature to save
+									int[] fIndices = new int[featuresToSave.length];
+									for (int i = 0; i < featuresToSave.length; i++)
+										fIndices[i] = featuresToSave[i].getGUIindex();
+									float[][] fvals = theWell.getCellColumns(fIndices);
+
 										 ExpDesign_Description[] treats = io.getTreatments(theWell.getID());
 										 ExpDesign_Description date = io.getDate(theWell.getID());
 										 ExpDesign_Description desc = io.getDescription(theWell.getID(), "Description");
@@ -406,8 +407,7 @@ public class DataSaver_Cells_Midas_wMetaData implements DataSaver
 
 									for (int i = 0; i < featuresToSave.length; i++) {
 										pw.print(" "
-												+ fvals[j][featuresToSave[i]
-														.getGUIindex()] + ",");
+												+ fvals[i][j] + ",");
 									}
 
 									pw.println();
@@ -443,8 +443,7 @@ public class DataSaver_Cells_Midas_wMetaData implements DataSaver
 
 											for (int i = 0; i < featuresToSave.length; i++) {
 												pw.print(" "
-														+ fvals[n][featuresToSave[i]
-																.getGUIindex()]
+														+ fvals[i][n]
 														+ ",");
 											}
 
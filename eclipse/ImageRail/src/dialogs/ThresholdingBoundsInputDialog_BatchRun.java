@@ -42,6 +42,7 @@ import java.util.ArrayList;
 
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
@@ -65,12 +66,13 @@ public class ThresholdingBoundsInputDialog_BatchRun extends JDialog implements
 	private String btnString2 = "Cancel";
 	private Model_Well[] TheWells;
 	private JComboBox channelBox_nuc;
+	private JCheckBox watershedBox;
 	private JComboBox channelBox_cyto;
 	private int CoordsToSave;
 
 	public ThresholdingBoundsInputDialog_BatchRun(Model_Well[] wells) {
 		int width = 350;
-		int height = 480;
+		int height = 510;
 		setTitle("Input");
 		setSize(width, height);
 		Dimension d = Toolkit.getDefaultToolkit().getScreenSize();
@@ -102,6 +104,9 @@ public class ThresholdingBoundsInputDialog_BatchRun extends JDialog implements
 		TheWells = wells;
 		textField = new JTextField[4];
 		textField[0] = new JTextField(6); // Nuc bound
+		// Off by default: nuclei grow to the threshold without splitting
+		watershedBox = new JCheckBox("Split Touching Nuclei (Watershed)");
+		watershedBox.setSelected(false);
 		textField[1] = new JTextField(6); // Cell bound
 		textField[2] = new JTextField(6); // Back bound
 
@@ -198,6 +203,9 @@ public class ThresholdingBoundsInputDialog_BatchRun extends JDialog implements
 			if (pset.exists("Thresh_Bkgd_Value"))
 				textField[2].setText(""
 						+ pset.getParameter_float("Thresh_Bkgd_Value"));
+			if (pset.exists("Nuc_Watershed"))
+				watershedBox.setSelected(pset
+						.getParameter_boolean("Nuc_Watershed"));
 			if (pset.exists("CoordsToSaveToHDF")) {
 				String co = pset.getParameter_String("CoordsToSaveToHDF");
 				if (co != null) {
@@ -221,6 +229,7 @@ public class ThresholdingBoundsInputDialog_BatchRun extends JDialog implements
 		mess[4] = "Background Threshold";
 
 		Object[] array = { mess[0], channelBox_nuc, mess[1], textField[0],
+				watershedBox,
 				mess[2], channelBox_cyto, mess[3], textField[1], mess[4],
 				textField[2],
  new JLabel("   "), radioPanel };
@@ -329,6 +338,9 @@ public class ThresholdingBoundsInputDialog_BatchRun extends JDialog implements
 							// Nuc bound threshold
 							pset.setParameter("Thresh_Nuc_Value", ""
 									+ Thresh_Nuc_Value);
+							// Growing nuclei by watershed over the distance map
+							pset.setParameter("Nuc_Watershed", ""
+									+ watershedBox.isSelected());
 							// Cell bound Threshold
 							pset.setParameter("Thresh_Cyt_Value", ""
 									+ Thresh_CellBoundary);
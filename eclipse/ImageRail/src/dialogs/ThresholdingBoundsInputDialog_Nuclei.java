@@ -41,6 +41,7 @@ import java.util.ArrayList;
 
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
@@ -66,11 +67,12 @@ public class ThresholdingBoundsInputDialog_Nuclei extends JDialog
 	private String btnString2 = "Cancel";
 	private Model_Well[] TheWells;
 	private JComboBox channelBox_nuc;
+	private JCheckBox watershedBox;
 	private int CoordsToSave;
 
 	public ThresholdingBoundsInputDialog_Nuclei(Model_Well[] wells) {
 		int width = 340;
-		int height = 300;
+		int height = 330;
 		// With bottom panel
 		// int height = 600;
 		setTitle("Input");
@@ -106,6 +108,9 @@ public class ThresholdingBoundsInputDialog_Nuclei extends JDialog
 		TheWells = wells;
 		textField = new JTextField[1];
 		textField[0] = new JTextField(6); // Nuc bound
+		// Off by default: nuclei grow to the threshold without splitting
+		watershedBox = new JCheckBox("Split Touching Nuclei (Watershed)");
+		watershedBox.setSelected(false);
 
 
 		// Setting up the RaidioButtons for pixel saving selections
@@ -197,6 +202,7 @@ public class ThresholdingBoundsInputDialog_Nuclei extends JDialog
 		mess[1] = "Nucleus Boundary Threshold";
 
 		Object[] array = { mess[0], channelBox_nuc, mess[1], textField[0],
+				watershedBox,
 				new JLabel("   "), radioPanel };
 
 		// Create an array specifying the number of dialog buttons
@@ -292,6 +298,9 @@ public class ThresholdingBoundsInputDialog_Nuclei extends JDialog
 									.getTheChannelNames()[NucBoundaryChannel]);
 							// Nuc bound threshold
 							pset.setParameter("Thresh_Nuc_Value",""+Thresh_Nuc_Value);
+							// Growing nuclei by watershed over the distance map
+							pset.setParameter("Nuc_Watershed", ""
+									+ watershedBox.isSelected());
 							// Cell bound Threshold
 							pset.setParameter("Thresh_Cyt_Value",""+Thresh_Nuc_Value);
 							// Bkgd threshold
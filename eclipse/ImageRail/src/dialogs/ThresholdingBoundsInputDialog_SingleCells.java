@@ -41,6 +41,7 @@ import java.util.ArrayList;
 
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
@@ -65,12 +66,13 @@ public class ThresholdingBoundsInputDialog_SingleCells extends JDialog
 	private String btnString2 = "Cancel";
 	private Model_Well[] TheWells;
 	private JComboBox channelBox_nuc;
+	private JCheckBox watershedBox;
 	private JComboBox channelBox_cyto;
 	private int CoordsToSave;
 
 	public ThresholdingBoundsInputDialog_SingleCells(Model_Well[] wells) {
 		int width = 350;
-		int height = 470;
+		int height = 500;
 
 		setTitle("Input");
 		setSize(width, height);
@@ -103,6 +105,9 @@ public class ThresholdingBoundsInputDialog_SingleCells extends JDialog
 		TheWells = wells;
 		textField = new JTextField[3];
 		textField[0] = new JTextField(6); // Nuc bound
+		// Off by default: nuclei grow to the threshold without splitting
+		watershedBox = new JCheckBox("Split Touching Nuclei (Watershed)");
+		watershedBox.setSelected(false);
 		textField[1] = new JTextField(6); // Cell bound
 		textField[2] = new JTextField(6); // Back bound
 
@@ -200,6 +205,9 @@ public class ThresholdingBoundsInputDialog_SingleCells extends JDialog
 			if (pset.exists("Thresh_Bkgd_Value"))
 				textField[2].setText(""
 					+ pset.getParameter_float("Thresh_Bkgd_Value"));
+			if (pset.exists("Nuc_Watershed"))
+				watershedBox.setSelected(pset
+						.getParameter_boolean("Nuc_Watershed"));
 
 			if (pset.exists("CoordsToSaveToHDF")) {
 				String co = pset.getParameter_String("CoordsToSaveToHDF");
@@ -224,6 +232,7 @@ public class ThresholdingBoundsInputDialog_SingleCells extends JDialog
 		mess[4] = "Background Threshold";
 
 		Object[] array = { mess[0], channelBox_nuc, mess[1], textField[0],
+				watershedBox,
 				mess[2], channelBox_cyto, mess[3], textField[1], mess[4],
 				textField[2],
 				new JLabel("   "), radioPanel };
@@ -330,6 +339,9 @@ public class ThresholdingBoundsInputDialog_SingleCells extends JDialog
 									.getTheChannelNames()[CytoBoundaryChannel]);
 							// Nuc bound threshold
 							pset.setParameter("Thresh_Nuc_Value",""+Thresh_Nuc_Value);
+							// Growing nuclei by watershed over the distance map
+							pset.setParameter("Nuc_Watershed", ""
+									+ watershedBox.isSelected());
 							// Cell bound Threshold
 							pset.setParameter("Thresh_Cyt_Value",""+Thresh_CellBoundary);
 							// Bkgd threshold
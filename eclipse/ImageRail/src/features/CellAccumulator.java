@@ -0,0 +1,327 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package features;
+
+import imagerailio.Point;
+
+import java.util.IdentityHashMap;
+
+import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
+
+/**
+ * Pixel statistics of one cell, gathered in a single walk over its
+ * compartments for all channels at once. Intensity features read their value
+ * from here instead of each re-walking the same pixels. Compartments follow
+ * the conventions of the shipped features: NUCLEUS pools every compartment
+ * whose name contains "Nucleus", CYTOPLASM is the compartment named
+ * "Cytoplasm" and WHOLE is every point of every compartment, the way
+ * CellCoordinates.getComCoordinates_AllUnique() collects them.
+ * 
+ * Like the shipped features, each nucleus is looked up by its name, which
+ * gives the first compartment of that name. Cells from
+ * CellCoordinates.mergeCells() name every nucleus "Nucleus_0", so their first
+ * nucleus is counted once for every nucleus they have.
+ * 
+ * One accumulator is reused for every cell of a field, so nothing is
+ * allocated per cell once its buffers have grown to the largest cell.
+ * 
+ * @author BLM
+ */
+public final class CellAccumulator
+{
+	static public final int NUCLEUS = 0;
+	static public final int CYTOPLASM = 1;
+	static public final int WHOLE = 2;
+	static public final int NUM_COMPARTMENTS = 3;
+
+	/** Requirement flags returned by FusedFeature.getRequirements() */
+	static public final int NEEDS_NUCLEUS = 1 << NUCLEUS;
+	static public final int NEEDS_CYTOPLASM = 1 << CYTOPLASM;
+	static public final int NEEDS_WHOLE = 1 << WHOLE;
+	static public final int NEEDS_MOMENTS = 1 << 3;
+
+	private int NumChannels;
+	private int Requirements;
+	/** Whether the compartment was found in the cell at all */
+	private boolean[] Present;
+	private long[] Count;
+	/** [compartment][channel] */
+	private long[][] Sum;
+	private double[][] SumSq;
+	private int NumNuclei;
+	private long SumX;
+	private long SumY;
+
+	/** The channel planes of the raster the current cells come from */
+	private FieldRaster TheRaster;
+	private char[][] Planes;
+	/** The points already counted towards WHOLE for the current cell */
+	private IdentityHashMap<Point, Point> Seen;
+
+	/**
+	 * Creates an accumulator for rasters with the given number of channels
+	 * 
+	 * @param requirements
+	 *            the NEEDS_* flags of every feature that will read from it
+	 * @author BLM
+	 */
+	public CellAccumulator(int numChannels, int requirements)
+	{
+		NumChannels = numChannels;
+		Requirements = requirements;
+		Present = new boolean[NUM_COMPARTMENTS];
+		Count = new long[NUM_COMPARTMENTS];
+		Sum = new long[NUM_COMPARTMENTS][numChannels];
+		if ((requirements & NEEDS_MOMENTS) != 0)
+			SumSq = new double[NUM_COMPARTMENTS][numChannels];
+	}
+
+	/**
+	 * Walks the pixels of the given cell once, filling in the statistics of
+	 * every required compartment for every channel
+	 * 
+	 * @author BLM
+	 */
+	public void accumulate(CellCoordinates cell, FieldRaster raster)
+	{
+		reset();
+		if (raster != TheRaster)
+		{
+			TheRaster = raster;
+			Planes = new char[NumChannels][];
+			for (int c = 0; c < NumChannels; c++)
+				Planes[c] = raster.getPlane(c);
+		}
+		char[][] planes = Planes;
+		int width = raster.getWidth();
+
+		int num = cell.getComSize();
+		boolean needNuc = (Requirements & NEEDS_NUCLEUS) != 0;
+		boolean needCyt = (Requirements & NEEDS_CYTOPLASM) != 0;
+		boolean needWhole = (Requirements & NEEDS_WHOLE) != 0;
+		int allUnique = -1;
+		boolean foundCyt = false;
+		for (int i = 0; i < num; i++)
+		{
+			String name = cell.getComName(i);
+			if (name.indexOf("Nucleus") >= 0)
+			{
+				NumNuclei++;
+				if (needNuc)
+					Present[NUCLEUS] = true;
+			}
+			if (needNuc)
+			{
+				int weight = getNucleusWeight(cell, i, num);
+				if (weight > 0)
+					add(NUCLEUS, cell.getComCoordinates(i), planes, width,
+							weight);
+			}
+			// Only the first compartment of that name, like getComCoordinates("Cytoplasm")
+			if (!foundCyt && name.equalsIgnoreCase("Cytoplasm"))
+			{
+				foundCyt = true;
+				if (needCyt)
+				{
+					Present[CYTOPLASM] = true;
+					add(CYTOPLASM, cell.getComCoordinates(i), planes, width, 1);
+				}
+			}
+			if (allUnique == -1 && name.equalsIgnoreCase("AllUnique"))
+				allUnique = i;
+		}
+
+		if (needWhole)
+		{
+			Present[WHOLE] = true;
+			if (allUnique >= 0)
+				add(WHOLE, cell.getComCoordinates(allUnique), planes, width, 1);
+			else
+				addUnique(cell, planes, width);
+		}
+	}
+
+	private void reset()
+	{
+		for (int k = 0; k < NUM_COMPARTMENTS; k++)
+		{
+			Present[k] = false;
+			Count[k] = 0;
+			for (int c = 0; c < NumChannels; c++)
+			{
+				Sum[k][c] = 0;
+				if (SumSq != null)
+					SumSq[k][c] = 0;
+			}
+		}
+		NumNuclei = 0;
+		SumX = 0;
+		SumY = 0;
+	}
+
+	/** Returns how many nucleus compartments resolve to compartment i when looked up by
+	 * name, as CellCoordinates.getComCoordinates(String) does; 0 unless i is the first
+	 * compartment of its name*/
+	static private int getNucleusWeight(CellCoordinates cell, int i, int num)
+	{
+		String name = cell.getComName(i);
+		for (int j = 0; j < i; j++)
+			if (cell.getComName(j).equalsIgnoreCase(name))
+				return 0;
+		int weight = 0;
+		for (int j = i; j < num; j++)
+		{
+			String other = cell.getComName(j);
+			if (other.indexOf("Nucleus") >= 0 && other.equalsIgnoreCase(name))
+				weight++;
+		}
+		return weight;
+	}
+
+	/** Adds the given points weight times to compartment k */
+	private void add(int k, Point[] pts, char[][] planes, int width, int weight)
+	{
+		if (pts == null)
+			return;
+		long[] sum = Sum[k];
+		double[] sumSq = SumSq == null ? null : SumSq[k];
+		for (int j = 0; j < pts.length; j++)
+		{
+			int idx = pts[j].y * width + pts[j].x;
+			for (int c = 0; c < NumChannels; c++)
+			{
+				int v = planes[c][idx];
+				sum[c] += (long) weight * v;
+				if (sumSq != null)
+					sumSq[c] += (double) weight * v * v;
+			}
+			if (k == WHOLE)
+			{
+				SumX += pts[j].x;
+				SumY += pts[j].y;
+			}
+		}
+		Count[k] += (long) weight * pts.length;
+	}
+
+	/** Adds the union of all compartments. Like getComCoordinates_AllUnique() a point is
+	 * only skipped when the very same Point object was already seen in another compartment
+	 * (boundaries share their points with the compartment they outline)*/
+	private void addUnique(CellCoordinates cell, char[][] planes, int width)
+	{
+		if (Seen == null)
+			Seen = new IdentityHashMap<Point, Point>();
+		long[] sum = Sum[WHOLE];
+		double[] sumSq = SumSq == null ? null : SumSq[WHOLE];
+		int num = cell.getComSize();
+		for (int i = 0; i < num; i++)
+		{
+			Point[] pts = cell.getComCoordinates(i);
+			if (pts == null)
+				continue;
+			for (int j = 0; j < pts.length; j++)
+			{
+				if (Seen.put(pts[j], pts[j]) != null)
+					continue;
+				int idx = pts[j].y * width + pts[j].x;
+				for (int c = 0; c < NumChannels; c++)
+				{
+					int v = planes[c][idx];
+					sum[c] += v;
+					if (sumSq != null)
+						sumSq[c] += (double) v * v;
+				}
+				SumX += pts[j].x;
+				SumY += pts[j].y;
+				Count[WHOLE]++;
+			}
+		}
+		Seen.clear();
+	}
+
+	/** Returns the number of channels accumulated
+	 * @author BLM*/
+	public int getNumChannels()
+	{
+		return NumChannels;
+	}
+
+	/** Returns true if the cell has the given compartment
+	 * @author BLM*/
+	public boolean isPresent(int compartment)
+	{
+		return Present[compartment];
+	}
+
+	/** Returns the number of pixels in the given compartment
+	 * @author BLM*/
+	public long getCount(int compartment)
+	{
+		return Count[compartment];
+	}
+
+	/** Returns the sum of the raw pixel values in the given compartment and channel
+	 * @author BLM*/
+	public long getSum(int compartment, int channel)
+	{
+		return Sum[compartment][channel];
+	}
+
+	/** Returns the sum of squared raw pixel values; requires NEEDS_MOMENTS
+	 * @author BLM*/
+	public double getSumOfSquares(int compartment, int channel)
+	{
+		return SumSq[compartment][channel];
+	}
+
+	/** Returns the population variance of the raw pixel values; requires NEEDS_MOMENTS
+	 * @author BLM*/
+	public double getVariance(int compartment, int channel)
+	{
+		long n = Count[compartment];
+		if (n == 0)
+			return 0;
+		double mean = (double) Sum[compartment][channel] / n;
+		return Math.max(0, SumSq[compartment][channel] / n - mean * mean);
+	}
+
+	/** Returns the number of compartments whose name contains "Nucleus"
+	 * @author BLM*/
+	public int getNumNuclei()
+	{
+		return NumNuclei;
+	}
+
+	/** Returns the centroid of the whole cell, truncated like CellCoordinates.getCentroid()
+	 * @author BLM*/
+	public int getCentroidX()
+	{
+		return Count[WHOLE] == 0 ? 0 : (int) (SumX / Count[WHOLE]);
+	}
+
+	/** Returns the centroid of the whole cell, truncated like CellCoordinates.getCentroid()
+	 * @author BLM*/
+	public int getCentroidY()
+	{
+		return Count[WHOLE] == 0 ? 0 : (int) (SumY / Count[WHOLE]);
+	}
+}
@@ -28,10 +28,11 @@
 package features;
 
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Coordinate_X extends Feature
+public class Coordinate_X extends Feature implements FusedFeature
 {
-	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
 	{
 		return cell.getCentroid().x;
 	}
@@ -40,6 +41,14 @@ public class Coordinate_X extends Feature
 		Name = "Coordinate_X";
 		return Name;
 	}
+
+	public int getRequirements()
+	{
+		return CellAccumulator.NEEDS_WHOLE;
+	}
 	
+	public float getValue(CellAccumulator acc, float[] backgroundValues)
+	{
+		return acc.getCentroidX();
+	}
 }
-
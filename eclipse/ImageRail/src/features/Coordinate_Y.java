@@ -27,10 +27,11 @@
 package features;
 
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Coordinate_Y  extends Feature
+public class Coordinate_Y  extends Feature implements FusedFeature
 {
-	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
 	{
 		return cell.getCentroid().y;
 	}
@@ -39,7 +40,14 @@ public class Coordinate_Y  extends Feature
 		Name = "Coordinate_Y";
 		return Name;
 	}
+
+	public int getRequirements()
+	{
+		return CellAccumulator.NEEDS_WHOLE;
+	}
 	
-	
+	public float getValue(CellAccumulator acc, float[] backgroundValues)
+	{
+		return acc.getCentroidY();
+	}
 }
-
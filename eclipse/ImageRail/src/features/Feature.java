@@ -31,6 +31,7 @@ import gui.MainGUI;
 import java.util.ArrayList;
 
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
 public abstract class Feature
 {
@@ -56,11 +57,22 @@ public abstract class Feature
 		return false;
 	}
 	
+	/** Legacy entry point for features written against the int[row][col][channel] raster.
+	 * Features should override getValue(CellCoordinates, FieldRaster, float[]) instead
+	 * @author BLM*/
 	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
 	{
 		return -1;
 	}
 	
+	/** Computes this feature for the given cell. The default implementation hands older
+	 * features the cached int[][][] copy of the raster, so they keep working unchanged
+	 * @author BLM*/
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
+	{
+		return getValue(cell, raster.getIntRaster(), backgroundValues);
+	}
+	
 	public void setChannelIndex(int index) {
 		ChannelIndex = index;
 	}
@@ -0,0 +1,38 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package features;
+
+/**
+ * A feature whose value can be derived from the shared per-cell statistics of
+ * a CellAccumulator. FusedFeatureEngine walks each cell's pixels once and then
+ * asks every FusedFeature for its value; features that do not implement this
+ * interface are still computed through Feature.getValue().
+ * 
+ * @author BLM
+ */
+public interface FusedFeature
+{
+	/** Returns the CellAccumulator.NEEDS_* flags for the statistics this feature reads*/
+	public int getRequirements();
+
+	/** Returns this feature's value from the statistics of the current cell*/
+	public float getValue(CellAccumulator acc, float[] backgroundValues);
+}
@@ -0,0 +1,112 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package features;
+
+import java.util.ArrayList;
+
+import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
+
+/**
+ * Computes the feature matrix of a field in one pass per cell. The pixels of
+ * each cell are walked once for all channels into a CellAccumulator and every
+ * FusedFeature reads its value from there; any other Feature falls back to its
+ * own getValue().
+ * 
+ * @author BLM
+ */
+public class FusedFeatureEngine
+{
+	private ArrayList<Feature> TheFeatures;
+	private FusedFeature[] Fused;
+	private int Requirements;
+	private boolean AnyFused;
+	private CellAccumulator TheAccumulator;
+
+	/**
+	 * Creates an engine for the given features, in the column order of the
+	 * resulting matrix
+	 * 
+	 * @author BLM
+	 */
+	public FusedFeatureEngine(ArrayList<Feature> features)
+	{
+		TheFeatures = features;
+		int num = features.size();
+		Fused = new FusedFeature[num];
+		Requirements = 0;
+		for (int f = 0; f < num; f++)
+			if (features.get(f) instanceof FusedFeature)
+			{
+				Fused[f] = (FusedFeature) features.get(f);
+				Requirements |= Fused[f].getRequirements();
+				AnyFused = true;
+			}
+	}
+
+	/** Returns the features this engine computes
+	 * @author BLM*/
+	public ArrayList<Feature> getFeatures()
+	{
+		return TheFeatures;
+	}
+
+	/** Returns the number of features this engine was built for
+	 * @author BLM*/
+	public int getNumFeatures()
+	{
+		return Fused.length;
+	}
+
+	/**
+	 * Computes the numCells x numFeatures matrix for the given cells
+	 * 
+	 * @author BLM
+	 */
+	public float[][] computeFeatureValues(ArrayList<CellCoordinates> cells,
+			FieldRaster raster, float[] backgroundValues)
+	{
+		int numFeatures = TheFeatures.size();
+		int numC = cells.size();
+		if (TheAccumulator == null
+				|| TheAccumulator.getNumChannels() != raster.getNumChannels())
+			TheAccumulator = new CellAccumulator(raster.getNumChannels(),
+					Requirements);
+
+		float[][] data = new float[numC][numFeatures];
+		for (int n = 0; n < numC; n++)
+		{
+			CellCoordinates cell = cells.get(n);
+			if (AnyFused)
+				TheAccumulator.accumulate(cell, raster);
+			float[] row = data[n];
+			for (int f = 0; f < numFeatures; f++)
+			{
+				if (Fused[f] != null)
+					row[f] = Fused[f].getValue(TheAccumulator, backgroundValues);
+				else
+					row[f] = TheFeatures.get(f).getValue(cell, raster,
+							backgroundValues);
+			}
+		}
+		return data;
+	}
+}
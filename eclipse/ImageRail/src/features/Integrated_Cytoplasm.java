@@ -28,11 +28,14 @@ package features;
 
 import imagerailio.Point;
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Integrated_Cytoplasm extends Feature
+public class Integrated_Cytoplasm extends Feature implements FusedFeature
 {
-	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
 	{
+		char[] plane = raster.getPlane(ChannelIndex);
+		int width = raster.getWidth();
 		long sum = 0;
 		Point[] coords = cell.getComCoordinates("Cytoplasm");
 		int len = coords == null ? 0 : coords.length;
@@ -41,7 +44,7 @@ public class Integrated_Cytoplasm extends Feature
 
 
 		for (int i = 0; i < len; i++)
-			sum += raster[coords[i].y][coords[i].x][getChannelIndex()]; // TODO
+			sum += plane[coords[i].y * width + coords[i].x]; // TODO
 																		// -
 																		// need
 																		// to
@@ -64,4 +67,18 @@ public class Integrated_Cytoplasm extends Feature
 	{
 		Name = "Cyto_"+name+" (Integrated)";
 	}
+
+	public int getRequirements()
+	{
+		return CellAccumulator.NEEDS_CYTOPLASM;
+	}
+	
+	public float getValue(CellAccumulator acc, float[] backgroundValues)
+	{
+		long len = acc.getCount(CellAccumulator.CYTOPLASM);
+		if (len == 0)
+			return 0f;
+		return acc.getSum(CellAccumulator.CYTOPLASM, ChannelIndex)
+				- (len * backgroundValues[ChannelIndex]);
+	}
 }
@@ -28,11 +28,14 @@ package features;
 
 import imagerailio.Point;
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Integrated_Nucleus extends Feature
+public class Integrated_Nucleus extends Feature implements FusedFeature
 {
-	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
 	{
+		char[] plane = raster.getPlane(ChannelIndex);
+		int width = raster.getWidth();
 		long counter = 0;
 		long sum = 0;
 		String[] names = cell.getComNames();
@@ -42,7 +45,7 @@ public class Integrated_Nucleus extends Feature
 				int len = coords == null ? 0 : coords.length;
 				counter += len;
 				for (int j = 0; j < len; j++)
-					sum += raster[coords[j].y][coords[j].x][ChannelIndex];
+					sum += plane[coords[j].y * width + coords[j].x];
 			}
 		if (sum <= 0 || counter <= 0)
 			return 0;
@@ -60,4 +63,19 @@ public class Integrated_Nucleus extends Feature
 	{
 		Name = "Nucleus_"+name+" (Integrated)";
 	}
+
+	public int getRequirements()
+	{
+		return CellAccumulator.NEEDS_NUCLEUS;
+	}
+	
+	public float getValue(CellAccumulator acc, float[] backgroundValues)
+	{
+		long counter = acc.getCount(CellAccumulator.NUCLEUS);
+		long sum = acc.getSum(CellAccumulator.NUCLEUS, ChannelIndex);
+		if (sum <= 0 || counter <= 0)
+			return 0;
+		// Subtracting precomputed background for this set of field images
+		return ((float) sum - (counter * backgroundValues[ChannelIndex]));
+	}
 }
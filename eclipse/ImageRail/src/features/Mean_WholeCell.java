@@ -28,11 +28,14 @@ package features;
 
 import imagerailio.Point;
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Mean_WholeCell extends Feature
+public class Mean_WholeCell extends Feature implements FusedFeature
 {
-	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
 	{
+		char[] plane = raster.getPlane(ChannelIndex);
+		int width = raster.getWidth();
 		long sum = 0;
 		Point[] coords = cell.getComCoordinates_AllUnique();
 		int len = coords == null ? 0 : coords.length;
@@ -40,7 +43,7 @@ public class Mean_WholeCell extends Feature
 			return 0f;
 
 		for (int i = 0; i < len; i++)
-			sum+=raster[coords[i].y][coords[i].x][ChannelIndex];
+			sum+=plane[coords[i].y * width + coords[i].x];
 
 		assert sum >= 0;
 		
@@ -57,4 +60,19 @@ public class Mean_WholeCell extends Feature
 	{
 		Name = "Whole_"+name+" (Mean)";
 	}
+
+	public int getRequirements()
+	{
+		return CellAccumulator.NEEDS_WHOLE;
+	}
+	
+	public float getValue(CellAccumulator acc, float[] backgroundValues)
+	{
+		long len = acc.getCount(CellAccumulator.WHOLE);
+		if (len == 0)
+			return 0f;
+		//Subtracting precomputed background for this set of field images
+		return ((float) acc.getSum(CellAccumulator.WHOLE, ChannelIndex)) / len
+				- backgroundValues[ChannelIndex];
+	}
 }
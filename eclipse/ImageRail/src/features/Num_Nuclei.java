@@ -28,9 +28,10 @@ package features;
 
 
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Num_Nuclei extends Feature {
-	public float getValue(CellCoordinates cell, int[][][] raster,
+public class Num_Nuclei extends Feature implements FusedFeature {
+	public float getValue(CellCoordinates cell, FieldRaster raster,
 			float[] backgroundValues) {
 		int count = 0;
 		String[] names = cell.getComNames();
@@ -45,4 +46,12 @@ public class Num_Nuclei extends Feature {
 		Name = "Num_Nuclei";
 		return Name;
 	}
+
+	public int getRequirements() {
+		return 0;
+	}
+
+	public float getValue(CellAccumulator acc, float[] backgroundValues) {
+		return acc.getNumNuclei();
+	}
 }
@@ -28,11 +28,14 @@ package features;
 
 import imagerailio.Point;
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Ratio_nucCyt extends Feature
+public class Ratio_nucCyt extends Feature implements FusedFeature
 {
-	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
 	{
+		char[] plane = raster.getPlane(ChannelIndex);
+		int width = raster.getWidth();
 		long counter = 0;
 		long sum = 0;
 		String[] names = cell.getComNames();
@@ -43,7 +46,7 @@ public class Ratio_nucCyt extends Feature
 				int len = coords == null ? 0 : coords.length;
 				counter += len;
 				for (int j = 0; j < len; j++)
-					sum += raster[coords[j].y][coords[j].x][ChannelIndex];
+					sum += plane[coords[j].y * width + coords[j].x];
 			}
 		float meanN = ((float) sum) / counter - backgroundValues[ChannelIndex];
 
@@ -53,7 +56,7 @@ public class Ratio_nucCyt extends Feature
 		if (len == 0)
 			return 0;
 		for (int i = 0; i < len; i++)
-			sumC+=raster[coordsC[i].y][coordsC[i].x][ChannelIndex];
+			sumC+=plane[coordsC[i].y * width + coordsC[i].x];
 		float meanC = (float) sumC / (float) len
 				- backgroundValues[ChannelIndex];
 		if (meanC == 0)
@@ -71,5 +74,25 @@ public class Ratio_nucCyt extends Feature
 	{
 		Name = "Ratio_nuc/cyt_"+name;
 	}
-}
 
+	public int getRequirements()
+	{
+		return CellAccumulator.NEEDS_NUCLEUS | CellAccumulator.NEEDS_CYTOPLASM;
+	}
+	
+	public float getValue(CellAccumulator acc, float[] backgroundValues)
+	{
+		float meanN = ((float) acc.getSum(CellAccumulator.NUCLEUS, ChannelIndex))
+				/ acc.getCount(CellAccumulator.NUCLEUS)
+				- backgroundValues[ChannelIndex];
+		long len = acc.getCount(CellAccumulator.CYTOPLASM);
+		if (len == 0)
+			return 0;
+		float meanC = (float) acc.getSum(CellAccumulator.CYTOPLASM, ChannelIndex)
+				/ (float) len - backgroundValues[ChannelIndex];
+		if (meanC == 0)
+			return 0;
+		
+		return meanN/meanC;
+	}
+}
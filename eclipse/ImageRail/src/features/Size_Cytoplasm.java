@@ -27,10 +27,11 @@
 package features;
 
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Size_Cytoplasm extends Feature
+public class Size_Cytoplasm extends Feature implements FusedFeature
 {
-	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
 	{
 		return cell.getComCoordinates("Cytoplasm").length;
 	}
@@ -39,4 +40,14 @@ public class Size_Cytoplasm extends Feature
 		Name = "Size_cyto";
 		return Name;
 	}
+
+	public int getRequirements()
+	{
+		return CellAccumulator.NEEDS_CYTOPLASM;
+	}
+	
+	public float getValue(CellAccumulator acc, float[] backgroundValues)
+	{
+		return acc.getCount(CellAccumulator.CYTOPLASM);
+	}
 }
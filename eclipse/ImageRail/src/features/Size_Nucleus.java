@@ -29,10 +29,11 @@ package features;
 
 import imagerailio.Point;
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Size_Nucleus extends Feature
+public class Size_Nucleus extends Feature implements FusedFeature
 {
-	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
 	{
 		int sum = 0;
 		String[] names = cell.getComNames();
@@ -50,4 +51,14 @@ public class Size_Nucleus extends Feature
 		Name = "Size_nucleus";
 		return Name;
 	}
+
+	public int getRequirements()
+	{
+		return CellAccumulator.NEEDS_NUCLEUS;
+	}
+	
+	public float getValue(CellAccumulator acc, float[] backgroundValues)
+	{
+		return acc.getCount(CellAccumulator.NUCLEUS);
+	}
 }
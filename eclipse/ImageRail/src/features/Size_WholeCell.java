@@ -27,10 +27,11 @@
 package features;
 
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
 
-public class Size_WholeCell extends Feature
+public class Size_WholeCell extends Feature implements FusedFeature
 {
-	public float getValue(CellCoordinates cell, int[][][] raster, float[] backgroundValues)
+	public float getValue(CellCoordinates cell, FieldRaster raster, float[] backgroundValues)
 	{
 		return cell.getComCoordinates_AllUnique().length;
 	}
@@ -39,5 +40,14 @@ public class Size_WholeCell extends Feature
 		Name = "Size_whole";
 		return Name;
 	}
-}
 
+	public int getRequirements()
+	{
+		return CellAccumulator.NEEDS_WHOLE;
+	}
+	
+	public float getValue(CellAccumulator acc, float[] backgroundValues)
+	{
+		return acc.getCount(CellAccumulator.WHOLE);
+	}
+}
@@ -391,7 +391,7 @@ public class DotFilter {
 									Cell cell = arr.get(n);
 
 									if (upDown == 1) { // above pivotValue
-										if (cell.getFeatureValues()[fIndex] < pivotValue) {
+										if (cell.getValue(fIndex) < pivotValue) {
 
 											keepers_coords.add(cell
 													.getCoordinates());
@@ -400,7 +400,7 @@ public class DotFilter {
 											counter++;
 										}
 									} else // below pivotValue
-									if (cell.getFeatureValues()[fIndex] > pivotValue) {
+									if (cell.getValue(fIndex) > pivotValue) {
 
 										keepers_coords.add(cell
 												.getCoordinates());
@@ -437,7 +437,7 @@ public class DotFilter {
 						boolean loadVals = false;
 						if (cells.get(0).getCoordinates() != null)
 							loadCoords = true;
-						if (cells.get(0).getFeatureValues() != null)
+						if (cells.get(0).getTable() != null)
 							loadVals = true;
 						well.loadCells(io, loadCoords, loadVals);
 					}
@@ -544,7 +544,7 @@ public class DotFilter {
 		for (int i = 0; i < numCells; i++) {
 			Cell cell = cells.get(i);
 			if (upDown == 1) // above pivotValue
-				if (cell.getFeatureValues()[fIndex] > pivotValue) {
+				if (cell.getValue(fIndex) > pivotValue) {
 					cell.setSelected(true);
 					counter++;
 				} else {
@@ -552,7 +552,7 @@ public class DotFilter {
 					// System.out.println(cellValues[i][fIndex]);
 				}
 			else // below pivotValue
-			if (cell.getFeatureValues()[fIndex] < pivotValue) {
+			if (cell.getValue(fIndex) < pivotValue) {
 				cell.setSelected(true);
 				counter++;
 			} else {
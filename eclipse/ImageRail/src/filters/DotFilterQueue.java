@@ -369,12 +369,12 @@ public class DotFilterQueue extends JFrame implements Runnable {
 										int upDown = goFilters[f]
 												.getLessThanGreaterThan();
 										if (upDown == 1) { // above pivotValue
-											if (cell.getFeatureValues()[fIndex[f]] > pivotValue) {
+											if (cell.getValue(fIndex[f]) > pivotValue) {
 												pass = false;
 												break;
 											}
 										} else // below pivotValue
-										if (cell.getFeatureValues()[fIndex[f]] < pivotValue) {
+										if (cell.getValue(fIndex[f]) < pivotValue) {
 											pass = false;
 											break;
 										}
@@ -413,7 +413,7 @@ public class DotFilterQueue extends JFrame implements Runnable {
 						boolean loadVals = false;
 						if (cells.get(0).getCoordinates() != null)
 							loadCoords = true;
-						if (cells.get(0).getFeatureValues() != null)
+						if (cells.get(0).getTable() != null)
 							loadVals = true;
 						well.loadCells(io, loadCoords, loadVals);
 					}
@@ -85,7 +85,7 @@ public class FeatureDetector {
 				int numC = cells.size();
 				int fIndex = models.Model_Main.getModel().getFeature_Index(featureName);
 				for (int i = 0; i < numC; i++) {
-					float thisVal = cells.get(i).getFeatureValues()[fIndex];
+					float thisVal = cells.get(i).getValue(fIndex);
 					float zScore = (thisVal - mean) / stdev;
 					// System.out.println(zScore);
 					// System.out.println(operator);
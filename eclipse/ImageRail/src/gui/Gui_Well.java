@@ -271,7 +271,7 @@ public class Gui_Well {
 				&& models.Model_Main.getModel().getPlateRepository_GUI()
 						.shouldDisplayHistograms()
 				&& TheModel.containsCellData()
-				&& TheModel.getCell_values() != null) {
+				&& TheModel.getNumCells() > 0) {
 			int x = outline.x + 1;
 			int y = outline.y + 1;
 			int width = outline.width - 1;
@@ -326,13 +326,13 @@ public class Gui_Well {
 		int xLen = width - 1;
 		int yLen = height - 2;
 		int numBins = 50;
-		float[][] cells = TheModel.getCell_values();
+		int feature_index = models.Model_Main.getModel().getTheSelectedFeature_Index();
+		float[] cells = TheModel.getCellColumn(feature_index);
 		if (cells == null)
 			return null;
 		int numCells = cells.length;
 		float dX = (float) xLen / (float) numBins;
 		int[] bins = new int[numBins];
-		int feature_index = models.Model_Main.getModel().getTheSelectedFeature_Index();
 
 		double minVal = Double.POSITIVE_INFINITY;
 		double maxVal = Double.NEGATIVE_INFINITY;
@@ -362,7 +362,7 @@ public class Gui_Well {
 
 		// Binning values
 		for (int i = 0; i < numCells; i++) {
-			double val = cells[i][feature_index];
+			double val = cells[i];
 			if (models.Model_Main.getModel().getPlateRepository_GUI().isLogScaled()) {
 				if (val <= 1)
 					val = 1;
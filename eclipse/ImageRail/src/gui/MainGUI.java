@@ -54,6 +54,7 @@ import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 
 import midasGUI.MidasInputPanel;
 import models.Model_Field;
@@ -495,8 +496,7 @@ public class MainGUI extends JFrame {
 				ActionEvent.CTRL_MASK));
 		item.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent ae) {
-				Model_Plate[] plates = TheMainModel.getPlateRepository().getPlates();
-				Model_Plate.loadCellData(plates, false, true);
+				loadSelectedCells(false);
 			}
 		});
 		loadMenu.add(item);
@@ -506,8 +506,7 @@ public class MainGUI extends JFrame {
 				ActionEvent.CTRL_MASK));
 		item.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent ae) {
-				Model_Plate[] plates = TheMainModel.getPlateRepository().getPlates();
-				Model_Plate.loadCellData(plates, true, true);
+				loadSelectedCells(true);
 			}
 		});
 		loadMenu.add(item);
@@ -800,6 +799,46 @@ public class MainGUI extends JFrame {
 	
 	}
 	
+	/**
+	 * Loads the cells of the selected wells in the background, refreshing the
+	 * plots at most twice a second as wells come in so the first wells show
+	 * up before the rest are read
+	 * 
+	 * @author BLM
+	 */
+	private void loadSelectedCells(boolean loadCoords) {
+		Model_Plate[] plates = TheMainModel.getPlateRepository().getPlates();
+		Model_Plate.loadCellData(plates, loadCoords, true,
+				new Model_Plate.CellLoader.Listener() {
+					private long LastUpdate;
+
+					public void wellLoaded(Model_Well well, int numLoaded,
+							int numWells) {
+						System.out.println("Loaded cells of " + numLoaded
+								+ "/" + numWells + " wells");
+						long now = System.currentTimeMillis();
+						if (now - LastUpdate < 500)
+							return;
+						LastUpdate = now;
+						updateAllPlotsLater();
+					}
+
+					public void finished(int numLoaded, int numWells) {
+						updateAllPlotsLater();
+					}
+				});
+	}
+
+	/** Calls updateAllPlots() on the Swing event thread
+	 * @author BLM*/
+	private void updateAllPlotsLater() {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				updateAllPlots();
+			}
+		});
+	}
+
 	/**
 	 * Updating all applicable plots
 	 * 
@@ -251,41 +251,23 @@ public class FieldViewer extends DisplayJAI implements MouseListener,
 	}
 	
 	/** 
-	 * 
+	 * Rebuilds the normalized channel histograms shown on the right, binned
+	 * over the current display range, from the field's cached pixel histograms
 	 */
 	public void updateHistograms()
 	{
 		int numBins = 30;
-		int numChannels = ImagesToView.length;
+		tools.FieldHistogram fieldHist = TheField.getHistogram();
+		if (fieldHist == null)
+		{
+			histograms = new float[0][0];
+			return;
+		}
+		int numChannels = fieldHist.getNumChannels();
 		histograms = new float[numChannels][numBins];
-		for (int j = 0; j < ImagesToView.length; j++) {
-			//rescaling image to be small
-			ParameterBlock pb = new ParameterBlock();
-			RenderedImage TheCurrentImage = JAI.create("fileload",
-					ImagesToView[j].getAbsolutePath());
-			pb.addSource(TheCurrentImage);
-			pb.add(0.1F);
-			pb.add(0.1F);
-			pb.add(0.0F);
-			pb.add(0.0F);
-			pb.add(new InterpolationNearest());
-			// Creates a new, scaled image and uses it on the DisplayJAI component
-			TheCurrentImage = JAI.create("scale", pb);
-			Raster raster = TheCurrentImage.getData();
-			int width = raster.getWidth();
-			int height = raster.getHeight();
-			int[][] im = new int[width][height];
-			int[] pix = new int[raster.getNumBands()];
-			for (int r = 0; r < height; r++) {
-				for (int c = 0; c < width; c++) {
-					raster.getPixel(c, r, pix);
-					im[c][r] = pix[0];
-				}
-			}
-			//create histogram for this raster
-			float[][] hist = tools.ImageTools.getHistogram_bounds_norm(im, numBins, (int)models.Model_Main.getModel().getMinValues_ImageDisplay()[j], (int)models.Model_Main.getModel().getMaxValues_ImageDisplay()[j]);
+		for (int j = 0; j < numChannels; j++) {
+			float[][] hist = fieldHist.getHistogram_bounds_norm(j, numBins, (int)models.Model_Main.getModel().getMinValues_ImageDisplay()[j], (int)models.Model_Main.getModel().getMaxValues_ImageDisplay()[j]);
 			histograms[j] = hist[1];
-			im = null;
 		}
 	}
 	
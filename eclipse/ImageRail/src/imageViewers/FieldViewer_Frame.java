@@ -732,7 +732,7 @@ public class FieldViewer_Frame extends JFrame implements WindowListener, KeyList
 		well.setCellsModified(true);
 		well.purgeSelectedCellsAndRecomputeWellMeans();
 		models.Model_Main.getModel().getPlateRepository()
-				.updateMinMaxValues();
+				.updateMinMaxValues(well);
 	}
 
 	/** Free up RAM
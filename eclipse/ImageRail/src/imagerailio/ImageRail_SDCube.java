@@ -26,20 +26,28 @@ import java.io.FileOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.Hashtable;
 
 import sdcubeio.DataObject;
 import sdcubeio.Data_1D;
 import sdcubeio.Data_2D;
+import sdcubeio.Data_Double;
+import sdcubeio.Data_Float;
+import sdcubeio.Data_Int;
+import sdcubeio.Data_Primitive;
 import sdcubeio.ExpDesign_IO;
 import sdcubeio.ExpDesign_Model;
 import sdcubeio.ExpDesign_Sample;
 import sdcubeio.H5IO;
 import sdcubeio.H5IO_Exception;
 import sdcubeio.SDCube;
+import sdcubeio.SDCube_Merge;
 import segmentedobject.Cell;
 import segmentedobject.CellCompartment;
 import segmentedobject.CellCoordinates;
+import segmentedobject.CellTable;
+import tools.FeatureStatistics;
 
 /**
  * This class is responsible for writing/reading HDF5 SDCubes in an ImageRail
@@ -75,6 +83,8 @@ public class ImageRail_SDCube
 	private String xmlPath_out;
 	static public int INPUT = 0;
 	static public int OUTPUT = 1;
+	/** Group in the output file holding one marker per finished field and well */
+	static public final String COMPLETED_PATH = "./Meta/Completed";
 
 	/**
 	 * Constructs and initializes a ImageRail_SDCube object with the project path.
@@ -478,6 +488,23 @@ public class ImageRail_SDCube
 	 * @throws H5IO_Exception
 	 */
 	public synchronized void writeFeatures(int plateIdx, int wellIdx, int fieldIdx, float[][] data)  {
+		writeFeatures(plateIdx, wellIdx, fieldIdx, data, FeatureStatistics.of(data));
+	}
+
+	/**
+	 * Write features of a specific field together with their statistics,
+	 * which are kept next to the values as Data/feature_statistics so readers
+	 * can get means and stdevs without loading any cells
+	 * 
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @param int fieldIdx Index of the field.
+	 * @param float[][] dataToWrite
+	 * @param FeatureStatistics stats the statistics of dataToWrite
+	 * @author Bjorn Millard
+	 */
+	public synchronized void writeFeatures(int plateIdx, int wellIdx,
+			int fieldIdx, float[][] data, FeatureStatistics stats) {
 
 		String indexKey = getIndexKey(plateIdx, wellIdx);
 		String pathToSample = hashtable_indexToPath_out.get(indexKey);
@@ -500,21 +527,24 @@ public class ImageRail_SDCube
 				if (io.existsDataset(pathToDS))
 					io.removeDataset(pathToDS);
 			
-				Float[][] dataF = new Float[data.length][data[0].length];
-				for (int r = 0; r < data.length; r++) {
-					for (int c = 0; c < data[0].length; c++) {
-						dataF[r][c] = data[r][c];
-					}
-				}
-				Data_2D data2 = new Data_2D(dataF, "FLOAT", datasetName);
-				io.writeDataset(hdfPath_out, pathToDS,
-						datasetName,
-						data2);
+				io.writePrimitive(hdfPath_out, pathToDS, new Data_Float(data,
+						datasetName));
 
 				// Add dimension names
 				io.writeAttribute(pathToDS, "dim0", "cells");
 				io.writeAttribute(pathToDS, "dim1", "feature_values");
 
+				// Statistics go with the values so the two never disagree
+				pathToDS = pathToFieldDataFolder + "/feature_statistics";
+				if (io.existsDataset(pathToDS))
+					io.removeDataset(pathToDS);
+				if (stats != null) {
+					io.writeDataset(hdfPath_out, pathToDS, stats.toMatrix());
+					io.writeAttribute(pathToDS, "dim0",
+							"count_mean_M2_min_max");
+					io.writeAttribute(pathToDS, "dim1", "features");
+				}
+
 		} 	catch (H5IO_Exception e) {
 			System.out.println("**Failed to write feature values to: "+pathToDS);
 			e.printStackTrace();
@@ -523,6 +553,46 @@ public class ImageRail_SDCube
 		}
 	}
 
+	/**
+	 * Read the feature statistics stored with the features of a field, or
+	 * null if there are none
+	 * 
+	 * @author Bjorn Millard
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @param int fieldIdx Index of the field.
+	 * @param int fromInputOrOutput INPUT or OUTPUT
+	 * @return FeatureStatistics
+	 */
+	public synchronized FeatureStatistics readFeatureStatistics(int plateIdx,
+			int wellIdx, int fieldIdx, int fromInputOrOutput)
+	{
+		String pathToSample = null;
+		if (fromInputOrOutput == INPUT)
+			pathToSample = hashtable_indexToPath_in.get(getIndexKey(plateIdx,
+					wellIdx));
+		else
+			pathToSample = hashtable_indexToPath_out.get(getIndexKey(
+					plateIdx, wellIdx));
+		if (pathToSample == null)
+			return null;
+		String path = pathToSample + "/Children/" + fieldIdx
+				+ "/Data/feature_statistics";
+		try {
+			if (!io.existsDataset(path))
+				return null;
+			Data_Primitive values = io.readPrimitive(path);
+			if (!(values instanceof Data_Double))
+				return null;
+			return FeatureStatistics.fromMatrix(((Data_Double) values)
+					.toMatrix());
+		} catch (H5IO_Exception e) {
+			System.out.println("**Failed to load feature statistics for: "+path);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	/**
 	 * Read features of a specific field.
 	 * 
@@ -556,22 +626,18 @@ public class ImageRail_SDCube
 				// System.out.println("Loading Features for:");
 				// System.out.println(hdfPath+"/"+path);
 			
-				Data_2D<Float> values = (Data_2D<Float>) io.readDataset(
-						hdfPath_in, path);
+				Data_Primitive values = io.readPrimitive(path);
 				if (values == null)
 					return null;
-
-			Float[][] vals = values.getData();
-			int len = vals.length;
-			int len2 = vals[0].length;
-			float[][] out = new float[len][len2];
-			for (int i = 0; i < len; i++)
-				for (int j = 0; j < len2; j++)
-					out[i][j] = vals[i][j].floatValue();
+				if (!(values instanceof Data_Float)) {
+					System.out.println("**Error: feature values are not stored as floats: "
+							+ path);
+					return null;
+				}
 
 				// System.out.println("Successfully loaded features!");
 			
-			return out;
+			return ((Data_Float) values).toMatrix();
 			
 			} catch (H5IO_Exception e) {
 				System.out.println("**Error: Faild to load feature values for path: "+path);
@@ -583,6 +649,106 @@ public class ImageRail_SDCube
 		return null;
 	}
 
+	/**
+	 * Returns {numCells, numFeatures} of the feature values stored for a
+	 * field, without reading them, or null if there are none
+	 * 
+	 * @author BLM
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @param int fieldIdx Index of the field.
+	 */
+	public synchronized int[] readFeatureDimensions(int plateIdx,
+			int wellIdx, int fieldIdx)
+	{
+		String pathToSample = hashtable_indexToPath_in.get(getIndexKey(
+				plateIdx, wellIdx));
+		if (pathToSample == null)
+			return null;
+		String path = pathToSample + "/Children/" + fieldIdx
+				+ "/Data/feature_values";
+		try {
+			if (!io.existsDataset(path))
+				return null;
+			long[] dims = io.getDimensions(path);
+			if (dims.length != 2)
+				return null;
+			return new int[] { (int) dims[0], (int) dims[1] };
+		} catch (H5IO_Exception e) {
+			System.out.println("**Error: Failed to read the feature dimensions for path: "
+					+ path);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Reads only the given feature columns of a field. Each run of
+	 * consecutive feature indices is read as one [cells x run] hyperslab of
+	 * the feature_values dataset, so the other features are never read.
+	 * 
+	 * @author BLM
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @param int fieldIdx Index of the field.
+	 * @param int[] featureIndices The features to read.
+	 * @return float[][] One column of all cells per requested feature, in
+	 *         the order requested, or null if they cannot be read.
+	 */
+	public synchronized float[][] readFeatureColumns(int plateIdx,
+			int wellIdx, int fieldIdx, int[] featureIndices)
+	{
+		String pathToSample = hashtable_indexToPath_in.get(getIndexKey(
+				plateIdx, wellIdx));
+		if (pathToSample == null)
+			return null;
+		String path = pathToSample + "/Children/" + fieldIdx
+				+ "/Data/feature_values";
+		try {
+			if (!io.existsDataset(path))
+				return null;
+			long[] dims = io.getDimensions(path);
+			int numCells = (int) dims[0];
+			int numF = (int) dims[1];
+			float[][] columns = new float[featureIndices.length][];
+			int start = 0;
+			while (start < featureIndices.length) {
+				int end = start + 1;
+				while (end < featureIndices.length
+						&& featureIndices[end] == featureIndices[end - 1] + 1)
+					end++;
+				int first = featureIndices[start];
+				int run = end - start;
+				if (first < 0 || first + run > numF) {
+					System.out.println("**Error: feature index out of range: "
+							+ first + " of " + numF + " in " + path);
+					return null;
+				}
+				Data_Primitive values = io.readPrimitive(path, new long[] { 0,
+						first }, new long[] { numCells, run });
+				if (!(values instanceof Data_Float)) {
+					System.out.println("**Error: feature values are not stored as floats: "
+							+ path);
+					return null;
+				}
+				float[] data = ((Data_Float) values).getData();
+				for (int k = 0; k < run; k++) {
+					float[] col = new float[numCells];
+					for (int c = 0; c < numCells; c++)
+						col[c] = data[c * run + k];
+					columns[start + k] = col;
+				}
+				start = end;
+			}
+			return columns;
+		} catch (H5IO_Exception e) {
+			System.out.println("**Error: Failed to load feature columns for path: "
+					+ path);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	/**
 	 * Write feature names to a field.
 	 * 
@@ -657,6 +823,74 @@ public class ImageRail_SDCube
 		return null;
 	}
 
+	/**
+	 * Write the pixel histograms of a field, one row per channel packed as
+	 * [lowest value, number of bins, counts...] (see tools.FieldHistogram)
+	 * 
+	 * @author Bjorn Millard
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @param int fieldIdx Index of the field.
+	 * @param int[][] histograms The packed histograms
+	 */
+	public synchronized void writeFieldHistograms(int plateIdx, int wellIdx,
+			int fieldIdx, int[][] histograms)
+	{
+		String pathToSample = hashtable_indexToPath_out.get(getIndexKey(
+				plateIdx,
+				wellIdx));
+		if (pathToSample == null) {
+			System.out.println("***Error*** Sample/Field does not exist!!!");
+			return;
+		}
+		String pathToDS = pathToSample + "/Children/" + fieldIdx
+				+ "/Meta/pixel_histograms";
+		try {
+			if (io.existsDataset(pathToDS))
+				io.removeDataset(pathToDS);
+			io.writeDataset(hdfPath_out, pathToDS, histograms);
+			io.writeAttribute(pathToDS, "dim0", "channels");
+			io.writeAttribute(pathToDS, "dim1", "min_numBins_counts");
+		} catch (H5IO_Exception e) {
+			System.out.println("**Failed to write pixel histograms to: "+pathToDS);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read the packed pixel histograms of a field written by
+	 * writeFieldHistograms(), or null if the field has none
+	 * 
+	 * @author Bjorn Millard
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @param int fieldIdx Index of the field.
+	 * @return int[][] the packed histograms, one row per channel
+	 */
+	public synchronized int[][] readFieldHistograms(int plateIdx, int wellIdx,
+			int fieldIdx)
+	{
+		String pathToSample = hashtable_indexToPath_in.get(getIndexKey(
+				plateIdx,
+				wellIdx));
+		if (pathToSample == null)
+			return null;
+		String path = pathToSample + "/Children/" + fieldIdx
+				+ "/Meta/pixel_histograms";
+		try {
+			if (!io.existsDataset(path))
+				return null;
+			Data_Primitive values = io.readPrimitive(path);
+			if (!(values instanceof Data_Int))
+				return null;
+			return ((Data_Int) values).toMatrix();
+		} catch (H5IO_Exception e) {
+			System.out.println("**Failed to load pixel histograms for: "+path);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	/**
 	 * Write mean values of a well.
 	 * 
@@ -886,24 +1120,34 @@ public class ImageRail_SDCube
 		}
 		if (pathToSample != null) {
 
-			String path = pathToSample + "/Children/" + fieldIdx;
-			int val = -1;
-			try{
-				Integer[] ints = ((Data_1D<Integer>) io.readDataset(h5path,
-					path + "/Meta/Height_Width_Channels")).getData();
-				val = ints[0].intValue();
-			}
-			catch(Exception e)
-			{
-				Integer[][] ints = ((Data_2D<Integer>) io.readDataset(h5path,
-						path + "/Meta/Height_Width_Channels")).getData();
-					val = ints[0][0].intValue();
-			}
-
-			return val;
+			return readFieldHeight(h5path, pathToSample + "/Children/"
+					+ fieldIdx);
 		}
 		return -1;
 	}
+
+	/**
+	 * Reads the height of the field stored at the given path
+	 * 
+	 * @author Bjorn Millard
+	 */
+	private int readFieldHeight(String h5path, String path)
+			throws H5IO_Exception {
+		int val = -1;
+		// Stored as either a 1D or a 2D integer dataset
+		try{
+			Object[] ints = ((Data_1D<?>) io.readDataset(h5path,
+				path + "/Meta/Height_Width_Channels")).getData();
+			val = ((Number) ints[0]).intValue();
+		}
+		catch(Exception e)
+		{
+			Object[][] ints = ((Data_2D<?>) io.readDataset(h5path,
+					path + "/Meta/Height_Width_Channels")).getData();
+				val = ((Number) ints[0][0]).intValue();
+		}
+		return val;
+	}
 	
 	/**
 	 * Returns the dimensions as int[height, width, numChannels] of the desired
@@ -950,7 +1194,11 @@ public class ImageRail_SDCube
 
 
 	/**
-	 * Write whole cells to the field.
+	 * Write whole cells of a field. The coordinates are stored packed (CSR
+	 * style): for each compartment one int dataset holding the pixel indices
+	 * of all cells back to back, plus an offsets dataset of length
+	 * numCells+1 where cell i spans [offsets[i], offsets[i+1]). Both live in
+	 * the field's Data/packed_cells group.
 	 * 
 	 * @author Bjorn Millard
 	 * @param int plateIdx Index of the plate.
@@ -963,108 +1211,97 @@ public class ImageRail_SDCube
 			int fieldIdx, ArrayList<CellCoordinates> cellList)
 			throws H5IO_Exception
 	{
-
-		long time = System.currentTimeMillis();
-		// System.out.println("Starting writing whole cell coords:");
-
 		String pathToSample = hashtable_indexToPath_out.get(getIndexKey(
 				plateIdx,
 				wellIdx));
 		if (pathToSample != null) {
+			int fieldHeight = getFieldHeight(plateIdx, wellIdx, fieldIdx,
+					OUTPUT);
+			writeWholeCells_packed(hdfPath_out, pathToSample + "/Children/"
+					+ fieldIdx, cellList, fieldHeight);
+		} else
+			System.out.println("***Error*** Sample/Field does not exist!!!");
+	}
 
-			String pathMeta = pathToSample + "/Children/" + fieldIdx
-					+ "/Meta";
-			String pathData = "";
-			// String pathData = pathToSample + "/Children/" + fieldIdx +
-			// "/Data";
-			String pathChild = pathToSample + "/Children/" + fieldIdx
-					+ "/Children";
-
-			// Get the compartment names.
-			ArrayList<StringBuffer> comNames = new ArrayList<StringBuffer>();
-			for (int i = 0; i < cellList.size(); i++) {
-				ArrayList<StringBuffer> tmpComNames = new ArrayList<StringBuffer>();
-				for (int j = 0; j < cellList.get(i).getComSize(); j++) {
-					tmpComNames.add(new StringBuffer(cellList.get(i)
-							.getCompartment(j).getName()));
-				}
-				if (tmpComNames.size() > comNames.size()) {
-					comNames = tmpComNames;
-				}
+	/**
+	 * Writes the given cells to the packed coordinate layout of the field at
+	 * the given path, replacing any packed or per-cell coordinates already
+	 * there
+	 * 
+	 * @author Bjorn Millard
+	 */
+	private void writeWholeCells_packed(String h5Path, String pathToField,
+			ArrayList<CellCoordinates> cellList, int fieldHeight)
+			throws H5IO_Exception
+	{
+		String pathMeta = pathToField + "/Meta";
+		String pathPacked = pathToField + "/Data/packed_cells";
+
+		// Get the compartment names.
+		ArrayList<StringBuffer> comNames = new ArrayList<StringBuffer>();
+		for (int i = 0; i < cellList.size(); i++) {
+			ArrayList<StringBuffer> tmpComNames = new ArrayList<StringBuffer>();
+			for (int j = 0; j < cellList.get(i).getComSize(); j++) {
+				tmpComNames.add(new StringBuffer(cellList.get(i)
+						.getCompartment(j).getName()));
 			}
+			if (tmpComNames.size() > comNames.size()) {
+				comNames = tmpComNames;
+			}
+		}
+		if (cellList.size() == 0 || comNames.size() == 0)
+			return;
 
-			// Iterating through all cells and writing compartment coordinate
-			// data
-			if (cellList.size() > 0 && comNames.size() > 0) {
-				int fieldHeight = getFieldHeight(plateIdx, wellIdx, fieldIdx,
-						OUTPUT);
-
-				if (cellList.size() > 0 && comNames.size() > 0) {
-
-					// cell loop
-					for (int i = 0; i < cellList.size(); i++) {
-						// create cell folder
-						pathData = pathChild + "/" + i + "/Data";
-						io.createGroup(hdfPath_out, pathData);
-
-						// compartment loop
-						int numCom = cellList.get(i).getComSize();
-						for (int j = 0; j < numCom; j++) {
-							Point[] pt = cellList.get(i).getCompartment(j)
-									.getCoordinates();
-							if (pt.length > 0) {
-								int[] data = new int[pt.length];
-								for (int k = 0; k < pt.length; k++)
-									data[k] = IdxConverter.point2index(pt[k],
-											fieldHeight);
-
-								// writing compartments into cell/data folder to
-								// improve performance rather than
-								// creating an entirely new tier
-								String compartmentName = cellList.get(i).getCompartment(j).getName();
-								String dsPath = pathData + "/coords_"
-										+ compartmentName;
-
-
-								io.writeDataset(hdfPath_out, dsPath, data);
-								io.writeAttribute(dsPath, "dim0",
-										"index");
-
-							}
-						}
-						// Write compartment names.
-						io.writeStringDataset(pathMeta + "/compartment_names",
-								(StringBuffer[]) comNames
-										.toArray(new StringBuffer[0]));
-
-					}
-
-					// Write cell count
-					int[] cellCount = new int[] { cellList.size() };
-					io.writeDataset(hdfPath_out, pathMeta + "/cell_count",
-							cellCount);
-
-					// io.createDataset(pathMeta + "/cell_count",
-					// "Integer", new long[] { 1 });
-					// io.writeAttribute(pathMeta + "/cell_count",
-					// "dataType", "H5T_NATIVE_INT");
-					// DataObject cellCount = new Data_1D<Integer>(
-					// new Integer[] { cellList.size() }, Data_1D.INTEGER,
-					// "cell_count");
-					// io.writeArray(pathMeta + "/cell_count",
-					// cellCount, 0, new long[] { 0 });
+		// Removing old coordinates so readers never see a mix of layouts
+		if (io.existsGroup(h5Path, pathToField + "/Children"))
+			io.removeDataset(pathToField + "/Children");
+		if (io.existsGroup(h5Path, pathPacked))
+			io.removeDataset(pathPacked);
+		io.createGroup(h5Path, pathPacked);
+
+		int numCells = cellList.size();
+		int numCom = comNames.size();
+		for (int j = 0; j < numCom; j++) {
+			String comName = comNames.get(j).toString();
+
+			// First pass computes the offsets, second fills the index array
+			int[] offsets = new int[numCells + 1];
+			for (int i = 0; i < numCells; i++) {
+				Point[] pt = cellList.get(i).getComCoordinates(comName);
+				offsets[i + 1] = offsets[i] + (pt == null ? 0 : pt.length);
+			}
+			int total = offsets[numCells];
+			if (total > 0) {
+				int[] data = new int[total];
+				for (int i = 0; i < numCells; i++) {
+					Point[] pt = cellList.get(i).getComCoordinates(comName);
+					int start = offsets[i];
+					for (int k = 0; k < offsets[i + 1] - start; k++)
+						data[start + k] = IdxConverter.point2index(pt[k],
+								fieldHeight);
 				}
+				String dsPath = pathPacked + "/coords_" + comName;
+				io.writeDataset(h5Path, dsPath, data);
+				io.writeAttribute(dsPath, "dim0", "index");
+			}
+			String offPath = pathPacked + "/offsets_" + comName;
+			io.writeDataset(h5Path, offPath, offsets);
+			io.writeAttribute(offPath, "dim0", "cell");
+		}
 
-				// System.out.println("Done writing whole cells: "
-				// + ((System.currentTimeMillis() - time) / 1000f));
+		// Write compartment names.
+		io.writeStringDataset(pathMeta + "/compartment_names",
+				comNames.toArray(new StringBuffer[0]));
 
-			}
-		} else
-			System.out.println("***Error*** Sample/Field does not exist!!!");
+		// Write cell count
+		int[] cellCount = new int[] { numCells };
+		io.writeDataset(h5Path, pathMeta + "/cell_count", cellCount);
 	}
 
 	/**
-	 * Read whole cells of a field.
+	 * Read whole cells of a field. Fields written in the packed layout are read
+	 * with one dataset read per compartment; older projects storing one group
+	 * per cell are still read the old way.
 	 * 
 	 * @author Bjorn Millard
 	 * @param int plateIdx Index of the plate.
@@ -1080,69 +1317,236 @@ public class ImageRail_SDCube
 		String pathToSample = hashtable_indexToPath_in.get(getIndexKey(
 				plateIdx,
 				wellIdx));
-		ArrayList<CellCoordinates> cellList = null;
-		if (pathToSample != null) {
+		if (pathToSample == null)
+			return null;
 
-			String pathMeta = pathToSample + "/Children/" + fieldIdx
-					+ "/Meta";
-			String pathData = "";// pathToSample + "/Children/" + fieldIdx +
-									// "/Data";
-			int fieldHeight = getFieldHeight(plateIdx, wellIdx, fieldIdx, INPUT);
+		String pathToField = pathToSample + "/Children/" + fieldIdx;
+		int fieldHeight = getFieldHeight(plateIdx, wellIdx, fieldIdx, INPUT);
+		if (hasPackedCells(hdfPath_in, pathToField))
+			return readWholeCells_packed(hdfPath_in, pathToField, fieldHeight);
+		return readWholeCells_perCell(hdfPath_in, pathToField, fieldHeight);
+	}
 
-			// Add dimension names
-			if (io.existsDataset(pathMeta + "/compartment_names")
-					&& io.existsDataset(pathMeta + "/cell_count")) {
+	/**
+	 * Reads a single cell of a field without touching the other cells. Only
+	 * available for fields stored in the packed layout; returns null
+	 * otherwise.
+	 * 
+	 * @author Bjorn Millard
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @param int fieldIdx Index of the field.
+	 * @param int cellIdx Index of the cell within the field.
+	 * @return CellCoordinates
+	 * @throws H5IO_Exception
+	 */
+	public synchronized CellCoordinates readWholeCell(int plateIdx,
+			int wellIdx, int fieldIdx, int cellIdx) throws H5IO_Exception
+	{
+		String pathToSample = hashtable_indexToPath_in.get(getIndexKey(
+				plateIdx,
+				wellIdx));
+		if (pathToSample == null)
+			return null;
 
-				cellList = new ArrayList<CellCoordinates>();
-				// Get cell count
-				DataObject dataArray = io.readDataset(hdfPath_in, pathMeta
-						+ "/cell_count");
+		String pathToField = pathToSample + "/Children/" + fieldIdx;
+		if (!hasPackedCells(hdfPath_in, pathToField))
+			return null;
+		int fieldHeight = getFieldHeight(plateIdx, wellIdx, fieldIdx, INPUT);
+		String pathPacked = pathToField + "/Data/packed_cells";
+		StringBuffer[] comNames = io.readDataset_String(hdfPath_in,
+				pathToField + "/Meta/compartment_names");
+
+		ArrayList<CellCompartment> comArray = new ArrayList<CellCompartment>();
+		for (int j = 0; j < comNames.length; j++) {
+			String comName = comNames[j].toString().trim();
+			// Two offsets bound this cell, then one hyperslab of the indices
+			int[] range = ((Data_Int) io.readPrimitive(pathPacked
+					+ "/offsets_" + comName, new long[] { cellIdx },
+					new long[] { 2 })).getData();
+			int start = range[0];
+			int len = range[1] - start;
+			if (len > 0) {
+				int[] idx = ((Data_Int) io.readPrimitive(pathPacked
+						+ "/coords_" + comName, new long[] { start },
+						new long[] { len })).getData();
+				Point[] pts = new Point[len];
+				for (int k = 0; k < len; k++)
+					pts[k] = IdxConverter.index2point(idx[k], fieldHeight);
+				comArray.add(new CellCompartment(pts, comName));
+			}
+		}
+		return new CellCoordinates(comArray);
+	}
 
-				Integer[] cellCount = (Integer[]) ((Data_1D) dataArray)
-						.getData();
-				// Read compartment names
+	/**
+	 * Returns true if the field at the given path stores its cells in the
+	 * packed layout
+	 * 
+	 * @author Bjorn Millard
+	 */
+	private boolean hasPackedCells(String h5Path, String pathToField)
+			throws H5IO_Exception {
+		return io.existsGroup(h5Path, pathToField + "/Data/packed_cells");
+	}
 
-				StringBuffer[] comNames = io.readDataset_String(hdfPath_in,
-						pathMeta + "/compartment_names");
-				
-				// cell loop
-				for (int i = 0; i < cellCount[0]; i++) {
-					ArrayList<CellCompartment> comArray = new ArrayList<CellCompartment>();
-					// compartment loop
-					int numCom = comNames.length;
-					for (int j = 0; j < numCom; j++) {
-						String comPath = pathToSample + "/Children/" + fieldIdx
-								+ "/Children/" + i + "/Data/coords_"
-								+ comNames[j].toString().trim();
-						if (io.existsDataset(comPath)) {
-							// dim0 = index
-							long[] counts = io.getDimensions(comPath);
-							DataObject data = io.readDataset(hdfPath_in,
-									comPath);
-							Integer[] idx = (Integer[]) ((Data_1D) data)
-									.getData();
-
-							// point loop
-							ArrayList<Point> coordinates = new ArrayList<Point>();
-							for (int k = 0; k < idx.length; k++) {
-								coordinates.add(IdxConverter.index2point(
-										idx[k], fieldHeight));
-							}
-							comArray.add(new CellCompartment(coordinates,
-									comNames[j].toString().trim()));
-						}
-					}
-					CellCoordinates cell = new CellCoordinates(comArray);
-					cellList.add(cell);
+	/**
+	 * Reads all cells of a field stored in the packed layout
+	 * 
+	 * @author Bjorn Millard
+	 */
+	private ArrayList<CellCoordinates> readWholeCells_packed(String h5Path,
+			String pathToField, int fieldHeight) throws H5IO_Exception
+	{
+		String pathMeta = pathToField + "/Meta";
+		String pathPacked = pathToField + "/Data/packed_cells";
+		if (!io.existsDataset(pathMeta + "/compartment_names")
+				|| !io.existsDataset(pathMeta + "/cell_count"))
+			return null;
 
+		Integer[] cellCount = (Integer[]) ((Data_1D) io.readDataset(h5Path,
+				pathMeta + "/cell_count")).getData();
+		int numCells = cellCount[0].intValue();
+		StringBuffer[] comNames = io.readDataset_String(h5Path, pathMeta
+				+ "/compartment_names");
+		int numCom = comNames.length;
+
+		ArrayList<ArrayList<CellCompartment>> comArrays = new ArrayList<ArrayList<CellCompartment>>();
+		for (int i = 0; i < numCells; i++)
+			comArrays.add(new ArrayList<CellCompartment>());
+
+		for (int j = 0; j < numCom; j++) {
+			String comName = comNames[j].toString().trim();
+			String offPath = pathPacked + "/offsets_" + comName;
+			String dsPath = pathPacked + "/coords_" + comName;
+			if (!io.existsDataset(offPath) || !io.existsDataset(dsPath))
+				continue;
+			int[] offsets = ((Data_Int) io.readPrimitive(offPath)).getData();
+			int[] idx = ((Data_Int) io.readPrimitive(dsPath)).getData();
+			for (int i = 0; i < numCells; i++) {
+				int start = offsets[i];
+				int len = offsets[i + 1] - start;
+				if (len > 0) {
+					Point[] pts = new Point[len];
+					for (int k = 0; k < len; k++)
+						pts[k] = IdxConverter.index2point(idx[start + k],
+								fieldHeight);
+					comArrays.get(i).add(new CellCompartment(pts, comName));
 				}
 			}
-
 		}
 
+		ArrayList<CellCoordinates> cellList = new ArrayList<CellCoordinates>();
+		for (int i = 0; i < numCells; i++)
+			cellList.add(new CellCoordinates(comArrays.get(i)));
 		return cellList;
+	}
+
+	/**
+	 * Reads all cells of a field stored in the original layout with one group
+	 * and one dataset per compartment for every cell
+	 * 
+	 * @author Bjorn Millard
+	 */
+	private ArrayList<CellCoordinates> readWholeCells_perCell(String h5Path,
+			String pathToField, int fieldHeight) throws H5IO_Exception
+	{
+		String pathMeta = pathToField + "/Meta";
+		ArrayList<CellCoordinates> cellList = null;
+
+		// Add dimension names
+		if (io.existsDataset(pathMeta + "/compartment_names")
+				&& io.existsDataset(pathMeta + "/cell_count")) {
+
+			cellList = new ArrayList<CellCoordinates>();
+			// Get cell count
+			DataObject dataArray = io.readDataset(h5Path, pathMeta
+					+ "/cell_count");
 
+			Integer[] cellCount = (Integer[]) ((Data_1D) dataArray)
+					.getData();
+			// Read compartment names
+
+			StringBuffer[] comNames = io.readDataset_String(h5Path,
+					pathMeta + "/compartment_names");
+
+			// cell loop
+			for (int i = 0; i < cellCount[0]; i++) {
+				ArrayList<CellCompartment> comArray = new ArrayList<CellCompartment>();
+				// compartment loop
+				int numCom = comNames.length;
+				for (int j = 0; j < numCom; j++) {
+					String comPath = pathToField + "/Children/" + i
+							+ "/Data/coords_" + comNames[j].toString().trim();
+					if (io.existsDataset(comPath)) {
+						// dim0 = index
+						DataObject data = io.readDataset(h5Path, comPath);
+						Integer[] idx = (Integer[]) ((Data_1D) data)
+								.getData();
+
+						// point loop
+						ArrayList<Point> coordinates = new ArrayList<Point>();
+						for (int k = 0; k < idx.length; k++) {
+							coordinates.add(IdxConverter.index2point(
+									idx[k], fieldHeight));
+						}
+						comArray.add(new CellCompartment(coordinates,
+								comNames[j].toString().trim()));
+					}
+				}
+				CellCoordinates cell = new CellCoordinates(comArray);
+				cellList.add(cell);
+
+			}
+		}
+		return cellList;
+	}
 
+	/**
+	 * Converts every field of the output project that still stores its cells
+	 * as one group per cell into the packed layout. Fields already packed are
+	 * left alone. Note that HDF5 does not reclaim the space of the removed
+	 * groups; run h5repack on the file afterwards to shrink it.
+	 * 
+	 * @author Bjorn Millard
+	 * @return int number of fields converted
+	 * @throws H5IO_Exception
+	 */
+	public int migrateWholeCellsToPacked() throws H5IO_Exception
+	{
+		int numConverted = 0;
+		try {
+			beginSession(OUTPUT);
+			String[] gNames = io.getGroupChildNames(hdfPath_out, "./Children");
+			int numSamples = gNames == null ? 0 : gNames.length;
+			for (int i = 0; i < numSamples; i++) {
+				String pathToSample = "./Children/" + gNames[i];
+				int numFields = io.getGroupChildCount(hdfPath_out,
+						pathToSample + "/Children");
+				for (int j = 0; j < numFields; j++) {
+					String pathToField = pathToSample + "/Children/" + j;
+					if (hasPackedCells(hdfPath_out, pathToField)
+							|| !io.existsGroup(hdfPath_out, pathToField
+									+ "/Children"))
+						continue;
+
+					int fieldHeight = readFieldHeight(hdfPath_out, pathToField);
+					ArrayList<CellCoordinates> cells = readWholeCells_perCell(
+							hdfPath_out, pathToField, fieldHeight);
+					if (cells != null && cells.size() > 0) {
+						writeWholeCells_packed(hdfPath_out, pathToField,
+								cells, fieldHeight);
+						numConverted++;
+					}
+				}
+				io.checkpoint();
+			}
+			endSession();
+		} catch (H5IO_Exception e) {
+			abortSession();
+			throw e;
+		}
+		return numConverted;
 	}
 
 	/**
@@ -1438,18 +1842,11 @@ public class ImageRail_SDCube
 			int fieldIdx)
 			throws H5IO_Exception {
 
-		ArrayList<Cell> cells = new ArrayList<Cell>();
-		
 		float[][] vals = readFeatures(plateIdx, wellIdx, fieldIdx);
 		ArrayList<CellCoordinates> coords = readCoordinates(plateIdx, wellIdx,
 				fieldIdx);
 		
-		int len = vals.length;
-		for (int i = 0; i < len; i++) 
-			cells.add(new Cell(i, coords.get(i), vals[i]));
-		
-
-		return cells;
+		return CellTable.fromRows(null, vals).createCells(coords);
 	}
 
 	/**
@@ -1514,27 +1911,93 @@ public class ImageRail_SDCube
 	}
 
 
-	public void openHDF5(int inputOrOutput) {
+	/**
+	 * Opens the input or output HDF5 file. Throws an H5IO_Exception if the file
+	 * cannot be opened, including when a session is open on the other file, so
+	 * the caller does not go on to read or write the wrong file.
+	 * 
+	 * @author BLM
+	 * @param int inputOrOutput
+	 * @throws H5IO_Exception
+	 */
+	public void openHDF5(int inputOrOutput) throws H5IO_Exception {
+		if (inputOrOutput == OUTPUT)
+			io.openHDF5(hdfPath_out);
+		else if (inputOrOutput == INPUT)
+			io.openHDF5(hdfPath_in);
+	}
+
+	public void closeHDF5() {
 		try {
-			if (inputOrOutput == OUTPUT)
-				io.openHDF5(hdfPath_out);
-			else if (inputOrOutput == INPUT)
-				io.openHDF5(hdfPath_in);
+			io.closeHDF5();
 		} catch (H5IO_Exception e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
-	public void closeHDF5() {
+	/**
+	 * Opens the input or output HDF5 file for a batch of writes/reads. While
+	 * the session is open, the openHDF5()/closeHDF5() pairs inside the
+	 * individual read/write methods do not re-open or flush the file; it is
+	 * only flushed at checkpoint() calls and closed by endSession().
+	 * 
+	 * @author BLM
+	 * @param int inputOrOutput
+	 * @throws H5IO_Exception
+	 */
+	public void beginSession(int inputOrOutput) throws H5IO_Exception {
+		if (inputOrOutput == OUTPUT)
+			io.beginSession(hdfPath_out);
+		else if (inputOrOutput == INPUT)
+			io.beginSession(hdfPath_in);
+	}
+
+	/**
+	 * Ends the session started with beginSession(), closing the file
+	 * 
+	 * @author BLM
+	 * @throws H5IO_Exception
+	 */
+	public void endSession() throws H5IO_Exception {
+		io.endSession();
+	}
+
+	/**
+	 * Closes the file no matter how many sessions are open; call on failure
+	 * 
+	 * @author BLM
+	 */
+	public void abortSession() {
 		try {
-			io.closeHDF5();
+			io.abortSession();
 		} catch (H5IO_Exception e) {
-			// TODO Auto-generated catch block
+			System.out.println("**ERROR closing HDF5 file after failure");
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Marks the end of a unit of work within a session, flushing the file every
+	 * N checkpoints as set by setCheckpointInterval()
+	 * 
+	 * @author BLM
+	 * @throws H5IO_Exception
+	 */
+	public void checkpoint() throws H5IO_Exception {
+		io.checkpoint();
+	}
+
+	/**
+	 * Sets the number of checkpoints between flushes; 0 flushes only when the
+	 * session ends
+	 * 
+	 * @author BLM
+	 */
+	public void setCheckpointInterval(int interval) {
+		io.setCheckpointInterval(interval);
+	}
+
 	/**
 	 * Writes meta-info about the parent plate (Size)
 	 * 
@@ -1560,6 +2023,104 @@ public class ImageRail_SDCube
 		
 	}
 
+	/**
+	 * Records in the output file that all data of the given field has been
+	 * written. Call it only after the field's features, coordinates and
+	 * parameters are stored so a crash before this point leaves the field
+	 * unmarked and it will be processed again.
+	 * 
+	 * @author BLM
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @param int fieldIdx Index of the field.
+	 * @param int numCells Number of cells found in the field
+	 * @throws H5IO_Exception
+	 */
+	public void markFieldComplete(int plateIdx, int wellIdx, int fieldIdx,
+			int numCells) throws H5IO_Exception
+	{
+		int[] in = { numCells };
+		io.writeDataset(hdfPath_out, COMPLETED_PATH + "/"
+				+ getIndexKey(plateIdx, wellIdx) + "f" + fieldIdx, in);
+	}
+
+	/**
+	 * Records in the output file that a well is finished, including its mean
+	 * and standard deviation values
+	 * 
+	 * @author BLM
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @throws H5IO_Exception
+	 */
+	public void markWellComplete(int plateIdx, int wellIdx)
+			throws H5IO_Exception
+	{
+		int[] in = { 1 };
+		io.writeDataset(hdfPath_out, COMPLETED_PATH + "/"
+				+ getIndexKey(plateIdx, wellIdx), in);
+	}
+
+	/**
+	 * Returns the keys of every field ("p0w12f3") and well ("p0w12") that was
+	 * marked complete in the output file
+	 * 
+	 * @author BLM
+	 * @return HashSet<String> keys
+	 */
+	public HashSet<String> readCompletionMarkers()
+	{
+		HashSet<String> keys = new HashSet<String>();
+		try {
+			openHDF5(OUTPUT);
+			String[] names = io.getGroupChildNames(hdfPath_out, COMPLETED_PATH);
+			if (names != null)
+				for (int i = 0; i < names.length; i++)
+					keys.add(names[i]);
+		} catch (H5IO_Exception e) {
+			System.out.println("**Error reading completion markers from: "
+					+ hdfPath_out);
+			e.printStackTrace();
+		}
+		closeHDF5();
+		return keys;
+	}
+
+	/**
+	 * Reads the feature values of a field from the output file, which must
+	 * already be open (for example within a session). Used to pick up fields
+	 * that were finished by an earlier, interrupted run.
+	 * 
+	 * @author BLM
+	 * @param int plateIdx Index of the plate.
+	 * @param int wellIdx Index of the well.
+	 * @param int fieldIdx Index of the field.
+	 * @return float[][] cells x features, or null if not stored
+	 */
+	public synchronized float[][] readFeatures_output(int plateIdx,
+			int wellIdx, int fieldIdx)
+	{
+		String pathToField = hashtable_indexToPath_out.get(getIndexKey(
+				plateIdx, wellIdx)
+				+ "f" + fieldIdx);
+		if (pathToField == null)
+			return null;
+		String path = pathToField + "/Data/feature_values";
+		try {
+			if (!io.existsDataset(path))
+				return null;
+			Data_Primitive values = io.readPrimitive(path);
+			if (values instanceof Data_Float)
+				return ((Data_Float) values).toMatrix();
+			System.out.println("**Error: feature values are not stored as floats: "
+					+ path);
+		} catch (H5IO_Exception e) {
+			System.out.println("**Error: Faild to load feature values for path: "+path);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	/**
 	 * Writes plate name to HDF file
 	 * 
@@ -1619,12 +2180,18 @@ public class ImageRail_SDCube
 	public void writePlateCountAndSizes(int plateCount, int plateSizes, int inputOrOutput)
 	{
 		String h5path = null;
-		if (inputOrOutput == INPUT) {
-			h5path = hdfPath_in;
-			openHDF5(INPUT);
-		} else if (inputOrOutput == OUTPUT) {
-			h5path = hdfPath_out;
-			openHDF5(OUTPUT);
+		try {
+			if (inputOrOutput == INPUT) {
+				h5path = hdfPath_in;
+				openHDF5(INPUT);
+			} else if (inputOrOutput == OUTPUT) {
+				h5path = hdfPath_out;
+				openHDF5(OUTPUT);
+			}
+		} catch (H5IO_Exception e) {
+			System.err.println("** ERROR writing PlateCount and PlateSizes");
+			e.printStackTrace();
+			return;
 		}
 		
 			//remove prior dataset
@@ -1655,18 +2222,18 @@ public class ImageRail_SDCube
 	public ArrayList<int[]> getPlateSizes(int inputOrOutput)
 	{
 		String h5path = null;
-		if (inputOrOutput == INPUT) {
-			h5path = hdfPath_in;
-			openHDF5(INPUT);
-		} else if (inputOrOutput == OUTPUT) {
-			h5path = hdfPath_out;
-			openHDF5(OUTPUT);
-		}
 
 		//looking at all samples to determine 1) how many plates there are based on sample's plateIDs, and then what the sizes of those plates are
 		ArrayList<int[]> idsAndSize = new ArrayList<int[]>();
 		// Searching all HDF5 samples
 		try {
+			if (inputOrOutput == INPUT) {
+				h5path = hdfPath_in;
+				openHDF5(INPUT);
+			} else if (inputOrOutput == OUTPUT) {
+				h5path = hdfPath_out;
+				openHDF5(OUTPUT);
+			}
 			
 			int plateCount = -1;
 			int plateSize = -1;
@@ -2190,21 +2757,16 @@ public class ImageRail_SDCube
 		System.out.println(pathOut);
 		System.out.println("********");
 		
-		for (int i = 0; i < pathsIn.length; i++) {
-
-			long time = System.currentTimeMillis();
-			System.out.println("**Merging: " + pathsIn[i]);
-			try {
-
-				SDCube sdc = new SDCube(pathsIn[i]);
-				sdc.load();
-				sdc.write(pathOut);
-
-			} catch (H5IO_Exception e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
-			System.out.println("dT: " + (System.currentTimeMillis() - time));
+		//Copying the samples group by group at the HDF5 level
+		String[] paths = new String[files.size()];
+		for (int i = 0; i < paths.length; i++)
+			paths[i] = files.get(i).getAbsolutePath();
+		try {
+			int num = new SDCube_Merge(pathOut).merge(paths);
+			System.out.println("Merged " + num + " samples");
+		} catch (H5IO_Exception e1) {
+			System.out.println("**ERROR merging SDCubes into: " + pathOut);
+			e1.printStackTrace();
 		}
 
 		System.out.println("**DONE WITH MERGE**");
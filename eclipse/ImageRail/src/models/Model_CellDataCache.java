@@ -0,0 +1,327 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package models;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the memory taken by cells loaded from the SDCube under a byte
+ * budget. Every field with cells in memory is registered here when they are
+ * read and touched whenever they are used; once the budget is exceeded the
+ * least recently used fields drop their cells. A dropped field reads them
+ * again from the HDF5 file the next time they are asked for, so callers see
+ * no difference except the time it takes.
+ * 
+ * Fields of wells pinned by an open plot, and fields with cells removed in
+ * memory that were not resaved yet, are never dropped.
+ * 
+ * @author BLM
+ */
+public class Model_CellDataCache
+{
+	static private Model_CellDataCache TheCache;
+
+	/** Memory use of one field's cells, as last measured */
+	static private class Entry
+	{
+		private Model_Field Field;
+		private Model_FieldCellRepository Repository;
+		private long Bytes;
+	}
+
+	private long MaxBytes;
+	private long BytesHeld;
+	/** Fields with cells in memory, least recently used first */
+	private LinkedHashMap<Model_Field, Entry> Entries;
+	/** The wells pinned by each owner (e.g. a plot) */
+	private IdentityHashMap<Object, Model_Well[]> PinOwners;
+	/** Number of owners pinning each well */
+	private IdentityHashMap<Model_Well, Integer> PinnedWells;
+	private long Hits;
+	private long Misses;
+	private long Evictions;
+
+	public Model_CellDataCache(long maxBytes)
+	{
+		MaxBytes = maxBytes;
+		Entries = new LinkedHashMap<Model_Field, Entry>(16, 0.75f, true);
+		PinOwners = new IdentityHashMap<Object, Model_Well[]>();
+		PinnedWells = new IdentityHashMap<Model_Well, Integer>();
+	}
+
+	/** Returns the cache shared by all fields of the program
+	 * @author BLM*/
+	static public synchronized Model_CellDataCache getCache()
+	{
+		if (TheCache == null)
+			TheCache = new Model_CellDataCache(getDefaultMaxBytes());
+		return TheCache;
+	}
+
+	/** Returns the default budget for cells in memory: half of the maximum heap,
+	 * or the number of megabytes given by the system property "imagerail.cellCacheMB"
+	 * @author BLM*/
+	static public long getDefaultMaxBytes()
+	{
+		long bytes = Runtime.getRuntime().maxMemory() / 2;
+		String prop = System.getProperty("imagerail.cellCacheMB");
+		if (prop != null)
+		{
+			try
+			{
+				bytes = Long.parseLong(prop.trim()) * 1024L * 1024L;
+			}
+			catch (NumberFormatException e)
+			{
+				System.out.println("**** WARNING: ignoring invalid imagerail.cellCacheMB value: "+prop);
+			}
+		}
+		return Math.max(0, bytes);
+	}
+
+	/** Sets the byte budget, dropping least recently used cells if it is now exceeded
+	 * @author BLM*/
+	public void setMaxBytes(long maxBytes)
+	{
+		ArrayList<Entry> victims;
+		synchronized (this)
+		{
+			MaxBytes = Math.max(0, maxBytes);
+			victims = findVictims(null);
+		}
+		evict(victims);
+	}
+
+	public synchronized long getMaxBytes()
+	{
+		return MaxBytes;
+	}
+
+	/** Returns the estimated bytes taken by the cells of all registered fields
+	 * @author BLM*/
+	public synchronized long getBytesHeld()
+	{
+		return BytesHeld;
+	}
+
+	/** Returns the number of fields with cells in memory
+	 * @author BLM*/
+	public synchronized int getNumFields()
+	{
+		return Entries.size();
+	}
+
+	/** Returns how many times cells already in memory were used
+	 * @author BLM*/
+	public synchronized long getHits()
+	{
+		return Hits;
+	}
+
+	/** Returns how many times cells had to be read from the HDF5 file
+	 * @author BLM*/
+	public synchronized long getMisses()
+	{
+		return Misses;
+	}
+
+	/** Returns how many times a field's cells were dropped to stay within the budget
+	 * @author BLM*/
+	public synchronized long getEvictions()
+	{
+		return Evictions;
+	}
+
+	/** Sets the hit, miss and eviction counters back to zero
+	 * @author BLM*/
+	public synchronized void resetCounters()
+	{
+		Hits = 0;
+		Misses = 0;
+		Evictions = 0;
+	}
+
+	/**
+	 * Registers the cells just read from the HDF5 file for the given field,
+	 * dropping least recently used cells of other fields if the budget is now
+	 * exceeded
+	 * 
+	 * @author BLM
+	 */
+	public void loaded(Model_Field field, Model_FieldCellRepository repository)
+	{
+		long bytes = repository.getBytes();
+		ArrayList<Entry> victims;
+		synchronized (this)
+		{
+			Misses++;
+			Entry entry = Entries.remove(field);
+			if (entry != null)
+				BytesHeld -= entry.Bytes;
+			entry = new Entry();
+			entry.Field = field;
+			entry.Repository = repository;
+			entry.Bytes = bytes;
+			Entries.put(field, entry);
+			BytesHeld += bytes;
+			victims = findVictims(field);
+		}
+		evict(victims);
+	}
+
+	/**
+	 * Marks the given field's cells as the most recently used and updates
+	 * their size, which grows as feature columns are loaded
+	 * 
+	 * @author BLM
+	 */
+	public void accessed(Model_Field field, Model_FieldCellRepository repository)
+	{
+		long bytes = repository.getBytes();
+		ArrayList<Entry> victims;
+		synchronized (this)
+		{
+			Entry entry = Entries.get(field);
+			if (entry == null || entry.Repository != repository)
+				return;
+			Hits++;
+			BytesHeld += bytes - entry.Bytes;
+			entry.Bytes = bytes;
+			victims = findVictims(field);
+		}
+		evict(victims);
+	}
+
+	/** Forgets the given field, whose cells were cleared from memory
+	 * @author BLM*/
+	public synchronized void removed(Model_Field field)
+	{
+		Entry entry = Entries.remove(field);
+		if (entry != null)
+			BytesHeld -= entry.Bytes;
+	}
+
+	/**
+	 * Keeps the cells of the given wells in memory until unpinWells() is
+	 * called with the same owner. Replaces any wells pinned earlier by that
+	 * owner.
+	 * 
+	 * @author BLM
+	 */
+	public synchronized void pinWells(Object owner, Model_Well[] wells)
+	{
+		unpin(owner);
+		if (wells == null)
+			return;
+		Model_Well[] copy = new Model_Well[wells.length];
+		System.arraycopy(wells, 0, copy, 0, wells.length);
+		PinOwners.put(owner, copy);
+		for (int i = 0; i < copy.length; i++)
+		{
+			Integer count = PinnedWells.get(copy[i]);
+			PinnedWells.put(copy[i], count == null ? 1 : count + 1);
+		}
+	}
+
+	/** Releases the wells pinned by the given owner
+	 * @author BLM*/
+	public void unpinWells(Object owner)
+	{
+		ArrayList<Entry> victims;
+		synchronized (this)
+		{
+			unpin(owner);
+			victims = findVictims(null);
+		}
+		evict(victims);
+	}
+
+	/** Returns true if the given well is pinned by any owner
+	 * @author BLM*/
+	public synchronized boolean isPinned(Model_Well well)
+	{
+		return PinnedWells.containsKey(well);
+	}
+
+	private void unpin(Object owner)
+	{
+		Model_Well[] wells = PinOwners.remove(owner);
+		if (wells == null)
+			return;
+		for (int i = 0; i < wells.length; i++)
+		{
+			Integer count = PinnedWells.get(wells[i]);
+			if (count == null || count <= 1)
+				PinnedWells.remove(wells[i]);
+			else
+				PinnedWells.put(wells[i], count - 1);
+		}
+	}
+
+	/**
+	 * Takes least recently used fields out of the cache until it is within
+	 * the budget, skipping the given field, pinned wells and modified cells.
+	 * Returns the entries taken out; their cells are dropped by evict() once
+	 * the lock on the cache is released.
+	 * 
+	 * @author BLM
+	 */
+	private ArrayList<Entry> findVictims(Model_Field keep)
+	{
+		ArrayList<Entry> victims = new ArrayList<Entry>();
+		if (BytesHeld <= MaxBytes)
+			return victims;
+		Iterator<Map.Entry<Model_Field, Entry>> it = Entries.entrySet()
+				.iterator();
+		while (BytesHeld > MaxBytes && it.hasNext())
+		{
+			Map.Entry<Model_Field, Entry> e = it.next();
+			Model_Field field = e.getKey();
+			Entry entry = e.getValue();
+			if (field == keep || entry.Repository.isModified()
+					|| PinnedWells.containsKey(field.getParentWell()))
+				continue;
+			it.remove();
+			BytesHeld -= entry.Bytes;
+			Evictions++;
+			victims.add(entry);
+		}
+		return victims;
+	}
+
+	private void evict(ArrayList<Entry> victims)
+	{
+		for (int i = 0; i < victims.size(); i++)
+			victims.get(i).Field.evictCells(victims.get(i).Repository);
+	}
+
+	public synchronized String toString()
+	{
+		return "Cell cache: " + Entries.size() + " fields, "
+				+ (BytesHeld / (1024 * 1024)) + "/"
+				+ (MaxBytes / (1024 * 1024)) + " MB, hits: " + Hits
+				+ ", misses: " + Misses + ", evictions: " + Evictions;
+	}
+}
@@ -34,6 +34,10 @@ import java.util.ArrayList;
 
 import sdcubeio.H5IO_Exception;
 import segmentedobject.Cell;
+import segmentedobject.CellTable;
+import tools.FeatureStatistics;
+import tools.FieldHistogram;
+import tools.FieldRaster;
 
 public class Model_Field {
 	private Model_Well parentWell;
@@ -42,8 +46,16 @@ public class Model_Field {
 	private ArrayList<Shape> ROIs;
 	private ArrayList<Boolean> ROIs_selected;
 	private Model_FieldCellRepository TheCellRepository;
+	/** Guards TheCellRepository and the eviction state; never held while calling the cell cache */
+	private final Object CellLock = new Object();
+	/** True if the cell cache dropped the cells, which are read again when next used */
+	private boolean CellsEvicted;
+	private boolean LoadedCoords;
+	private boolean LoadedDataVals;
 	private float[] backgroundValues;
 	private Model_ParameterSet TheParameterSet;
+	private FieldHistogram TheHistogram;
+	private FeatureStatistics TheStatistics;
 
 	public Model_Field(File[] imageFiles, int index, Model_Well parentWell_) {
 		parentWell = parentWell_;
@@ -272,25 +284,90 @@ public class Model_Field {
 
 	/**
 	 * Loads the cells from the HDF file on the hardrive into RAM if they exist
+	 * and registers them with the cell cache, which may later drop them again
+	 * to stay within its memory budget (see Model_CellDataCache)
 	 * 
 	 * @author BLM
 	 */
 	public void loadCells(ImageRail_SDCube io,
 			boolean loadCoords, boolean loadDataVals) {
-			try {
-				TheCellRepository = new Model_FieldCellRepository(this, io, loadCoords,
-						loadDataVals);
-			} catch (Exception e) {
-			// }
-			;
+		Model_FieldCellRepository repository = null;
+		synchronized (CellLock) {
+			repository = readCells(io, loadCoords, loadDataVals);
+			if (repository == null)
+				return;
+			TheCellRepository = repository;
+		}
+		// Anything removed from the earlier cells is back
+		setStatistics(null);
+		Model_CellDataCache.getCache().loaded(this, repository);
+	}
+
+	/** Reads this field's cells from the HDF file, or returns null if that fails
+	 * @author BLM*/
+	private Model_FieldCellRepository readCells(ImageRail_SDCube io,
+			boolean loadCoords, boolean loadDataVals) {
+		try {
+			Model_FieldCellRepository repository = new Model_FieldCellRepository(
+					this, io, loadCoords, loadDataVals);
+			CellsEvicted = false;
+			LoadedCoords = loadCoords;
+			LoadedDataVals = loadDataVals;
+			return repository;
+		} catch (Exception e) {
+			System.out.println("**** Error loading cells of field "
+					+ getIndexInWell() + " in well " + parentWell.name);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the cells in memory, reading them again from the HDF file if
+	 * the cell cache dropped them, and marks them as recently used
+	 * 
+	 * @author BLM
+	 */
+	private Model_FieldCellRepository getLoadedRepository() {
+		Model_FieldCellRepository repository;
+		boolean reloaded = false;
+		synchronized (CellLock) {
+			if (TheCellRepository == null && CellsEvicted) {
+				TheCellRepository = readCells(models.Model_Main.getModel()
+						.getH5IO(), LoadedCoords, LoadedDataVals);
+				CellsEvicted = false;
+				reloaded = TheCellRepository != null;
+			}
+			repository = TheCellRepository;
+		}
+		if (reloaded)
+			Model_CellDataCache.getCache().loaded(this, repository);
+		else if (repository != null)
+			Model_CellDataCache.getCache().accessed(this, repository);
+		return repository;
+	}
+
+	/**
+	 * Called by the cell cache to drop the given cells from memory. They are
+	 * not killed, so Cell objects still held elsewhere stay usable, and are
+	 * read again from the HDF file the next time they are asked for.
+	 * 
+	 * @author BLM
+	 */
+	void evictCells(Model_FieldCellRepository repository) {
+		synchronized (CellLock) {
+			if (TheCellRepository != repository)
+				return;
+			TheCellRepository = null;
+			CellsEvicted = true;
 		}
 	}
 
 	/** */
 	public void resaveCells(ImageRail_SDCube io) {
-
-		if (TheCellRepository != null)
-			TheCellRepository.resaveCells(io);
+		Model_FieldCellRepository repository = getLoadedRepository();
+		if (repository != null)
+			repository.resaveCells(io);
 	}
 
 	/**
@@ -301,20 +378,41 @@ public class Model_Field {
 	 * @author BLM
 	 */
 	public void killCells() {
-		if (TheCellRepository != null)
-			TheCellRepository.kill();
-		TheCellRepository = null;
+		Model_FieldCellRepository repository;
+		synchronized (CellLock) {
+			repository = TheCellRepository;
+			TheCellRepository = null;
+			CellsEvicted = false;
+		}
+		if (repository != null)
+			repository.kill();
+		Model_CellDataCache.getCache().removed(this);
 	}
 
 	/**
-	 * Returns all the cell feature values computed for all cells
+	 * Returns a [cell][feature] copy of the feature values computed for all
+	 * cells
 	 * 
 	 * @author BLM
 	 */
 	public float[][] getFeatureVals_all() {
-		if (TheCellRepository == null)
+		Model_FieldCellRepository repository = getLoadedRepository();
+		if (repository == null)
 			return null;
-		return TheCellRepository.getFeatureVals_all();
+		return repository.getFeatureVals_all();
+	}
+
+	/**
+	 * Returns the column-wise feature values of the loaded cells, or null if
+	 * there are none
+	 * 
+	 * @author BLM
+	 */
+	public CellTable getCellTable() {
+		Model_FieldCellRepository repository = getLoadedRepository();
+		if (repository == null)
+			return null;
+		return repository.getCellTable();
 	}
 	//	
 	// /** Returns all the cell coordinates for all cells
@@ -331,11 +429,12 @@ public class Model_Field {
 	 * 
 	 * @author BLM
 	 */
-	public synchronized ArrayList<Cell> getCells()
+	public ArrayList<Cell> getCells()
 	{
-		if(TheCellRepository==null)
+		Model_FieldCellRepository repository = getLoadedRepository();
+		if(repository==null)
 			return null;
-		return TheCellRepository.getCells();
+		return repository.getCells();
 	}
 	
 	/**
@@ -343,16 +442,21 @@ public class Model_Field {
 	 * 
 	 * @author BLM
 	 */
-	public synchronized Model_FieldCellRepository getCellRepository() {
-		return TheCellRepository;
+	public Model_FieldCellRepository getCellRepository() {
+		return getLoadedRepository();
 	}
 	
-	/** Returns whether any cells have been loaded into the RAM for this field
+	/** Returns whether any cells have been loaded into the RAM for this field, counting
+	 * cells the cell cache dropped but reads again when asked for
 	 * @author BLM*/
 	public boolean areCellsLoaded()
 	{
-		if (TheCellRepository != null && TheCellRepository.getCells() != null)
-			return true;
+		synchronized (CellLock) {
+			if (CellsEvicted)
+				return true;
+			if (TheCellRepository != null && TheCellRepository.getCells() != null)
+				return true;
+		}
 		return false;
 	}
 	
@@ -362,7 +466,9 @@ public class Model_Field {
 	{
 		int counter = 0;
 		Shape roi = getROIs().get(roiIndex);
-		ArrayList<Cell> cells = TheCellRepository.getCells();
+		ArrayList<Cell> cells = getCells();
+		if (cells == null)
+			return 0;
 		int numC = cells.size();
 		for (int i = 0; i < numC; i++)
 		{
@@ -394,6 +500,112 @@ public class Model_Field {
 
 	}
 
+	/**
+	 * Returns the running feature statistics of this field's cells: counted
+	 * from the cells in memory if all their feature columns are loaded, else
+	 * read from the projects HDF5 file (or counted after loading the columns
+	 * if none are stored there). They
+	 * are then kept up to date as cells are removed (see
+	 * Model_Well.purgeSelectedCellsAndRecomputeWellMeans()), even once the
+	 * cells themselves are cleared from memory. Returns null if there are no
+	 * cells.
+	 * 
+	 * @author BLM
+	 */
+	public synchronized FeatureStatistics getStatistics() {
+		if (TheStatistics != null)
+			return TheStatistics;
+		// Counting from memory only if that does not mean reading every
+		// feature column just for this
+		CellTable table = getCellTable();
+		if (table != null && table.isFullyLoaded())
+			TheStatistics = FeatureStatistics.ofColumns(table.getColumns(),
+					table.getNumCells());
+		else {
+			ImageRail_SDCube io = models.Model_Main.getModel().getImageRailio();
+			if (io != null) {
+				synchronized (io) {
+					try {
+						io.openHDF5(ImageRail_SDCube.INPUT);
+						try {
+							TheStatistics = io.readFeatureStatistics(
+									getParentWell().getPlate().getID(),
+									getParentWell().getWellIndex(),
+									getIndexInWell(), ImageRail_SDCube.INPUT);
+						} finally {
+							io.closeHDF5();
+						}
+					} catch (H5IO_Exception e) {
+						System.out.println("**Failed reading feature statistics of field: "
+								+ getIndexInWell());
+						e.printStackTrace();
+					}
+				}
+			}
+			if (TheStatistics == null && table != null)
+				TheStatistics = FeatureStatistics.ofColumns(
+						table.getColumns(), table.getNumCells());
+		}
+		return TheStatistics;
+	}
+
+	/**
+	 * Sets the feature statistics of this field's cells
+	 * 
+	 * @author BLM
+	 */
+	public synchronized void setStatistics(FeatureStatistics stats) {
+		TheStatistics = stats;
+	}
+
+	/**
+	 * Returns the pixel histograms of this field. They are read from the
+	 * projects HDF5 file if the field was processed, otherwise counted by
+	 * decoding the images once; either way they are then kept in memory.
+	 * Returns null if neither works.
+	 * 
+	 * @author BLM
+	 */
+	public synchronized FieldHistogram getHistogram() {
+		if (TheHistogram != null)
+			return TheHistogram;
+		ImageRail_SDCube io = models.Model_Main.getModel().getImageRailio();
+		if (io != null) {
+			try {
+				io.openHDF5(ImageRail_SDCube.INPUT);
+				try {
+					TheHistogram = FieldHistogram.fromMatrix(io
+							.readFieldHistograms(getParentWell().getPlate()
+									.getID(), getParentWell().getWellIndex(),
+									getIndexInWell()));
+				} finally {
+					io.closeHDF5();
+				}
+			} catch (H5IO_Exception e) {
+				System.out.println("**Failed reading pixel histograms of field: "
+						+ getIndexInWell());
+				e.printStackTrace();
+			}
+		}
+		if (TheHistogram == null && ImageFiles != null) {
+			FieldRaster raster = tools.ImageTools.getFieldRaster_FromFiles(
+					ImageFiles, models.Model_Main.getModel()
+							.getTheChannelNames());
+			if (raster != null)
+				TheHistogram = raster.getHistogram();
+		}
+		return TheHistogram;
+	}
+
+	/**
+	 * Sets the pixel histograms of this field
+	 * 
+	 * @author BLM
+	 */
+	public synchronized void setHistogram(FieldHistogram histogram) {
+		TheHistogram = histogram;
+	}
+
 	/**
 	 * Tries to load the parameter set from the projects HDF5 file
 	 * 
@@ -22,17 +22,20 @@ package models;
 
 
 /** This class is a temporary repository in the RAM for cells of one Model_Field that have been loaded from an HDF cache data file.
- * Included here is both the Cell_coords (coordinates) and the float[][] data matrix values
+ * Included here is both the Cell_coords (coordinates) and the data values, held column-wise in a CellTable
+ * that the Cell objects are row views of
  *
  @author BLM*/
 import features.Feature;
 import imagerailio.ImageRail_SDCube;
+import imagerailio.Point;
 
 import java.util.ArrayList;
 
 import sdcubeio.H5IO_Exception;
 import segmentedobject.Cell;
 import segmentedobject.CellCoordinates;
+import segmentedobject.CellTable;
 
 public class Model_FieldCellRepository
 {
@@ -42,8 +45,12 @@ public class Model_FieldCellRepository
 	private int wellIndex;
 	private ArrayList<Cell> cells;
 	private ArrayList<CellCoordinates> cellCoords;
-	private float[][] dataValues;
+	private CellTable table;
 	private StringBuffer[] featureNames;
+	/** Rough memory taken by the cell objects and their coordinates */
+	private long cellBytes;
+	/** True once cells were removed in memory and not yet resaved to the HDF5 file */
+	private volatile boolean modified;
 	
 	public Model_FieldCellRepository(Model_Field field_, ImageRail_SDCube io,
 			boolean loadCoords, boolean loadDataVals)
@@ -55,33 +62,37 @@ public class Model_FieldCellRepository
 		
 		try
 		{
-			io.openHDF5(io.INPUT);
-			if (loadDataVals)
-				dataValues = io.readFeatures(plateIndex, wellIndex, field
-						.getIndexInWell());
-			if (loadCoords)
-				cellCoords = io.readCoordinates(plateIndex, wellIndex, field
+			// Only the reads hold the file; several fields may be loaded at
+			// once (see Model_Plate.CellLoader)
+			int[] dims = null;
+			synchronized (io) {
+				io.openHDF5(ImageRail_SDCube.INPUT);
+				if (loadDataVals)
+					dims = io.readFeatureDimensions(plateIndex, wellIndex,
+							field.getIndexInWell());
+				if (loadCoords)
+					cellCoords = io.readCoordinates(plateIndex, wellIndex,
+							field.getIndexInWell());
+				// Read feature names.
+				featureNames = io.readFeatureNames(plateIndex, wellIndex, field
 						.getIndexInWell());
+				io.closeHDF5();
+			}
 					
-			initCells(cellCoords, dataValues);
+			initCells(io, cellCoords, dims);
 
-			if (cellCoords != null && dataValues != null)
+			if (cellCoords != null && dims != null)
 				System.out.println("Loaded ---> Plate: " + plateIndex
 						+ "  Well: " + well_parent.name + " Field: "
 						+ field.getIndexInWell() + "   ||  cells:"
-						+ cells.size() + "  data_vals: " + dataValues.length
+						+ cells.size() + "  data_vals: " + dims[0]
 						+ " coords: " + cellCoords.size());
-			else if (dataValues != null)
+			else if (dims != null)
 				System.out.println("Loaded ---> Plate: " + plateIndex
 						+ "  Well: " + well_parent.name + "  Field: "
 						+ field.getIndexInWell() + "   ||  cells:"
-						+ cells.size() + "  data_vals: " + dataValues.length
+						+ cells.size() + "  data_vals: " + dims[0]
 						+ " coords:  null");
-			// Read feature names.
-			if (cells != null)
-				featureNames = io.readFeatureNames(plateIndex, wellIndex, field
-						.getIndexInWell());
-			io.closeHDF5();
 
 		}
 		catch (Exception e)
@@ -95,58 +106,90 @@ public class Model_FieldCellRepository
 	
 	/**
 	 * Once the cellCoordinates have been loaded, we can init the cell objects
-	 * that contain the coords
+	 * that contain the coords. dims holds {numCells, numFeatures} of the
+	 * stored feature values; the values themselves are only read from the
+	 * HDF5 file one feature column at a time, when first used.
 	 * 
 	 * @author BLM
 	 */
-	private void initCells(ArrayList<Integer> ids,
-			ArrayList<CellCoordinates> coords, float[][] dataValues) {
-
-		int num = 0;
-		if (coords != null)
-			num = coords.size();
-		else if (dataValues != null)
-			num = dataValues.length;
+	private void initCells(final ImageRail_SDCube io,
+			ArrayList<CellCoordinates> coords, int[] dims) {
 		cells = new ArrayList<Cell>();
-		// loaded both coords and data values
-		if (coords != null && dataValues != null)
-			for (int i = 0; i < num; i++) {
-				cells.add(new Cell(ids.get(i).intValue(), coords.get(i),
-						dataValues[i]));
-			}
-		// Didnt load the cell coordinates
-		else if (dataValues != null)
-			for (int i = 0; i < num; i++) {
-				cells.add(new Cell(ids.get(i).intValue(), null,
-						dataValues[i]));
-			}
+		table = null;
+		if (dims != null) {
+			CellTable.ColumnLoader loader = new CellTable.ColumnLoader() {
+				public float[][] loadColumns(int[] features) {
+					synchronized (io) {
+						try {
+							io.openHDF5(ImageRail_SDCube.INPUT);
+						} catch (H5IO_Exception e) {
+							e.printStackTrace();
+							return null;
+						}
+						float[][] columns = io.readFeatureColumns(plateIndex,
+								wellIndex, field.getIndexInWell(), features);
+						io.closeHDF5();
+						return columns;
+					}
+				}
+			};
+			table = new CellTable(CellTable.getIdentityIDs(dims[0]), dims[1],
+					loader);
+			cells = table.createCells(coords);
+		}
+		cellBytes = getCellBytes(cells.size(), coords);
 	}
 
 	/**
-	 * Once the cellCoordinates have been loaded, we can init the cell objects
-	 * that contain the coords
+	 * Estimates the memory taken by the given number of Cell objects and their
+	 * coordinates, counting each stored point as an object of its own
 	 * 
 	 * @author BLM
 	 */
-	private void initCells(ArrayList<CellCoordinates> coords,
-			float[][] dataValues) {
-
-		int num = 0;
-		if (coords != null)
-			num = coords.size();
-		else if (dataValues != null)
-			num = dataValues.length;
-		cells = new ArrayList<Cell>();
-		// loaded both coords and data values
-		if (coords != null && dataValues != null)
-			for (int i = 0; i < num; i++) {
-				cells.add(new Cell(i, coords.get(i), dataValues[i]));
-			}
-		// Didnt load the cell coordinates
-		else if (coords == null && dataValues != null)
-			for (int i = 0; i < num; i++) {
-				cells.add(new Cell(i, null, dataValues[i]));
+	static private long getCellBytes(int numCells,
+			ArrayList<CellCoordinates> coords) {
+		long bytes = 48L * numCells;
+		if (coords != null) {
+			int len = coords.size();
+			for (int i = 0; i < len; i++) {
+				CellCoordinates cell = coords.get(i);
+				if (cell == null)
+					continue;
+				bytes += 48;
+				int numCom = cell.getComSize();
+				for (int j = 0; j < numCom; j++) {
+					Point[] pts = cell.getComCoordinates(j);
+					if (pts != null)
+						bytes += 32L * pts.length;
+				}
 			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns roughly how many bytes of memory the cells held here currently
+	 * take, including any feature columns loaded so far
+	 * 
+	 * @author BLM
+	 */
+	public long getBytes() {
+		long bytes = cellBytes;
+		CellTable t = table;
+		if (t != null)
+			bytes += t.getLoadedBytes();
+		return bytes;
+	}
+
+	/**
+	 * Returns true if cells were removed from this repository since it was
+	 * read from (or last resaved to) the HDF5 file, so it cannot simply be
+	 * dropped and read again
+	 * 
+	 * @author BLM
+	 */
+	public boolean isModified() {
+		return modified;
 	}
 
 
@@ -184,7 +227,7 @@ public class Model_FieldCellRepository
 				cells.get(i).kill();
 		}
 		cellCoords = null;
-		dataValues = null;
+		table = null;
 	}
 	
 	/** Returns the indexed names of the features that this dataset contains
@@ -201,12 +244,25 @@ public class Model_FieldCellRepository
 	// return dataValues[indexOfCell];
 	// }
 	/**
-	 * Returns all the data values for the features computed
+	 * Returns a [cell][feature] copy of all the data values for the features
+	 * computed. Use getCellTable() to read them without copying.
 	 * 
 	 * @author BLM
 	 */
 	public float[][] getFeatureVals_all() {
-		return dataValues;
+		if (table == null)
+			return null;
+		return table.toRows();
+	}
+
+	/**
+	 * Returns the column-wise data values of the cells, or null if none were
+	 * loaded
+	 * 
+	 * @author BLM
+	 */
+	public CellTable getCellTable() {
+		return table;
 	}
 	
 	/**
@@ -237,6 +293,10 @@ public class Model_FieldCellRepository
 		{
 
 
+			// Reading any feature columns not loaded yet before the field is rewritten
+			if (table != null)
+				table.getColumns();
+
 			if (cells != null && cells.size() > 0)
  {
 				// Need to read in the coordinates for the cells left so we
@@ -273,12 +333,12 @@ public class Model_FieldCellRepository
 			}
 
 			//Writing the feature values
-			if (dataValues != null && dataValues.length > 0) {
+			if (table != null && table.getNumCells() > 0) {
 				io.openHDF5(io.OUTPUT);
 
 				io.writeFeatures(plateIndex, wellIndex,
  field.getIndexInWell(),
-						dataValues);
+						table.toRows());
 
 				// Writing the feature names to file
 				Feature[] features = models.Model_Main.getModel().getFeatures();
@@ -288,15 +348,16 @@ public class Model_FieldCellRepository
 				io.writeFeatureNames(plateIndex, wellIndex, field
 						.getIndexInWell(), fNames);
 				io.closeHDF5();
+				modified = false;
 
 			} else {
 				System.out
-						.println("**Error trying to resave cells:  DataValue Array:  "
-								+ dataValues);
-				if (dataValues != null)
+						.println("**Error trying to resave cells:  DataValue Table:  "
+								+ table);
+				if (table != null)
 					System.out
-							.println("**Error NumCells in DataVal Array:  DataValues.length:  "
-									+ dataValues.length);
+							.println("**Error NumCells in DataVal Table:  NumCells:  "
+									+ table.getNumCells());
 
 			}
 		}
@@ -337,18 +398,18 @@ public class Model_FieldCellRepository
 
 	/** */
 	
-	/** Manually set the data
+	/** Manually set the data, where coords_ (if not null) holds one entry per cell of the table
 	 * @author BLM*/
-	public void setCellData(ArrayList<Integer> ids,
-			ArrayList<CellCoordinates> coords_, float[][] vals)
+	public void setCellData(CellTable table_,
+			ArrayList<CellCoordinates> coords_)
 	{
 		kill();
 		cellCoords = coords_;
-		dataValues = vals;
-		initCells(ids, cellCoords, dataValues);
-
+		table = table_;
+		cells = table.createCells(cellCoords);
+		cellBytes = getCellBytes(cells.size(), cellCoords);
+		modified = true;
 	}
 	
 	
 }
-
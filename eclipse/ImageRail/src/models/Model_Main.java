@@ -542,7 +542,13 @@ TheInputProjectPath);
 	 * @author Bjorn Millard
 	 * */
 	public void loadFieldROIs() {
-		TheImageRail_H5IO.openHDF5(TheImageRail_H5IO.INPUT);
+		try {
+			TheImageRail_H5IO.openHDF5(ImageRail_SDCube.INPUT);
+		} catch (H5IO_Exception e) {
+			System.out.println("**Failed to open the HDF5 file to load ROIs");
+			e.printStackTrace();
+			return;
+		}
 		String h5path = TheInputProjectPath + File.separator
 				+ "Data.h5";
 		// Iterating through all fields and checking if they have ROIs to load
@@ -1242,7 +1248,15 @@ TheInputProjectPath);
 							e.printStackTrace();
 						}
 
-						io.openHDF5(io.OUTPUT);
+						try {
+							io.openHDF5(ImageRail_SDCube.OUTPUT);
+						} catch (H5IO_Exception e) {
+							System.out
+									.println("**Error opening the HDF5 file to resave well means of: "
+											+ well.name);
+							e.printStackTrace();
+							continue;
+						}
 						if (well.Feature_Means != null && io != null) {
 							io.writeWellMeans(plates[i].getPlateIndex(),
 									well.getWellIndex(), well.Feature_Means);
@@ -31,6 +31,8 @@ import sdcubeio.H5IO_Exception;
 public class Model_ParameterSet {
 	// Hash of all ParameterNames-->ParameterValue(encoded as String)
 	private Hashtable<String, String> TheParameters;
+	// Typed snapshot of TheParameters, rebuilt after any change
+	private volatile SegmentationParameters Compiled;
 
 	public Model_ParameterSet() {
 		TheParameters = new Hashtable<String, String>();
@@ -136,6 +138,24 @@ public class Model_ParameterSet {
 	public void setParameter(String name, String val) {
 		// System.out.println(name + " , " + val);
 		TheParameters.put(name.trim(), val.trim());
+		Compiled = null;
+	}
+
+	/**
+	 * Returns the typed snapshot of the segmentation parameters, parsing them
+	 * on the first call after any change. Throws an IllegalArgumentException if
+	 * a numeric parameter cannot be parsed.
+	 * 
+	 * @author BLM
+	 * @return SegmentationParameters snapshot
+	 */
+	public SegmentationParameters compile() {
+		SegmentationParameters compiled = Compiled;
+		if (compiled == null) {
+			compiled = new SegmentationParameters(this);
+			Compiled = compiled;
+		}
+		return compiled;
 	}
 
 	/**
@@ -387,11 +407,20 @@ public boolean getParameter_boolean(String name) {
 	public void load(String H5Path, String pathToParentDir) {
 		ImageRail_SDCube io = models.Model_Main.getModel()
 .getImageRailio();
-		io.openHDF5(io.INPUT);
+		try {
+			io.openHDF5(ImageRail_SDCube.INPUT);
+		} catch (H5IO_Exception e) {
+			System.out.println("**Failed to load the parameter set at: "
+					+ pathToParentDir);
+			e.printStackTrace();
+			return;
+		}
 		Hashtable<String, String> hash = io.readParameterSet(H5Path,
 				pathToParentDir);
-		if (hash != null)
+		if (hash != null) {
 			TheParameters = hash;
+			Compiled = null;
+		}
 		io.closeHDF5();
 	}
 }
@@ -26,11 +26,17 @@ import imagerailio.ImageRail_SDCube;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import sdcubeio.ExpDesign_Description;
 import sdcubeio.ExpDesign_IO;
 import sdcubeio.H5IO_Exception;
+import tools.FeatureRangeIndex;
+import tools.FeatureStatistics;
 
 
 /**
@@ -52,10 +58,14 @@ public class Model_Plate
 	private int NumRows;
 	/** Number of Columns of Wells */
 	private int NumCols;
-	/** Stores the min/max Feature values for all wells - TODO move this to each well*/
-	private float[][] MinMaxFeatureValues;
-	/** Stores the log min/max Feature values for all wells - TODO move htis to each well*/
-	private float[][] MinMaxFeatureValues_log;
+	/** Per-well min/max of the loaded cell Feature values, merged into the plate min/max*/
+	private FeatureRangeIndex CellRanges;
+	/** Per-well log min/max of the loaded cell Feature values, merged into the plate log min/max*/
+	private FeatureRangeIndex CellRanges_log;
+	/** Per-well Feature means, merged into their plate min/max for the heatmap*/
+	private FeatureRangeIndex MeanRanges;
+	/** Per-well Feature CVs, merged into their plate min/max for the heatmap*/
+	private FeatureRangeIndex CVRanges;
 	/** Number of Gaussians to fit to each mini-histogram*/
 	private int FitGaussian;
 	/** List of all MIDAS treatments */
@@ -167,6 +177,21 @@ public class Model_Plate
 	 * @author BLM*/
 	static public void loadCellData(Model_Plate[] allPlates, boolean loadCoords,
 			boolean loadDataVals)
+	{
+		loadCellData(allPlates, loadCoords, loadDataVals, null);
+	}
+
+	/**
+	 * Loads the cells of all selected wells in the background, as
+	 * loadCellData() does, telling the given listener (if not null) about
+	 * each well as soon as it is loaded. Returns the loader, which can be
+	 * stopped.
+	 * 
+	 * @author BLM
+	 */
+	static public CellLoader loadCellData(Model_Plate[] allPlates,
+			boolean loadCoords, boolean loadDataVals,
+			CellLoader.Listener listener)
 	{
 		ArrayList<Model_Well> selectedWells = new ArrayList<Model_Well>();
 		for (int p = 0; p < allPlates.length; p++)
@@ -177,7 +202,10 @@ public class Model_Plate
 		
 		CellLoader loader = new CellLoader(selectedWells, loadCoords,
 				loadDataVals);
+		if (listener != null)
+			loader.addListener(listener);
 		loader.start();
+		return loader;
 	}
 	
 
@@ -386,6 +414,7 @@ public class Model_Plate
 		float[] arr = new float[2];
 		arr[0] = Float.POSITIVE_INFINITY;
 		arr[1] = Float.NEGATIVE_INFINITY;
+		int fIndex = models.Model_Main.getModel().getTheSelectedFeature_Index();
 		
 		if (normalizeAcrossAllPlates)
 		{
@@ -393,74 +422,37 @@ public class Model_Plate
 					.getModel().getPlates();
 			int numPlates = thePlates.length;
 			for (int p = 0; p < numPlates; p++)
-			{
-				Model_Plate plate = thePlates[p];
-				for (int r = 0; r < plate.NumRows; r++)
-					for (int c = 0; c < plate.NumCols; c++)
-						if (plate.TheWells[r][c].Feature_Means != null && tools.MathOps.sum(plate.TheWells[r][c].Feature_Means)!=0 && plate.TheWells[r][c].Feature_Means.length > models.Model_Main.getModel().getTheSelectedFeature_Index())
-						{
-							if (MeanOrCV == 0) { // MEAN
-							float val = 0;
-							val = plate.TheWells[r][c].Feature_Means[models.Model_Main.getModel().getTheSelectedFeature_Index()];
-							
-							if (val < arr[0])
-								arr[0] = val;
-							if (val > arr[1])
-								arr[1] = val;
-							}
- else if (MeanOrCV == 1) { // CV
-								float val = 0;
-								val = plate.TheWells[r][c].Feature_Stdev[models.Model_Main
-										.getModel()
-										.getTheSelectedFeature_Index()]
-										/ plate.TheWells[r][c].Feature_Means[models.Model_Main
-												.getModel()
-												.getTheSelectedFeature_Index()];
-
-								if (val < arr[0])
-									arr[0] = val;
-								if (val > arr[1])
-									arr[1] = val;
-							}
-						}
-
-			}
+				thePlates[p].mergeWellValueRange(fIndex, MeanOrCV, arr);
 		}
 		else //Just this plate
-		{
-			Model_Plate plate = this;
-			for (int r = 0; r < plate.NumRows; r++)
-				for (int c = 0; c < plate.NumCols; c++)
-					if (plate.TheWells[r][c].Feature_Means != null && tools.MathOps.sum(plate.TheWells[r][c].Feature_Means)!=0 && plate.TheWells[r][c].Feature_Means.length > models.Model_Main.getModel().getTheSelectedFeature_Index())
-					{
-						if (MeanOrCV == 0) {
-						float val = 0;
-						val = plate.TheWells[r][c].Feature_Means[models.Model_Main.getModel().getTheSelectedFeature_Index()];
-						
-						if (val < arr[0])
-							arr[0] = val;
-						if (val > arr[1])
-							arr[1] = val;
-						} else if (MeanOrCV == 1) { // CV
-							float val = 0;
-
-							val = plate.TheWells[r][c].Feature_Stdev[models.Model_Main
-									.getModel().getTheSelectedFeature_Index()]
-									/ plate.TheWells[r][c].Feature_Means[models.Model_Main
-											.getModel()
-											.getTheSelectedFeature_Index()];
-
-							if (val < arr[0])
-								arr[0] = val;
-							if (val > arr[1])
-								arr[1] = val;
-						}
-					}
-		}
+			mergeWellValueRange(fIndex, MeanOrCV, arr);
 		
 		return arr;
 	}
 	
+	/** Widens the given min/max to cover the well mean (MeanOrCV == 0) or CV (MeanOrCV == 1) of the given
+	 * feature in every well of this plate that has means
+	 * @author BLM*/
+	private synchronized void mergeWellValueRange(int feature, int MeanOrCV,
+			float[] arr)
+	{
+		ensureMinMaxFeatureValues();
+		FeatureRangeIndex index = null;
+		if (MeanOrCV == 0)
+			index = MeanRanges;
+		else if (MeanOrCV == 1)
+			index = CVRanges;
+		if (index == null)
+			return;
+		
+		float min = index.getMin(feature);
+		float max = index.getMax(feature);
+		if (min < arr[0])
+			arr[0] = min;
+		if (max > arr[1])
+			arr[1] = max;
+	}
+	
 
 	
 	/** Returns the index in the plate holding panel of this plate, where the first plate index == 0
@@ -497,16 +489,22 @@ public class Model_Plate
 	/** For each of N-features, returns a float matrix of 2xN where each element 0,1 is the min/max respectively and each element N
 	 * is a different feature.  This array helps with the plate self normalization across features
 	 * @author BLM*/
-	public float[][] getMinMaxFeatureValues()
+	public synchronized float[][] getMinMaxFeatureValues()
 	{
-		return MinMaxFeatureValues;
+		ensureMinMaxFeatureValues();
+		if (CellRanges == null)
+			return null;
+		return CellRanges.getRange();
 	}
 	/** For each of N-features, returns a LOG(float matrix) of 2xN where each element 0,1 is the min/max respectively and each element N
 	 * is a different feature.  This array helps with the plate self normalization across features
 	 * @author BLM*/
-	public float[][] getMinMaxFeatureValues_log()
+	public synchronized float[][] getMinMaxFeatureValues_log()
 	{
-		return MinMaxFeatureValues_log;
+		ensureMinMaxFeatureValues();
+		if (CellRanges_log == null)
+			return null;
+		return CellRanges_log.getRange();
 	}
 	
 	
@@ -661,23 +659,130 @@ public class Model_Plate
 
 	/** Initializes the min/max values of all features within the plate
 	 * @author BLM*/
-	public void initMinMaxFeatureValues()
+	public synchronized void initMinMaxFeatureValues()
 	{
-		if (models.Model_Main.getModel().getTheFeatures() == null)
-			return;
+		ArrayList<Feature> features = models.Model_Main.getModel().getTheFeatures();
+		int len = features == null ? 0 : features.size();
+		int numWells = NumRows * NumCols;
+		CellRanges = new FeatureRangeIndex(numWells, len);
+		CellRanges_log = new FeatureRangeIndex(numWells, len);
+		MeanRanges = new FeatureRangeIndex(numWells, len);
+		CVRanges = new FeatureRangeIndex(numWells, len);
+	}
+	
+	/** Rebuilds the min/max values of all features within the plate from every well
+	 * @author BLM*/
+	public synchronized void updateMinMaxFeatureValues()
+	{
+		initMinMaxFeatureValues();
+		for (int r = 0; r < NumRows; r++)
+			for (int c = 0; c < NumCols; c++)
+				setWellRanges(TheWells[r][c]);
+	}
+	
+	/** Replaces the given well's share of the plate min/max values after its cells or means
+	 * changed. Costs O(features) unless the well held a plate min or max that it no longer reaches.
+	 * @author BLM*/
+	public synchronized void updateMinMaxFeatureValues(Model_Well well)
+	{
+		if (CellRanges == null || CellRanges.getNumFeatures() != getNumFeatures())
+			updateMinMaxFeatureValues();
+		else
+			setWellRanges(well);
+	}
+	
+	/** Builds the min/max values from all wells if they do not exist yet or the features changed
+	 * @author BLM*/
+	private void ensureMinMaxFeatureValues()
+	{
+		if (CellRanges == null || CellRanges.getNumFeatures() != getNumFeatures())
+			updateMinMaxFeatureValues();
+	}
+	
+	private int getNumFeatures()
+	{
+		ArrayList<Feature> features = models.Model_Main.getModel().getTheFeatures();
+		if (features == null)
+			return 0;
+		return features.size();
+	}
+	
+	/** Computes the contribution of the given well to the plate min/max values. Cell values count
+	 * only where both the well min and max are within [0, Integer.MAX_VALUE), and likewise for
+	 * their logs; means count only for wells whose means are not all zero.
+	 * @author BLM*/
+	private void setWellRanges(Model_Well well)
+	{
+		int largeInt = Integer.MAX_VALUE;
+		int slot = well.getWellIndex();
+		int numF = CellRanges.getNumFeatures();
 		
-		int len = models.Model_Main.getModel().getTheFeatures().size();
-		MinMaxFeatureValues = new float[2][len];
-		for (int i = 0; i < len; i++)
+		FeatureStatistics stats = null;
+		if (well.containsCellData())
+			stats = well.getStatistics_loadedFields();
+		if (stats == null)
 		{
-			MinMaxFeatureValues[0][i] = Float.POSITIVE_INFINITY;
-			MinMaxFeatureValues[1][i] = Float.NEGATIVE_INFINITY;
+			CellRanges.clear(slot);
+			CellRanges_log.clear(slot);
 		}
-		MinMaxFeatureValues_log = new float[2][len];
-		for (int i = 0; i < len; i++)
+		else
 		{
-			MinMaxFeatureValues_log[0][i] = Float.POSITIVE_INFINITY;
-			MinMaxFeatureValues_log[1][i] = Float.NEGATIVE_INFINITY;
+			float[] wellMin = stats.getMins();
+			float[] wellMax = stats.getMaxs();
+			float[] min = new float[numF];
+			float[] max = new float[numF];
+			float[] min_log = new float[numF];
+			float[] max_log = new float[numF];
+			Arrays.fill(min, Float.NaN);
+			Arrays.fill(max, Float.NaN);
+			Arrays.fill(min_log, Float.NaN);
+			Arrays.fill(max_log, Float.NaN);
+			int len = Math.min(numF, wellMin.length);
+			for (int f = 0; f < len; f++)
+			{
+				float low = wellMin[f];
+				float hi = wellMax[f];
+				if (low < largeInt && low >= 0 && hi < largeInt && hi >= 0)
+				{
+					min[f] = low;
+					max[f] = hi;
+				}
+				
+				// log values
+				double val_low = tools.MathOps.log(low);
+				double val_hi = tools.MathOps.log(hi);
+				if (val_low < largeInt && val_low >= 0 && val_hi < largeInt && val_hi >= 0)
+				{
+					min_log[f] = (float) val_low;
+					max_log[f] = (float) val_hi;
+				}
+			}
+			CellRanges.set(slot, min, max);
+			CellRanges_log.set(slot, min_log, max_log);
+		}
+		
+		float[] means = well.Feature_Means;
+		float[] stdevs = well.Feature_Stdev;
+		if (means == null || tools.MathOps.sum(means) == 0)
+		{
+			MeanRanges.clear(slot);
+			CVRanges.clear(slot);
+		}
+		else
+		{
+			int len = means.length;
+			float[] vals = new float[len];
+			float[] cvs = new float[len];
+			for (int f = 0; f < len; f++)
+			{
+				vals[f] = means[f];
+				if (stdevs != null && f < stdevs.length)
+					cvs[f] = stdevs[f] / means[f];
+				else
+					cvs[f] = Float.NaN;
+			}
+			MeanRanges.set(slot, vals, vals);
+			CVRanges.set(slot, cvs, cvs);
 		}
 	}
 	
@@ -1079,13 +1184,45 @@ public class Model_Plate
 		return null;
 	}
 	
-	/** Inner class thread runner*/
+	/**
+	 * Background loader of the cells of a list of wells. Several wells are
+	 * read at once by a pool of worker threads, which share one read session
+	 * on the projects HDF5 file so it is opened once for the whole batch
+	 * rather than once per field. The HDF5 reads themselves are serialized
+	 * on the file handle; what overlaps is building the cells, statistics and
+	 * well means of one well while the next is being read.
+	 * 
+	 * Listeners hear about each well in the order the wells were given, as
+	 * soon as it and all wells before it are loaded, so plots can show the
+	 * first wells while the rest are still loading.
+	 * 
+	 * @author BLM
+	 */
 	static public class CellLoader implements Runnable
 	{
+		/**
+		 * Told about the progress of a CellLoader. Calls come from the
+		 * loader thread, not the Swing event thread.
+		 * 
+		 * @author BLM
+		 */
+		public interface Listener
+		{
+			/** Called once per well, in list order, after its cells are loaded */
+			public void wellLoaded(Model_Well well, int numLoaded, int numWells);
+
+			/** Called once when the loader is done, whether or not it was stopped */
+			public void finished(int numLoaded, int numWells);
+		}
+
 		private Thread thread;
 		private ArrayList<Model_Well> wells;
 		private boolean loadCoords;
 		private boolean loadDataVals;
+		private int NumThreads;
+		private ArrayList<Listener> Listeners;
+		private volatile int NumLoaded;
+		private volatile boolean Stopped;
 		
 		public CellLoader(ArrayList<Model_Well> wellsToLoad, boolean loadCoords,
 				boolean loadDataVals)
@@ -1093,11 +1230,46 @@ public class Model_Plate
 			this.loadDataVals = loadDataVals;
 			this.loadCoords = loadCoords;
 			wells = wellsToLoad;
+			NumThreads = processors.Processor_SingleCells.getDefaultNumThreads();
+			Listeners = new ArrayList<Listener>();
+		}
+
+		/** Sets the number of wells loaded in parallel
+		 * @author BLM*/
+		public void setNumThreads(int numThreads)
+		{
+			NumThreads = Math.max(1, numThreads);
+		}
+
+		/** Adds a listener; must be called before start()
+		 * @author BLM*/
+		public void addListener(Listener listener)
+		{
+			Listeners.add(listener);
+		}
+
+		/** Returns how many wells, counted in list order, are loaded so far
+		 * @author BLM*/
+		public int getNumLoaded()
+		{
+			return NumLoaded;
+		}
+
+		public int getNumWells()
+		{
+			return wells == null ? 0 : wells.size();
+		}
+
+		/** Stops loading; wells already being read are finished, the rest are skipped
+		 * @author BLM*/
+		public void stop()
+		{
+			Stopped = true;
 		}
 		
 		public void start()
 		{
-			thread = new Thread(this);
+			thread = new Thread(this, "ImageRail cell loader");
 			thread.start();
 		}
 		
@@ -1106,10 +1278,73 @@ public class Model_Plate
 			// Project name
 			// String projectPath =
 			// models.Model_Main.getModel().getProjectDirectory().getAbsolutePath();
-			ImageRail_SDCube io = models.Model_Main.getModel().getH5IO();
-			if(wells!=null && wells.size()>0)
-				for (int i = 0; i < wells.size(); i++)
-					wells.get(i).loadCells(io, loadCoords, loadDataVals);
+			final ImageRail_SDCube io = models.Model_Main.getModel().getH5IO();
+			int numWells = getNumWells();
+			if (numWells == 0) {
+				fireFinished(0);
+				return;
+			}
+
+			// Holding the input file open for all workers; without the session
+			// they would open and close it under each other, so load one at a time
+			int numThreads = NumThreads;
+			boolean session = false;
+			try {
+				io.beginSession(ImageRail_SDCube.INPUT);
+				session = true;
+			} catch (H5IO_Exception e) {
+				System.out.println("**** Could not open a read session, loading wells one at a time");
+				e.printStackTrace();
+				numThreads = 1;
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(Math.min(numThreads, numWells));
+			try {
+				ArrayList<Future<Model_Well>> pending = new ArrayList<Future<Model_Well>>();
+				for (int i = 0; i < numWells; i++) {
+					final Model_Well well = wells.get(i);
+					pending.add(pool.submit(new Callable<Model_Well>() {
+						public Model_Well call() {
+							if (!Stopped)
+								well.loadCells(io, loadCoords, loadDataVals);
+							return well;
+						}
+					}));
+				}
+
+				// Reporting the wells in list order as they complete
+				for (int i = 0; i < numWells; i++) {
+					try {
+						pending.get(i).get();
+					} catch (Exception e) {
+						System.out.println("**** Error loading cells of well "
+								+ wells.get(i).name);
+						e.printStackTrace();
+					}
+					// Once stopped, only waiting for the wells already being read
+					if (Stopped)
+						continue;
+					NumLoaded = i + 1;
+					for (int l = 0; l < Listeners.size(); l++)
+						Listeners.get(l).wellLoaded(wells.get(i), i + 1,
+								numWells);
+				}
+			} finally {
+				pool.shutdown();
+				if (session)
+					try {
+						io.endSession();
+					} catch (H5IO_Exception e) {
+						e.printStackTrace();
+					}
+				fireFinished(numWells);
+			}
+		}
+
+		private void fireFinished(int numWells)
+		{
+			for (int l = 0; l < Listeners.size(); l++)
+				Listeners.get(l).finished(NumLoaded, numWells);
 		}
 		
 	}
@@ -301,55 +301,23 @@ public class Model_PlateRepository
 	 * @author BLM*/
 	public void updateMinMaxValues()
 	{
-		int largeInt = Integer.MAX_VALUE;
 		for (int p = 0; p < getNumPlates(); p++)
-		{
-			Model_Plate plate = ThePlates[p];
-			plate.initMinMaxFeatureValues();
-			float[][] plateMinMax = plate.getMinMaxFeatureValues();
-			float[][] plateMinMax_log =  plate.getMinMaxFeatureValues_log();
-			int numF = models.Model_Main.getModel().getTheFeatures().size();
-			for (int r = 0; r < plate.getNumRows(); r++)
-				for (int c = 0; c < plate.getNumColumns(); c++)
-				{
-					if (plate.getWells()[r][c].containsCellData())
-					{
-						float[][] data = getCellMinMaxValues_allFeatures(plate.getWells()[r][c].getCell_values());
-						
-						if (data != null)
-							for (int f = 0; f < numF; f++)
-							{
-								
-								if (data[0][f] < largeInt && data[0][f] >= 0 && data[1][f] < largeInt && data[1][f] >= 0)
-								{
-									
-									if (data[0][f] < plateMinMax[0][f])
-										plateMinMax[0][f] = data[0][f];
-									if (data[1][f] > plateMinMax[1][f])
-										plateMinMax[1][f] = data[1][f];
-								}
-								
-								
-								// log values
-								double val_low = tools.MathOps.log(data[0][f]);
-								double val_hi = tools.MathOps.log(data[1][f]);
-								
-								if (val_low < largeInt && val_low >= 0 && val_hi < largeInt && val_hi >= 0)
-								{
-									if (val_low < plateMinMax_log[0][f])
-										plateMinMax_log[0][f] = (float) val_low;
-									if (val_hi > plateMinMax_log[1][f])
-										plateMinMax_log[1][f] = (float) val_hi;
+			ThePlates[p].updateMinMaxFeatureValues();
 
-								}
-								
-							}
-					}
-				}
+		if (ThisGUI != null)
+			ThisGUI.updatePanel();
+	}
+	
+	/** Updates the min and max values for each feature after the cells or means of the given
+	 * well changed, without revisiting the other wells
+	 * @author BLM*/
+	public void updateMinMaxValues(Model_Well well)
+	{
+		Model_Plate plate = well.getPlate();
+		plate.updateMinMaxFeatureValues(well);
 
-			if (ThisGUI != null)
-				ThisGUI.updatePanel();
-		}
+		if (ThisGUI != null && plate.getGUI() != null)
+			plate.getGUI().updatePanel();
 	}
 	
 	/**
@@ -33,6 +33,8 @@ import plots.DotSelectionListener;
 import plots.Gate_DotPlot;
 import segmentedobject.Cell;
 import segmentedobject.CellCoordinates;
+import segmentedobject.CellTable;
+import tools.FeatureStatistics;
 
 
 public class Model_Well
@@ -249,25 +251,95 @@ public class Model_Well
 	// }
 	/**
 	 * 
-	 * Returns all the cells feature values from all the fields in this well
-	 * appended into a single float matrix
+	 * Returns a [cell][feature] copy of all the cells feature values from all
+	 * the fields in this well appended into a single float matrix. Prefer
+	 * getCellTables() or getCellColumn(), which do not copy every value.
 	 * 
 	 * @author BLM
 	 */
 	public synchronized float[][] getCell_values() {
-		ArrayList<Cell> cells = getCells();
-		if (cells == null || cells.size() == 0)
+		ArrayList<CellTable> tables = getCellTables();
+		int numC = getNumCells(tables);
+		if (numC == 0)
 			return null;
 
-		int numC = cells.size();
-		float[][] arr = new float[numC][cells.get(0).getFeatureValues().length];
+		float[][] arr = new float[numC][];
+		int counter = 0;
+		for (int t = 0; t < tables.size(); t++) {
+			float[][] rows = tables.get(t).toRows();
+			for (int n = 0; n < rows.length; n++)
+				arr[counter++] = rows[n];
+		}
 
-		for (int n = 0; n < numC; n++)
-			arr[n] = cells.get(n).getFeatureValues();
+		return arr;
+	}
 
+	/**
+	 * Returns the column-wise cell tables of the fields in this well that
+	 * have cell values loaded, in field order (the order of getCells())
+	 * 
+	 * @author BLM
+	 */
+	public ArrayList<CellTable> getCellTables() {
+		ArrayList<CellTable> arr = new ArrayList<CellTable>();
+		if (TheFields == null)
+			return arr;
+		int numF = TheFields.length;
+		for (int i = 0; i < numF; i++) {
+			CellTable table = TheFields[i].getCellTable();
+			if (table != null && table.getNumCells() > 0)
+				arr.add(table);
+		}
 		return arr;
 	}
 
+	/** Returns the number of cells with values loaded in this well
+	 * @author BLM*/
+	public int getNumCells() {
+		return getNumCells(getCellTables());
+	}
+
+	static private int getNumCells(ArrayList<CellTable> tables) {
+		int num = 0;
+		for (int t = 0; t < tables.size(); t++)
+			num += tables.get(t).getNumCells();
+		return num;
+	}
+
+	/**
+	 * Returns the values of the given feature for all loaded cells of this
+	 * well, in the order of getCells(), or null if there are none. With a
+	 * single field loaded this is its table column itself, so do not modify
+	 * it.
+	 * 
+	 * @author BLM
+	 */
+	public float[] getCellColumn(int feature) {
+		ArrayList<CellTable> tables = getCellTables();
+		if (tables.size() == 0)
+			return null;
+		return CellTable.concatColumn(tables, feature);
+	}
+
+	/**
+	 * Returns the values of each of the given features for all loaded cells
+	 * of this well, as getCellColumn() does, reading any columns that are
+	 * not in memory yet with one HDF5 access per field
+	 * 
+	 * @author BLM
+	 */
+	public float[][] getCellColumns(int[] features) {
+		ArrayList<CellTable> tables = getCellTables();
+		if (tables.size() == 0)
+			return null;
+		for (int t = 0; t < tables.size(); t++)
+			tables.get(t).loadColumns(features);
+		float[][] columns = new float[features.length][];
+		for (int i = 0; i < features.length; i++)
+			columns[i] = CellTable.concatColumn(tables, features[i]);
+		return columns;
+	}
+
 	/** Returns the index in the well in the plate. INdexing goes top to bottom, right to left
 	 * @author BLM*/
 	public int getWellIndex()
@@ -298,58 +370,51 @@ public class Model_Well
 		for (int i = 0; i < numF; i++)
 		{
 			ArrayList<Cell> cells = TheFields[i].getCells();
-			float[][] vals = TheFields[i].getFeatureVals_all();
-			if (cells != null && vals != null)
+			CellTable table = TheFields[i].getCellTable();
+			if (cells != null && table != null)
 			{
+				//Taking the deleted cells out of the field statistics as we go
+				FeatureStatistics stats = TheFields[i].getStatistics();
 				ArrayList<CellCoordinates> temp_coords = new ArrayList<CellCoordinates> ();
-				ArrayList<float[]> temp_vals = new ArrayList<float[]> ();
-				ArrayList<Integer> ids = new ArrayList<Integer>();
+				boolean hasCoords = false;
 				int numC = cells.size();
 
-				long time2 = System.currentTimeMillis();
-
 				for (int j = 0; j < numC; j++)
 				{
 					Cell cell = cells.get(j);
 					if (!cell.isSelected())
 					{
-						temp_coords.add(cell.getCoordinates_copy());
-						temp_vals.add(vals[j]);
-						ids.add(new Integer(cell.getID()));
+						CellCoordinates coords = cell.getCoordinates_copy();
+						temp_coords.add(coords);
+						if (coords != null)
+							hasCoords = true;
 					}
+					else if (stats != null)
+						stats.remove(table.getRow(j));
 			
 				}
 				
-				//converting to right format and then setting them
-				float[][] fvals = new float[temp_vals.size()][];
-				for (int v = 0; v < temp_vals.size(); v++)
-					fvals[v] = temp_vals.get(v);
-			
+				CellTable left = table.removeSelected();
+				
+				//Only a deleted min or max needs another look at the cells left
+				if (stats != null && !stats.hasValidExtrema())
+					stats.recomputeExtrema_columns(left.getColumns(),
+							left.getNumCells());
 
-				TheFields[i].getCellRepository()
-.setCellData(ids, temp_coords,
-						fvals);
+				TheFields[i].getCellRepository().setCellData(left,
+						hasCoords ? temp_coords : null);
 
 			}
 		}
 
-
-
-
-		float[][] cellData = getCell_values();
-		
-		ArrayList<float[][]> tempArr = new ArrayList<float[][]>();
-		tempArr.add(cellData);
-		//recomputing means and Stdev
-		float[][] data = getCellMeansAndStdev_allFeatures(tempArr);
-		if (data==null)
+		//recomputing means and Stdev from the field statistics
+		FeatureStatistics stats = getStatistics_loadedFields();
+		if (stats==null)
 			return;
 		
-		Feature_Means = null;
-		Feature_Stdev = null;
-		Feature_Means = data[0];
-		Feature_Stdev = data[1];
-
+		Feature_Means = stats.getMeans();
+		Feature_Stdev = stats.getStdevs();
+		ThePlate.updateMinMaxFeatureValues(this);
 
 	}
 	
@@ -425,7 +490,7 @@ public class Model_Well
 		{
 			int len = TheFields.length;
 			for (int i = 0; i < len; i++)
-				if (TheFields[i].getCellRepository()!=null && TheFields[i].areCellsLoaded())
+				if (TheFields[i].areCellsLoaded())
 					return true;
 		}
 		
@@ -587,96 +652,41 @@ public class Model_Well
 		return 0;
 	}
 	
-	/** Returns the mean and stdev values of the given data value Matrix, Rows of matrix = number of features, COls = number of cells
-	 * @author BLM
-	 * @return float[][] where float[].length = 2 (mean/stdev) and float[][].length = numFeatures*/
-	private float[][] getCellMeansAndStdev_allFeatures(ArrayList<float[][]> dataSets)
+	/** Returns the merged feature statistics of the fields that have cells loaded, or null if none do
+	 * @author BLM*/
+	public FeatureStatistics getStatistics_loadedFields()
 	{
-		if (dataSets==null || dataSets.size()==0)
-			return null;
-		int numDataSets = dataSets.size();
-		
-		float[][] dataMatrix = dataSets.get(0);
-		if (dataMatrix==null || dataMatrix.length==0 || dataMatrix[0].length==0)
-			return null;
-		
-		
-		int numF = dataMatrix[0].length;
-		float[][] data = new float[2][numF];
-		float[] mean = new float[numF];
-		float[] stdev = new float[numF];
-		int[] counter = new int[numF];
-		//Computing all the sums for the means, then divide by sample number
-		for (int z = 0; z < numDataSets; z++)
-		{
-			dataMatrix = dataSets.get(z);
-			if (dataMatrix==null || dataMatrix.length==0 || dataMatrix[0].length==0)
-				return null;
-			
-			
-			int numCells = dataMatrix.length;
-			
-			for (int j = 0; j < numCells; j++)
-				for (int i = 0; i < numF; i++)
-				{
-					double val = dataMatrix[j][i];
-					if (val>-1000000000 && val<1000000000)
-					{
-						mean[i] += val;
-						counter[i]++;
-					}
-				}
-		}
-		//Dividing sums by sample number to create real Mean Value
-		for (int i = 0; i < numF; i++)
-			mean[i] = (mean[i]/(float)counter[i]);
-		
-		//Now computing the STDEV. Needed the means for this computation
-		for (int z = 0; z < numDataSets; z++)
-		{
-			dataMatrix = dataSets.get(z);
-			if (dataMatrix==null || dataMatrix.length==0 || dataMatrix[0].length==0)
-				return null;
-			
-			int numCells = dataMatrix.length;
-			//computing the stdev
-			for (int j = 0; j < numCells; j++)
-				for (int i = 0; i < numF; i++)
-				{
-					double val = dataMatrix[j][i];
-					if (val>-1000000000 && val<1000000000)
-						stdev[i] += Math.pow(val - mean[i],2);
-				}
-		}
-		//Now dividing after all data sets have been accounted for
+		ArrayList<FeatureStatistics> parts = new ArrayList<FeatureStatistics>();
+		int numF = TheFields.length;
 		for (int i = 0; i < numF; i++)
-			stdev[i] = (float)Math.sqrt((1f/(counter[i]-1f)*stdev[i]));
-		
-		data[0] = mean;
-		data[1] = stdev;
-		
-		return data;
+			if (TheFields[i].areCellsLoaded())
+				parts.add(TheFields[i].getStatistics());
+		return FeatureStatistics.merge(parts);
 	}
 	
-	public void updateDataValues()
+	/** Returns the merged feature statistics of all fields of this well, read from the HDF5
+	 * file for fields whose cells are not loaded, or null if there are none
+	 * @author BLM*/
+	public FeatureStatistics getStatistics()
 	{
+		ArrayList<FeatureStatistics> parts = new ArrayList<FeatureStatistics>();
 		int numF = TheFields.length;
-		ArrayList<float[][]> vals  = new ArrayList<float[][]>();
 		for (int i = 0; i < numF; i++)
-		{
-			if (TheFields[i].areCellsLoaded())
-				vals.add(TheFields[i].getFeatureVals_all());
-		}
-		
-		float[][] data = getCellMeansAndStdev_allFeatures(vals);
-		if (data==null)
+			parts.add(TheFields[i].getStatistics());
+		return FeatureStatistics.merge(parts);
+	}
+	
+	public void updateDataValues()
+	{
+		FeatureStatistics stats = getStatistics_loadedFields();
+		if (stats==null)
 			return;
 		
-		Feature_Means = data[0];
-		Feature_Stdev = data[1];
+		Feature_Means = stats.getMeans();
+		Feature_Stdev = stats.getStdevs();
 		
-		//updating the min/max of plate date
-		models.Model_Main.getModel().getPlateRepository_GUI().getModel().updateMinMaxValues();
+		//updating this well's share of the min/max of plate data
+		models.Model_Main.getModel().getPlateRepository_GUI().getModel().updateMinMaxValues(this);
 		
 	}
 	
@@ -684,15 +694,24 @@ public class Model_Well
 	 * @author BLM*/
 	public void setDataValues(ArrayList<float[][]> allData)
 	{
-		float[][] data = getCellMeansAndStdev_allFeatures(allData);
-		if (data==null)
+		ArrayList<FeatureStatistics> parts = new ArrayList<FeatureStatistics>();
+		for (int i = 0; i < allData.size(); i++)
+			parts.add(FeatureStatistics.of(allData.get(i)));
+		setStatistics(FeatureStatistics.merge(parts));
+	}
+	
+	/** Sets the means and stdevs of this well from the given merged field statistics
+	 * @author BLM*/
+	public void setStatistics(FeatureStatistics stats)
+	{
+		if (stats==null)
 			return;
 		
-		Feature_Means = data[0];
-		Feature_Stdev = data[1];
+		Feature_Means = stats.getMeans();
+		Feature_Stdev = stats.getStdevs();
 		
-		//updating the min/max of plate date
-		models.Model_Main.getModel().getPlateRepository().updateMinMaxValues();
+		//updating this well's share of the min/max of plate data
+		models.Model_Main.getModel().getPlateRepository().updateMinMaxValues(this);
 	}
 	
 	/** Sets this wells means and stdevs with the given float arrays
@@ -702,9 +721,9 @@ public class Model_Well
 		Feature_Means = means;
 		Feature_Stdev = stdevs;
 		
-		//updating the min/max of plate date
+		//updating this well's share of the min/max of plate data
 		models.Model_Main.getModel().getPlateRepository()
-				.updateMinMaxValues();
+				.updateMinMaxValues(this);
 	}
 	
 	
@@ -718,6 +737,7 @@ public class Model_Well
 		Feature_Stdev = new float[numChannels];
 		for (int i =0; i < numChannels; i++)
 			Feature_Stdev[i] = 0;
+		ThePlate.updateMinMaxFeatureValues(this);
 	}
 	
 	/** Determines if there are any images in this well
@@ -857,7 +877,7 @@ public class Model_Well
 
 	public void deleteSelectedCells() {
 		purgeSelectedCellsAndRecomputeWellMeans();
-		models.Model_Main.getModel().getPlateRepository_GUI().getModel().updateMinMaxValues();
+		models.Model_Main.getModel().getPlateRepository_GUI().getModel().updateMinMaxValues(this);
 		models.Model_Main.getModel().getGUI().updateAllPlots();
 	}
 
@@ -891,6 +911,7 @@ public class Model_Well
 		if (Feature_Stdev != null)
 			for (int i = 0; i < Feature_Stdev.length; i++)
 				Feature_Stdev[i] = 0;
+		ThePlate.updateMinMaxFeatureValues(this);
 
 		if (!GraphicsEnvironment.isHeadless())
 			ThePlate.getGUI().updatePanel();
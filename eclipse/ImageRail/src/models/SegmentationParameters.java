@@ -0,0 +1,170 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package models;
+
+/**
+ * Immutable, typed snapshot of the segmentation parameters of a
+ * Model_ParameterSet. Every value is looked up and parsed once when the
+ * snapshot is built, so segmentors can read thresholds and channel indices
+ * inside their per-pixel loops without going through the String Hashtable.
+ * Missing parameters take the same defaults the Model_ParameterSet getters
+ * return (-1, or false for flags). Obtain one via Model_ParameterSet.compile().
+ * 
+ * @author BLM
+ */
+public final class SegmentationParameters
+{
+	private final Model_ParameterSet TheParameterSet;
+	private final int NucChannelIndex;
+	private final float NucThreshold;
+	private final int CytChannelIndex;
+	private final float CytThreshold;
+	private final float BkgdThreshold;
+	private final int MembraneChannelIndex;
+	private final float MembraneThreshold;
+	private final int MarkerChannelIndex;
+	private final float MarkerThreshold;
+	private final float MergeFactor;
+	private final boolean NucWatershed;
+
+	/**
+	 * Parses the given parameter set. Throws an IllegalArgumentException naming
+	 * the parameter if a value is present but not a number.
+	 * 
+	 * @author BLM
+	 */
+	SegmentationParameters(Model_ParameterSet pset)
+	{
+		TheParameterSet = pset;
+		NucChannelIndex = parseInt(pset, "Thresh_Nuc_ChannelIndex");
+		NucThreshold = parseFloat(pset, "Thresh_Nuc_Value");
+		CytChannelIndex = parseInt(pset, "Thresh_Cyt_ChannelIndex");
+		CytThreshold = parseFloat(pset, "Thresh_Cyt_Value");
+		BkgdThreshold = parseFloat(pset, "Thresh_Bkgd_Value");
+		MembraneChannelIndex = parseInt(pset, "ThreshChannel_membrane_Index");
+		MembraneThreshold = parseFloat(pset, "Thresh_Membrane");
+		MarkerChannelIndex = parseInt(pset, "ThreshChannel_marker_Index");
+		MarkerThreshold = parseFloat(pset, "Thresh_Marker");
+		MergeFactor = parseFloat(pset, "MergeFactor");
+		NucWatershed = pset.getParameter_boolean("Nuc_Watershed");
+	}
+
+	static private int parseInt(Model_ParameterSet pset, String name)
+	{
+		try
+		{
+			return pset.getParameter_int(name);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Segmentation parameter "
+					+ name + " is not an integer: "
+					+ pset.getParameter_String(name));
+		}
+	}
+
+	static private float parseFloat(Model_ParameterSet pset, String name)
+	{
+		try
+		{
+			return pset.getParameter_float(name);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Segmentation parameter "
+					+ name + " is not a number: "
+					+ pset.getParameter_String(name));
+		}
+	}
+
+	/** Returns the parameter set this snapshot was compiled from
+	 * @author BLM*/
+	public Model_ParameterSet getParameterSet()
+	{
+		return TheParameterSet;
+	}
+
+	/** Thresh_Nuc_ChannelIndex */
+	public int getNucChannelIndex()
+	{
+		return NucChannelIndex;
+	}
+
+	/** Thresh_Nuc_Value */
+	public float getNucThreshold()
+	{
+		return NucThreshold;
+	}
+
+	/** Thresh_Cyt_ChannelIndex */
+	public int getCytChannelIndex()
+	{
+		return CytChannelIndex;
+	}
+
+	/** Thresh_Cyt_Value */
+	public float getCytThreshold()
+	{
+		return CytThreshold;
+	}
+
+	/** Thresh_Bkgd_Value */
+	public float getBkgdThreshold()
+	{
+		return BkgdThreshold;
+	}
+
+	/** ThreshChannel_membrane_Index */
+	public int getMembraneChannelIndex()
+	{
+		return MembraneChannelIndex;
+	}
+
+	/** Thresh_Membrane */
+	public float getMembraneThreshold()
+	{
+		return MembraneThreshold;
+	}
+
+	/** ThreshChannel_marker_Index */
+	public int getMarkerChannelIndex()
+	{
+		return MarkerChannelIndex;
+	}
+
+	/** Thresh_Marker */
+	public float getMarkerThreshold()
+	{
+		return MarkerThreshold;
+	}
+
+	/** MergeFactor */
+	public float getMergeFactor()
+	{
+		return MergeFactor;
+	}
+
+	/** Nuc_Watershed */
+	public boolean isNucWatershed()
+	{
+		return NucWatershed;
+	}
+}
@@ -25,7 +25,8 @@ import java.util.Hashtable;
 
 public class DensityScatter
 {
-	private int SmoothSize = 20;
+	/** Width of the box the bins are smoothed with; 0 leaves them as counted */
+	private int SmoothSize = 0;
 	private int numBins = 50;
 	private float[][] bins;
 	private float minValX;
@@ -86,10 +87,9 @@ public class DensityScatter
 			}
 		}
 		
-		
 		//Smoothing the density plot with a 2D Smoothing Filter
-		tools.ImageTools.linearFilter(bins, tools.LinearKernels.getLinearSmoothingKernal(SmoothSize));
-		
+		if (SmoothSize > 1)
+			bins = tools.FilterEngine.boxMean(bins, SmoothSize);
 		
 		for (int x = 0; x < numBins; x++)
 			for (int y = 0; y < numBins; y++)
@@ -110,8 +110,17 @@ public class DensityScatter
 	/** Allows user to set number of bins for the density calculations
 	 * @author BLM*/
 	public DensityScatter(float[] xVals, float[] yVals, int numBins_)
+	{
+		this(xVals, yVals, numBins_, 0);
+	}
+	
+	/** Allows user to set number of bins for the density calculations, and
+	 * the width of the box the bin counts are smoothed with
+	 * @author BLM*/
+	public DensityScatter(float[] xVals, float[] yVals, int numBins_, int smoothSize)
 	{
 		numBins = numBins_;
+		SmoothSize = smoothSize;
 //		System.out.println("Makinng new density map");
 		int lenX = xVals.length;
 		int lenY = yVals.length;
@@ -160,10 +169,9 @@ public class DensityScatter
 			}
 		}
 		
-		
 		//Smoothing the density plot with a 2D Smoothing Filter
-		tools.ImageTools.linearFilter(bins, tools.LinearKernels.getLinearSmoothingKernal(SmoothSize));
-		
+		if (SmoothSize > 1)
+			bins = tools.FilterEngine.boxMean(bins, SmoothSize);
 		
 		for (int x = 0; x < numBins; x++)
 			for (int y = 0; y < numBins; y++)
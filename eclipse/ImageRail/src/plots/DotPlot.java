@@ -168,6 +168,7 @@ public class DotPlot extends JPanel implements ImageCapturePanel {
 	private NumberFormat nf = new DecimalFormat("0.##");
 	private NumberFormat nf2 = new DecimalFormat("0.#");
 	private DensitySorter TheDensitySorter;
+	/** Per plotted well, the {X, Y} feature columns of its cells, in the order of TheCells*/
 	public ArrayList<float[][]> TheDataValues;
 	public ArrayList<ArrayList<Cell>> TheCells;
 	private ArrayList<DotFilter> TheDotFilters;
@@ -208,6 +209,8 @@ public class DotPlot extends JPanel implements ImageCapturePanel {
 		TheDotSelectionListener = new DotSelectionListener(this);
 		setBorder(BorderFactory.createBevelBorder(BevelBorder.RAISED));
 		TheWells = wells;
+		// Keeping the plotted cells in memory while this plot is up
+		models.Model_CellDataCache.getCache().pinWells(this, wells);
 		AddFilter = false;
 		TheDotFilters = new ArrayList<DotFilter>();
 
@@ -1696,11 +1699,14 @@ public class DotPlot extends JPanel implements ImageCapturePanel {
 					// Create new data
 					TheDataValues = new ArrayList<float[][]>();
 					TheCells = new ArrayList<ArrayList<Cell>>();
+					int xIndex = getFeatureIndex(featureName_X);
+					int yIndex = getFeatureIndex(featureName_Y);
 					for (int p = 0; p < numPlots; p++) {
 						ArrayList<Cell> cells = wells[p].getCells();
-						float[][] values = wells[p].getCell_values();
 						if (cells != null && cells.size() != 0) {
-							TheDataValues.add(values);
+							TheDataValues.add(wells[p]
+									.getCellColumns(new int[] { xIndex,
+											yIndex }));
 							TheCells.add(cells);
 						}
 					}
@@ -1716,11 +1722,11 @@ public class DotPlot extends JPanel implements ImageCapturePanel {
 						float[][] dat = TheDataValues.get(p);
 						ArrayList<Cell> cells = TheCells.get(p);
 						if (dat != null && cells != null) {
-							int numCells = dat.length;
+							int numCells = dat[0].length;
 							TheDots[p] = new Dot[numCells];
 							for (int i = 0; i < numCells; i++) {
-								float val_X = dat[i][getFeatureIndex(featureName_X)];
-								float val_Y = dat[i][getFeatureIndex(featureName_Y)];
+								float val_X = dat[0][i];
+								float val_Y = dat[1][i];
 
 								if (LogScaleButton_X.isSelected())
 									if (val_X <= 0)
@@ -1994,8 +2000,7 @@ public class DotPlot extends JPanel implements ImageCapturePanel {
 								// Drawing the fraction selected by this gate
 								if (cells != null) {
 									float fraction = b
-											.getFractionOfCellsBound(well
-													.getCell_values());
+											.getFractionOfCellsBound(well);
 									ge.setColor(Color.DARK_GRAY);
 									ge.fillRect(poly.xpoints[0] - 5,
 											poly.ypoints[0] - 14, 44, 18);
@@ -3475,6 +3480,7 @@ public class DotPlot extends JPanel implements ImageCapturePanel {
 	 * @author BLM
 	 */
 	public void kill() {
+		models.Model_CellDataCache.getCache().unpinWells(this);
 		transComposite = null;
 		SmallFont = null;
 		StandardFont = null;
@@ -24,6 +24,7 @@ import java.awt.Color;
 import java.awt.Polygon;
 import java.util.ArrayList;
 
+import models.Model_Well;
 import segmentedobject.Cell;
 import features.Feature;
 
@@ -109,10 +110,16 @@ public class Gate_DotPlot
 		return poly;
 	}
 	
-	public float getFractionOfCellsBound(float[][] cellValues)
+	/** Returns the fraction of the given well's loaded cells that fall inside this gate
+	 * @author BLM*/
+	public float getFractionOfCellsBound(Model_Well well)
 	{
+		float[] valuesX = well.getCellColumn(featureX_index);
+		float[] valuesY = well.getCellColumn(featureY_index);
+		if (valuesX == null || valuesY == null)
+			return 0;
 		int multiplier = 10000;
-		int numCells = cellValues.length;
+		int numCells = valuesX.length;
 		if (numCells==0)
 			return 0;
 		
@@ -127,8 +134,8 @@ public class Gate_DotPlot
 		poly.npoints = num;
 		for (int i = 0; i < numCells; i++)
 		{
-			valX = (int)(multiplier*cellValues[i][featureX_index]);
-			valY = (int)(multiplier*cellValues[i][featureY_index]);
+			valX = (int)(multiplier*valuesX[i]);
+			valY = (int)(multiplier*valuesY[i]);
 			if (poly.contains(valX, valY))
 				count++;
 		}
@@ -138,7 +145,8 @@ public class Gate_DotPlot
 	public boolean isBound(Cell cell) {
 		if (cell == null)
 			return false;
-		float[] cellValues = cell.getFeatureValues();
+		if (cell.getTable() == null)
+			return false;
 		int multiplier = 10000;
 		double valX = 0;
 		double valY = 0;
@@ -151,8 +159,8 @@ public class Gate_DotPlot
 					(int) (multiplier * xyPoints[1][i]));
 		poly.npoints = num;
 
-		valX = (int) (multiplier * cellValues[featureX_index]);
-		valY = (int) (multiplier * cellValues[featureY_index]);
+		valX = (int) (multiplier * cell.getValue(featureX_index));
+		valY = (int) (multiplier * cell.getValue(featureY_index));
 		if (poly.contains(valX, valY))
 			return true;
 
@@ -163,13 +171,8 @@ public class Gate_DotPlot
 	{
 		if(cells==null)
 			return null;
-		int numC = cells.size();
-		float[][] cellValues = new float[numC][];
-		for (int i = 0; i < numC; i++) {
-			cellValues[i] = cells.get(i).getFeatureValues();
-		}
 		int multiplier = 10000;
-		int numCells = cellValues.length;
+		int numCells = cells.size();
 		if (numCells==0)
 			return null;
 		
@@ -186,10 +189,11 @@ public class Gate_DotPlot
 		ArrayList<Cell> bound = new ArrayList<Cell>();
 		for (int i = 0; i < numCells; i++)
 		{
-			valX = (int)(multiplier*cellValues[i][featureX_index]);
-			valY = (int)(multiplier*cellValues[i][featureY_index]);
+			Cell cell = cells.get(i);
+			valX = (int)(multiplier*cell.getValue(featureX_index));
+			valY = (int)(multiplier*cell.getValue(featureY_index));
 			if (poly.contains(valX, valY))
-				bound.add(cells.get(i));
+				bound.add(cell);
 		}
 		return bound;
 	
@@ -207,10 +211,9 @@ public class Gate_DotPlot
 		int len = bound.size();
 		for (int i = 0; i < len; i++) {
 			Cell cell = bound.get(i);
-			float[] vals = cell.getFeatureValues();
-			if(vals!=null && vals.length>index)
+			if(cell.getTable()!=null && cell.getTable().getNumFeatures()>index)
 			{
-				sum+=vals[index];
+				sum+=cell.getValue(index);
 				count++;
 			}
 		}
@@ -231,9 +234,8 @@ public class Gate_DotPlot
 		int len = bound.size();
 		for (int i = 0; i < len; i++) {
 			Cell cell = bound.get(i);
-			float[] vals = cell.getFeatureValues();
-			if(vals!=null && vals.length>index)
-				count+=vals[index];
+			if(cell.getTable()!=null && cell.getTable().getNumFeatures()>index)
+				count+=cell.getValue(index);
 		}
 		
 		return count;
@@ -127,6 +127,8 @@ public class HistogramPlot extends JPanel implements ImageCapturePanel
 		TheWells = new Model_Well[len];
 		for (int i = 0; i < len; i++)
 			TheWells[i] = (Model_Well)arr.get(i);
+		// Keeping the plotted cells in memory while this plot is up
+		models.Model_CellDataCache.getCache().pinWells(this, TheWells);
 
 		TheFeature = feature;
 		TheHistogram = this;
@@ -416,6 +418,7 @@ public class HistogramPlot extends JPanel implements ImageCapturePanel
 		TheWells = new Model_Well[len];
 		for (int i = 0; i < len; i++)
 			TheWells[i] = (Model_Well)arr.get(i);
+		models.Model_CellDataCache.getCache().pinWells(this, TheWells);
 		
 		float[][] data = null;
 		int numWells = TheWells.length;
@@ -428,15 +431,15 @@ public class HistogramPlot extends JPanel implements ImageCapturePanel
 			data = new float[numWells][];
 			for (int w = 0; w < numWells; w++)
 			{
-				float[][] allCells = TheWells[w].getCell_values();
+				float[] column = TheWells[w].getCellColumn(feature_index);
 
-				int numCells = allCells.length;
+				int numCells = column.length;
 				
 				data[w] = new float[numCells];
 				int counter=0;
 				for (int i = 0; i < numCells; i++)
 				{
-					float val = allCells[i][feature_index];
+					float val = column[i];
 					if (LogScaleButton.isSelected())
 						val = (float)tools.MathOps.log(val);
 					if (val>Float.NEGATIVE_INFINITY && val< Float.POSITIVE_INFINITY)
@@ -1132,6 +1135,7 @@ public class HistogramPlot extends JPanel implements ImageCapturePanel
 	
 	public void kill()
 	{
+		models.Model_CellDataCache.getCache().unpinWells(this);
 		TheData = null;
 		if(TheBars!=null)
 		{
@@ -0,0 +1,333 @@
+/**
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package processors;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import models.Model_Field;
+import models.SegmentationParameters;
+import segmentedobject.CellCoordinates;
+import segmentors.CellSegmentor;
+import segmentors.SegmentorAdapter;
+import segmentors.TiledSegmentor;
+import tools.FieldHistogram;
+import tools.FieldRaster;
+
+/**
+ * Work-stealing executor that segments and featurizes fields in parallel.
+ * Fields are submitted in the order given and handed back in that same order
+ * via next(), so the caller can act as the single HDF5 writer stage while the
+ * worker threads keep busy on the fields ahead of it. Rasters are decoded
+ * ahead of time by a RasterPrefetcher and a field is only handed to a worker
+ * once its images are in memory, giving a pipelined load, segment, featurize,
+ * persist flow. Only a bounded window of fields is kept in flight at any time,
+ * and the prefetcher caps the memory held by decoded rasters.
+ *
+ * @author BLM
+ */
+public class FieldProcessingEngine
+{
+	private ForkJoinPool ThePool;
+	private CellSegmentor TheSegmentor;
+	private ThreadLocal<CellSegmentor> WorkerSegmentors;
+	private Model_Field[] FieldsToProcess;
+	private RasterPrefetcher ThePrefetcher;
+	private LinkedList<FieldTask> InFlight;
+	private int NextToSubmit;
+	private int Parallelism;
+	private int WindowSize;
+
+	/** Number of fields loaded ahead of the ones being segmented by default */
+	static public final int DEFAULT_PREFETCH_DEPTH = 2;
+
+	/**
+	 * Creates an engine for the given ordered list of fields
+	 *
+	 * @param fields
+	 *            all fields to process, in the order results are wanted
+	 * @param segmentor
+	 *            the segmentor prototype; each worker thread gets its own
+	 *            instance of the same class since segmentors keep per-field
+	 *            state
+	 * @param numThreads
+	 *            degree of parallelism, values < 1 are treated as 1
+	 * @author BLM
+	 */
+	public FieldProcessingEngine(Model_Field[] fields, CellSegmentor segmentor,
+			int numThreads)
+	{
+		this(fields, segmentor, numThreads, DEFAULT_PREFETCH_DEPTH,
+				RasterPrefetcher.getDefaultMaxBytes());
+	}
+
+	/**
+	 * Creates an engine for the given ordered list of fields
+	 *
+	 * @param fields
+	 *            all fields to process, in the order results are wanted
+	 * @param segmentor
+	 *            the segmentor prototype
+	 * @param numThreads
+	 *            degree of parallelism, values < 1 are treated as 1
+	 * @param prefetchDepth
+	 *            how many fields beyond those being segmented may be loaded
+	 *            ahead
+	 * @param maxPrefetchBytes
+	 *            upper bound on memory held by decoded rasters
+	 * @author BLM
+	 */
+	public FieldProcessingEngine(Model_Field[] fields, CellSegmentor segmentor,
+			int numThreads, int prefetchDepth, long maxPrefetchBytes)
+	{
+		FieldsToProcess = fields;
+		TheSegmentor = segmentor;
+		Parallelism = Math.max(1, numThreads);
+
+		//Segmentors are stateful, so if we cannot clone one per worker we must stay serial
+		if (Parallelism > 1 && newSegmentorInstance() == null)
+		{
+			System.out.println("**** WARNING: segmentor "
+					+ segmentor.getClass().getName()
+					+ " cannot be instantiated per thread --> processing fields serially");
+			Parallelism = 1;
+		}
+
+		WindowSize = Parallelism + Math.max(0, prefetchDepth);
+		InFlight = new LinkedList<FieldTask>();
+		ThePool = new ForkJoinPool(Parallelism);
+		ThePrefetcher = new RasterPrefetcher(models.Model_Main.getModel()
+				.getTheChannelNames(), maxPrefetchBytes);
+		WorkerSegmentors = new ThreadLocal<CellSegmentor>()
+		{
+			protected CellSegmentor initialValue()
+			{
+				if (Parallelism == 1)
+					return TheSegmentor;
+				return newSegmentorInstance();
+			}
+		};
+
+		NextToSubmit = 0;
+		while (InFlight.size() < WindowSize && submitNext())
+			;
+	}
+
+	/** Returns the degree of parallelism actually in use
+	 * @author BLM*/
+	public int getParallelism()
+	{
+		return Parallelism;
+	}
+
+	/** Returns true if there are results that have not been taken yet
+	 * @author BLM*/
+	public boolean hasNext()
+	{
+		return InFlight.size() > 0;
+	}
+
+	/**
+	 * Blocks until the next field in submission order is done and returns its
+	 * result. Exceptions thrown by the worker are rethrown here.
+	 *
+	 * @author BLM
+	 */
+	public FieldResult next() throws Exception
+	{
+		FieldTask task = InFlight.removeFirst();
+		submitNext();
+		try
+		{
+			return task.Future.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/** Cancels everything not yet started and releases the worker threads
+	 * @author BLM*/
+	public void shutdown()
+	{
+		ThePrefetcher.shutdown();
+		for (int i = 0; i < InFlight.size(); i++)
+			InFlight.get(i).Future.cancel(false);
+		InFlight.clear();
+		NextToSubmit = FieldsToProcess.length;
+		ThePool.shutdown();
+	}
+
+	private boolean submitNext()
+	{
+		if (NextToSubmit >= FieldsToProcess.length)
+			return false;
+		Model_Field field = FieldsToProcess[NextToSubmit];
+		NextToSubmit++;
+		FieldTask task = new FieldTask(field);
+		InFlight.add(task);
+		ThePrefetcher.request(field, task);
+		return true;
+	}
+
+	/** One field moving through the pipeline: queued with the prefetcher, then handed to
+	 * the worker pool once its raster has been decoded
+	 * @author BLM*/
+	private class FieldTask implements RasterPrefetcher.Listener,
+			Callable<FieldResult>
+	{
+		private Model_Field TheField;
+		private FieldRaster TheRaster;
+		private Exception LoadError;
+		private FutureTask<FieldResult> Future;
+
+		FieldTask(Model_Field field)
+		{
+			TheField = field;
+			Future = new FutureTask<FieldResult>(this);
+		}
+
+		public void rasterLoaded(Model_Field field, FieldRaster raster,
+				Exception error)
+		{
+			TheRaster = raster;
+			LoadError = error;
+			try
+			{
+				ThePool.execute(Future);
+			}
+			catch (RejectedExecutionException e)
+			{
+				//Engine was shut down while this field was loading
+				ThePrefetcher.release(raster);
+				TheRaster = null;
+			}
+		}
+
+		public FieldResult call() throws Exception
+		{
+			if (LoadError != null)
+				throw LoadError;
+			try
+			{
+				return processField(TheField, TheRaster, WorkerSegmentors.get());
+			}
+			finally
+			{
+				ThePrefetcher.release(TheRaster);
+				TheRaster = null;
+			}
+		}
+	}
+
+	private CellSegmentor newSegmentorInstance()
+	{
+		if (TheSegmentor instanceof TiledSegmentor)
+			return ((TiledSegmentor) TheSegmentor).copy();
+		try
+		{
+			return TheSegmentor.getClass().getDeclaredConstructor()
+					.newInstance();
+		}
+		catch (ReflectiveOperationException e)
+		{
+			// No public no-argument constructor, or it threw
+			return null;
+		}
+		catch (SecurityException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Loads, segments and featurizes a single field. Only touches state owned
+	 * by this field, so it is safe to run on any worker thread.
+	 *
+	 * @author BLM
+	 */
+	static public FieldResult processField(Model_Field field,
+			CellSegmentor theSegmentor)
+	{
+		//  (1) Converting the images files to a raster
+		FieldRaster raster = tools.ImageTools.getFieldRaster_FromFiles(
+				field.getImageFiles(), models.Model_Main.getModel()
+						.getTheChannelNames());
+		return processField(field, raster, theSegmentor);
+	}
+
+	/**
+	 * Segments and featurizes a single field whose raster has already been
+	 * loaded
+	 *
+	 * @author BLM
+	 */
+	static public FieldResult processField(Model_Field field,
+			FieldRaster raster, CellSegmentor theSegmentor)
+	{
+		FieldResult result = new FieldResult();
+		result.field = field;
+		SegmentationParameters params = field.getParameterSet().compile();
+		int numChannels = models.Model_Main.getModel().getNumberOfChannels();
+
+		result.fieldDimensions = new int[] { raster.getHeight(),
+				raster.getWidth(), numChannels };
+		result.histogram = raster.getHistogram();
+
+		//  (2) Computing the background from each channel
+		result.backgroundValues = new float[numChannels];
+		if (params.getBkgdThreshold() > 0)
+			tools.ImageTools.computeBackgroundValues(raster,
+					result.backgroundValues, params);
+
+		// (3) Getting Cell Coordinates (segmenting the cells)
+		if (field.getROIs() != null)
+			theSegmentor.setROIs(field.getROIs());
+		result.cellCoords = SegmentorAdapter.segmentCells(theSegmentor, raster,
+				params);
+		theSegmentor.clearROIs();
+
+		// (4) Computing the feature values from the cell coordinates and the raster
+		result.cellFeatureMatrix = Processor_SingleCells.computeFeatureValues(
+				result.cellCoords, raster, result.backgroundValues);
+		return result;
+	}
+
+	/** Everything the writer stage needs to persist one processed field
+	 * @author BLM*/
+	static public class FieldResult
+	{
+		public Model_Field field;
+		public int[] fieldDimensions;
+		public float[] backgroundValues;
+		public FieldHistogram histogram;
+		public ArrayList<CellCoordinates> cellCoords;
+		public float[][] cellFeatureMatrix;
+	}
+}
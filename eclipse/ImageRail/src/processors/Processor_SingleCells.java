@@ -22,12 +22,14 @@ package processors;
 
 
 import features.Feature;
+import features.FusedFeatureEngine;
 import imagerailio.ImageRail_SDCube;
 import imagerailio.Point;
 
 import java.awt.Color;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import models.Model_Field;
 import models.Model_Plate;
@@ -35,6 +37,8 @@ import models.Model_Well;
 import sdcubeio.H5IO_Exception;
 import segmentedobject.CellCoordinates;
 import segmentors.CellSegmentor;
+import tools.FeatureStatistics;
+import tools.FieldRaster;
 
 public class Processor_SingleCells extends Thread implements Processor
 {
@@ -43,14 +47,92 @@ public class Processor_SingleCells extends Thread implements Processor
 	private int TotalCells;
 	private CellSegmentor TheSegmentor;
 	private File ResultsFile;
+	private int NumThreads;
+	private int CheckpointInterval = 1;
+	private int PrefetchDepth = FieldProcessingEngine.DEFAULT_PREFETCH_DEPTH;
+	private long PrefetchMemory = RasterPrefetcher.getDefaultMaxBytes();
+	private boolean SkipCompleted;
 	
 	
 	public Processor_SingleCells(Model_Well[] wellsToProcess, CellSegmentor segmentor)
+	{
+		this(wellsToProcess, segmentor, getDefaultNumThreads());
+	}
+	
+	/** Creates a processor that segments up to numThreads fields at once. HDF5 writing is
+	 * still done by a single thread in well/field order
+	 * @author BLM*/
+	public Processor_SingleCells(Model_Well[] wellsToProcess, CellSegmentor segmentor, int numThreads)
 	{
 		//These are the wells we will process
 		WellsToProcess = wellsToProcess;
 		//The segmentor that is going to be used to segment the cells
 		TheSegmentor = segmentor;
+		//How many fields we segment in parallel
+		NumThreads = Math.max(1, numThreads);
+	}
+	
+	/** Returns the number of processing threads to use if none is specified; can be overridden
+	 * with the system property "imagerail.threads"
+	 * @author BLM*/
+	static public int getDefaultNumThreads()
+	{
+		int num = Runtime.getRuntime().availableProcessors();
+		String prop = System.getProperty("imagerail.threads");
+		if (prop != null)
+		{
+			try
+			{
+				num = Integer.parseInt(prop.trim());
+			}
+			catch (NumberFormatException e)
+			{
+				System.out.println("**** WARNING: ignoring invalid imagerail.threads value: "+prop);
+			}
+		}
+		return Math.max(1, num);
+	}
+	
+	/** Sets the number of fields that will be segmented in parallel
+	 * @author BLM*/
+	public void setNumThreads(int numThreads)
+	{
+		NumThreads = Math.max(1, numThreads);
+	}
+	
+	public int getNumThreads()
+	{
+		return NumThreads;
+	}
+	
+	/** Sets how many wells are written between flushes of the HDF5 file; 0 only flushes
+	 * once all wells are done
+	 * @author BLM*/
+	public void setCheckpointInterval(int numWells)
+	{
+		CheckpointInterval = Math.max(0, numWells);
+	}
+	
+	/** Sets how many fields are loaded from disk ahead of the ones being segmented
+	 * @author BLM*/
+	public void setPrefetchDepth(int numFields)
+	{
+		PrefetchDepth = Math.max(0, numFields);
+	}
+	
+	/** Sets the most memory in bytes that prefetched rasters may hold at once
+	 * @author BLM*/
+	public void setPrefetchMemory(long bytes)
+	{
+		PrefetchMemory = Math.max(0, bytes);
+	}
+	
+	/** If true, fields and wells that an earlier run already marked complete in the output
+	 * file are not processed again
+	 * @author BLM*/
+	public void setSkipCompleted(boolean boo)
+	{
+		SkipCompleted = boo;
 	}
 	
 	//When this thread starts, we run...
@@ -184,36 +266,29 @@ public class Processor_SingleCells extends Thread implements Processor
 	
 	
 	
-	/** Computes the main data matrix of size NumCells x numFeatures.
+	/** One feature engine per worker thread, since it reuses its per-cell buffers */
+	static private ThreadLocal<FusedFeatureEngine> FeatureEngines = new ThreadLocal<FusedFeatureEngine>();
+	
+	/** Computes the main data matrix of size NumCells x numFeatures. Each cell's pixels are
+	 * walked once for all features that support it, see FusedFeatureEngine
 	 * @param  ArrayList<Cell_coords> cells
-	 * @param int[][][] raster
+	 * @param FieldRaster raster
 	 * @author BLM*/
-	float[][] computeFeatureValues(ArrayList<CellCoordinates> cells, int[][][] raster, float[] backgroundValues)
+	static float[][] computeFeatureValues(ArrayList<CellCoordinates> cells, FieldRaster raster, float[] backgroundValues)
 	{
 		ArrayList<Feature> features = models.Model_Main.getModel().getTheFeatures();
-		int numFeatures = features.size();
 
 		if (cells == null || cells.size() == 0)
 			return null;
 
-		int numC = cells.size();
-		float[][] data = new float[numC][numFeatures];
-		
-		long[] intTime = new long[numFeatures];
-		
-		for (int n = 0; n < numC; n++)
+		FusedFeatureEngine engine = FeatureEngines.get();
+		if (engine == null || engine.getFeatures() != features
+				|| engine.getNumFeatures() != features.size())
 		{
-			CellCoordinates cell = cells.get(n);
-			for (int f = 0; f < numFeatures; f++)
-			{
-				long time = System.currentTimeMillis();
-				data[n][f] = features.get(f).getValue(cell, raster, backgroundValues);
-				intTime[f]+=(System.currentTimeMillis()-time);
-			}
+			engine = new FusedFeatureEngine(features);
+			FeatureEngines.set(engine);
 		}
-		
-		
-		return data;
+		return engine.computeFeatureValues(cells, raster, backgroundValues);
 	}
 	
 	
@@ -225,22 +300,61 @@ public class Processor_SingleCells extends Thread implements Processor
 	public void processWells(Model_Well[] wells, CellSegmentor theSegmentor)
 	{
 		ImageRail_SDCube io = models.Model_Main.getModel().getH5IO();
+		FieldProcessingEngine engine = null;
 		if (io != null)
 		try
  {
 
 			//Initializing some storage variables
-			float[] backgroundValues = new float[models.Model_Main.getModel().getNumberOfChannels()];
 			int numWells = wells.length;
 			long StartTime  = System.currentTimeMillis();
 			models.Model_Main.getModel().setProcessing(true);
 			
+			//Finding the work that an earlier run already finished
+			HashSet<String> completed = new HashSet<String>();
+			if (SkipCompleted)
+			{
+				completed = io.readCompletionMarkers();
+				System.out.println("Found " + completed.size()
+						+ " completion markers from earlier runs");
+			}
+			
+			//Queueing up every field of every well; the engine segments them in parallel
+			//and hands the results back in this same order so we remain the only HDF5 writer
+			ArrayList<Model_Field> allFields = new ArrayList<Model_Field>();
+			for (int w = 0; w < numWells; w++)
+			{
+				String wellKey = io.getIndexKey(wells[w].getPlate().getID(), wells[w].getWellIndex());
+				if (completed.contains(wellKey))
+					continue;
+				for (int f = 0; f < wells[w].getFields().length; f++)
+					if (!completed.contains(wellKey + "f" + f))
+						allFields.add(wells[w].getFields()[f]);
+			}
+			engine = new FieldProcessingEngine(
+					allFields.toArray(new Model_Field[allFields.size()]),
+					theSegmentor, NumThreads, PrefetchDepth, PrefetchMemory);
+			System.out.println("Segmenting fields with "
+					+ engine.getParallelism() + " thread(s)");
+			
+			//Keeping the output file open for the whole run, flushing it every few wells
+			io.setCheckpointInterval(CheckpointInterval);
+			io.beginSession(ImageRail_SDCube.OUTPUT);
+			
 			for (int w = 0; w < numWells; w++)
 			{
 				if (!models.Model_Main.getModel().shouldStop())
 					break;
 
 				Model_Well well = wells[w];
+				int wellIndex = well.getWellIndex();
+				int plateIndex = well.getPlate().getID();
+				String wellKey = io.getIndexKey(plateIndex, wellIndex);
+				if (completed.contains(wellKey))
+				{
+					System.out.println(" Well: " + well.name + " already complete --> skipping");
+					continue;
+				}
 				well.clearOldData();
 	
 				String thisWell = well.name;
@@ -254,13 +368,10 @@ public class Processor_SingleCells extends Thread implements Processor
 						models.Model_Main.getModel().getPlateRepository_GUI()
 								.updatePanel();
 				
-				int wellIndex = (well.getPlate().getNumRows()*well.Column)+well.Row;
-				int plateIndex = well.getPlate().getID();
-				
 				//Now processing all the fields for this well
 				int numFields = well.getFields().length;
 				TotalCells = 0;
-				ArrayList<float[][]> allDataForThisWell = new ArrayList<float[][]>();
+				ArrayList<FeatureStatistics> statsForThisWell = new ArrayList<FeatureStatistics>();
 				for (int f = 0; f < numFields; f++)
 				{
 					if (!models.Model_Main.getModel().shouldStop())
@@ -268,44 +379,34 @@ public class Processor_SingleCells extends Thread implements Processor
 
 					System.out.println("	Field: " + (f + 1));
 					
-					//  (1) Getting all the channel images for this field
-					Model_Field field = well.getFields()[f];
-					File[] images_oneField = field.getImageFiles();
-					
-					//  (2) Converting the images files to a raster
-					Raster = tools.ImageTools.getImageRaster_FromFiles_copy(
-							images_oneField, models.Model_Main.getModel()
-									.getTheChannelNames());
-					
-					//  (3) Computing the background from each channel
-					if (field.getParameterSet().getParameter_float(
-							"Thresh_Bkgd_Value") > 0)
-						tools.ImageTools.computeBackgroundValues(Raster,
-								backgroundValues, field.getParameterSet());
-					field.setBackgroundValues(backgroundValues);
-					
-					// (4) Getting Cell Coordinates (segmenting the cells)
-					if (field.getROIs() != null)
-						theSegmentor.setROIs(field.getROIs());
-					ArrayList<CellCoordinates> cellCoords = theSegmentor
-							.segmentCells(Raster, field.getParameterSet());
-					theSegmentor.clearROIs();
-					
+					//Reusing the stored results of fields finished by an earlier run
+					if (completed.contains(wellKey + "f" + f))
+					{
+						System.out.println("	already complete --> reading stored feature statistics");
+						FeatureStatistics stored = io.readFeatureStatistics(plateIndex, wellIndex, f, ImageRail_SDCube.OUTPUT);
+						//Fields written before statistics were stored only have their values
+						if (stored == null)
+							stored = FeatureStatistics.of(io.readFeatures_output(plateIndex, wellIndex, f));
+						well.getFields()[f].setStatistics(stored);
+						statsForThisWell.add(stored);
+						continue;
+					}
 					
-					// (5) Initializing all the data values calculated via the Cell coordinates, the Raster, and the loaded Feature objects
-					// EX: Now that we have the pixel coordinates that make up each cell we need to look at the
-					//image and extract the proper values
+					//  (1-5) Waiting on the engine to load, segment and compute features for this field
+					FieldProcessingEngine.FieldResult result = engine.next();
+					Model_Field field = result.field;
+					field.setBackgroundValues(result.backgroundValues);
+					ArrayList<CellCoordinates> cellCoords = result.cellCoords;
+					float[][] cellFeatureMatrix = result.cellFeatureMatrix;
 					long time = System.currentTimeMillis();
-					System.out.println("-->> Performing Feature Computations");
-					// Compute
-					int numChannels = models.Model_Main.getModel()
-							.getNumberOfChannels();
-
-					float[][] cellFeatureMatrix = computeFeatureValues(cellCoords, Raster, backgroundValues);
+					boolean written = false;
+					
 					if(cellFeatureMatrix!=null && cellFeatureMatrix.length>0)
 					{
-						// Stashing the data to combine with other fields
-						allDataForThisWell.add(cellFeatureMatrix);
+						// Keeping only the statistics to combine with other fields
+						FeatureStatistics stats = FeatureStatistics.of(cellFeatureMatrix);
+						field.setStatistics(stats);
+						statsForThisWell.add(stats);
 						//
 						// Now writing Cell coordinate data to HDF file
 						System.out.println("------------ Caching cell data Matrix and Coordinates to HDF file: ------------");
@@ -314,30 +415,27 @@ public class Processor_SingleCells extends Thread implements Processor
 						// -------------- Store cells in HDF5 -------------------------------------------------------
 						try
 						{
-							int[] fieldDimensions = { Raster.length,
-									Raster[0].length, numChannels };
-
-								io.openHDF5(io.OUTPUT);
+							int[] fieldDimensions = result.fieldDimensions;
 							io.createField(well.getID(), plateIndex, wellIndex,
 									f,
 									fieldDimensions, models.Model_Main.getModel()
 											.getExpDesignConnector());
-								io.closeHDF5();
 
 							//Writing data matrix to HDF
-								io.openHDF5(io.OUTPUT);
 							io.writeFeatures(plateIndex, wellIndex, f,
-									cellFeatureMatrix);
-								io.closeHDF5();
+									cellFeatureMatrix, stats);
 							//Writing the feature names to file
 							Feature[] features = models.Model_Main.getModel().getFeatures();
 							String[] fNames = new String[features.length];
 							for (int i = 0; i < features.length; i++)
 								fNames[i] = new String(features[i].toString());
 
-								io.openHDF5(io.OUTPUT);
 							io.writeFeatureNames(plateIndex, wellIndex, f, fNames);
-								io.closeHDF5();
+
+							//Writing the pixel histograms counted when the images were decoded
+							if (result.histogram != null)
+								io.writeFieldHistograms(plateIndex, wellIndex, f,
+										result.histogram.toMatrix());
 
 							String whatToSave = field.getParameterSet()
 									.getParameter_String("CoordsToSaveToHDF");
@@ -345,9 +443,7 @@ public class Processor_SingleCells extends Thread implements Processor
 							{
 								//Only save the cell BoundingBoxes to file
 								ArrayList<CellCoordinates> bbox = segmentedobject.CellCoordinates.getBoundingBoxOfCoordinates(cellCoords);
-									io.openHDF5(io.OUTPUT);
 								io.writeCellBoundingBoxes( plateIndex, wellIndex, f, bbox);
-									io.closeHDF5();
 								killCellCoordinates(bbox);
 								killCellCoordinates(cellCoords);
 							}
@@ -355,9 +451,7 @@ public class Processor_SingleCells extends Thread implements Processor
 							{
 								//Only save the cell Centroids to file
 								ArrayList<CellCoordinates> centroids = segmentedobject.CellCoordinates.getCentroidOfCoordinates(cellCoords);
-									io.openHDF5(io.OUTPUT);
 								io.writeCellCentroids(plateIndex, wellIndex, f, centroids);
-									io.closeHDF5();
 
 								killCellCoordinates(centroids);
 								killCellCoordinates(cellCoords);
@@ -367,18 +461,14 @@ public class Processor_SingleCells extends Thread implements Processor
 								//Only save the cell outlines to file
 								ArrayList<CellCoordinates> outlines = segmentedobject.CellCoordinates.getSingleCompartmentCoords(cellCoords, "Outline");
 
-									io.openHDF5(io.OUTPUT);
 								io.writeWholeCells( plateIndex, wellIndex, f, outlines);
-									io.closeHDF5();
 								
 								killCellCoordinates(outlines);
 								killCellCoordinates(cellCoords);
 							}
 							else if (whatToSave.equalsIgnoreCase("Everything"))
 							{
-									io.openHDF5(io.OUTPUT);
 								io.writeWholeCells( plateIndex, wellIndex, f, cellCoords);
-									io.closeHDF5();
 
 								killCellCoordinates(cellCoords);
 							}
@@ -386,6 +476,7 @@ public class Processor_SingleCells extends Thread implements Processor
 							
 							if(Math.random()>0.7)
 								System.gc();
+							written = true;
 						}
 						catch (Exception e)
 						{
@@ -408,26 +499,37 @@ public class Processor_SingleCells extends Thread implements Processor
 											field.getIndexInWell());
 						
 							// Cleaning up
-						Raster = null;
 							if (well.getPlate().getGUI() != null)
 								well.getPlate().getGUI().repaint();
+							
+							//Only now is everything for this field on disk
+							if (written)
+								io.markFieldComplete(plateIndex, wellIndex, f,
+										cellFeatureMatrix.length);
 					}
 					else
+					{
 						System.out.println("-----**No Cells Found in this well with the given parameter **-----");
-					Raster = null;
-					System.gc();
+						io.markFieldComplete(plateIndex, wellIndex, f, 0);
+					}
+					result = null;
 				}
 				
 					if (models.Model_Main.getModel().getGUI() != null
 							&& models.Model_Main.getModel().getGUI()
 									.getLoadCellsImmediatelyCheckBox()
 							.isSelected())
+				{
+					//Loading reads through the input file, so release the output session meanwhile
+					io.endSession();
 					well.loadCells(io, true, true);
+					io.beginSession(ImageRail_SDCube.OUTPUT);
+				}
 				
 				well.processing = false;
 				if (well!=null)
 				{
-					well.setDataValues(allDataForThisWell);
+					well.setStatistics(FeatureStatistics.merge(statsForThisWell));
 					
 				}
 				
@@ -442,25 +544,23 @@ public class Processor_SingleCells extends Thread implements Processor
 				//Trying to write mean value data to file
 				if(well.Feature_Means!=null && io!=null)
 				{
-						io.openHDF5(io.OUTPUT);
 					io.writeWellMeans(plateIndex, wellIndex,
 									well.Feature_Means);
-						io.closeHDF5();
 
 				}
 				if(well.Feature_Stdev!=null && io!=null)
  {
-						io.openHDF5(io.OUTPUT);
 					io.writeWellStdDevs(plateIndex, wellIndex,
 							well.Feature_Stdev);
-						io.closeHDF5();
 					}
 				//Writing HDF5 well sample metadata
 				int totNumWells = well.getPlate().getNumRows() * well.getPlate().getNumColumns();
 
-					io.openHDF5(io.OUTPUT);
 				io.writeParentPlateInfo(plateIndex, wellIndex,totNumWells);
-					io.closeHDF5();
+				//A well stopped part way through is left unmarked so it gets finished next time
+				if (models.Model_Main.getModel().shouldStop())
+					io.markWellComplete(plateIndex, wellIndex);
+				io.checkpoint();
 
 				// io.writeSegmentationParameters(plateIndex, wellIndex,
 				// (int)well.getParameterSet().getParameter_float("Thresh_Nuc_Value"),
@@ -469,6 +569,7 @@ public class Processor_SingleCells extends Thread implements Processor
 			}
 			
 			
+			io.endSession();
 			System.out.println("*** Finished: "+ (System.currentTimeMillis()-StartTime));
 			models.Model_Main.getModel().setProcessing(false);
 			System.gc();
@@ -487,6 +588,11 @@ public class Processor_SingleCells extends Thread implements Processor
 			// Handle this exception!!!
 			e.printStackTrace();
 		}
+		finally
+		{
+			if (engine != null)
+				engine.shutdown();
+		}
 	}
 	
 	
@@ -23,23 +23,71 @@ import features.Feature;
 import imagerailio.ImageRail_SDCube;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import models.Model_Field;
 import models.Model_Plate;
 import models.Model_Well;
+import models.SegmentationParameters;
 import sdcubeio.H5IO_Exception;
-import segmentors.DefaultSegmentor_v1;
+import tools.FieldIntegrator;
 
 public class Processor_WellAverage extends Thread implements Processor
 {
 	private Model_Well[] WellsToProcess;
 	private File ResultsFile;
 	private boolean ClusterRun;
+	private int NumThreads;
 	
 	public Processor_WellAverage(Model_Well[] wellsToProcess)
 	{
 		WellsToProcess = wellsToProcess;
 		ClusterRun = false;
+		NumThreads = Processor_SingleCells.getDefaultNumThreads();
+	}
+	
+	/** Sets the number of fields that will be integrated in parallel
+	 * @author BLM*/
+	public void setNumThreads(int numThreads)
+	{
+		NumThreads = Math.max(1, numThreads);
+	}
+	
+	/** Queues the integration of every field of every well on the given pool
+	 * @author BLM*/
+	private List<List<Future<FieldIntegrator.Result>>> submitAll(ForkJoinPool pool)
+	{
+		final String[] channelNames = models.Model_Main.getModel().getTheChannelNames();
+		List<List<Future<FieldIntegrator.Result>>> pending = new ArrayList<List<Future<FieldIntegrator.Result>>>(
+				WellsToProcess.length);
+		for (int w = 0; w < WellsToProcess.length; w++)
+		{
+			Model_Field[] fields = WellsToProcess[w].getFields();
+			List<Future<FieldIntegrator.Result>> futures = new ArrayList<Future<FieldIntegrator.Result>>(
+					fields.length);
+			for (int f = 0; f < fields.length; f++)
+			{
+				final Model_Field field = fields[f];
+				futures.add(pool.submit(new Callable<FieldIntegrator.Result>()
+				{
+					public FieldIntegrator.Result call()
+					{
+						if (!models.Model_Main.getModel().shouldStop())
+							return null;
+						SegmentationParameters params = field.getParameterSet().compile();
+						return FieldIntegrator.integrateOverMask(field.getImageFiles(),
+								channelNames, params.getCytChannelIndex(),
+								params.getCytThreshold());
+					}
+				}));
+			}
+			pending.add(futures);
+		}
+		return pending;
 	}
 	
 	public void run()
@@ -55,6 +103,8 @@ public class Processor_WellAverage extends Thread implements Processor
 		long StartTime  = System.currentTimeMillis();
 		models.Model_Main.getModel().setProcessing(true);
 		String[] featureNames = null;
+		ForkJoinPool pool = null;
+		List<List<Future<FieldIntegrator.Result>>> pending = null;
 
 		ImageRail_SDCube io = models.Model_Main.getModel().getH5IO();
 		
@@ -68,6 +118,11 @@ public class Processor_WellAverage extends Thread implements Processor
 						featureNames[i] = features[i].toString();
 
 				}
+		//Integrating the fields of all wells in parallel, streaming their images; results are
+		//consumed below in well/field order by this thread, which alone writes to the HDF5 file
+		pool = new ForkJoinPool(NumThreads);
+		pending = submitAll(pool);
+
 		//Processing all the wells
 		for (int w = 0; w < numWells; w++)
 		{
@@ -95,12 +150,23 @@ public class Processor_WellAverage extends Thread implements Processor
 					break;
 
 				Model_Field field = well.getFields()[f];
-				File[] images_oneField = field.getImageFiles();
-				int[][][] Raster_Channels = tools.ImageTools
-						.getImageRaster_FromFiles_copy(images_oneField,
-								models.Model_Main.getModel().getTheChannelNames());
-				int[] fieldDimensions = { Raster_Channels.length,
-						Raster_Channels[0].length, Raster_Channels[0][0].length };
+				// Getting integrated values of the images for each channel
+				FieldIntegrator.Result sums = null;
+				try
+				{
+					sums = pending.get(w).get(f).get();
+				}
+				catch (Exception e)
+				{
+					System.out.println("** Error integrating field "+f+" of well "+well.name+" **");
+					e.printStackTrace();
+				}
+				if (sums == null)
+				{
+					System.out.println("**** WARNING: no images could be read for field "+f+" of well "+well.name+" --> skipping it");
+					continue;
+				}
+				int[] fieldDimensions = sums.dimensions;
 				try {
 					io.openHDF5(io.OUTPUT);
 					io.createField(well.getID(), well.getPlate().getID(), well
@@ -113,15 +179,11 @@ public class Processor_WellAverage extends Thread implements Processor
 							.println("** Error creating field in HDF5 file **");
 					e.printStackTrace();
 				}
-				// Getting integrated values of the images for each channel
-				float[][] tempIntegration = DefaultSegmentor_v1
-						.findTotalIntegrationAndTotalPixUsed(Raster_Channels,
-								field.getParameterSet());
+				float[][] tempIntegration = sums.integration;
 				// storing this data
 				for (int p = 0; p < tempIntegration.length; p++)
 					totalIntegration[p] += tempIntegration[p][0];
 				totalPix += tempIntegration[0][1];
-				Raster_Channels = null;
 
 						// Storing Parameters used to process this field
 						String hdfPath = models.Model_Main.getModel()
@@ -227,6 +289,10 @@ public class Processor_WellAverage extends Thread implements Processor
 							.println("**ERROR closing HFD5 file during crash");
 					e1.printStackTrace();
 				}
+			} finally {
+				// Not leaving the worker threads behind, whatever happened
+				if (pool != null)
+					pool.shutdownNow();
 			}
 
 		System.out.println("*** Finished: "+ (System.currentTimeMillis()-StartTime));
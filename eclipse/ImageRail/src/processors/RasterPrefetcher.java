@@ -0,0 +1,217 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package processors;
+
+import java.util.LinkedList;
+
+import models.Model_Field;
+import tools.FieldRaster;
+
+/**
+ * Background I/O stage that decodes field rasters ahead of the segmentation
+ * workers. Requests are loaded one after another, in the order they were
+ * queued, on a single loader thread so disk reads overlap with segmentation
+ * instead of alternating with it. The bytes held by decoded rasters that have
+ * not been released yet are bounded by a memory cap; the loader waits for
+ * memory to be released before decoding further ahead, but always lets at
+ * least one raster through so a cap smaller than a single field cannot stall
+ * the pipeline.
+ * 
+ * @author BLM
+ */
+public class RasterPrefetcher
+{
+	/** Notified on the loader thread once a requested raster has been decoded
+	 * @author BLM*/
+	public interface Listener
+	{
+		/**
+		 * Called with the decoded raster, or with a null raster and the
+		 * exception if loading failed. The receiver owns the raster and must
+		 * hand it back via release() when done with it.
+		 */
+		public void rasterLoaded(Model_Field field, FieldRaster raster,
+				Exception error);
+	}
+
+	private String[] ChannelNames;
+	private long MaxBytes;
+	private long BytesHeld;
+	private long LastRasterBytes;
+	private LinkedList<Model_Field> QueuedFields;
+	private LinkedList<Listener> QueuedListeners;
+	private boolean Stopped;
+	private Thread Loader;
+
+	/**
+	 * Starts the loader thread
+	 * 
+	 * @param channelNames
+	 *            the channel names used to match image files to planes
+	 * @param maxBytes
+	 *            upper bound on the bytes held by decoded, unreleased rasters
+	 * @author BLM
+	 */
+	public RasterPrefetcher(String[] channelNames, long maxBytes)
+	{
+		ChannelNames = channelNames;
+		MaxBytes = maxBytes;
+		QueuedFields = new LinkedList<Model_Field>();
+		QueuedListeners = new LinkedList<Listener>();
+		Loader = new Thread("ImageRail raster prefetch")
+		{
+			public void run()
+			{
+				runLoader();
+			}
+		};
+		Loader.setDaemon(true);
+		Loader.start();
+	}
+
+	/** Returns the default memory cap for prefetched rasters: a quarter of the maximum heap,
+	 * or the number of megabytes given by the system property "imagerail.prefetchMB"
+	 * @author BLM*/
+	static public long getDefaultMaxBytes()
+	{
+		long bytes = Runtime.getRuntime().maxMemory() / 4;
+		String prop = System.getProperty("imagerail.prefetchMB");
+		if (prop != null)
+		{
+			try
+			{
+				bytes = Long.parseLong(prop.trim()) * 1024L * 1024L;
+			}
+			catch (NumberFormatException e)
+			{
+				System.out.println("**** WARNING: ignoring invalid imagerail.prefetchMB value: "+prop);
+			}
+		}
+		return Math.max(0, bytes);
+	}
+
+	/** Queues the given field for loading; the listener is called once its raster is ready
+	 * @author BLM*/
+	public synchronized void request(Model_Field field, Listener listener)
+	{
+		if (Stopped)
+			return;
+		QueuedFields.add(field);
+		QueuedListeners.add(listener);
+		notifyAll();
+	}
+
+	/** Returns the memory of a raster obtained from this prefetcher to the budget
+	 * @author BLM*/
+	public synchronized void release(FieldRaster raster)
+	{
+		if (raster == null)
+			return;
+		BytesHeld -= getBytes(raster);
+		notifyAll();
+	}
+
+	/** Returns the bytes currently held by decoded rasters that have not been released
+	 * @author BLM*/
+	public synchronized long getBytesHeld()
+	{
+		return BytesHeld;
+	}
+
+	/** Stops the loader thread; requests not yet loaded are dropped
+	 * @author BLM*/
+	public synchronized void shutdown()
+	{
+		Stopped = true;
+		QueuedFields.clear();
+		QueuedListeners.clear();
+		notifyAll();
+	}
+
+	private void runLoader()
+	{
+		while (true)
+		{
+			Model_Field field;
+			Listener listener;
+			synchronized (this)
+			{
+				// Waiting for work, and for room in the budget. The size of the
+				// last raster is our estimate for the next one since all fields
+				// of a plate share the same dimensions
+				while (!Stopped
+						&& (QueuedFields.size() == 0 || (BytesHeld > 0 && BytesHeld
+								+ LastRasterBytes > MaxBytes)))
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+				if (Stopped)
+					return;
+				field = QueuedFields.removeFirst();
+				listener = QueuedListeners.removeFirst();
+			}
+
+			FieldRaster raster = null;
+			Exception error = null;
+			try
+			{
+				raster = tools.ImageTools.getFieldRaster_FromFiles(
+						field.getImageFiles(), ChannelNames);
+				if (raster == null)
+					error = new Exception("No images could be loaded for field "
+							+ field.getIndexInWell() + " of well "
+							+ field.getParentWell().name);
+			}
+			catch (Exception e)
+			{
+				error = e;
+			}
+			catch (OutOfMemoryError e)
+			{
+				error = new Exception("Out of memory loading field "
+						+ field.getIndexInWell() + " of well "
+						+ field.getParentWell().name);
+			}
+
+			if (raster != null)
+			{
+				synchronized (this)
+				{
+					LastRasterBytes = getBytes(raster);
+					BytesHeld += LastRasterBytes;
+				}
+			}
+			listener.rasterLoaded(field, raster, error);
+		}
+	}
+
+	static private long getBytes(FieldRaster raster)
+	{
+		return 2L * raster.getNumPixels() * raster.getNumChannels();
+	}
+}
@@ -0,0 +1,227 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package run;
+
+import imagerailio.ImageRail_SDCube;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Properties;
+
+import models.Model_Main;
+import models.Model_Well;
+import processors.Processor_SingleCells;
+import segmentors.CellSegmentor;
+import segmentors.DefaultSegmentor_v1;
+import segmentors.TiledSegmentor;
+
+/**
+ * Headless, resumable batch segmentation of one shard of a project. The wells
+ * with images and parameters are put in a fixed plate/well order and dealt out
+ * round-robin, so shard i of N processes wells i, i+N, i+2N, ... Each shard
+ * writes to its own output SDCube. Every finished field and well is marked in
+ * that SDCube, and re-running the same command skips the marked work and picks
+ * up where a crashed run stopped. When the shard ends, a manifest describing
+ * it is written next to its Data.h5 for merging.
+ * 
+ * @author BLM
+ */
+public class BatchRunner {
+
+	/** Name of the manifest file written into each shard's output SDCube */
+	static public final String MANIFEST_NAME = "Shard_Manifest.properties";
+
+	/** For commandline segmentation */
+	public static void main(String[] args) {
+		if (args.length != 4) {
+			String st = "\n\n\n\n";
+			st += "***********************************************\n";
+			st += "***********************************************\n";
+			st += " ERROR:  " + args.length
+					+ " --> Incorrect number of parameters\n\n";
+			st += "Provide the following arguments for commandline processing:\n\n"
+					+ "ARG_0 --- (String) Path name that we want to process\n"
+					+ "ARG_1 ---> (String) Path of the SDCube this shard writes to\n"
+					+ "ARG_2 ---> (int) Shard Index, starting at 0\n"
+					+ "ARG_3 ---> (int) Number of Shards\n\n"
+					+ "Re-running a shard with the same arguments resumes it.\n"
+					+ "Set -Dimagerail.threads=N to limit the threads used.\n"
+					+ "Set -Dimagerail.tileSize=N to segment large fields in NxN tiles.\n";
+			st += "***********************************************\n";
+			st += "***********************************************\n\n\n\n";
+			System.out.println(st);
+			System.exit(2);
+		}
+
+		boolean finished = false;
+		try {
+			String inputPath = args[0];
+			String outputPath = args[1];
+			int shardIndex = Integer.parseInt(args[2].trim());
+			int numShards = Integer.parseInt(args[3].trim());
+			if (numShards < 1 || shardIndex < 0 || shardIndex >= numShards) {
+				System.out.println("**ERROR: shard index must be between 0 and "
+						+ (numShards - 1));
+				System.exit(2);
+			}
+
+			Model_Main TheModel = new Model_Main();
+			TheModel.loadProject(inputPath, outputPath);
+
+			Model_Well[] wells = getShardWells(TheModel.getPlateRepository()
+					.getAllWells(), shardIndex, numShards);
+			System.out.println("Shard " + shardIndex + " of " + numShards
+					+ ": " + wells.length + " wells");
+
+			writeManifest(outputPath, inputPath, shardIndex, numShards, wells,
+					TheModel.getH5IO(), "running");
+
+			CellSegmentor segmentor = new DefaultSegmentor_v1();
+			int tileSize = TiledSegmentor.getDefaultTileSize();
+			Processor_SingleCells tasker;
+			if (tileSize > 0) {
+				// Large fields: one field at a time, its tiles in parallel
+				int numThreads = Processor_SingleCells.getDefaultNumThreads();
+				segmentor = new TiledSegmentor(segmentor, tileSize,
+						TiledSegmentor.DEFAULT_OVERLAP, numThreads);
+				tasker = new Processor_SingleCells(wells, segmentor, 1);
+			} else
+				tasker = new Processor_SingleCells(wells, segmentor);
+			tasker.setSkipCompleted(true);
+			tasker.runProcess();
+
+			finished = writeManifest(outputPath, inputPath, shardIndex,
+					numShards, wells, TheModel.getH5IO(), null);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		// Non-zero exit lets the cluster scheduler know this shard needs a re-run
+		System.exit(finished ? 0 : 1);
+	}
+
+	/**
+	 * Returns the processable wells that belong to the given shard, in
+	 * plate/well order
+	 * 
+	 * @author BLM
+	 */
+	static public Model_Well[] getShardWells(ArrayList<Model_Well> allWells,
+			int shardIndex, int numShards) {
+		ArrayList<Model_Well> wells = new ArrayList<Model_Well>();
+		for (int i = 0; i < allWells.size(); i++) {
+			Model_Well well = allWells.get(i);
+			// Only process wells with images and parameter sets
+			if (well.getFields() != null
+					&& well.getFields().length > 0
+					&& well.getFields()[0].getParameterSet() != null
+					&& well.getFields()[0].getParameterSet()
+							.getParameterNames() != null
+					&& well.getFields()[0].getParameterSet()
+							.getParameterNames().length > 0)
+				wells.add(well);
+		}
+
+		// Fixing the order so every shard agrees on who gets what
+		Collections.sort(wells, new Comparator<Model_Well>() {
+			public int compare(Model_Well a, Model_Well b) {
+				int pa = a.getPlate().getID();
+				int pb = b.getPlate().getID();
+				if (pa != pb)
+					return pa < pb ? -1 : 1;
+				int wa = a.getWellIndex();
+				int wb = b.getWellIndex();
+				return wa < wb ? -1 : (wa == wb ? 0 : 1);
+			}
+		});
+
+		ArrayList<Model_Well> shard = new ArrayList<Model_Well>();
+		for (int i = shardIndex; i < wells.size(); i += numShards)
+			shard.add(wells.get(i));
+		return shard.toArray(new Model_Well[shard.size()]);
+	}
+
+	/**
+	 * Writes the shard manifest into the output SDCube. The status is
+	 * "complete" once every well of the shard is marked complete in the output
+	 * file, "incomplete" otherwise, unless a status is given explicitly.
+	 * 
+	 * @return true if every well of the shard is complete
+	 * @author BLM
+	 */
+	static public boolean writeManifest(String outputPath, String inputPath,
+			int shardIndex, int numShards, Model_Well[] wells,
+			ImageRail_SDCube io, String status) {
+		HashSet<String> completed = io.readCompletionMarkers();
+		StringBuffer wellKeys = new StringBuffer();
+		int numComplete = 0;
+		int numFields = 0;
+		int numFieldsComplete = 0;
+		for (int i = 0; i < wells.length; i++) {
+			String key = io.getIndexKey(wells[i].getPlate().getID(), wells[i]
+					.getWellIndex());
+			if (i > 0)
+				wellKeys.append(",");
+			wellKeys.append(key);
+			if (completed.contains(key))
+				numComplete++;
+			for (int f = 0; f < wells[i].getFields().length; f++) {
+				numFields++;
+				if (completed.contains(key + "f" + f))
+					numFieldsComplete++;
+			}
+		}
+		boolean done = numComplete == wells.length;
+		if (status == null)
+			status = done ? "complete" : "incomplete";
+
+		Properties props = new Properties();
+		props.setProperty("shard.index", "" + shardIndex);
+		props.setProperty("shard.count", "" + numShards);
+		props.setProperty("input", new File(inputPath).getAbsolutePath());
+		props.setProperty("output", new File(outputPath).getAbsolutePath());
+		props.setProperty("status", status);
+		props.setProperty("wells", wellKeys.toString());
+		props.setProperty("wells.total", "" + wells.length);
+		props.setProperty("wells.complete", "" + numComplete);
+		props.setProperty("fields.total", "" + numFields);
+		props.setProperty("fields.complete", "" + numFieldsComplete);
+		props.setProperty("timestamp", ImageRail_SDCube.getTimeStamp());
+
+		try {
+			FileOutputStream out = new FileOutputStream(new File(outputPath,
+					MANIFEST_NAME));
+			try {
+				props.store(out, "ImageRail shard manifest");
+			} finally {
+				out.close();
+			}
+		} catch (Exception e) {
+			System.out.println("**ERROR writing shard manifest to: "
+					+ outputPath);
+			e.printStackTrace();
+		}
+		return done;
+	}
+}
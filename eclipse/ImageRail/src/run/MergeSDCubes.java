@@ -2,6 +2,11 @@ package run;
 
 import imagerailio.ImageRail_SDCube;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
 public class MergeSDCubes {
 
 	public static void main(String[] args) {
@@ -11,10 +16,41 @@ public class MergeSDCubes {
 		String[] in = new String[len - 1];
 		for (int i = 0; i < len - 1; i++)
 			in[i] = args[i];
+		warnAboutIncompleteShards(in);
 		ImageRail_SDCube.mergeSDCubes(in, args[len - 1]);
 
 		System.out.println("Total time to Merge: "
 				+ (System.currentTimeMillis() - time));
 	}
 
+	/** Looks for the manifests written by BatchRunner and warns about shards that did not finish
+	 * @author BLM*/
+	static private void warnAboutIncompleteShards(String[] paths) {
+		for (int i = 0; i < paths.length; i++) {
+			File f = new File(paths[i], BatchRunner.MANIFEST_NAME);
+			if (!f.exists())
+				continue;
+			Properties props = new Properties();
+			try {
+				FileInputStream in = new FileInputStream(f);
+				try {
+					props.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				System.out.println("**ERROR reading shard manifest: " + f);
+				e.printStackTrace();
+				continue;
+			}
+			if (!"complete".equals(props.getProperty("status")))
+				System.out.println("**WARNING: shard "
+						+ props.getProperty("shard.index") + " of "
+						+ props.getProperty("shard.count") + " in " + paths[i]
+						+ " is " + props.getProperty("status") + " ("
+						+ props.getProperty("wells.complete") + "/"
+						+ props.getProperty("wells.total") + " wells)");
+		}
+	}
+
 }
@@ -0,0 +1,47 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package run;
+
+import imagerailio.ImageRail_SDCube;
+
+/** Converts the per-cell coordinate groups of an existing project into the packed
+ * per-field layout. Usage: PackCellCoordinates <pathToProject>*/
+public class PackCellCoordinates {
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("ARG_0 ---> (String) Path to the SDCube project to convert");
+			return;
+		}
+		long time = System.currentTimeMillis();
+		try {
+			ImageRail_SDCube io = new ImageRail_SDCube(args[0], args[0]);
+			int num = io.migrateWholeCellsToPacked();
+			System.out.println("Converted " + num + " fields");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		System.out.println("Total time to convert: "
+				+ (System.currentTimeMillis() - time));
+	}
+
+}
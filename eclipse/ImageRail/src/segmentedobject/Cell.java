@@ -29,22 +29,36 @@ package segmentedobject;
 public class Cell {
 
 	private CellCoordinates coordinates;
-	private float[] featureValues;
-	private boolean selected;
+	private CellTable table;
+	private int row;
 	private int ID;
 
 	/**
 	 * Constructs and initializes a cell with an id, the coordinates and features.
+	 * The cell gets a one row CellTable of its own.
 	 * @param ID A unique identifier for the cell.
 	 * @param coords An array of the compartment coordinates; for example could be the compartment
 	 * coordinates a bounding box (2-points), centroid (1-point) or the whole pixels (?-points).
 	 * @param featureValues The calculated features for this cell; for example ratio of nucleus/cytoplasm intensity.
 	 */
 	public Cell(int ID, CellCoordinates coords, float[] featureValues) {
+		this(CellTable.fromRows(new int[] { ID },
+				new float[][] { featureValues == null ? new float[0]
+						: featureValues }), 0, coords);
+	}
+
+	/**
+	 * Constructs a cell that views the given row of a CellTable. Its feature
+	 * values, ID and selection state live in the table.
+	 * @param table The table holding the cell's feature values.
+	 * @param row The row of this cell in the table.
+	 * @param coords The compartment coordinates, or null if not loaded.
+	 */
+	public Cell(CellTable table, int row, CellCoordinates coords) {
 		this.coordinates = coords;
-		this.featureValues = featureValues;
-		selected = false;
-		this.ID = ID;
+		this.table = table;
+		this.row = row;
+		this.ID = table.getID(row);
 	}
 
 	/**
@@ -69,7 +83,9 @@ public class Cell {
 	 * @return Returns if the cell is selected.
 	 */
 	public boolean isSelected() {
-		return selected;
+		if (table == null)
+			return false;
+		return table.isSelected(row);
 	}
 
 	/**
@@ -78,7 +94,8 @@ public class Cell {
 	 * cell
 	 * */
 	public void setSelected(boolean select) {
-		selected = select;
+		if (table != null)
+			table.setSelected(row, select);
 	}
 
 	/**
@@ -107,22 +124,51 @@ public class Cell {
 	public void kill() {
 		if (coordinates != null)
 			coordinates.kill();
-		featureValues = null;
+		table = null;
 	}
 
 
 	/**
 	 * Get the vector which contains the computed feature values for a single cell.
-	 * @return Returns the feature values.
+	 * The values are copied out of the cell table, so prefer getValue() for
+	 * single features.
+	 * @return Returns the feature values, or null once the cell was killed.
 	 */
 	public float[] getFeatureValues() {
-		return featureValues;
+		if (table == null)
+			return null;
+		return table.getRow(row);
+	}
+
+	/**
+	 * Get one computed feature value of this cell.
+	 * @param feature The index of the feature.
+	 * @return Returns the feature value.
+	 */
+	public float getValue(int feature) {
+		return table.getValue(row, feature);
+	}
+
+	/**
+	 * Get the table holding this cell's feature values.
+	 * @return Returns the table, or null once the cell was killed.
+	 */
+	public CellTable getTable() {
+		return table;
+	}
+
+	/**
+	 * Get the row of this cell in its table.
+	 * @return Returns the row index.
+	 */
+	public int getRow() {
+		return row;
 	}
 
 	public String toString() {
 		String st = "";
 		st += "*******CELL - ID: " + ID + "\n";
-		st += "feature len: " + featureValues.length + "\n";
+		st += "feature len: " + (table == null ? 0 : table.getNumFeatures()) + "\n";
 		int len = coordinates.getComSize();
 		st += "Compartment len: " + len + "\n";
 		for (int i = 0; i < len; i++) {
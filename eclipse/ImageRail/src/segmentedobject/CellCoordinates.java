@@ -26,7 +26,7 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
 
-import tools.Pixel;
+import tools.LabelMap;
 
 /**
  * This class contains all the coordinates (pixels), which belongs to cell. The coordinates
@@ -165,6 +165,16 @@ public class CellCoordinates
 		return names;
 	}
 	
+	/**
+	 * Get the name of the compartment of the given index.
+	 * @param index The index of the compartment.
+	 * @return Returns the compartment name.
+	 */
+	public String getComName(int index)
+	{
+		return com[index].getName();
+	}
+	
 	/**
 	 * Get Coordinates of the compartment of the given index.
 	 * @param index The index of the compartment.
@@ -482,20 +492,19 @@ public class CellCoordinates
 	}
 
 	/**
-	 * Merges these two cells' coordinates into a combined larger cell. Note it
-	 * adopts the ID of cell1
+	 * Merges these cells' coordinates into a combined larger cell, relabeling
+	 * their pixels in the given label map with the ID of the first cell
 	 * 
 	 * @author Bjorn Millard
 	 */
 	static public CellCoordinates mergeCells(ArrayList<CellCoordinates> cells,
-			tools.Pixel[] pixels, int height) {
+			LabelMap labels) {
 
 		if (cells == null || cells.size() == 0)
 			return null;
 
 		int numCells = cells.size();
-		CellCoordinates cell1 = cells.get(0);
-		int ID = cell1.getID();
+		int ID = cells.get(0).getID();
 
 		// Adding the first nucleus as a CellCompartment Object
 		ArrayList<CellCompartment> cellComps = new ArrayList<CellCompartment>();
@@ -506,48 +515,32 @@ public class CellCoordinates
 			// Adding all the nuclei compartments for the new cell
 			Point[] pts = cells.get(c).getComCoordinates("Nucleus");
 			cellComps.add(new CellCompartment(pts, "Nucleus_0"));
-			// Reassigning the pixels IDs
-			int num = pts.length;
-			for (int i = 0; i < num; i++)
-				pixels[pts[i].y + pts[i].x * height].setID(ID);
+			for (int i = 0; i < pts.length; i++)
+				labels.set(labels.getIndex(pts[i]), ID);
 
 			// Adding the outlines of this nucleus to outline compartment
 			pts = cells.get(c).getComCoordinates("NucBoundary");
-			int len = pts.length;
-			for (int i = 0; i < len; i++)
+			for (int i = 0; i < pts.length; i++) {
 				outlinePts.add(pts[i]);
-			// Reassigning the pixels IDs
-			num = pts.length;
-			for (int i = 0; i < num; i++)
-				pixels[pts[i].y + pts[i].x * height].setID(ID);
+				labels.set(labels.getIndex(pts[i]), ID);
+			}
 
 			// Adding the cytoplasms to a single cellCompartment
 			pts = cells.get(c).getComCoordinates("Cytoplasm");
-			len = pts.length;
-			for (int i = 0; i < len; i++)
+			for (int i = 0; i < pts.length; i++) {
 				cytoPts.add(pts[i]);
-			// Reassigning the pixels IDs
-			num = pts.length;
-			for (int i = 0; i < num; i++)
-				pixels[pts[i].y + pts[i].x * height].setID(ID);
+				labels.set(labels.getIndex(pts[i]), ID);
+			}
 		}
 
 		//
 		// Init the new cell boundary pixels now
+		int[] neighbors = new int[8];
 		int numPix = cytoPts.size();
 		for (int p = 0; p < numPix; p++) {
-			Point po = (Point) cytoPts.get(p);
-			Pixel pix = pixels[po.y + po.x * height];
-			Pixel[] neighbors = pix.getNeighbors(pixels);
-			int len = neighbors.length;
-			for (int j = 0; j < len; j++) {
-				Pixel neigh = neighbors[j];
-				if (neigh.getID() != pix.getID()) {
-					// cytoBoundary.add(po);
-					outlinePts.add(po);
-					break;
-				}
-			}
+			Point po = cytoPts.get(p);
+			if (labels.isBorder(labels.getIndex(po), neighbors))
+				outlinePts.add(po);
 		}
 
 		// Creating the Cytoplasm
@@ -0,0 +1,390 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package segmentedobject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Column-oriented feature values of a set of cells (typically one field):
+ * one float[] per feature, one int ID per cell and a BitSet of the selected
+ * cells. Reading one feature across all cells is a scan of a single
+ * contiguous array, and getColumn() hands that array out without copying.
+ * 
+ * A table may be created with its columns not yet loaded and a
+ * ColumnLoader to fetch them. Each column is then read the first time it is
+ * asked for and kept, so plotting two features of a field only ever reads
+ * those two. Methods that need every feature (getRow(), toRows(),
+ * getColumns()) load whatever is missing first.
+ * 
+ * Cell objects are row views into a table, so selecting a Cell selects its
+ * row here. Deleting cells is done by selecting them and calling
+ * removeSelected(), which returns the table of the cells left.
+ * 
+ * @author BLM
+ */
+public final class CellTable
+{
+	/**
+	 * Source of the columns of a lazily loaded table
+	 * 
+	 * @author BLM
+	 */
+	public interface ColumnLoader
+	{
+		/**
+		 * Returns the given feature columns in the order asked, each holding
+		 * the values of all stored cells indexed by cell ID, or null if they
+		 * cannot be read
+		 */
+		public float[][] loadColumns(int[] features);
+	}
+
+	private final int NumCells;
+	/** [feature][cell], null where a column is not loaded yet */
+	private final float[][] Columns;
+	private final int[] IDs;
+	private final BitSet Selected;
+	private final ColumnLoader Loader;
+	/** True if row j holds the cell with ID j, so loaded columns need no reordering */
+	private final boolean IdentityIDs;
+
+	/**
+	 * Wraps the given [feature][cell] columns and cell IDs without copying.
+	 * All columns must hold one value per ID.
+	 * 
+	 * @author BLM
+	 */
+	public CellTable(int[] ids, float[][] columns)
+	{
+		this(ids, columns, null);
+		for (int i = 0; i < columns.length; i++)
+			if (columns[i] == null)
+				throw new IllegalArgumentException("Column " + i
+						+ " is missing and there is no loader");
+	}
+
+	/**
+	 * Creates a table of the given cells whose numFeatures columns are read
+	 * through the loader when first needed
+	 * 
+	 * @author BLM
+	 */
+	public CellTable(int[] ids, int numFeatures, ColumnLoader loader)
+	{
+		this(ids, new float[numFeatures][], loader);
+	}
+
+	private CellTable(int[] ids, float[][] columns, ColumnLoader loader)
+	{
+		for (int i = 0; i < columns.length; i++)
+			if (columns[i] != null && columns[i].length != ids.length)
+				throw new IllegalArgumentException("Column " + i + " has "
+						+ columns[i].length + " values for " + ids.length
+						+ " cells");
+		NumCells = ids.length;
+		Columns = columns;
+		IDs = ids;
+		Selected = new BitSet(NumCells);
+		Loader = loader;
+		boolean identity = true;
+		for (int j = 0; j < NumCells && identity; j++)
+			identity = ids[j] == j;
+		IdentityIDs = identity;
+	}
+
+	/**
+	 * Builds a table from a [cell][feature] matrix, as read from the HDF5
+	 * file. If ids is null, cell i gets ID i.
+	 * 
+	 * @author BLM
+	 */
+	static public CellTable fromRows(int[] ids, float[][] rows)
+	{
+		int numCells = rows.length;
+		int numF = numCells == 0 ? 0 : rows[0].length;
+		if (ids == null)
+			ids = getIdentityIDs(numCells);
+		float[][] columns = new float[numF][numCells];
+		for (int j = 0; j < numCells; j++)
+		{
+			float[] row = rows[j];
+			for (int i = 0; i < numF; i++)
+				columns[i][j] = row[i];
+		}
+		return new CellTable(ids, columns);
+	}
+
+	/** Returns the IDs 0..numCells-1
+	 * @author BLM*/
+	static public int[] getIdentityIDs(int numCells)
+	{
+		int[] ids = new int[numCells];
+		for (int j = 0; j < numCells; j++)
+			ids[j] = j;
+		return ids;
+	}
+
+	public int getNumCells()
+	{
+		return NumCells;
+	}
+
+	public int getNumFeatures()
+	{
+		return Columns.length;
+	}
+
+	/** Returns true if the given feature column is in memory
+	 * @author BLM*/
+	public synchronized boolean isColumnLoaded(int feature)
+	{
+		return Columns[feature] != null;
+	}
+
+	/** Returns true if every feature column is in memory
+	 * @author BLM*/
+	public synchronized boolean isFullyLoaded()
+	{
+		for (int i = 0; i < Columns.length; i++)
+			if (Columns[i] == null)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns roughly how many bytes of memory the loaded columns, IDs and
+	 * selection flags of this table take
+	 * 
+	 * @author BLM
+	 */
+	public synchronized long getLoadedBytes()
+	{
+		long bytes = 4L * NumCells + NumCells / 8;
+		for (int i = 0; i < Columns.length; i++)
+			if (Columns[i] != null)
+				bytes += 4L * NumCells;
+		return bytes;
+	}
+
+	/**
+	 * Makes sure the given feature columns are in memory, reading all the
+	 * missing ones with a single loader call
+	 * 
+	 * @author BLM
+	 */
+	public synchronized void loadColumns(int[] features)
+	{
+		int numMissing = 0;
+		int[] missing = new int[features.length];
+		for (int i = 0; i < features.length; i++)
+		{
+			int f = features[i];
+			if (Columns[f] != null)
+				continue;
+			boolean listed = false;
+			for (int k = 0; k < numMissing && !listed; k++)
+				listed = missing[k] == f;
+			if (!listed)
+				missing[numMissing++] = f;
+		}
+		if (numMissing == 0)
+			return;
+		missing = Arrays.copyOf(missing, numMissing);
+		Arrays.sort(missing);
+
+		float[][] loaded = null;
+		if (Loader != null)
+			loaded = Loader.loadColumns(missing);
+		if (loaded == null)
+			System.out.println("**Error: could not load " + numMissing
+					+ " feature columns, using NaNs");
+		for (int k = 0; k < numMissing; k++)
+		{
+			float[] col = new float[NumCells];
+			if (loaded == null || loaded[k] == null)
+				Arrays.fill(col, Float.NaN);
+			else if (IdentityIDs && loaded[k].length == NumCells)
+				col = loaded[k];
+			else
+				for (int j = 0; j < NumCells; j++)
+					col[j] = loaded[k][IDs[j]];
+			Columns[missing[k]] = col;
+		}
+	}
+
+	/** Returns the values of the given feature, one per cell, loading them if needed.
+	 * This is the backing array, so do not modify it.
+	 * @author BLM*/
+	public synchronized float[] getColumn(int feature)
+	{
+		if (Columns[feature] == null)
+			loadColumns(new int[] { feature });
+		return Columns[feature];
+	}
+
+	/** Returns all backing [feature][cell] columns, loading any that are missing. Do not modify them.
+	 * @author BLM*/
+	public synchronized float[][] getColumns()
+	{
+		if (!isFullyLoaded())
+			loadColumns(getIdentityIDs(Columns.length));
+		return Columns;
+	}
+
+	public float getValue(int cell, int feature)
+	{
+		return getColumn(feature)[cell];
+	}
+
+	/** Returns a copy of the feature values of the given cell
+	 * @author BLM*/
+	public float[] getRow(int cell)
+	{
+		float[][] columns = getColumns();
+		int numF = columns.length;
+		float[] row = new float[numF];
+		for (int i = 0; i < numF; i++)
+			row[i] = columns[i][cell];
+		return row;
+	}
+
+	/** Returns a copy of all values as a [cell][feature] matrix, the layout the HDF5 file stores
+	 * @author BLM*/
+	public float[][] toRows()
+	{
+		float[][] columns = getColumns();
+		int numF = columns.length;
+		float[][] rows = new float[NumCells][numF];
+		for (int i = 0; i < numF; i++)
+		{
+			float[] col = columns[i];
+			for (int j = 0; j < NumCells; j++)
+				rows[j][i] = col[j];
+		}
+		return rows;
+	}
+
+	/** Returns the ID of the given cell, which is also its index in the HDF5 file
+	 * @author BLM*/
+	public int getID(int cell)
+	{
+		return IDs[cell];
+	}
+
+	public synchronized boolean isSelected(int cell)
+	{
+		return Selected.get(cell);
+	}
+
+	public synchronized void setSelected(int cell, boolean select)
+	{
+		Selected.set(cell, select);
+	}
+
+	public synchronized int getNumSelected()
+	{
+		return Selected.cardinality();
+	}
+
+	/** Returns a copy of the selected cells, one bit per cell
+	 * @author BLM*/
+	public synchronized BitSet getSelection()
+	{
+		return (BitSet) Selected.clone();
+	}
+
+	/**
+	 * Returns a new table holding only the cells that are not selected, in
+	 * the same order and with nothing selected. Columns not loaded yet stay
+	 * unloaded and are read through the same loader when needed.
+	 * 
+	 * @author BLM
+	 */
+	public synchronized CellTable removeSelected()
+	{
+		int numLeft = NumCells - Selected.cardinality();
+		int[] ids = new int[numLeft];
+		int[] rows = new int[numLeft];
+		int counter = 0;
+		for (int j = Selected.nextClearBit(0); j < NumCells; j = Selected
+				.nextClearBit(j + 1))
+		{
+			ids[counter] = IDs[j];
+			rows[counter] = j;
+			counter++;
+		}
+		int numF = Columns.length;
+		float[][] columns = new float[numF][];
+		for (int i = 0; i < numF; i++)
+		{
+			float[] col = Columns[i];
+			if (col == null)
+				continue;
+			float[] left = new float[numLeft];
+			for (int j = 0; j < numLeft; j++)
+				left[j] = col[rows[j]];
+			columns[i] = left;
+		}
+		return new CellTable(ids, columns, Loader);
+	}
+
+	/**
+	 * Returns one cell view per row, in row order, paired with the given
+	 * coordinates (which may be null)
+	 * 
+	 * @author BLM
+	 */
+	public ArrayList<Cell> createCells(ArrayList<CellCoordinates> coords)
+	{
+		ArrayList<Cell> cells = new ArrayList<Cell>(NumCells);
+		for (int j = 0; j < NumCells; j++)
+			cells.add(new Cell(this, j, coords == null ? null : coords.get(j)));
+		return cells;
+	}
+
+	/**
+	 * Copies the given feature of all the given tables, in order, into one
+	 * array. A single table's column is returned as is.
+	 * 
+	 * @author BLM
+	 */
+	static public float[] concatColumn(ArrayList<CellTable> tables,
+			int feature)
+	{
+		if (tables.size() == 1)
+			return tables.get(0).getColumn(feature);
+		int len = 0;
+		for (int t = 0; t < tables.size(); t++)
+			len += tables.get(t).NumCells;
+		float[] out = new float[len];
+		int offset = 0;
+		for (int t = 0; t < tables.size(); t++)
+		{
+			CellTable table = tables.get(t);
+			System.arraycopy(table.getColumn(feature), 0, out, offset,
+					table.NumCells);
+			offset += table.NumCells;
+		}
+		return out;
+	}
+}
@@ -24,16 +24,20 @@ import imagerailio.Point;
 
 import java.awt.Shape;
 import java.util.ArrayList;
-import java.util.Collections;
 
 import models.Model_ParameterSet;
+import models.SegmentationParameters;
 import segmentedobject.CellCompartment;
 import segmentedobject.CellCoordinates;
+import tools.DistanceTransform;
+import tools.FieldRaster;
+import tools.IntList;
+import tools.LabelMap;
 import tools.LinearKernels;
-import tools.Pixel;
 import tools.SpatialFilter;
+import tools.Watershed;
 
-public class DefaultSegmentor_v1 implements CellSegmentor {
+public class DefaultSegmentor_v1 implements FieldRasterSegmentor {
 	private int height;
 	private int width;
 	private int numChannels;
@@ -48,45 +52,32 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 	 * */
 	public ArrayList<CellCoordinates> segmentCells(int[][][] raster,
 			Model_ParameterSet pset) {
+		return segmentCells(FieldRaster.fromIntRaster(raster), pset.compile());
+	}
+
+	public ArrayList<CellCoordinates> segmentCells(FieldRaster raster,
+			SegmentationParameters params) {
 		// Reinitializing the variables in case they are used in prior
 		// segmentation
-		height = raster.length;
-		width = raster[0].length;
-		numChannels = raster[0][0].length;
-		int[] Raster_Linear = convertToLinearRaster(raster);
+		height = raster.getHeight();
+		width = raster.getWidth();
+		numChannels = raster.getNumChannels();
+		int[] Raster_Linear = raster.toColumnMajorArray();
 		raster = null;
 
 		// Init all pixels to un-touched
-		Pixel[] pixels = new Pixel[height * width];
-		for (int c = 0; c < width; c++)
-			for (int r = 0; r < height; r++)
-				pixels[r + c * height] = new Pixel(r, c, -1, height, width);
+		LabelMap labels = new LabelMap(height, width);
 
 		// Step 1: Segmenting the nuclei
-		CellCompartment[] nuclei = segmentNuclei(Raster_Linear, pixels, pset);
+		CellCompartment[] nuclei = segmentNuclei(Raster_Linear, labels, params);
 
 		// Step 2: Growing the nuclear seeds into Cells
 		ArrayList<CellCoordinates> cells = growSeedsIntoCells(nuclei,
-				Raster_Linear, pixels, pset);
+				Raster_Linear, labels, params);
 
 		return cells;
 	}
 
-	/**
-	 * Converts the 3D raster to a 1D linear raster
-	 * */
-	private int[] convertToLinearRaster(int[][][] raster) {
-		height = raster.length;
-		width = raster[0].length;
-		numChannels = raster[0][0].length;
-		int[] linear = new int[height * width * numChannels];
-		for (int i = 0; i < numChannels; i++)
-			for (int c = 0; c < width; c++)
-				for (int r = 0; r < height; r++)
-					linear[r + (c * height) + (i * height * width)] = raster[r][c][i];
-		return linear;
-	}
-
 	/**
 	 * Converts the row, column and channelIndex into the linear array index
 	 * */
@@ -106,149 +97,56 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 	 * 
 	 * @author BLM
 	 */
-	private CellCompartment[] segmentNuclei(int[] raster, Pixel[] pixels,
-			Model_ParameterSet pset) {
-
-		ArrayList<CellCompartment> allNuclei = new ArrayList<CellCompartment>();
+	private CellCompartment[] segmentNuclei(int[] raster, LabelMap labels,
+			SegmentationParameters params) {
 
-
-		float[][] iRaster = new float[height][width];
-		float max = 0;
+		int nucOffset = getLinearRasterIndex(0, 0,
+				params.getNucChannelIndex());
+		float nucThreshold = params.getNucThreshold();
 
 		//
-		// Step 1: Computing and sorting the Euclidean Distances
+		// Step 1: Computing the Euclidean Distances
 		//
 		System.out.println("Step 1: Computing Euclidean Maps");
 
 		// Computing distance and Smoothing data with 7x7 kernal
+		boolean[] nucMask = new boolean[height * width];
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++)
-				if (raster[getLinearRasterIndex(r, c,
-						pset.getParameter_int("Thresh_Nuc_ChannelIndex"))] > pset
-						.getParameter_float("Thresh_Nuc_Value"))
-					iRaster[r][c] = 1e20f;
-
-		//tools.ImageTools.raster2tiff(iRaster, 0, "/tmp/beforedt.tif");
-		iRaster = SpatialFilter.distanceTransform(iRaster);
-		//tools.ImageTools.displayRaster(iRaster);		
-		//tools.ImageTools.raster2tiff(iRaster, 0, "/tmp/afterdt.tif");
-		iRaster = SpatialFilter.linearFilter(iRaster, LinearKernels
-.getLinearSmoothingKernal(5));
-		//tools.ImageTools.displayRaster(iRaster);
-		//tools.ImageTools.raster2tiff(iRaster, 0, "/tmp/afterlsk.tif");
-
+				nucMask[r * width + c] = raster[nucOffset + r + c * height] > nucThreshold;
+		int[] sqDist = DistanceTransform.squaredDistances(nucMask, height,
+				width);
+		nucMask = null;
+		float[][] iRaster = new float[height][width];
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++)
-				if (iRaster[r][c] > max)
-					max = iRaster[r][c];
+				iRaster[r][c] = sqDist[r * width + c];
+		sqDist = null;
 
-		pixels[0].resetIDs(pixels);
-		ArrayList<Pixel> pixList = new ArrayList<Pixel>(width
-				* height);
+		iRaster = SpatialFilter.linearFilter(iRaster, LinearKernels
+.getLinearSmoothingKernal(5));
 
+		// Flattening into the label map layout
+		float[] dist = new float[height * width];
 		for (int c = 0; c < width; c++)
-			for (int r = 0; r < height; r++) {
-				pixels[r + c * height].setValue((int) iRaster[r][c]);
-				if (pixels[r + c * height].getValue() > 0)
-					pixList.add(pixels[r + c * height]);
-			}
-		Collections.sort(pixList);
+			for (int r = 0; r < height; r++)
+				dist[r + c * height] = iRaster[r][c];
+		iRaster = null;
+
 		//
-		// Step 2: Finding the Ultimate Eroded Points
+		// Step 2: Finding the Ultimate Eroded Points and grouping the
+		// touching ones into seeds
 		//
 		System.out.println("Step 2: Finding Ultimate Eroded Points");
-		int NOT_PEAK = 1;
-		int PEAK = 2;
-		int len = pixList.size();
-		for (int h = 0; h < len; h++) {
-			Pixel pix = (Pixel) pixList.get(h);
-			int thisVal = pix.getValue();
-			if (thisVal != 0) {
-				Pixel[] neighs = pix.getNeighbors(pixels);
-				int num = neighs.length;
-				boolean hasUphillNeighbor = false;
-				for (int i = 0; i < num; i++)
-					if (pixels[neighs[i].getRow()
-							+ (neighs[i].getColumn() * height)]
-							.getValue() > thisVal) {
-						hasUphillNeighbor = true;
-						break;
-					}
-				if (hasUphillNeighbor)
-					pix.setID(NOT_PEAK);
-				else
-					pix.setID(PEAK);
-			}
-		}
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++)
-				if (pixels[r + (c * height)].getID() == PEAK) {
-					iRaster[r][c] = 255f;
-
-					// Dilating 1x some pixels
-					Pixel[] neighs = pixels[r + (c * height)]
-							.getNeighbors(
-							pixels);
-					int num = neighs.length;
-					for (int i = 0; i < num; i++) {
-						Pixel[] neighs2 = neighs[i].getNeighbors(pixels);
-						int size = neighs.length;
-						for (int n = 0; n < size; n++) {
-							if (neighs2[n].getRow() != r
-									&& neighs2[n].getColumn() != c)
-								if (iRaster[neighs2[n].getRow()][neighs2[n]
-										.getColumn()] == 255)
-									iRaster[neighs[i].getRow()][neighs[i]
-											.getColumn()] = 255f;
-						}
-
-					}
-				} else if (iRaster[r][c] != 255)
-					iRaster[r][c] = 0;
-
-		// tools.ImageTools.displayRaster(iRaster);
-
-		pixels[0].resetIDs(pixels);
-		// Growing the Ultimate Points outward till the nuclei threshold to
-		// create nuclei
-		// for each pixel that has not been visited, find all of its neighbors
-		// that are turned on and directly connecting
-		// and call them the same group
-
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++)
-				if (iRaster[r][c] > 0 && pixels[r + (c * height)].getID() == -1) {
-					ArrayList<Pixel> allPixels = new ArrayList<Pixel>();
-					pixels[r + (c * height)].setID(allNuclei.size());
-					allPixels.add(pixels[r + (c * height)]);
-					boolean validNuclei = true;
-					try {
-						assignAllPositiveNeighbors(pixels[r + (c * height)],
-								pixels, allPixels,
-								iRaster);
-					} catch (StackOverflowError e) {
-						validNuclei = false;
-					}
-
-
-					// only want nuclei > certain size to prevent noise being
-					// classified as a nuclei
-					if (validNuclei)
-						if (allPixels.size() > 0) {
-							// creating a new cell object & storing its centroid
-							int num = allPixels.size();
-							Point[] pts = new Point[num];
-							for (int i = 0; i < num; i++)
-								pts[i] = new Point(
-										allPixels.get(i).getColumn(), allPixels
-												.get(i).getRow());
-
-							CellCompartment nuc = new CellCompartment(pts,
-									"Nucleus", pixels[r + (c * height)].getID());
-							allNuclei.add(nuc);
-						}
-				}
-		allNuclei = expandNucleiFromSeeds(allNuclei, pixels, raster, pset);
+		int[] levels = null;
+		if (params.isNucWatershed())
+			levels = Watershed.quantize(dist);
+		ArrayList<IntList> seeds = Watershed.findSeeds(dist, labels);
+		dist = null;
+
+		// Growing the seeds outward till the nuclei threshold to create nuclei
+		ArrayList<CellCompartment> allNuclei = expandNucleiFromSeeds(seeds,
+				labels, raster, levels, params);
 		System.out.println("Num Nuclei: " + allNuclei.size());
 
 		// Converting to an array from list
@@ -256,53 +154,26 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 		CellCompartment[] temp = new CellCompartment[num];
 		for (int i = 0; i < num; i++)
 			temp[i] = (CellCompartment) allNuclei.get(i);
-		;
-
-		// Cleanning up the big mess in memory we just created
-		pixels = null;
-		iRaster = null;
-		pixList = null;
 
 		return temp;
 	}
 
-	private void assignAllPositiveNeighbors(Pixel pix, Pixel[] pixels,
-			ArrayList<Pixel> allPixelsInGroup, float[][] raster) {
-		Pixel[] neighbors = pix.getNeighbors(pixels);
-		int len = neighbors.length;
-		for (int i = 0; i < len; i++) {
-			Pixel p = neighbors[i];
-			if (p.getID() == -1
- && raster[p.getRow()][p.getColumn()] > 0) {
-				allPixelsInGroup.add(p);
-				p.setID(pix.getID());
-				assignAllPositiveNeighbors(p, pixels, allPixelsInGroup, raster);
-			}
-		}
-	}
-
-
-
-
 	public ArrayList<CellCoordinates> growSeedsIntoCells(
 			CellCompartment[] nuclei,
- int[] raster, Pixel[] pixels,
-			Model_ParameterSet pset) {
-
-		ArrayList<ArrayList<Point>> boundaryPts = new ArrayList<ArrayList<Point>>();
+ int[] raster, LabelMap labels,
+			SegmentationParameters params) {
 
 		// Resetting pixel IDs
-		pixels[0].resetIDs(pixels);
+		labels.reset();
 
 		int numNuc = nuclei.length;
 		ArrayList<CellCoordinates> cells = new ArrayList<CellCoordinates>(
 				numNuc);
-		ArrayList<ArrayList<Point>> tempCytoPointArrays = new ArrayList<ArrayList<Point>>();
 		for (int i = 0; i < numNuc; i++) {
 			Point[] pts = nuclei[i].getCoordinates();
 			int numPix = pts.length;
 			for (int p = 0; p < numPix; p++)
-				pixels[pts[p].y + (pts[p].x * height)].setID(i);
+				labels.set(labels.getIndex(pts[p]), i);
 
 			// creating a corresponding cell to go with this nucleus
 			ArrayList<CellCompartment> comps = new ArrayList<CellCompartment>();
@@ -311,28 +182,31 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 		}
 
 		// initially dialating nuclear pixels and calling them the first
-		// cytoplasmic pixels of that cell
+		// cytoplasmic pixels of that cell. Boundary entries >= 0 are nuclear
+		// pixel indices, entries < 0 point at position -(entry+1) of the
+		// cytoplasm list since those pixels belong to both
+		int[] neighbors = new int[8];
+		ArrayList<IntList> boundaryPts = new ArrayList<IntList>();
+		ArrayList<IntList> tempCytoPointArrays = new ArrayList<IntList>();
 		for (int n = 0; n < numNuc; n++) {
 			// NOTE cytoplasm needs to be the second compartment after nucleus
-			ArrayList<Point> cytoNewPts = new ArrayList<Point>();
-			ArrayList<Point> nucBoundPts = new ArrayList<Point>();
+			IntList cytoNewPts = new IntList();
+			IntList nucBoundPts = new IntList();
 			Point[] nucPts = nuclei[n].getCoordinates();
 			int numPix = nucPts.length;
 			for (int p = 0; p < numPix; p++) {
-				Pixel pix = pixels[nucPts[p].y + (nucPts[p].x * height)];
-				Pixel[] neighbors = pix.getNeighbors(pixels);
-				int len = neighbors.length;
+				int pix = labels.getIndex(nucPts[p]);
+				int id = labels.get(pix);
+				int len = labels.getNeighbors(pix, neighbors);
 				for (int i = 0; i < len; i++) {
-					Pixel neigh = neighbors[i];
-					if (neigh.getID() == -1) {
-						Point pt = new Point(neigh.getColumn(), neigh.getRow());
-						cytoNewPts.add(pt);
-						nucBoundPts.add(pt);
-						neigh.setID(pix.getID());
+					int neigh = neighbors[i];
+					if (labels.get(neigh) == LabelMap.UNLABELED) {
+						nucBoundPts.add(-(cytoNewPts.size() + 1));
+						cytoNewPts.add(neigh);
+						labels.set(neigh, id);
 					}
- else if (neigh.getID() != pix.getID())
-						nucBoundPts
-								.add(new Point(pix.getColumn(), pix.getRow()));
+ else if (labels.get(neigh) != id)
+						nucBoundPts.add(pix);
 				}
 			}
 			boundaryPts.add(nucBoundPts);
@@ -342,63 +216,35 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 		}
 
 		// now going through the cytoplasmic pixels and dilating only those
-		int diameter = 10000;
-		// String par = pset.getParameter("AnnulusSize");
-		// if (par != null
-		// && Integer.parseInt(pset.getParameter("AnnulusSize")) != -1)
-		// diameter = Integer.parseInt(pset.getParameter("AnnulusSize"));
-
-		while (true) {
-			boolean change = false;
-			for (int n = 0; n < numNuc; n++) {
-				ArrayList<Point> arr = tempCytoPointArrays.get(n);
-				int numPix = arr.size();
-				for (int p = 0; p < numPix; p++) {
-					Point po = (Point) arr.get(p);
-					Pixel pix = pixels[po.y + (po.x * height)];
-					Pixel[] neighbors = pix.getNeighbors(pixels);
-					int len = neighbors.length;
-					for (int i = 0; i < len; i++) {
-						Pixel neigh = neighbors[i];
-						if (neigh.getID() == -1
-								&& raster[getLinearRasterIndex(neigh.getRow(),
-										neigh.getColumn(),
-										pset.getParameter_int("Thresh_Cyt_ChannelIndex"))] > pset
-										.getParameter_float("Thresh_Cyt_Value")) {
-							change = true;
-							arr.add(new Point(neigh.getColumn(), neigh.getRow()));
-							neigh.setID(pix.getID());
-						}
-					}
-				}
-
-			}
-
-			if (!change)
-				break;
-		}
-
+		int cytOffset = getLinearRasterIndex(0, 0,
+				params.getCytChannelIndex());
+		float cytThreshold = params.getCytThreshold();
+		int numPixels = height * width;
+		boolean[] growable = new boolean[numPixels];
+		for (int i = 0; i < numPixels; i++)
+			growable[i] = raster[cytOffset + i] > cytThreshold;
+		labels.growRegions(tempCytoPointArrays, growable);
+		growable = null;
 
 		int num = cells.size();
 		for (int i = 0; i < num; i++) {
 			// Set the cytoplams and initializing the cell boundary pixels now
-			ArrayList<Point> bPts = boundaryPts.get(i);
-			ArrayList<Point> cytoPts = tempCytoPointArrays.get(i);
-			int numPix = cytoPts.size();
-			for (int p = 0; p < numPix; p++) {
-				Point po = (Point) cytoPts.get(p);
-				Pixel pix = pixels[po.y + (po.x * height)];
-
-				Pixel[] neighbors = pix.getNeighbors(pixels);
-				int len = neighbors.length;
-				for (int j = 0; j < len; j++) {
-					Pixel neigh = neighbors[j];
-					if (neigh.getID() != pix.getID()) {
-						bPts.add(po);
-						break;
-					}
-				}
+			IntList cyto = tempCytoPointArrays.get(i);
+			ArrayList<Point> cytoPts = labels.toPoints(cyto);
+			IntList nucBound = boundaryPts.get(i);
+			ArrayList<Point> bPts = new ArrayList<Point>();
+			for (int p = 0; p < nucBound.size(); p++) {
+				int entry = nucBound.get(p);
+				if (entry < 0)
+					bPts.add(cytoPts.get(-entry - 1));
+				else
+					bPts.add(labels.toPoint(entry));
 			}
+			int numPix = cyto.size();
+			for (int p = 0; p < numPix; p++)
+				if (labels.isBorder(cyto.get(p), neighbors))
+					bPts.add(cytoPts.get(p));
+
 			cells.get(i).addCompartment(cytoPts, "Cytoplasm");
 			cells.get(i).addCompartment(bPts, "Outline");
 		}
@@ -407,82 +253,40 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 	}
 
 	/***
-	 * takes in an arrayList of nulcei object seeds, expends them to the real
-	 * nuclei boundary, then returns a new set of nuclei with the expanded
+	 * takes in the pixel index lists of the nuclei seeds, expends them to the
+	 * real nuclei boundary, then returns a new set of nuclei with the expanded
 	 * boudnaries
 	 * 
 	 * @author BLM
 	 */
 	public ArrayList<CellCompartment> expandNucleiFromSeeds(
-			ArrayList<CellCompartment> nucSeeds, Pixel[] pixels,
-			int[] raster, Model_ParameterSet pset) {
+			ArrayList<IntList> nucSeeds, LabelMap labels, int[] raster,
+			int[] levels, SegmentationParameters params) {
 		int numNuc = nucSeeds.size();
-
-		// Getting all the nucPoints and adding them to arrLists for convenience
-		ArrayList<ArrayList<Pixel>> arrAllNuc = new ArrayList<ArrayList<Pixel>>(
-				numNuc);
-		for (int i = 0; i < numNuc; i++) {
-			ArrayList<Pixel> arr = new ArrayList<Pixel>();
-			CellCompartment nuc = nucSeeds.get(i);
-			Point[] coords = nuc.getCoordinates();
-			if (coords == null) {
-				System.out
-						.println("**Error: nuclei did not have coordinate array");
-				return null;
-			}
-			int num = coords.length;
-			for (int j = 0; j < num; j++)
-				arr.add(pixels[coords[j].y + (coords[j].x * height)]);
-			arrAllNuc.add(arr);
-			nuc.kill(); // clean it up a bit
-		}
-
-		int counter = 0;
-		while (true) {
-			boolean change = false;
-			for (int n = 0; n < numNuc; n++) {
-				ArrayList<Pixel> nuc = (ArrayList<Pixel>) arrAllNuc.get(n);
-				int numPix = nuc.size();
-				for (int p = 0; p < numPix; p++) {
-					Pixel pix = (Pixel) nuc.get(p);
-					Pixel[] neighbors = pix.getNeighbors(pixels);
-					int len = neighbors.length;
-					for (int i = 0; i < len; i++) {
-						Pixel neigh = neighbors[i];
-						if (neigh.getID() == -1
-								&& raster[getLinearRasterIndex(neigh.getRow(),
-										neigh.getColumn(),
-										pset.getParameter_int("Thresh_Nuc_ChannelIndex"))] > pset
-										.getParameter_float("Thresh_Nuc_Value")) {
-							change = true;
-							nuc.add(pixels[neigh.getRow()
-									+ (neigh.getColumn() * height)]);
-							neigh.setID(pix.getID());
-						}
-					}
-				}
-			}
-			counter++;
-			if (!change)// || counter > 300)
-				break;
-		}
+		int nucOffset = getLinearRasterIndex(0, 0,
+				params.getNucChannelIndex());
+		float nucThreshold = params.getNucThreshold();
+		// Pixels the nuclei can grow into
+		int numPixels = height * width;
+		boolean[] growable = new boolean[numPixels];
+		for (int i = 0; i < numPixels; i++)
+			growable[i] = raster[nucOffset + i] > nucThreshold;
+		if (levels == null)
+			labels.growRegions(nucSeeds, growable);
+		else
+			Watershed.flood(labels, nucSeeds, levels, growable);
+		growable = null;
 
 		// Now creating a new set of Nuclei
-		int len = arrAllNuc.size();
-		counter = 0;
-		ArrayList<CellCompartment> arr = new ArrayList<CellCompartment>(len);
-		for (int i = 0; i < len; i++) {
-			if (((ArrayList<Pixel>) arrAllNuc.get(i)).size() > 10) {
-				ArrayList<Pixel> ar = (ArrayList<Pixel>) arrAllNuc.get(i);
+		int counter = 0;
+		ArrayList<CellCompartment> arr = new ArrayList<CellCompartment>(numNuc);
+		for (int i = 0; i < numNuc; i++) {
+			IntList ar = nucSeeds.get(i);
+			if (ar.size() > 10) {
 				int size = ar.size();
-				ArrayList<Point> nucPts = new ArrayList<Point>(size);
 				for (int j = 0; j < size; j++)
- {
-					Pixel px = ((Pixel) ar.get(j));
-					px.setID(counter);
-					nucPts.add(new Point(px.getColumn(), px.getRow()));
-				}
-				arr.add(new CellCompartment(nucPts, "Nucleus"));
+					labels.set(ar.get(j), counter);
+				arr.add(new CellCompartment(labels.toPoints(ar), "Nucleus"));
 				counter++;
 			}
 		}
@@ -495,7 +299,7 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 		float[][] vals = null;
 		DefaultSegmentor_v1 theSegmentor = new DefaultSegmentor_v1();
 		vals = theSegmentor.getIntegratedChannelValuesOverMask_wPixelCount(
-				rgbRaster, pset);
+				rgbRaster, pset.compile());
 
 		return vals;
 	}
@@ -504,12 +308,12 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 			int[][][] rgbRaster, Model_ParameterSet pset) {
 		DefaultSegmentor_v1 theSegmentor = new DefaultSegmentor_v1();
 		float[][] vals = theSegmentor
-				.getMeanChannelValuesOverMask_Compartmented(rgbRaster, pset);
+				.getMeanChannelValuesOverMask_Compartmented(rgbRaster, pset.compile());
 		return vals;
 	}
 
 	public float[][] getMeanChannelValuesOverMask_Compartmented(
-			int[][][] raster_, Model_ParameterSet pset) {
+			int[][][] raster_, SegmentationParameters params) {
 		height = raster_.length;
 		width = raster_[0].length;
 		int numChannels = raster_[0][0].length;
@@ -526,34 +330,24 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++) {
 				// if part of cell
-				if (raster_[r][c][pset
-						.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Cyt_Value")) {
+				if (raster_[r][c][params.getNucChannelIndex()] > params.getCytThreshold()) {
 					wholeCounter++;
 					for (int i = 0; i < numChannels; i++)
 						wholeMeanVals[i] += raster_[r][c][i];
 				}
 				// is above cell boundary threshold but not part of nucleus
-				if (raster_[r][c][pset
-						.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Cyt_Value")
-						&& raster_[r][c][pset
-								.getParameter_int("Thresh_Nuc_ChannelIndex")] < pset
-								.getParameter_float("Thresh_Nuc_Value")) {
+				if (raster_[r][c][params.getNucChannelIndex()] > params.getCytThreshold()
+						&& raster_[r][c][params.getNucChannelIndex()] < params.getNucThreshold()) {
 					cytoCounter++;
 					for (int i = 0; i < numChannels; i++)
 						cytoMeanVals[i] += raster_[r][c][i];
 				}
 				// is above nucleus threshold
-				else if (raster_[r][c][pset
-						.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Nuc_Value")) {
+				else if (raster_[r][c][params.getNucChannelIndex()] > params.getNucThreshold()) {
 					nuclearCounter++;
 					for (int i = 0; i < numChannels; i++)
 						nuclearMeanVals[i] += raster_[r][c][i];
-				} else if (raster_[r][c][pset
-						.getParameter_int("Thresh_Nuc_ChannelIndex")] < pset
-						.getParameter_float("Thresh_Bkgd_Value")) {
+				} else if (raster_[r][c][params.getNucChannelIndex()] < params.getBkgdThreshold()) {
 					for (int i = 0; i < numChannels; i++)
 						bkgdMeans[i] += raster_[r][c][i];
 					bkgdCounter++;
@@ -582,7 +376,7 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 	}
 
 	public float[][] getIntegratedChannelValuesOverMask_wPixelCount(
-			int[][][] rgbRaster, Model_ParameterSet pset) {
+			int[][][] rgbRaster, SegmentationParameters params) {
 		height = rgbRaster.length;
 		width = rgbRaster[0].length;
 		int numChannels = rgbRaster[0][0].length;
@@ -592,9 +386,7 @@ public class DefaultSegmentor_v1 implements CellSegmentor {
 
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++) {
-				if (rgbRaster[r][c][pset
-						.getParameter_int("Thresh_Cyt_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Cyt_Value")) {
+				if (rgbRaster[r][c][params.getCytChannelIndex()] > params.getCytThreshold()) {
 					pixelCounter++;
 					for (int i = 0; i < numChannels; i++)
 						integValues[i][0] += rgbRaster[r][c][i];
@@ -0,0 +1,41 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package segmentors;
+
+import java.util.ArrayList;
+
+import models.SegmentationParameters;
+import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
+
+/**
+ * Segmentor that works directly on the planar FieldRaster. Segmentors that
+ * only implement CellSegmentor are still supported through
+ * SegmentorAdapter, which hands them the int[][][] copy of the raster. The
+ * parameters arrive already compiled, see Model_ParameterSet.compile().
+ * 
+ * @author BLM
+ */
+public interface FieldRasterSegmentor extends CellSegmentor
+{
+	public ArrayList<CellCoordinates> segmentCells(FieldRaster raster,
+			SegmentationParameters params);
+}
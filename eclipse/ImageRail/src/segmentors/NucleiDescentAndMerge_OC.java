@@ -26,22 +26,25 @@ import java.awt.Polygon;
 import java.awt.Shape;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
 
 import models.Model_ParameterSet;
+import models.SegmentationParameters;
 import segmentedobject.CellCompartment;
 import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
+import tools.IntList;
+import tools.LabelMap;
 import tools.LinearKernels;
-import tools.Pixel;
 import tools.SpatialFilter;
+import tools.Watershed;
 
 /**
  * @author blm13
  * 
  */
-public class NucleiDescentAndMerge_OC implements CellSegmentor {
+public class NucleiDescentAndMerge_OC implements FieldRasterSegmentor {
 	private int height;
 	private int width;
 	private int numChannels;
@@ -58,21 +61,23 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 	 * */
 	public ArrayList<CellCoordinates> segmentCells(int[][][] raster,
 			Model_ParameterSet pset) {
+		return segmentCells(FieldRaster.fromIntRaster(raster), pset.compile());
+	}
+
+	public ArrayList<CellCoordinates> segmentCells(FieldRaster raster,
+			SegmentationParameters params) {
 		// Reinitializing the variables in case they are used in prior
 		// segmentation
 		System.out.println("**Running Nuclei Descent Algorithm**");
 
-		height = raster.length;
-		width = raster[0].length;
-		numChannels = raster[0][0].length;
-		int[] Raster_Linear = convertToLinearRaster(raster);
+		height = raster.getHeight();
+		width = raster.getWidth();
+		numChannels = raster.getNumChannels();
+		int[] Raster_Linear = raster.toColumnMajorArray();
 		raster = null;
 
 		// Init all pixels to un-touched
-		Pixel[] pixels = new Pixel[height * width];
-		for (int c = 0; c < width; c++)
-			for (int r = 0; r < height; r++)
-				pixels[r + c * height] = new Pixel(r, c, -1, height, width);
+		LabelMap labels = new LabelMap(height, width);
 
 		// Creating a ROI no-grow boundary mapping so cells cant grown into them
 		// based on ROI designation
@@ -196,7 +201,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		// Step 1: Segmenting the nuclei
 		// 1) Identify all nuclei using the DNA channel above threshold in given
 		// channel
-		CellCompartment[] nuclei = segmentNuclei(Raster_Linear, pixels, pset);
+		CellCompartment[] nuclei = segmentNuclei(Raster_Linear, labels, params);
 
 		// Identify OC's:
 		// 2) Grow cytoplasms only for nuclei that are aVb3 positive (above a
@@ -212,7 +217,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		nucleiIsOC = new boolean[nuclei.length];
 		ArrayList<CellCoordinates> cellCoords_OCs = growOsteoclastNucleiIntoCells(
 				nuclei,
-				Raster_Linear, pixels, pset);
+				Raster_Linear, labels, params);
 
 		// Precursor identification:
 		// 1) Go back to remaining non-OC nuclei and grow those out to their
@@ -233,15 +238,16 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 				counter++;
 			}
 
-		// Resetting precursor cell IDs in the Pixel matrix
-		int rs = pixels.length;
+		// Resetting precursor cell IDs in the label map
+		int rs = labels.getNumPixels();
 		for (int r = 0; r < rs; r++)
-			if (pixels[r].getID() != -1 && !nucleiIsOC[pixels[r].getID()])
-				pixels[r].setID(-1);
+			if (labels.get(r) != LabelMap.UNLABELED
+					&& !nucleiIsOC[labels.get(r)])
+				labels.set(r, LabelMap.UNLABELED);
 
 		// Now growing the precursor cells
 		ArrayList<CellCoordinates> cellCoords_precursors = growPrecursorNucleiIntoCells(
-				pNucs, Raster_Linear, pixels, pset);
+				pNucs, Raster_Linear, labels, params);
 
 		// Combinging all cells into single ArrayList
 		ArrayList<CellCoordinates> cellCoords = new ArrayList<CellCoordinates>();
@@ -261,31 +267,18 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 	 * the given polygon
 	 * */
 	private boolean allNeighborsWithinROI(Point2D.Float p, Polygon poly,
-			Pixel[] pixels) {
-		Pixel pix = pixels[getLinearRasterIndex((int) p.y, (int) p.x)];
-		Pixel[] neighs = pix.getNeighbors(pixels);
-		for (int i = 0; i < neighs.length; i++) {
-			if (!poly.contains(neighs[i].getColumn(), neighs[i].getRow()))
+			LabelMap labels) {
+		int[] neighs = new int[8];
+		int len = labels.getNeighbors(
+				getLinearRasterIndex((int) p.y, (int) p.x), neighs);
+		for (int i = 0; i < len; i++) {
+			if (!poly.contains(labels.getColumn(neighs[i]),
+					labels.getRow(neighs[i])))
 				return false;
 		}
 		return true;
 	}
 
-	/**
-	 * Converts the 3D raster to a 1D linear raster
-	 * */
-	private int[] convertToLinearRaster(int[][][] raster) {
-		height = raster.length;
-		width = raster[0].length;
-		numChannels = raster[0][0].length;
-		int[] linear = new int[height * width * numChannels];
-		for (int i = 0; i < numChannels; i++)
-			for (int c = 0; c < width; c++)
-				for (int r = 0; r < height; r++)
-					linear[r + (c * height) + (i * height * width)] = raster[r][c][i];
-		return linear;
-	}
-
 	/**
 	 * Converts the row, column and channelIndex into the linear array index
 	 * */
@@ -305,16 +298,13 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 	 * 
 	 * @author BLM
 	 */
-	private CellCompartment[] segmentNuclei(int[] raster, Pixel[] pixels,
-			Model_ParameterSet pset) {
-
-		ArrayList<CellCompartment> allNuclei = new ArrayList<CellCompartment>();
+	private CellCompartment[] segmentNuclei(int[] raster, LabelMap labels,
+			SegmentationParameters params) {
 
 		float[][] iRaster = new float[height][width];
-		float max = 0;
 
 		//
-		// Step 1: Computing and sorting the Euclidean Distances
+		// Step 1: Computing the Euclidean Distances
 		//
 		System.out.println("Step 1: Computing Euclidean Maps");
 
@@ -322,8 +312,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++)
 				if (raster[getLinearRasterIndex(r, c,
-						pset.getParameter_int("Thresh_Nuc_ChannelIndex"))] > pset
-						.getParameter_float("Thresh_Nuc_Value"))
+						params.getNucChannelIndex())] > params.getNucThreshold())
 					iRaster[r][c] = 1e20f;
 
 		// tools.ImageTools.raster2tiff(iRaster, 0, "/tmp/beforedt.tif");
@@ -335,111 +324,25 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		// tools.ImageTools.displayRaster(iRaster);
 		// tools.ImageTools.raster2tiff(iRaster, 0, "/tmp/afterlsk.tif");
 
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++)
-				if (iRaster[r][c] > max)
-					max = iRaster[r][c];
-		pixels[0].resetIDs(pixels);
-		ArrayList<Pixel> pixList = new ArrayList<Pixel>(width * height);
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++) {
-				pixels[r + (c * height)].setValue((int) iRaster[r][c]);
-				if (pixels[r + (c * height)].getValue() > 0)
-					pixList.add(pixels[r + (c * height)]);
-			}
-		Collections.sort(pixList);
+		// Flattening into the label map layout
+		float[] dist = new float[height * width];
+		for (int c = 0; c < width; c++)
+			for (int r = 0; r < height; r++)
+				dist[r + c * height] = iRaster[r][c];
+		iRaster = null;
+
 		//
-		// Step 2: Finding the Ultimate Eroded Points
+		// Step 2: Finding the Ultimate Eroded Points and grouping the
+		// touching ones into seeds
 		//
 		System.out.println("Step 2: Finding Ultimate Eroded Points");
-		int NOT_PEAK = 1;
-		int PEAK = 2;
-		int len = pixList.size();
-		for (int h = 0; h < len; h++) {
-			Pixel pix = (Pixel) pixList.get(h);
-			int thisVal = pix.getValue();
-			if (thisVal != 0) {
-				Pixel[] neighs = pix.getNeighbors(pixels);
-				int num = neighs.length;
-				boolean hasUphillNeighbor = false;
-				for (int i = 0; i < num; i++)
-					if (pixels[neighs[i].getRow()
-							+ (neighs[i].getColumn() * height)].getValue() > thisVal) {
-						hasUphillNeighbor = true;
-						break;
-					}
-				if (hasUphillNeighbor)
-					pix.setID(NOT_PEAK);
-				else
-					pix.setID(PEAK);
-			}
-		}
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++)
-				if (pixels[r + c * height].getID() == PEAK) {
-					iRaster[r][c] = 255f;
-
-					// Dilating 1x some pixels
-					Pixel[] neighs = pixels[r + c * height]
-							.getNeighbors(pixels);
-					int num = neighs.length;
-					for (int i = 0; i < num; i++) {
-						Pixel[] neighs2 = neighs[i].getNeighbors(pixels);
-						int size = neighs.length;
-						for (int n = 0; n < size; n++) {
-							if (neighs2[n].getRow() != r
-									&& neighs2[n].getColumn() != c)
-								if (iRaster[neighs2[n].getRow()][neighs2[n]
-										.getColumn()] == 255)
-									iRaster[neighs[i].getRow()][neighs[i]
-											.getColumn()] = 255f;
-						}
+		labels.reset();
+		ArrayList<IntList> seeds = Watershed.findSeeds(dist, labels);
+		dist = null;
 
-					}
-				} else if (iRaster[r][c] != 255)
-					iRaster[r][c] = 0;
-
-		// tools.ImageTools.displayRaster(iRaster);
-
-		pixels[0].resetIDs(pixels);
-		// Growing the Ultimate Points outward till the nuclei threshold to
-		// create nuclei
-		// for each pixel that has not been visited, find all of its neighbors
-		// that are turned on and directly connecting
-		// and call them the same group
-
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++)
-				if (iRaster[r][c] > 0 && pixels[r + c * height].getID() == -1) {
-					ArrayList<Pixel> allPixels = new ArrayList<Pixel>();
-					pixels[r + c * height].setID(allNuclei.size());
-					allPixels.add(pixels[r + c * height]);
-					boolean validNuclei = true;
-					try {
-						assignAllPositiveNeighbors(pixels[r + c * height],
-								pixels, allPixels, iRaster);
-					} catch (StackOverflowError e) {
-						validNuclei = false;
-					}
-
-					// only want nuclei > certain size to prevent noise being
-					// classified as a nuclei
-					if (validNuclei)
-						if (allPixels.size() > 0) {
-							// creating a new cell object & storing its centroid
-							int num = allPixels.size();
-							Point[] pts = new Point[num];
-							for (int i = 0; i < num; i++)
-								pts[i] = new Point(
-										allPixels.get(i).getColumn(), allPixels
-												.get(i).getRow());
-
-							CellCompartment nuc = new CellCompartment(pts,
-									"Nucleus", pixels[r + c * height].getID());
-							allNuclei.add(nuc);
-						}
-				}
-		allNuclei = expandNucleiFromSeeds(allNuclei, pixels, raster, pset);
+		// Growing the seeds outward till the nuclei threshold to create nuclei
+		ArrayList<CellCompartment> allNuclei = expandNucleiFromSeeds(seeds,
+				labels, raster, params);
 		System.out.println("Num Nuclei: " + allNuclei.size());
 
 		// Converting to an array from list
@@ -451,31 +354,11 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 			temp[i].setID(i);
 		}
 
-		// Cleanning up the big mess in memory we just created
-		pixels = null;
-		iRaster = null;
-		pixList = null;
-
 		return temp;
 	}
 
-	private void assignAllPositiveNeighbors(Pixel pix, Pixel[] pixels,
-			ArrayList<Pixel> allPixelsInGroup, float[][] raster) {
-		Pixel[] neighbors = pix.getNeighbors(pixels);
-		int len = neighbors.length;
-		for (int i = 0; i < len; i++) {
-			Pixel p = neighbors[i];
-			if (p.getID() == -1 && raster[p.getRow()][p.getColumn()] > 0) {
-				allPixelsInGroup.add(p);
-				p.setID(pix.getID());
-
-				assignAllPositiveNeighbors(p, pixels, allPixelsInGroup, raster);
-			}
-		}
-	}
-
 	public float[][] getMeanChannelValuesOverMask_Compartmented(
-			int[][][] raster_, Model_ParameterSet pset) {
+			int[][][] raster_, SegmentationParameters params) {
 		height = raster_.length;
 		width = raster_[0].length;
 		int numChannels = raster_[0][0].length;
@@ -492,29 +375,24 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++) {
 				// if part of cell
-				if (raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Cyt_Value")) {
+				if (raster_[r][c][params.getNucChannelIndex()] > params.getCytThreshold()) {
 					wholeCounter++;
 					for (int i = 0; i < numChannels; i++)
 						wholeMeanVals[i] += raster_[r][c][i];
 				}
 				// is above cell boundary threshold but not part of nucleus
-				if (raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Cyt_Value")
-						&& raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] < pset
-								.getParameter_float("Thresh_Nuc_Value")) {
+				if (raster_[r][c][params.getNucChannelIndex()] > params.getCytThreshold()
+						&& raster_[r][c][params.getNucChannelIndex()] < params.getNucThreshold()) {
 					cytoCounter++;
 					for (int i = 0; i < numChannels; i++)
 						cytoMeanVals[i] += raster_[r][c][i];
 				}
 				// is above nucleus threshold
-				else if (raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Nuc_Value")) {
+				else if (raster_[r][c][params.getNucChannelIndex()] > params.getNucThreshold()) {
 					nuclearCounter++;
 					for (int i = 0; i < numChannels; i++)
 						nuclearMeanVals[i] += raster_[r][c][i];
-				} else if (raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] < pset
-						.getParameter_float("Thresh_Bkgd_Value")) {
+				} else if (raster_[r][c][params.getNucChannelIndex()] < params.getBkgdThreshold()) {
 					for (int i = 0; i < numChannels; i++)
 						bkgdMeans[i] += raster_[r][c][i];
 					bkgdCounter++;
@@ -543,7 +421,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 	}
 
 	public float[][] getIntegratedChannelValuesOverMask_wPixelCount(
-			int[][][] rgbRaster, Model_ParameterSet pset) {
+			int[][][] rgbRaster, SegmentationParameters params) {
 		height = rgbRaster.length;
 		width = rgbRaster[0].length;
 		int numChannels = rgbRaster[0][0].length;
@@ -553,8 +431,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++) {
-				if (rgbRaster[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Cyt_Value")) {
+				if (rgbRaster[r][c][params.getNucChannelIndex()] > params.getCytThreshold()) {
 					pixelCounter++;
 					for (int i = 0; i < numChannels; i++)
 						integValues[i][0] += rgbRaster[r][c][i];
@@ -568,8 +445,8 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 	}
 
 	public ArrayList<CellCoordinates> growOsteoclastNucleiIntoCells(
-			CellCompartment[] nuclei, int[] raster, Pixel[] pixels,
-			Model_ParameterSet pset) {
+			CellCompartment[] nuclei, int[] raster, LabelMap labels,
+			SegmentationParameters params) {
 
 		// The Array of CellCoordinate objects to return
 		ArrayList<CellCoordinates> cells_final = new ArrayList<CellCoordinates>();
@@ -579,7 +456,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		// numberPixelsThatTheseShareInCommon
 		Hashtable<String, Integer> hash_neighborsBorderLength = new Hashtable<String, Integer>();
 
-		pixels[0].resetIDs(pixels);
+		labels.reset();
 
 		int numNuc = nuclei.length;
 		ArrayList<CellCoordinates> cells = new ArrayList<CellCoordinates>(
@@ -588,17 +465,16 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		// Only operating on the OC nucs == nuclei with mean OC stain above
 		// threshold
 		CellCompartment[] nucs_OC = getNuceliWithOCstaining(nuclei, raster,
-				pset);
+				params);
 		int numN = nucs_OC.length;
-		ArrayList<ArrayList<Point>> tempCytoPointArrays = new ArrayList<ArrayList<Point>>();
+		ArrayList<IntList> tempCytoPointArrays = new ArrayList<IntList>();
 
 		for (int i = 0; i < numN; i++) {
 
 			Point[] pts = nucs_OC[i].getCoordinates();
 			int numPix = pts.length;
 			for (int p = 0; p < numPix; p++)
-				pixels[pts[p].y + (pts[p].x * height)]
-						.setID(nucs_OC[i].getID());
+				labels.set(labels.getIndex(pts[p]), nucs_OC[i].getID());
 
 			// creating a corresponding cell to go with this nucleus
 			ArrayList<CellCompartment> comps = new ArrayList<CellCompartment>();
@@ -613,147 +489,103 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 
 
 		// initially dialating nuclear pixels and calling them the first
-		// cytoplasmic pixels of that cell
+		// cytoplasmic pixels of that cell. Boundary entries >= 0 are nuclear
+		// pixel indices, entries < 0 point at position -(entry+1) of the
+		// cytoplasm list since those pixels belong to both
+		int[] neighbors = new int[8];
+		ArrayList<IntList> nucBoundaryPts = new ArrayList<IntList>();
 		for (int n = 0; n < numN; n++) {
 			// NOTE cytoplasm needs to be the second compartment after nucleus
-			ArrayList<Point> cytoNewPts = new ArrayList<Point>();
-			ArrayList<Point> nucBoundPts = new ArrayList<Point>();
+			IntList cytoNewPts = new IntList();
+			IntList nucBoundPts = new IntList();
 			Point[] nucPts = nucs_OC[n].getCoordinates();
 			int numPix = nucPts.length;
 			for (int p = 0; p < numPix; p++) {
-				Pixel pix = pixels[nucPts[p].y + (nucPts[p].x * height)];
-				Pixel[] neighbors = pix.getNeighbors(pixels);
-				int len = neighbors.length;
+				int pix = labels.getIndex(nucPts[p]);
+				int id = labels.get(pix);
+				int len = labels.getNeighbors(pix, neighbors);
 				for (int i = 0; i < len; i++) {
-					Pixel neigh = neighbors[i];
-					
+					int neigh = neighbors[i];
+
 					// Dont grow into ROI boundary regions
-					if (ROIs_raster != null) {
-						if (!ROIs_raster[neigh.getRow()][neigh
-									.getColumn()]) {
-								if (neigh.getID() == -1) {
-									Point pt = new Point(neigh.getColumn(), neigh.getRow());
-									cytoNewPts.add(pt);
-									nucBoundPts.add(pt);
-									neigh.setID(pix.getID());
-								} else if (neigh.getID() != pix.getID())
-									nucBoundPts
-											.add(new Point(pix.getColumn(), pix.getRow()));
-						}
-					}
- else // No ROI regions exist
-						{
-							if (neigh.getID() == -1) {
-								Point pt = new Point(neigh.getColumn(), neigh.getRow());
-								cytoNewPts.add(pt);
-								nucBoundPts.add(pt);
-								neigh.setID(pix.getID());
-							} else if (neigh.getID() != pix.getID())
-								nucBoundPts
-										.add(new Point(pix.getColumn(), pix.getRow()));
-						}
+					if (ROIs_raster != null
+							&& ROIs_raster[labels.getRow(neigh)][labels
+									.getColumn(neigh)])
+						continue;
+					if (labels.get(neigh) == LabelMap.UNLABELED) {
+						nucBoundPts.add(-(cytoNewPts.size() + 1));
+						cytoNewPts.add(neigh);
+						labels.set(neigh, id);
+					} else if (labels.get(neigh) != id)
+						nucBoundPts.add(pix);
 				}
 			}
-			CellCompartment nucBoundary = new CellCompartment(nucBoundPts,
-					"NucBoundary");
-			cells.get(n).addCompartment(nucBoundary);
 			// Saving these to represent the boundary of nucleus
+			nucBoundaryPts.add(nucBoundPts);
 			// Saving these for next growth phase
 			tempCytoPointArrays.add(cytoNewPts);
 		}
 
-
 		// Now going through the cytoplasmic pixels and dilating only those
-		while (true) {
-			boolean change = false;
-			for (int n = 0; n < numN; n++) {
-				ArrayList<Point> arr = tempCytoPointArrays.get(n);
-				int numPix = arr.size();
-				for (int p = 0; p < numPix; p++) {
-					Point po = (Point) arr.get(p);
-					Pixel pix = pixels[po.y + po.x * height];
-					Pixel[] neighbors = pix.getFourNeighbors(pixels);
-					int len = neighbors.length;
-					for (int i = 0; i < len; i++) {
-						Pixel neigh = neighbors[i];
-						if (neigh.getID() == -1
-								&& raster[getLinearRasterIndex(neigh.getRow(),
-										neigh.getColumn(),
-										pset.getParameter_int("ThreshChannel_marker_Index"))] > pset
-										.getParameter_float("Thresh_Marker")) {
-							// Adding restraints on whether the cell should keep
-							// grown (ex: Membrane detection)
-							if (raster[getLinearRasterIndex(neigh.getRow(),
-									neigh.getColumn(),
-									pset.getParameter_int("ThreshChannel_membrane_Index"))] < pset
-									.getParameter_float("Thresh_Membrane")) {
-								// In case we have ROI boundaries that we dont
-								// want to grow into
-								if (ROIs_raster != null) {
-									if (!ROIs_raster[neigh.getRow()][neigh
-												.getColumn()]) {
-										change = true;
-										arr.add(new Point(neigh.getColumn(),
-												neigh.getRow()));
-										neigh.setID(pix.getID());
-									}
-								} else {
-									change = true;
-									arr.add(new Point(neigh.getColumn(), neigh
-											.getRow()));
-									neigh.setID(pix.getID());
-								}
-
-							}
-						}
-
-					}
-				}
-
+		int markerOffset = getLinearRasterIndex(0, 0,
+				params.getMarkerChannelIndex());
+		float markerThreshold = params.getMarkerThreshold();
+		int membraneOffset = getLinearRasterIndex(0, 0,
+				params.getMembraneChannelIndex());
+		float membraneThreshold = params.getMembraneThreshold();
+		// Adding restraints on whether the cell should keep grown (ex:
+		// Membrane detection), and in case we have ROI boundaries that we
+		// dont want to grow into
+		boolean[] growable = new boolean[height * width];
+		for (int c = 0; c < width; c++)
+			for (int r = 0; r < height; r++) {
+				int i = getLinearRasterIndex(r, c);
+				growable[i] = raster[markerOffset + i] > markerThreshold
+						&& raster[membraneOffset + i] < membraneThreshold
+						&& (ROIs_raster == null || !ROIs_raster[r][c]);
 			}
-
-			if (!change)
-				break;
-		}
+		labels.growRegionsByLayer(tempCytoPointArrays, growable, true);
+		growable = null;
 
 		// init the Cytoplasm boundary pixels now
 		for (int i = 0; i < cells.size(); i++) {
+			IntList cyto = tempCytoPointArrays.get(i);
+			ArrayList<Point> cytoPts = labels.toPoints(cyto);
+			IntList nucBound = nucBoundaryPts.get(i);
+			ArrayList<Point> nucBoundPts = new ArrayList<Point>();
+			for (int p = 0; p < nucBound.size(); p++) {
+				int entry = nucBound.get(p);
+				if (entry < 0)
+					nucBoundPts.add(cytoPts.get(-entry - 1));
+				else
+					nucBoundPts.add(labels.toPoint(entry));
+			}
+			IntList cytoBoundaryIndices = new IntList();
 			ArrayList<Point> cytoBoundary = new ArrayList<Point>();
-			ArrayList<Point> cytoPts = tempCytoPointArrays.get(i);
-			int numPix = cytoPts.size();
-			for (int p = 0; p < numPix; p++) {
-				Point po = (Point) cytoPts.get(p);
-				Pixel pix = pixels[po.y + po.x * height];
-
-				Pixel[] neighbors = pix.getNeighbors(pixels);
-				int len = neighbors.length;
-				for (int j = 0; j < len; j++) {
-					Pixel neigh = neighbors[j];
-					if (neigh.getID() != pix.getID()) {
-						cytoBoundary.add(po);
-						break;
-					}
+			int numPix = cyto.size();
+			for (int p = 0; p < numPix; p++)
+				if (labels.isBorder(cyto.get(p), neighbors)) {
+					cytoBoundaryIndices.add(cyto.get(p));
+					cytoBoundary.add(cytoPts.get(p));
 				}
-			}
 
+			cells.get(i).addCompartment(new CellCompartment(nucBoundPts,
+					"NucBoundary"));
 			cells.get(i).addCompartment(cytoPts, "Cytoplasm");
 			cells.get(i).addCompartment(cytoBoundary, "CytoBoundary");
 
 			// Now looking for neighbors
-			// System.out.println("Cellboundary: cellID: " + cells[i].ID);
-			// System.out.println(cells[i].boundaryPoints.size());
-			int numB = cytoBoundary.size();
+			int numB = cytoBoundaryIndices.size();
 			for (int j = 0; j < numB; j++) {
-				Point p0 = cytoBoundary.get(j);
-				Pixel pix = pixels[p0.y + p0.x * height];
-				Pixel[] neighbors = pix.getNeighbors(pixels);
-				for (int n = 0; n < neighbors.length; n++) {
-					Pixel neigh = neighbors[n];
+				int pix = cytoBoundaryIndices.get(j);
+				int thisID = labels.get(pix);
+				int len = labels.getNeighbors(pix, neighbors);
+				for (int n = 0; n < len; n++) {
+					int thatID = labels.get(neighbors[n]);
 					if // Got a neighbor - keeping track of how big their border
 						// is to each other
-					(neigh.getID() != -1 && neigh.getID() != pix.getID() && nucleiIsOC[neigh.getID()] && nucleiIsOC[pix.getID()]) {
-						int thisID = pix.getID();
-						int thatID = neigh.getID();
+					(thatID != LabelMap.UNLABELED && thatID != thisID
+							&& nucleiIsOC[thatID] && nucleiIsOC[thisID]) {
 						int minID = -1;
 						int maxID = -1;
 						if (thisID < thatID) {
@@ -800,7 +632,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		Hashtable<Integer, Boolean> hash_id = new Hashtable<Integer, Boolean>();
 
 		// Hashtable<String, String> hash_id = new Hashtable<String, String>();
-		float k = pset.getParameter_float("MergeFactor");
+		float k = params.getMergeFactor();
 		System.out.println("**Merging neighbors w/larger relative borders: "
 				+ k * 100 + "%");
 		Enumeration<String> enu = hash_neighborsBorderLength.keys();
@@ -937,7 +769,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 			// Doing the actual merging now
 			ArrayList<CellCoordinates> arrC = allGroups.get(i);
 			CellCoordinates cellMerge = CellCoordinates.mergeCells(arrC,
-					pixels, height);
+					labels);
 			cells_final.add(cellMerge);
 		}
 
@@ -980,82 +812,37 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 	}
 
 	/***
-	 * takes in an arrayList of nulcei object seeds, expends them to the real
-	 * nuclei boundary, then returns a new set of nuclei with the expanded
+	 * takes in the pixel index lists of the nuclei seeds, expends them to the
+	 * real nuclei boundary, then returns a new set of nuclei with the expanded
 	 * boudnaries
 	 * 
 	 * @author BLM
 	 */
 	public ArrayList<CellCompartment> expandNucleiFromSeeds(
-			ArrayList<CellCompartment> nucSeeds, Pixel[] pixels, int[] raster,
-			Model_ParameterSet pset) {
+			ArrayList<IntList> nucSeeds, LabelMap labels, int[] raster,
+			SegmentationParameters params) {
 		int numNuc = nucSeeds.size();
-
-		// Getting all the nucPoints and adding them to arrLists for convenience
-		ArrayList<ArrayList<Pixel>> arrAllNuc = new ArrayList<ArrayList<Pixel>>(
-				numNuc);
-		for (int i = 0; i < numNuc; i++) {
-			ArrayList<Pixel> arr = new ArrayList<Pixel>();
-			CellCompartment nuc = nucSeeds.get(i);
-			Point[] coords = nuc.getCoordinates();
-			if (coords == null) {
-				System.out
-						.println("**Error: nuclei did not have coordinate array");
-				return null;
-			}
-			int num = coords.length;
-			for (int j = 0; j < num; j++) {
-				arr.add(pixels[coords[j].y + (coords[j].x * height)]);
-			}
-			arrAllNuc.add(arr);
-			nuc.kill(); // clean it up a bit
-		}
-
-		int counter = 0;
-		while (true) {
-			boolean change = false;
-			for (int n = 0; n < numNuc; n++) {
-				ArrayList<Pixel> nuc = (ArrayList<Pixel>) arrAllNuc.get(n);
-				int numPix = nuc.size();
-				for (int p = 0; p < numPix; p++) {
-					Pixel pix = (Pixel) nuc.get(p);
-					Pixel[] neighbors = pix.getNeighbors(pixels);
-					int len = neighbors.length;
-					for (int i = 0; i < len; i++) {
-						Pixel neigh = neighbors[i];
-						if (neigh.getID() == -1
-								&& raster[getLinearRasterIndex(neigh.getRow(),
-										neigh.getColumn(),
-										pset.getParameter_int("Thresh_Nuc_ChannelIndex"))] > pset
-										.getParameter_float("Thresh_Nuc_Value")) {
-							change = true;
-							nuc.add(pixels[neigh.getRow()
-									+ (neigh.getColumn() * height)]);
-							neigh.setID(pix.getID());
-						}
-					}
-				}
-			}
-			counter++;
-			if (!change)// || counter > 300)
-				break;
-		}
+		int nucOffset = getLinearRasterIndex(0, 0,
+				params.getNucChannelIndex());
+		float nucThreshold = params.getNucThreshold();
+		// Pixels the nuclei can grow into
+		int numPixels = height * width;
+		boolean[] growable = new boolean[numPixels];
+		for (int i = 0; i < numPixels; i++)
+			growable[i] = raster[nucOffset + i] > nucThreshold;
+		labels.growRegions(nucSeeds, growable);
+		growable = null;
 
 		// Now creating a new set of Nuclei
-		int len = arrAllNuc.size();
-		counter = 0;
-		ArrayList<CellCompartment> arr = new ArrayList<CellCompartment>(len);
-		for (int i = 0; i < len; i++) {
-			if (((ArrayList<Pixel>) arrAllNuc.get(i)).size() > 10) {
-				ArrayList<Pixel> ar = (ArrayList<Pixel>) arrAllNuc.get(i);
+		int counter = 0;
+		ArrayList<CellCompartment> arr = new ArrayList<CellCompartment>(numNuc);
+		for (int i = 0; i < numNuc; i++) {
+			IntList ar = nucSeeds.get(i);
+			if (ar.size() > 10) {
 				int size = ar.size();
-				ArrayList<Point> nucPts = new ArrayList<Point>(size);
-				for (int j = 0; j < size; j++) {
-					Pixel px = ((Pixel) ar.get(j));
-					px.setID(counter);
-					nucPts.add(new Point(px.getColumn(), px.getRow()));
-				}
-				arr.add(new CellCompartment(nucPts, "Nucleus"));
+				for (int j = 0; j < size; j++)
+					labels.set(ar.get(j), counter);
+				arr.add(new CellCompartment(labels.toPoints(ar), "Nucleus"));
 				counter++;
 			}
 		}
@@ -1068,7 +855,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		float[][] vals = null;
 		DefaultSegmentor_v1 theSegmentor = new DefaultSegmentor_v1();
 		vals = theSegmentor.getIntegratedChannelValuesOverMask_wPixelCount(
-				rgbRaster, pset);
+				rgbRaster, pset.compile());
 
 		return vals;
 	}
@@ -1077,7 +864,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 			int[][][] rgbRaster, Model_ParameterSet pset) {
 		DefaultSegmentor_v1 theSegmentor = new DefaultSegmentor_v1();
 		float[][] vals = theSegmentor
-				.getMeanChannelValuesOverMask_Compartmented(rgbRaster, pset);
+				.getMeanChannelValuesOverMask_Compartmented(rgbRaster, pset.compile());
 		return vals;
 	}
 
@@ -1095,8 +882,8 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 	
 	
 	public ArrayList<CellCoordinates> growPrecursorNucleiIntoCells(
-			CellCompartment[] nuclei, int[] raster, Pixel[] pixels,
-			Model_ParameterSet pset) {
+			CellCompartment[] nuclei, int[] raster, LabelMap labels,
+			SegmentationParameters params) {
 
 		// The Array of CellCoordinate objects to return
 		ArrayList<CellCoordinates> cells_final = new ArrayList<CellCoordinates>();
@@ -1105,12 +892,12 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		ArrayList<CellCoordinates> cells = new ArrayList<CellCoordinates>(
 				numNuc);
 
-		ArrayList<ArrayList<Point>> tempCytoPointArrays = new ArrayList<ArrayList<Point>>();
+		ArrayList<IntList> tempCytoPointArrays = new ArrayList<IntList>();
 		for (int i = 0; i < numNuc; i++) {
 			Point[] pts = nuclei[i].getCoordinates();
 			int numPix = pts.length;
 			for (int p = 0; p < numPix; p++) {
-				pixels[pts[p].y + (pts[p].x * height)].setID(nuclei[i].getID());
+				labels.set(labels.getIndex(pts[p]), nuclei[i].getID());
 			}
 			// creating a corresponding cell to go with this nucleus
 			ArrayList<CellCompartment> comps = new ArrayList<CellCompartment>();
@@ -1119,93 +906,70 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 		}
 
 		// initially dialating nuclear pixels and calling them the first
-		// cytoplasmic pixels of that cell
+		// cytoplasmic pixels of that cell. Boundary entries >= 0 are nuclear
+		// pixel indices, entries < 0 point at position -(entry+1) of the
+		// cytoplasm list since those pixels belong to both
+		int[] neighbors = new int[8];
+		ArrayList<IntList> nucBoundaryPts = new ArrayList<IntList>();
 		for (int n = 0; n < numNuc; n++) {
 			// NOTE cytoplasm needs to be the second compartment after nucleus
-			ArrayList<Point> cytoNewPts = new ArrayList<Point>();
-			ArrayList<Point> nucBoundPts = new ArrayList<Point>();
+			IntList cytoNewPts = new IntList();
+			IntList nucBoundPts = new IntList();
 			Point[] nucPts = nuclei[n].getCoordinates();
 			int numPix = nucPts.length;
 			for (int p = 0; p < numPix; p++) {
-				Pixel pix = pixels[nucPts[p].y + (nucPts[p].x * height)];
-				Pixel[] neighbors = pix.getNeighbors(pixels);
-				int len = neighbors.length;
+				int pix = labels.getIndex(nucPts[p]);
+				int id = labels.get(pix);
+				int len = labels.getNeighbors(pix, neighbors);
 				for (int i = 0; i < len; i++) {
-					Pixel neigh = neighbors[i];
-					if (neigh.getID() == -1) {
-						Point pt = new Point(neigh.getColumn(), neigh.getRow());
-						cytoNewPts.add(pt);
-						nucBoundPts.add(pt);
-						neigh.setID(pix.getID());
-					} else if (neigh.getID() != pix.getID())
-						nucBoundPts
-								.add(new Point(pix.getColumn(), pix.getRow()));
+					int neigh = neighbors[i];
+					if (labels.get(neigh) == LabelMap.UNLABELED) {
+						nucBoundPts.add(-(cytoNewPts.size() + 1));
+						cytoNewPts.add(neigh);
+						labels.set(neigh, id);
+					} else if (labels.get(neigh) != id)
+						nucBoundPts.add(pix);
 				}
 			}
-			CellCompartment nucBoundary = new CellCompartment(nucBoundPts,
-					"NucBoundary");
-			cells.get(n).addCompartment(nucBoundary);
 			// Saving these to represent the boundary of nucleus
+			nucBoundaryPts.add(nucBoundPts);
 			// Saving these for next growth phase
 			tempCytoPointArrays.add(cytoNewPts);
 		}
 
 
 		// Now going through the cytoplasmic pixels and dilating only those
-		while (true) {
-			boolean change = false;
-			for (int n = 0; n < numNuc; n++) {
-				ArrayList<Point> arr = tempCytoPointArrays.get(n);
-				int numPix = arr.size();
-				for (int p = 0; p < numPix; p++) {
-					Point po = (Point) arr.get(p);
-					Pixel pix = pixels[po.y + po.x * height];
-					Pixel[] neighbors = pix.getNeighbors(pixels);
-					int len = neighbors.length;
-					for (int i = 0; i < len; i++) {
-						Pixel neigh = neighbors[i];
-						if (neigh.getID() == -1
-								&& raster[getLinearRasterIndex(neigh.getRow(),
-										neigh.getColumn(),
-										pset.getParameter_int("Thresh_Cyt_ChannelIndex"))] > pset
-										.getParameter_float("Thresh_Cyt_Value")) {
-							// Adding restraints on whether the cell should keep
-							// grown (ex: Membrane detection)
-							change = true;
-							arr.add(new Point(neigh.getColumn(), neigh.getRow()));
-							neigh.setID(pix.getID());
-
-						}
-
-					}
-				}
-
-			}
-
-			if (!change)
-				break;
-		}
+		int cytOffset = getLinearRasterIndex(0, 0,
+				params.getCytChannelIndex());
+		float cytThreshold = params.getCytThreshold();
+		int numPixels = height * width;
+		boolean[] growable = new boolean[numPixels];
+		for (int i = 0; i < numPixels; i++)
+			growable[i] = raster[cytOffset + i] > cytThreshold;
+		labels.growRegionsByLayer(tempCytoPointArrays, growable, false);
+		growable = null;
 
 		// init the Cytoplasm boundary pixels now
 		for (int i = 0; i < cells.size(); i++) {
-			ArrayList<Point> cytoBoundary = new ArrayList<Point>();
-			ArrayList<Point> cytoPts = tempCytoPointArrays.get(i);
-			int numPix = cytoPts.size();
-			for (int p = 0; p < numPix; p++) {
-				Point po = (Point) cytoPts.get(p);
-				Pixel pix = pixels[po.y + po.x * height];
-
-				Pixel[] neighbors = pix.getNeighbors(pixels);
-				int len = neighbors.length;
-				for (int j = 0; j < len; j++) {
-					Pixel neigh = neighbors[j];
-					if (neigh.getID() != pix.getID()) {
-						cytoBoundary.add(po);
-						break;
-					}
-				}
+			IntList cyto = tempCytoPointArrays.get(i);
+			ArrayList<Point> cytoPts = labels.toPoints(cyto);
+			IntList nucBound = nucBoundaryPts.get(i);
+			ArrayList<Point> nucBoundPts = new ArrayList<Point>();
+			for (int p = 0; p < nucBound.size(); p++) {
+				int entry = nucBound.get(p);
+				if (entry < 0)
+					nucBoundPts.add(cytoPts.get(-entry - 1));
+				else
+					nucBoundPts.add(labels.toPoint(entry));
 			}
+			ArrayList<Point> cytoBoundary = new ArrayList<Point>();
+			int numPix = cyto.size();
+			for (int p = 0; p < numPix; p++)
+				if (labels.isBorder(cyto.get(p), neighbors))
+					cytoBoundary.add(cytoPts.get(p));
 
+			cells.get(i).addCompartment(new CellCompartment(nucBoundPts,
+					"NucBoundary"));
 			cells.get(i).addCompartment(cytoPts, "Cytoplasm");
 			cells.get(i).addCompartment(cytoBoundary, "CytoBoundary");
 		}
@@ -1236,7 +1000,7 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 	 * */
 	private CellCompartment[] getNuceliWithOCstaining(
 			CellCompartment[] allNucs, int[] raster_linear,
-			Model_ParameterSet pset) {
+			SegmentationParameters params) {
 		ArrayList<CellCompartment> nucs = new ArrayList<CellCompartment>();
 		int len = allNucs.length;
 		for (int i = 0; i < len; i++) {
@@ -1245,8 +1009,8 @@ public class NucleiDescentAndMerge_OC implements CellSegmentor {
 			int sum = 0;
 			for (int j = 0; j < num; j++)
 				sum += raster_linear[getLinearRasterIndex(pts[j].y, pts[j].x,
-						pset.getParameter_int("ThreshChannel_marker_Index"))];
-			if (sum / num > pset.getParameter_float("Thresh_Marker"))
+						params.getMarkerChannelIndex())];
+			if (sum / num > params.getMarkerThreshold())
 				nucs.add(allNucs[i]);
 		}
 		int num = nucs.size();
@@ -0,0 +1,49 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package segmentors;
+
+import java.util.ArrayList;
+
+import models.SegmentationParameters;
+import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
+
+/**
+ * Runs any CellSegmentor on a FieldRaster, using the planar path when the
+ * segmentor supports it and the legacy int[][][] path otherwise.
+ * 
+ * @author BLM
+ */
+public class SegmentorAdapter
+{
+	/** Segments the given raster with the given segmentor
+	 * @author BLM*/
+	static public ArrayList<CellCoordinates> segmentCells(
+			CellSegmentor segmentor, FieldRaster raster,
+			SegmentationParameters params)
+	{
+		if (segmentor instanceof FieldRasterSegmentor)
+			return ((FieldRasterSegmentor) segmentor).segmentCells(raster,
+					params);
+		return segmentor.segmentCells(raster.getIntRaster(),
+				params.getParameterSet());
+	}
+}
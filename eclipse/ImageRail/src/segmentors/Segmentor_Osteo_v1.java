@@ -27,17 +27,19 @@ import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 
 import models.Model_ParameterSet;
+import models.SegmentationParameters;
 import segmentedobject.CellCompartment;
 import segmentedobject.CellCoordinates;
+import tools.IntList;
+import tools.LabelMap;
 import tools.LinearKernels;
 import tools.SpatialFilter;
+import tools.Watershed;
 
 public class Segmentor_Osteo_v1 implements CellSegmentor {
-	private Pixel[][] pixels;
 	private int height;
 	private int width;
 	private ArrayList<Shape> ROIs;
@@ -53,9 +55,9 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 	 * */
 	public ArrayList<CellCoordinates> segmentCells(int[][][] raster,
 			Model_ParameterSet pset) {
+		SegmentationParameters params = pset.compile();
 		// Reinitializing the variables in case they are used in prior
 		// segmentation
-		pixels = null;
 		height = raster.length;
 		width = raster[0].length;
 		allNuclei = new ArrayList<Nucleus>();
@@ -63,7 +65,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 		// int[][][] iRaster = new int[raster.length][raster[0].length][1];
 
 		// Step 1: Segmenting the nuclei
-		segmentImage_nucleusThresholding_watershed(raster, pset);
+		segmentImage_nucleusThresholding_watershed(raster, params);
 
 		// Step 2: Determine Osteoclast cytoplasm bounds via the user defined
 		// ROIs
@@ -86,9 +88,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 							// less than nucleus threshold, then add it to the
 							// cytoplasm of this osteoclast
 							if (roi.contains(p)
-									&& raster[r][c][pset
-											.getParameter_int("Thresh_Nuc_ChannelIndex")] < pset
-											.getParameter_float("Thresh_Nuc_Value")) {
+									&& raster[r][c][params.getNucChannelIndex()] < params.getNucThreshold()) {
 								cytoPts.add(new Point(c, r));
 									osteoFlags[r][c] = 1;
 							}
@@ -174,7 +174,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 
 
 		 // Step 4: Growing the non-osteoclast nuclei seeds into Cells
-		cells = growSeedsIntoCells(getNuclei(inclusionList), raster, pset,
+		cells = growSeedsIntoCells(getNuclei(inclusionList), raster, params,
 				osteoFlags);
 		osteoFlags = null;
 
@@ -268,7 +268,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 	}
 
 	private void mergeMultiNucleateCells(int[][][] raster,
-			Model_ParameterSet pset, ArrayList<CellCoordinates> cells) {
+			SegmentationParameters params, ArrayList<CellCoordinates> cells) {
 
 		int len = cells.size();
 		ArrayList<int[]> mergers = new ArrayList<int[]>();
@@ -286,7 +286,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 					float m = ((float) yDist) / ((float) xDist);
 
 					boolean staysAboveBkgd = true;
-					int bkgd = (int) pset.getParameter_float("Thresh_Bkgd_Value");
+					int bkgd = (int) params.getBkgdThreshold();
 					// Need to invert line tracking if slope too vertical
 					// (ex: walk along y axis not x axis)
 					if (m != Float.NaN || m != 0) {
@@ -301,8 +301,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 								int xP = xStart + xI;
 								int y = (int) (m * xI + yStart);
 
-								int val = raster[y][xP][pset
-										.getParameter_int("Thresh_Cyt_ChannelIndex")];
+								int val = raster[y][xP][params.getCytChannelIndex()];
 
 								// printing out this trace
 								// st += pix[0] + ",";
@@ -322,8 +321,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 								float yP = (float) yStart + yI;
 								int x = (int) (1f / m * yI + xStart);
 
-								int val = raster[(int) yP][x][pset
-										.getParameter_int("Thresh_Cyt_ChannelIndex")];
+								int val = raster[(int) yP][x][params.getCytChannelIndex()];
 								// printing out this trace
 								// st += pix[0] + ",";
 
@@ -404,163 +402,57 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 	 * @author BLM
 	 */
 	private void segmentImage_nucleusThresholding_watershed(int[][][] raster,
-			Model_ParameterSet pset) {
+			SegmentationParameters params) {
 
 		Long time = System.currentTimeMillis();
 
 		height = raster.length;
 		width = raster[0].length;
-		pixels = new Pixel[height][width];
-
-		// Init all pixels to un-touched
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++)
-				pixels[r][c] = new Pixel(r, c, -1);
 
 		float[][] iRaster = new float[height][width];
-		float max = 0;
 
 		//
-		// Step 1: Computing and sorting the Euclidean Distances
+		// Step 1: Computing the Euclidean Distances
 		//
 		System.out.println("Step 1: Computing Euclidean Maps");
 
 		// Computing distance and Smoothing data with 7x7 kernal
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++)
-				if (raster[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Nuc_Value"))
+				if (raster[r][c][params.getNucChannelIndex()] > params.getNucThreshold())
 					iRaster[r][c] = 1e20f;
 		iRaster = SpatialFilter.distanceTransform(iRaster);
 		iRaster = SpatialFilter.linearFilter(iRaster, LinearKernels
 .getLinearSmoothingKernal(5));
 		// tools.ImageTools.displayRaster(iRaster);
 
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++)
-				if (iRaster[r][c] > max)
-					max = iRaster[r][c];
-		Pixel.resetIDs(pixels);
-		ArrayList<Pixel> pixList = new ArrayList<Pixel>(width * height);
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++) {
-				pixels[r][c].setValue((int) iRaster[r][c]);
-				if (pixels[r][c].getValue() > 0)
-					pixList.add(pixels[r][c]);
-			}
-		Collections.sort(pixList);
+		// Flattening into the label map layout
+		float[] dist = new float[height * width];
+		for (int c = 0; c < width; c++)
+			for (int r = 0; r < height; r++)
+				dist[r + c * height] = iRaster[r][c];
+		iRaster = null;
 
 		//
-		// Step 2: Finding the Ultimate Eroded Points
+		// Step 2: Finding the Ultimate Eroded Points and grouping the
+		// touching ones into seeds
 		//
 		System.out.println("Step 2: Finding Ultimate Eroded Points");
-		int NOT_PEAK = 1;
-		int PEAK = 2;
-		int len = pixList.size();
-		for (int h = 0; h < len; h++) {
-			Pixel pix = (Pixel) pixList.get(h);
-			int thisVal = pix.getValue();
-			if (thisVal != 0) {
-				Pixel[] neighs = Pixel.getNeighbors(pix, pixels);
-				int num = neighs.length;
-				boolean hasUphillNeighbor = false;
-				for (int i = 0; i < num; i++)
-					if (pixels[neighs[i].getRow()][neighs[i].getColumn()]
-							.getValue() > thisVal) {
-						hasUphillNeighbor = true;
-						break;
-					}
-				if (hasUphillNeighbor)
-					pix.setID(NOT_PEAK);
-				else
-					pix.setID(PEAK);
-			}
-		}
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++)
-				if (pixels[r][c].getID() == PEAK) {
-					iRaster[r][c] = 255f;
-
-					// Dilating 1x some pixels
-					Pixel[] neighs = Pixel.getNeighbors(pixels[r][c], pixels);
-					int num = neighs.length;
-					for (int i = 0; i < num; i++) {
-						Pixel[] neighs2 = Pixel.getNeighbors(neighs[i], pixels);
-						int size = neighs.length;
-						for (int n = 0; n < size; n++) {
-							if (neighs2[n].getRow() != r
-									&& neighs2[n].getColumn() != c)
-								if (iRaster[neighs2[n].getRow()][neighs2[n]
-										.getColumn()] == 255)
-									iRaster[neighs[i].getRow()][neighs[i]
-											.getColumn()] = 255f;
-						}
-
-					}
-				} else if (iRaster[r][c] != 255)
-					iRaster[r][c] = 0;
-
-		// tools.ImageTools.displayRaster(iRaster);
-
-		Pixel.resetIDs(pixels);
-		// Growing the Ultimate Points outward till the nuclei threshold to
-		// create nuclei
-		// for each pixel that has not been visited, find all of its neighbors
-		// that are turned on and directly connecting
-		// and call them the same group
-		for (int r = 0; r < height; r++)
-			for (int c = 0; c < width; c++)
-				if (iRaster[r][c] > 0 && pixels[r][c].getID() == -1) {
-					ArrayList<Pixel> allPixels = new ArrayList<Pixel>();
-					pixels[r][c].setID(allNuclei.size());
-					allPixels.add(pixels[r][c]);
-					boolean validNuclei = true;
-					try {
-						assignAllPositiveNeighbors(pixels[r][c], allPixels,
-								iRaster);
-					} catch (StackOverflowError e) {
-						validNuclei = false;
-					}
+		// Init all pixels to un-touched
+		LabelMap labels = new LabelMap(height, width);
+		ArrayList<IntList> seeds = Watershed.findSeeds(dist, labels);
+		dist = null;
 
-					// only want nuclei > certain size to prevent noise being
-					// classified as a nuclei
-					if (validNuclei)
-						if (allPixels.size() > 0) {
-							// creating a new cell object & storing its centroid
-							Nucleus nuc = new Nucleus(allPixels, pixels[r][c]
-									.getID());
-							allNuclei.add(nuc);
-						}
-				}
-		allNuclei = expandNucleiFromSeeds(allNuclei, pixels, raster, pset);
+		// Growing the seeds outward till the nuclei threshold to create nuclei
+		allNuclei = expandNucleiFromSeeds(seeds, labels, raster, params);
 		System.out.println("Num Nuclei: " + allNuclei.size());
 		for (int i = 0; i < allNuclei.size(); i++)
-			(allNuclei.get(i)).initBoundaryPoints(pixels);
-
-		// Cleanning up the big mess in memory we just created
-		pixels = null;
-		iRaster = null;
-		pixList = null;
+			(allNuclei.get(i)).initBoundaryPoints(labels);
 
 		// System.out.println("Elapsed Time: "
 		// + (System.currentTimeMillis() - time));
 	}
 
-	private void assignAllPositiveNeighbors(Pixel pix,
-			ArrayList<Pixel> allPixelsInGroup, float[][] raster) {
-		Pixel[] neighbors = Pixel.getNeighbors(pix, pixels);
-		int len = neighbors.length;
-		for (int i = 0; i < len; i++) {
-			Pixel p = neighbors[i];
-			if (p.getID() == -1
- && raster[p.getRow()][p.getColumn()] > 0) {
-				allPixelsInGroup.add(p);
-				p.setID(pix.getID());
-				assignAllPositiveNeighbors(p, allPixelsInGroup, raster);
-			}
-		}
-	}
-
 	/**
 	 * Returns the nuclei objects except for those with a "false" in the
 	 * inclusionList index, since those are osteoclasts already used
@@ -585,7 +477,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 	}
 
 	public float[][] getMeanChannelValuesOverMask_Compartmented(
-			int[][][] raster_, Model_ParameterSet pset) {
+			int[][][] raster_, SegmentationParameters params) {
 		height = raster_.length;
 		width = raster_[0].length;
 		int numChannels = raster_[0][0].length;
@@ -602,29 +494,24 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++) {
 				// if part of cell
-				if (raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Cyt_Value")) {
+				if (raster_[r][c][params.getNucChannelIndex()] > params.getCytThreshold()) {
 					wholeCounter++;
 					for (int i = 0; i < numChannels; i++)
 						wholeMeanVals[i] += raster_[r][c][i];
 				}
 				// is above cell boundary threshold but not part of nucleus
-				if (raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Cyt_Value")
-						&& raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] < pset
-								.getParameter_float("Thresh_Nuc_Value")) {
+				if (raster_[r][c][params.getNucChannelIndex()] > params.getCytThreshold()
+						&& raster_[r][c][params.getNucChannelIndex()] < params.getNucThreshold()) {
 					cytoCounter++;
 					for (int i = 0; i < numChannels; i++)
 						cytoMeanVals[i] += raster_[r][c][i];
 				}
 				// is above nucleus threshold
-				else if (raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Nuc_Value")) {
+				else if (raster_[r][c][params.getNucChannelIndex()] > params.getNucThreshold()) {
 					nuclearCounter++;
 					for (int i = 0; i < numChannels; i++)
 						nuclearMeanVals[i] += raster_[r][c][i];
-				} else if (raster_[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] < pset
-						.getParameter_float("Thresh_Bkgd_Value")) {
+				} else if (raster_[r][c][params.getNucChannelIndex()] < params.getBkgdThreshold()) {
 					for (int i = 0; i < numChannels; i++)
 						bkgdMeans[i] += raster_[r][c][i];
 					bkgdCounter++;
@@ -653,7 +540,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 	}
 
 	public float[][] getIntegratedChannelValuesOverMask_wPixelCount(
-			int[][][] rgbRaster, Model_ParameterSet pset) {
+			int[][][] rgbRaster, SegmentationParameters params) {
 		height = rgbRaster.length;
 		width = rgbRaster[0].length;
 		int numChannels = rgbRaster[0][0].length;
@@ -663,8 +550,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++) {
-				if (rgbRaster[r][c][pset.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-						.getParameter_float("Thresh_Cyt_Value")) {
+				if (rgbRaster[r][c][params.getNucChannelIndex()] > params.getCytThreshold()) {
 					pixelCounter++;
 					for (int i = 0; i < numChannels; i++)
 						integValues[i][0] += rgbRaster[r][c][i];
@@ -678,30 +564,25 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 	}
 
 	public Cell[] growSeedsIntoCells(Nucleus[] nuclei, int[][][] Raster,
-			Model_ParameterSet pset, byte[][] osteoFlags) {
+			SegmentationParameters params, byte[][] osteoFlags) {
 
 		int height = Raster.length;
 		int width = Raster[0].length;
 
-		Pixel[][] pixels = new Pixel[height][width];
-		int id = -1;
+		// Pixels of the osteoclasts are off limits to the other cells
+		LabelMap labels = new LabelMap(height, width);
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++)
-			{
-				if (osteoFlags[r][c] != 1)
-					id = -1;
-				else
-					id = -2;
-				pixels[r][c] = new Pixel(r, c, id);
-			}
-				
+				if (osteoFlags[r][c] == 1)
+					labels.set(labels.getIndex(r, c), -2);
+
 		int numNuc = nuclei.length;
 		cells = new Cell[numNuc];
 		for (int i = 0; i < numNuc; i++) {
 			int numPix = nuclei[i].getNumPixels();
 			for (int p = 0; p < numPix; p++) {
 				Point po = nuclei[i].getPixelCoordinate(p);
-				pixels[po.y][po.x].setID(i);
+				labels.set(labels.getIndex(po), i);
 			}
 			// creating a corresponding cell to go with this nucleus
 			cells[i] = new Cell(nuclei[i], new Cytoplasm());
@@ -709,91 +590,48 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 
 		// initially dialating nuclear pixels and calling them the first
 		// cytoplasmic pixels of that cell
+		int[] neighbors = new int[8];
+		ArrayList<IntList> cytos = new ArrayList<IntList>(numNuc);
 		for (int n = 0; n < numNuc; n++) {
 			Nucleus nuc = nuclei[n];
+			IntList cyto = new IntList();
 			int numPix = nuc.getNumPixels();
 			for (int p = 0; p < numPix; p++) {
-				Point po = nuc.getPixelCoordinate(p);
-				Pixel pix = pixels[po.y][po.x];
-
-				Pixel[] neighbors = Pixel.getFourNeighbors(pix, pixels);
-				int len = neighbors.length;
+				int pix = labels.getIndex(nuc.getPixelCoordinate(p));
+				int len = labels.getFourNeighbors(pix, neighbors);
 				for (int i = 0; i < len; i++) {
-					Pixel neigh = neighbors[i];
-					if (neigh.getID() == -1) {
-						cells[n].getCytoplasm().getPixelCoordinates().add(
-								new Point(neigh.getColumn(), neigh.getRow()));
-						neigh.setID(pix.getID());
+					int neigh = neighbors[i];
+					if (labels.get(neigh) == LabelMap.UNLABELED) {
+						cyto.add(neigh);
+						labels.set(neigh, labels.get(pix));
 					}
 				}
 			}
-
-			int num = cells[n].getCytoplasm().getPixelCoordinates().size();
+			cytos.add(cyto);
 		}
 
 		// now going through the cytoplasmic pixels and dilating only those
-		int counter = 0;
-		// if (pset.getAnnulusSize() != -1)
-		// diameter = pset.getAnnulusSize();
-		while (true) {
-			boolean change = false;
-			for (int n = 0; n < numNuc; n++) {
-				Cell cell = cells[n];
-				ArrayList<Point> arr = cell.getCytoplasm().getPixelCoordinates();
-				int numPix = arr.size();
-
-				for (int p = 0; p < numPix; p++) {
-					Point po = (Point) arr.get(p);
-					Pixel pix = pixels[po.y][po.x];
-
-					Pixel[] neighbors = Pixel.getNeighbors(pix, pixels);
-					int len = neighbors.length;
-					for (int i = 0; i < len; i++) {
-						Pixel neigh = neighbors[i];
-						if (neigh.getID() == -1
-								&& Raster[neigh.getRow()][neigh.getColumn()][pset
-										.getParameter_int("Thresh_Cyt_ChannelIndex")] > pset
-										.getParameter_float("Thresh_Cyt_Value")) {
-							change = true;
-							Point point = new Point(neigh.getColumn(), neigh
-									.getRow());
-							cell.getCytoplasm().getPixelCoordinates()
-									.add(point);
-							neigh.setID(pix.getID());
-						}
-						
-					}
-				}
-
-			}
-			counter++;
-
-			if (!change) 
-				break;
-		}
-
+		int cytIndex = params.getCytChannelIndex();
+		float cytThreshold = params.getCytThreshold();
+		boolean[] growable = new boolean[height * width];
+		for (int r = 0; r < height; r++)
+			for (int c = 0; c < width; c++)
+				growable[labels.getIndex(r, c)] = Raster[r][c][cytIndex] > cytThreshold;
+		labels.growRegionsByLayer(cytos, growable, false);
+		growable = null;
 
 		for (int i = 0; i < cells.length; i++) {
 			// init the cell boundary pixels now
+			IntList cyto = cytos.get(i);
 			ArrayList<Point> arr = cells[i].getCytoplasm().getPixelCoordinates();
+			arr.addAll(labels.toPoints(cyto));
 			int numPix = arr.size();
 			cells[i].getCytoplasm().setNumPixels(numPix);
 
-			ArrayList boundaryPixels = new ArrayList();
-			for (int p = 0; p < numPix; p++) {
-				Point po = (Point) arr.get(p);
-				Pixel pix = pixels[po.y][po.x];
-
-				Pixel[] neighbors = Pixel.getNeighbors(pix, pixels);
-				int len = neighbors.length;
-				for (int j = 0; j < len; j++) {
-					Pixel neigh = neighbors[j];
-					if (neigh.getID() != pix.getID()) {
-						boundaryPixels.add(po);
-						break;
-					}
-				}
-			}
+			ArrayList<Point> boundaryPixels = new ArrayList<Point>();
+			for (int p = 0; p < numPix; p++)
+				if (labels.isBorder(cyto.get(p), neighbors))
+					boundaryPixels.add(arr.get(p));
 			cells[i].initBoundary(boundaryPixels);
 		}
 
@@ -801,74 +639,38 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 	}
 
 	/***
-	 * takes in an arrayList of nulcei object seeds, expends them to the real
-	 * nuclei boundary, then returns a new set of nuclei with the expanded
+	 * takes in the pixel index lists of the nuclei seeds, expends them to the
+	 * real nuclei boundary, then returns a new set of nuclei with the expanded
 	 * boudnaries
 	 * 
 	 * @author BLM
 	 */
 	static public ArrayList<Nucleus> expandNucleiFromSeeds(
-			ArrayList<Nucleus> nucSeeds, Pixel[][] pixels, int[][][] rgbRaster,
-			Model_ParameterSet pset) {
+			ArrayList<IntList> nucSeeds, LabelMap labels, int[][][] rgbRaster,
+			SegmentationParameters params) {
 		int numNuc = nucSeeds.size();
-
-		// Getting all the nucPoints and adding them to arrLists for convenience
-		ArrayList arrAllNuc = new ArrayList(numNuc);
-		for (int i = 0; i < numNuc; i++) {
-			ArrayList arr = new ArrayList();
-			Nucleus nuc = nucSeeds.get(i);
-			Point[] coords = nuc.getAllPixelCoordinates();
-			if (coords == null) {
-				System.out
-						.println("**Error: nuclei did not have coordinate array");
-				return null;
-			}
-			int num = coords.length;
-			for (int j = 0; j < num; j++)
-				arr.add(pixels[coords[j].y][coords[j].x]);
-			arrAllNuc.add(arr);
-			nuc.kill(); // clean it up a bit
-		}
-
-		int counter = 0;
-		while (true) {
-			boolean change = false;
-			for (int n = 0; n < numNuc; n++) {
-				ArrayList nuc = (ArrayList) arrAllNuc.get(n);
-				int numPix = nuc.size();
-				for (int p = 0; p < numPix; p++) {
-					Pixel pix = (Pixel) nuc.get(p);
-					Pixel[] neighbors = Pixel.getNeighbors(pix, pixels);
-					int len = neighbors.length;
-					for (int i = 0; i < len; i++) {
-						Pixel neigh = neighbors[i];
-						if (neigh.getID() == -1
-								&& rgbRaster[neigh.getRow()][neigh.getColumn()][pset
-										.getParameter_int("Thresh_Nuc_ChannelIndex")] > pset
-										.getParameter_float("Thresh_Nuc_Value")) {
-							change = true;
-							nuc.add(pixels[neigh.getRow()][neigh.getColumn()]);
-							neigh.setID(pix.getID());
-						}
-					}
-				}
-			}
-			counter++;
-			if (!change)// || counter > 300)
-				break;
-		}
+		int height = labels.getHeight();
+		int width = labels.getWidth();
+		int nucIndex = params.getNucChannelIndex();
+		float nucThreshold = params.getNucThreshold();
+		// Pixels the nuclei can grow into
+		boolean[] growable = new boolean[height * width];
+		for (int r = 0; r < height; r++)
+			for (int c = 0; c < width; c++)
+				growable[labels.getIndex(r, c)] = rgbRaster[r][c][nucIndex] > nucThreshold;
+		labels.growRegions(nucSeeds, growable);
+		growable = null;
 
 		// Now creating a new set of Nuclei
-		int len = arrAllNuc.size();
-		counter = 0;
-		ArrayList<Nucleus> arr = new ArrayList<Nucleus>(len);
-		for (int i = 0; i < len; i++) {
-			if (((ArrayList) arrAllNuc.get(i)).size() > 10) {
-				ArrayList ar = (ArrayList) arrAllNuc.get(i);
+		int counter = 0;
+		ArrayList<Nucleus> arr = new ArrayList<Nucleus>(numNuc);
+		for (int i = 0; i < numNuc; i++) {
+			IntList ar = nucSeeds.get(i);
+			if (ar.size() > 10) {
 				int size = ar.size();
 				for (int j = 0; j < size; j++)
-					((Pixel) ar.get(j)).setID(counter);
-				arr.add(new Nucleus((ArrayList) arrAllNuc.get(i), counter));
+					labels.set(ar.get(j), counter);
+				arr.add(new Nucleus(labels.toPoints(ar), counter));
 				counter++;
 			}
 		}
@@ -881,7 +683,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 		float[][] vals = null;
 		DefaultSegmentor_v1 theSegmentor = new DefaultSegmentor_v1();
 		vals = theSegmentor.getIntegratedChannelValuesOverMask_wPixelCount(
-				rgbRaster, pset);
+				rgbRaster, pset.compile());
 
 		return vals;
 	}
@@ -890,7 +692,7 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 			int[][][] rgbRaster, Model_ParameterSet pset) {
 		DefaultSegmentor_v1 theSegmentor = new DefaultSegmentor_v1();
 		float[][] vals = theSegmentor
-				.getMeanChannelValuesOverMask_Compartmented(rgbRaster, pset);
+				.getMeanChannelValuesOverMask_Compartmented(rgbRaster, pset.compile());
 		return vals;
 	}
 
@@ -1110,32 +912,24 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 
 		/**
 		 * Given a arrayList of all coordinate points of this cell, and the
-		 * original pixel matrix from the image, this will search all the
+		 * label map of the image, this will search all the
 		 * coordinates and determine which pixels are the boundary pixels and
 		 * then initialize this cell with those boundaries
 		 * 
 		 * @author BLM
 		 */
-		public void findAndInitBoundary(ArrayList allPoints, Pixel[][] pixels) {
+		public void findAndInitBoundary(ArrayList allPoints, LabelMap labels) {
 			// init the cell boundary pixels now
 			ArrayList arr = allPoints;
 			int numPix = arr.size();
 			cytoplasm.setNumPixels(numPix);
 
+			int[] neighbors = new int[8];
 			ArrayList boundaryPixels = new ArrayList();
 			for (int pi = 0; pi < numPix; pi++) {
 				Point po = (Point) arr.get(pi);
-				Pixel pix = pixels[po.y][po.x];
-
-				Pixel[] neighbors = Pixel.getNeighbors(pix, pixels);
-				int len = neighbors.length;
-				for (int j = 0; j < len; j++) {
-					Pixel neigh = neighbors[j];
-					if (neigh.getID() != pix.getID()) {
-						boundaryPixels.add(po);
-						break;
-					}
-				}
+				if (labels.isBorder(labels.getIndex(po), neighbors))
+					boundaryPixels.add(po);
 			}
 			initBoundary(boundaryPixels);
 		}
@@ -1245,13 +1039,12 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 			ID = id;
 		}
 
-		public Nucleus(ArrayList pixels_, int id) {
+		public Nucleus(ArrayList<Point> points, int id) {
 			ID = id;
-			numPixels = pixels_.size();
+			numPixels = points.size();
 			pixelCoordinates = new Point[numPixels];
 			for (int i = 0; i < numPixels; i++)
-				pixelCoordinates[i] = new Point(((Pixel) pixels_.get(i))
-						.getColumn(), ((Pixel) pixels_.get(i)).getRow());
+				pixelCoordinates[i] = points.get(i);
 			Centroid = getCentroid();
 		}
 
@@ -1327,24 +1120,18 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 			return Centroid;
 		}
 
-		public void initBoundaryPoints(Pixel[][] pixels) {
+		public void initBoundaryPoints(LabelMap labels) {
 			if (pixelCoordinates == null || pixelCoordinates.length == 0)
 				return;
 			// For each pixel in the nucleus, See if any of the neighbors do not
 			// belong to this group; if so, then its a boundary pixel
+			int[] neighbors = new int[8];
 			ArrayList arr = new ArrayList();
 			int len = pixelCoordinates.length;
 			for (int i = 0; i < len; i++) {
 				Point po = pixelCoordinates[i];
-				Pixel p = pixels[po.y][po.x];
-				Pixel[] ne = Pixel.getNeighbors(p, pixels);
-				int num = ne.length;
-				for (int j = 0; j < num; j++) {
-					if (p.getID() != ne[j].getID()) {
-						arr.add(po);
-						break;
-					}
-				}
+				if (labels.isBorder(labels.getIndex(po), neighbors))
+					arr.add(po);
 			}
 			len = arr.size();
 			boundaryPoints = new Point[len];
@@ -1362,344 +1149,6 @@ public class Segmentor_Osteo_v1 implements CellSegmentor {
 	}
 
 
-	public static class Pixel implements Comparable {
-		private int row;
-		private int col;
-		private int value;
-		private int ID;
-
-		public Pixel(int r, int c, int id) {
-			row = r;
-			col = c;
-			value = -5;
-			ID = id;
-		}
-
-		public Pixel(int r, int c, int z_, int id) {
-			row = r;
-			col = c;
-			value = z_;
-			ID = id;
-		}
-
-		/**
-		 * Sets the pixel value as an integer
-		 * 
-		 * @author BLM
-		 */
-		public void setValue(int val) {
-			value = val;
-		}
-
-		/**
-		 * Sets the ID of the Pixel
-		 * 
-		 * @author BLM
-		 */
-		public void setID(int id) {
-			ID = id;
-		}
-
-		/**
-		 * Returns the pixel value as an integer
-		 * 
-		 * @author BLM
-		 */
-		public int getValue() {
-			return value;
-		}
-
-		/**
-		 * Returns the pixel ID number
-		 * 
-		 * @author BLM
-		 */
-		public int getID() {
-			return ID;
-		}
-
-		/**
-		 * Returns the pixel row where it is found in the image
-		 * 
-		 * @author BLM
-		 */
-		public int getRow() {
-			return row;
-		}
-
-		/**
-		 * Returns the pixel column where it is found in the image
-		 * 
-		 * @author BLM
-		 */
-		public int getColumn() {
-			return col;
-		}
-
-		public double getDistance_L1(Pixel p) {
-			double dist = 0;
-			dist += Math.abs(p.row - row);
-			dist += Math.abs(p.col - col);
-
-			return dist;
-		}
-
-		public int compareTo(Object o) {
-			if (!(o instanceof Pixel))
-				throw new ClassCastException();
-
-			Pixel obj = (Pixel) o;
-
-			if (obj.value < value)
-				return 1;
-
-			if (obj.value > value)
-				return -1;
-
-			return 0;
-		}
-
-		/**
-		 * Says if this pixels is above an intensity threshold
-		 * 
-		 * @author BLM
-		 */
-		static public boolean pixelOn(int[] pix) {
-			int sum = 0;
-			int len = pix.length;
-
-			for (int i = 1; i < len; i++)
-				sum += pix[i];
-
-			if (sum > 0) {
-
-				return true;
-			}
-			return false;
-		}
-
-		static public boolean pixelOn(int[] pix, float threshold) {
-			int sum = 0;
-			int len = pix.length;
-
-			for (int i = 1; i < len; i++)
-				sum += pix[i];
-
-			if (sum > threshold)
-				return true;
-
-			return false;
-		}
-
-		static public void resetIDs(Pixel[][] pixels) {
-			int rows = pixels.length;
-			int cols = pixels[0].length;
-			for (int r = 0; r < rows; r++)
-				for (int c = 0; c < cols; c++)
-					pixels[r][c].ID = -1;
-		}
-
-		static public boolean pixelOn(int pix, float threshold) {
-			int sum = 0;
-
-			if (sum > threshold)
-				return true;
-
-			return false;
-		}
-
-		static public boolean pixelOn_binary(int[] pix) {
-			int sum = 0;
-			int len = pix.length;
-
-			for (int i = 0; i < len; i++)
-				sum += pix[i];
-
-			if (sum > 230)
-				return true;
-			return false;
-		}
-
-		/**
-		 * Checks if the given pixel that has the given Euclidean Distance is
-		 * Surrounded by pixels at a higher level
-		 * 
-		 * @author BLM
-		 **/
-		static public float getLargestNeighborEuclidDist(Pixel pix,
-				Pixel[][] pixels, float[][][] distanceMap) {
-			Pixel[] neigh = Pixel.getNeighbors(pix, pixels);
-			int len = neigh.length;
-			float max = -1;
-			for (int i = 0; i < len; i++) {
-				Pixel p = neigh[i];
-				float val = distanceMap[p.row][p.col][0];
-				if (val > max)
-					max = val;
-			}
-
-			return max;
-		}
-
-		/**
-		 * Returns an array of pixels of the given pixel, top to bottom, L->R
-		 * starting at r-1, c-1
-		 * 
-		 * @author BLM
-		 */
-		static public Pixel[] getNeighbors(Pixel centerPixel, Pixel[][] pixels) {
-			int height = pixels.length;
-			int width = pixels[0].length;
-			Pixel[] pixs = null;
-			// top row
-			if (centerPixel.row == 0) {
-				if (centerPixel.col == 0) {
-					// top left corner
-					pixs = new Pixel[3];
-					pixs[0] = pixels[centerPixel.row][centerPixel.col + 1];
-					pixs[1] = pixels[centerPixel.row + 1][centerPixel.col + 1];
-					pixs[2] = pixels[centerPixel.row + 1][centerPixel.col];
-				} else if (centerPixel.col == width - 1) {
-					// top right corner
-					pixs = new Pixel[3];
-					pixs[0] = pixels[centerPixel.row][centerPixel.col - 1];
-					pixs[1] = pixels[centerPixel.row + 1][centerPixel.col - 1];
-					pixs[2] = pixels[centerPixel.row + 1][centerPixel.col];
-				}
-
-				else {
-					// general top row
-					pixs = new Pixel[5];
-					pixs[0] = pixels[centerPixel.row][centerPixel.col - 1];
-
-					pixs[1] = pixels[centerPixel.row + 1][centerPixel.col - 1];
-					pixs[2] = pixels[centerPixel.row + 1][centerPixel.col];
-					pixs[3] = pixels[centerPixel.row + 1][centerPixel.col + 1];
-
-					pixs[4] = pixels[centerPixel.row][centerPixel.col + 1];
-				}
-			}
-			// bottom row pixels
-			else if (centerPixel.row == height - 1) {
-				if (centerPixel.col == 0) {
-					// bottom left corner
-					pixs = new Pixel[3];
-					pixs[0] = pixels[centerPixel.row - 1][centerPixel.col];
-					pixs[1] = pixels[centerPixel.row - 1][centerPixel.col + 1];
-					pixs[2] = pixels[centerPixel.row][centerPixel.col + 1];
-				} else if (centerPixel.col == width - 1) {
-					// bottom right corner
-					pixs = new Pixel[3];
-					pixs[0] = pixels[centerPixel.row][centerPixel.col - 1];
-					pixs[1] = pixels[centerPixel.row - 1][centerPixel.col - 1];
-					pixs[2] = pixels[centerPixel.row - 1][centerPixel.col];
-				} else {
-					// general bottom row
-					pixs = new Pixel[5];
-					pixs[0] = pixels[centerPixel.row][centerPixel.col - 1];
-
-					pixs[1] = pixels[centerPixel.row - 1][centerPixel.col - 1];
-					pixs[2] = pixels[centerPixel.row - 1][centerPixel.col];
-					pixs[3] = pixels[centerPixel.row - 1][centerPixel.col + 1];
-
-					pixs[4] = pixels[centerPixel.row][centerPixel.col + 1];
-				}
-			}
-
-			// general left column
-			else if (centerPixel.col == 0) {
-				pixs = new Pixel[5];
-				pixs[0] = pixels[centerPixel.row - 1][centerPixel.col];
-
-				pixs[1] = pixels[centerPixel.row - 1][centerPixel.col + 1];
-				pixs[2] = pixels[centerPixel.row][centerPixel.col + 1];
-				pixs[3] = pixels[centerPixel.row + 1][centerPixel.col + 1];
-
-				pixs[4] = pixels[centerPixel.row + 1][centerPixel.col];
-			}
-			// far right column pixels
-			else if (centerPixel.col == width - 1) {
-				pixs = new Pixel[5];
-				pixs[0] = pixels[centerPixel.row - 1][centerPixel.col];
-
-				pixs[1] = pixels[centerPixel.row - 1][centerPixel.col - 1];
-				pixs[2] = pixels[centerPixel.row][centerPixel.col - 1];
-				pixs[3] = pixels[centerPixel.row + 1][centerPixel.col - 1];
-
-				pixs[4] = pixels[centerPixel.row + 1][centerPixel.col];
-			}
-
-			else {
-				// general body pixels
-				pixs = new Pixel[8];
-				pixs[0] = pixels[centerPixel.row - 1][centerPixel.col - 1];
-				pixs[1] = pixels[centerPixel.row - 1][centerPixel.col];
-				pixs[2] = pixels[centerPixel.row - 1][centerPixel.col + 1];
-
-				pixs[3] = pixels[centerPixel.row][centerPixel.col - 1];
-				pixs[4] = pixels[centerPixel.row][centerPixel.col + 1];
-
-				pixs[5] = pixels[centerPixel.row + 1][centerPixel.col - 1];
-				pixs[6] = pixels[centerPixel.row + 1][centerPixel.col];
-				pixs[7] = pixels[centerPixel.row + 1][centerPixel.col + 1];
-			}
-			return pixs;
-		}
-
-		static public Pixel[] getFourNeighbors(Pixel centerPixel,
-				Pixel[][] pixels) {
-			int height = pixels.length;
-			int width = pixels[0].length;
-			Pixel[] pixs = null;
-
-			if (centerPixel.row >= height - 1 || centerPixel.col >= width - 1) {
-				pixs = new Pixel[0];
-				return pixs;
-			} else if (centerPixel.row <= 1 || centerPixel.col <= 1) {
-				pixs = new Pixel[0];
-				return pixs;
-			}
-
-			// general body pixels
-			pixs = new Pixel[4];
-
-			pixs[0] = pixels[centerPixel.row - 1][centerPixel.col];
-			pixs[1] = pixels[centerPixel.row][centerPixel.col - 1];
-			pixs[2] = pixels[centerPixel.row][centerPixel.col + 1];
-			pixs[3] = pixels[centerPixel.row + 1][centerPixel.col];
-
-			return pixs;
-		}
-
-		public static byte[] convertToByteArray(float[][][] im) {
-			int rows = im.length;
-			int cols = im[0].length;
-			int counter = 0;
-			byte[] arr = new byte[rows * cols];
-			for (int r = 0; r < rows; r++)
-				for (int c = 0; c < cols; c++) {
-					arr[counter] = (byte) (im[r][c][0] - 128);
-					counter++;
-				}
-
-			return arr;
-		}
-
-		public static byte[] convertToByteArray(int[][][] im) {
-			int rows = im.length;
-			int cols = im[0].length;
-			int counter = 0;
-			byte[] arr = new byte[rows * cols];
-			for (int r = 0; r < rows; r++)
-				for (int c = 0; c < cols; c++) {
-					arr[counter] = (byte) (im[r][c][0] - 128);
-					counter++;
-				}
-
-			return arr;
-		}
-	}
-
 	@Override
 	public void clearROIs() {
 		ROIs = null;
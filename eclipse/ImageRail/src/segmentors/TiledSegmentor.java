@@ -0,0 +1,374 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package segmentors;
+
+import imagerailio.Point;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import models.Model_ParameterSet;
+import models.SegmentationParameters;
+import segmentedobject.CellCoordinates;
+import tools.FieldRaster;
+
+/**
+ * Segments a field as a grid of overlapping tiles, several tiles at a time,
+ * with any other segmentor. The field is cut into non-overlapping core tiles
+ * of TileSize pixels; each is segmented together with an Overlap pixel margin
+ * of its neighbours. A cell is kept only by the tile whose core holds its
+ * nuclear centroid, so a cell lying across a seam comes out once, whole, from
+ * the tile that sees all of it. The overlap should therefore be larger than
+ * the largest cell diameter.
+ * 
+ * Each worker segments with its own instance of the wrapped segmentor's
+ * class, and the segmentor scratch memory only ever covers one tile, so very
+ * large fields never need an int[][][] copy or field sized label maps.
+ * 
+ * @author BLM
+ */
+public class TiledSegmentor implements FieldRasterSegmentor
+{
+	/** Core tile edge length in pixels used if none is given */
+	static public final int DEFAULT_TILE_SIZE = 2048;
+	/** Margin each tile is segmented with, in pixels */
+	static public final int DEFAULT_OVERLAP = 128;
+
+	private CellSegmentor TheSegmentor;
+	private int TileSize;
+	private int Overlap;
+	private int NumThreads;
+	/** Runs the tiles; created on first use and kept, shared with copies */
+	private ForkJoinPool ThePool;
+	private ThreadLocal<CellSegmentor> WorkerSegmentors;
+	private ArrayList<Shape> ROIs;
+
+	/**
+	 * Creates a tiled version of the given segmentor
+	 * 
+	 * @param segmentor
+	 *            segmentor run on every tile; each worker thread gets its own
+	 *            instance of the same class, since segmentors keep per-field
+	 *            state
+	 * @param tileSize
+	 *            core tile edge length in pixels
+	 * @param overlap
+	 *            margin around every core tile, should exceed the largest cell
+	 *            diameter
+	 * @param numThreads
+	 *            how many tiles are segmented at once, values < 1 are treated
+	 *            as 1
+	 * @author BLM
+	 */
+	public TiledSegmentor(CellSegmentor segmentor, int tileSize, int overlap,
+			int numThreads)
+	{
+		if (tileSize < 1 || overlap < 0)
+			throw new IllegalArgumentException("Invalid tiling: tile size "
+					+ tileSize + ", overlap " + overlap);
+		TheSegmentor = segmentor;
+		TileSize = tileSize;
+		Overlap = overlap;
+		NumThreads = Math.max(1, numThreads);
+		if (NumThreads > 1 && newSegmentorInstance() == null)
+		{
+			System.out.println("**** WARNING: segmentor "
+					+ segmentor.getClass().getName()
+					+ " cannot be instantiated per thread --> segmenting tiles serially");
+			NumThreads = 1;
+		}
+		WorkerSegmentors = new ThreadLocal<CellSegmentor>()
+		{
+			protected CellSegmentor initialValue()
+			{
+				if (NumThreads == 1)
+					return TheSegmentor;
+				return newSegmentorInstance();
+			}
+		};
+	}
+
+	/**
+	 * Returns the tile size set by the system property "imagerail.tileSize",
+	 * or 0 if tiling was not asked for
+	 * 
+	 * @author BLM
+	 */
+	static public int getDefaultTileSize()
+	{
+		String prop = System.getProperty("imagerail.tileSize");
+		if (prop == null)
+			return 0;
+		try
+		{
+			return Math.max(0, Integer.parseInt(prop.trim()));
+		}
+		catch (NumberFormatException e)
+		{
+			System.out.println("**** WARNING: ignoring invalid imagerail.tileSize value: "
+					+ prop);
+			return 0;
+		}
+	}
+
+	/** Returns a new tiled segmentor with the same settings, for use on another thread.
+	 * It runs its tiles on the same pool as this one.
+	 * @author BLM*/
+	public TiledSegmentor copy()
+	{
+		CellSegmentor seg = newSegmentorInstance();
+		TiledSegmentor out = new TiledSegmentor(seg == null ? TheSegmentor
+				: seg, TileSize, Overlap, seg == null ? 1 : NumThreads);
+		if (out.NumThreads == NumThreads)
+			out.ThePool = getPool();
+		return out;
+	}
+
+	/** Returns the pool the tiles are segmented on, creating it on first use
+	 * @author BLM*/
+	private synchronized ForkJoinPool getPool()
+	{
+		if (ThePool == null)
+			ThePool = new ForkJoinPool(NumThreads);
+		return ThePool;
+	}
+
+	public int getTileSize()
+	{
+		return TileSize;
+	}
+
+	public int getOverlap()
+	{
+		return Overlap;
+	}
+
+	public ArrayList<CellCoordinates> segmentCells(int[][][] raster,
+			Model_ParameterSet pset)
+	{
+		return segmentCells(FieldRaster.fromIntRaster(raster), pset.compile());
+	}
+
+	public ArrayList<CellCoordinates> segmentCells(final FieldRaster raster,
+			final SegmentationParameters params)
+	{
+		int height = raster.getHeight();
+		int width = raster.getWidth();
+		// Small enough to be a single tile
+		if (height <= TileSize + Overlap && width <= TileSize + Overlap)
+			return segmentTile(TheSegmentor, raster, params, new Rectangle(0,
+					0, width, height), new Rectangle(0, 0, width, height));
+
+		ArrayList<Callable<ArrayList<CellCoordinates>>> tasks = new ArrayList<Callable<ArrayList<CellCoordinates>>>();
+		for (int r = 0; r < height; r += TileSize)
+			for (int c = 0; c < width; c += TileSize)
+			{
+				final Rectangle core = new Rectangle(c, r, Math.min(TileSize,
+						width - c), Math.min(TileSize, height - r));
+				final Rectangle tile = core.union(
+						new Rectangle(c - Overlap, r - Overlap, core.width + 2
+								* Overlap, core.height + 2 * Overlap))
+						.intersection(new Rectangle(0, 0, width, height));
+				tasks.add(new Callable<ArrayList<CellCoordinates>>()
+				{
+					public ArrayList<CellCoordinates> call() throws Exception
+					{
+						return segmentTile(WorkerSegmentors.get(), raster,
+								params, tile, core);
+					}
+				});
+			}
+
+		ArrayList<CellCoordinates> cells = new ArrayList<CellCoordinates>();
+		ForkJoinPool pool = getPool();
+		ArrayList<Future<ArrayList<CellCoordinates>>> results = new ArrayList<Future<ArrayList<CellCoordinates>>>();
+		try
+		{
+			for (int i = 0; i < tasks.size(); i++)
+				results.add(pool.submit(tasks.get(i)));
+			// Collecting in tile order so the output does not depend on timing
+			for (int i = 0; i < results.size(); i++)
+				cells.addAll(results.get(i).get());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		finally
+		{
+			// The pool is kept for the next field, so any tiles left after a
+			// failure are cancelled rather than left running
+			for (int i = 0; i < results.size(); i++)
+				results.get(i).cancel(true);
+		}
+
+		int num = cells.size();
+		for (int i = 0; i < num; i++)
+			cells.get(i).setID(i);
+		System.out.println("Tiled segmentation: " + tasks.size() + " tiles, "
+				+ num + " cells");
+		return cells;
+	}
+
+	/**
+	 * Segments the given tile of the field and returns, in field coordinates,
+	 * the cells whose centroid lies in the given core
+	 * 
+	 * @author BLM
+	 */
+	private ArrayList<CellCoordinates> segmentTile(CellSegmentor segmentor,
+			FieldRaster raster, SegmentationParameters params, Rectangle tile,
+			Rectangle core)
+	{
+		FieldRaster sub = raster;
+		if (tile.width != raster.getWidth()
+				|| tile.height != raster.getHeight())
+			sub = raster.getSubRaster(tile.y, tile.x, tile.height, tile.width);
+
+		ArrayList<Shape> rois = getTileROIs(tile);
+		if (rois != null)
+			segmentor.setROIs(rois);
+		ArrayList<CellCoordinates> found = SegmentorAdapter.segmentCells(
+				segmentor, sub, params);
+		segmentor.clearROIs();
+		sub = null;
+
+		ArrayList<CellCoordinates> kept = new ArrayList<CellCoordinates>();
+		if (found == null)
+			return kept;
+		// Points may be shared between compartments and cells, so each is moved only once
+		IdentityHashMap<Point, Point> moved = new IdentityHashMap<Point, Point>();
+		int num = found.size();
+		for (int i = 0; i < num; i++)
+		{
+			CellCoordinates cell = found.get(i);
+			Point centroid = getNuclearCentroid(cell);
+			if (centroid == null
+					|| !core.contains(centroid.x + tile.x, centroid.y + tile.y))
+				continue;
+			int numCom = cell.getComSize();
+			for (int j = 0; j < numCom; j++)
+			{
+				Point[] pts = cell.getComCoordinates(j);
+				for (int p = 0; p < pts.length; p++)
+					if (moved.put(pts[p], pts[p]) == null)
+					{
+						pts[p].x += tile.x;
+						pts[p].y += tile.y;
+					}
+			}
+			kept.add(cell);
+		}
+		return kept;
+	}
+
+	/** Returns the ROIs moved into the coordinates of the given tile, or null if there are none
+	 * @author BLM*/
+	private ArrayList<Shape> getTileROIs(Rectangle tile)
+	{
+		ArrayList<Shape> rois = ROIs;
+		if (rois == null)
+			return null;
+		AffineTransform shift = AffineTransform.getTranslateInstance(-tile.x,
+				-tile.y);
+		ArrayList<Shape> out = new ArrayList<Shape>(rois.size());
+		for (int i = 0; i < rois.size(); i++)
+			out.add(shift.createTransformedShape(rois.get(i)));
+		return out;
+	}
+
+	/**
+	 * Returns the centroid of the nuclei of the given cell (merged cells have
+	 * several, named Nucleus_0, Nucleus_1, ...), or of all its points if it has
+	 * no nucleus compartment, or null if it is empty
+	 * 
+	 * @author BLM
+	 */
+	static private Point getNuclearCentroid(CellCoordinates cell)
+	{
+		int numCom = cell.getComSize();
+		boolean hasNucleus = false;
+		for (int j = 0; j < numCom; j++)
+			if (cell.getComName(j).startsWith("Nucleus"))
+				hasNucleus = true;
+
+		long xM = 0;
+		long yM = 0;
+		int counter = 0;
+		for (int j = 0; j < numCom; j++)
+		{
+			if (hasNucleus && !cell.getComName(j).startsWith("Nucleus"))
+				continue;
+			Point[] pts = cell.getComCoordinates(j);
+			for (int p = 0; p < pts.length; p++)
+			{
+				xM += pts[p].x;
+				yM += pts[p].y;
+			}
+			counter += pts.length;
+		}
+		if (counter == 0)
+			return null;
+		return new Point((int) (xM / counter), (int) (yM / counter));
+	}
+
+	private CellSegmentor newSegmentorInstance()
+	{
+		try
+		{
+			return TheSegmentor.getClass().getDeclaredConstructor()
+					.newInstance();
+		}
+		catch (ReflectiveOperationException e)
+		{
+			// No public no-argument constructor, or it threw
+			return null;
+		}
+		catch (SecurityException e)
+		{
+			return null;
+		}
+	}
+
+	public void clearROIs()
+	{
+		ROIs = null;
+	}
+
+	public void setROIs(ArrayList<Shape> ROIs_)
+	{
+		ROIs = ROIs_;
+	}
+}
@@ -19,13 +19,15 @@ final public class AutoThresholder {
 		int N1, N;    // N1 = # points with intensity <=k; N = total number of points
 		double BCV, BCVmax; // The current Between Class Variance and maximum BCV
 		double num, denom;  // temporary bookeeping
-		int Sk;  // The total intensity for all histogram points <=k
-		int S, L=data.length; // The total intensity of the image
+		long Sk;  // The total intensity for all histogram points <=k
+		long S; // The total intensity of the image; long so 16-bit fields cannot overflow it
+		int L=data.length;
 
 		// Initialize values:
-		S = N = 0;
+		S = 0;
+		N = 0;
 		for (k=0; k<L; k++){
-			S += k * data[k];	// Total histogram intensity
+			S += (long) k * data[k];	// Total histogram intensity
 			N += data[k];		// Total number of data points
 		}
 
@@ -38,7 +40,7 @@ final public class AutoThresholder {
 		// Look at each possible threshold value,
 		// calculate the between-class variance, and decide if it's a max
 		for (k=1; k<L-1; k++) { // No need to check endpoints k = 0 or k = L-1
-			Sk += k * data[k];
+			Sk += (long) k * data[k];
 			N1 += data[k];
 
 			// The float casting here is to avoid compiler warning about loss of precision and
@@ -0,0 +1,110 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+/**
+ * Hierarchical queue of pixel indices keyed by small non-negative integer
+ * levels. pop() always returns an entry of the highest level present, first
+ * in first out within a level. Pushing and popping are O(1) amortised, which
+ * makes it a linear time replacement for sorting pixels by value when the
+ * values are bounded integers such as distance map levels.
+ * 
+ * @author BLM
+ */
+public final class BucketQueue
+{
+	private IntList[] Buckets;
+	/** Read position within each bucket */
+	private int[] Heads;
+	private int Top;
+	private int Size;
+
+	/** Creates a queue for levels 0..numLevels-1
+	 * @author BLM*/
+	public BucketQueue(int numLevels)
+	{
+		Buckets = new IntList[Math.max(1, numLevels)];
+		Heads = new int[Buckets.length];
+		Top = -1;
+		Size = 0;
+	}
+
+	/** Adds the given index at the given level, clamped to the levels of this queue
+	 * @author BLM*/
+	public void push(int index, int level)
+	{
+		if (level < 0)
+			level = 0;
+		else if (level >= Buckets.length)
+			level = Buckets.length - 1;
+		if (Buckets[level] == null)
+			Buckets[level] = new IntList();
+		Buckets[level].add(index);
+		if (level > Top)
+			Top = level;
+		Size++;
+	}
+
+	public boolean isEmpty()
+	{
+		return Size == 0;
+	}
+
+	public int size()
+	{
+		return Size;
+	}
+
+	/** Returns the level the next pop() will come from, or -1 if empty
+	 * @author BLM*/
+	public int getTopLevel()
+	{
+		settle();
+		return Top;
+	}
+
+	/** Removes and returns the oldest index of the highest level
+	 * @author BLM*/
+	public int pop()
+	{
+		settle();
+		IntList bucket = Buckets[Top];
+		int index = bucket.get(Heads[Top]);
+		Heads[Top]++;
+		Size--;
+		return index;
+	}
+
+	/** Moves Top down past emptied buckets, recycling their storage */
+	private void settle()
+	{
+		while (Top >= 0)
+		{
+			IntList bucket = Buckets[Top];
+			if (bucket != null && Heads[Top] < bucket.size())
+				return;
+			if (bucket != null)
+				bucket.clear();
+			Heads[Top] = 0;
+			Top--;
+		}
+	}
+}
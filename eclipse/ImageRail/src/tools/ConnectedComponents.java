@@ -0,0 +1,171 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * Two pass union-find connected component labelling of a binary mask. Runs
+ * in time linear in the number of pixels and uses no recursion, so regions of
+ * any size are labelled correctly. Masks and labels use the column-major
+ * layout of LabelMap (pixel (row, col) at row + col*height).
+ * 
+ * Components are numbered 0..n-1 in the order their first pixel appears when
+ * scanning the image row by row, which is the order the old recursive region
+ * growing handed out IDs in.
+ * 
+ * @author BLM
+ */
+public final class ConnectedComponents
+{
+	private ConnectedComponents()
+	{
+	}
+
+	/**
+	 * Labels the connected components of the given mask
+	 * 
+	 * @param mask
+	 *            true for foreground pixels, indexed row + col*height
+	 * @param eightConnected
+	 *            true to connect diagonal neighbours, false for
+	 *            4-connectivity
+	 * @param labels
+	 *            receives the component of every pixel, or
+	 *            LabelMap.UNLABELED for background
+	 * @return the number of components
+	 * @author BLM
+	 */
+	static public int label(boolean[] mask, int height, int width,
+			boolean eightConnected, int[] labels)
+	{
+		int numPixels = height * width;
+		int[] parent = new int[64];
+		int numProvisional = 0;
+
+		// Pass 1: provisional labels, merging with the already visited neighbours
+		for (int c = 0; c < width; c++)
+		{
+			int colStart = c * height;
+			for (int r = 0; r < height; r++)
+			{
+				int index = colStart + r;
+				if (!mask[index])
+				{
+					labels[index] = LabelMap.UNLABELED;
+					continue;
+				}
+				int lab = -1;
+				if (r > 0 && mask[index - 1])
+					lab = union(parent, lab, labels[index - 1]);
+				if (c > 0)
+				{
+					int left = index - height;
+					if (mask[left])
+						lab = union(parent, lab, labels[left]);
+					if (eightConnected)
+					{
+						if (r > 0 && mask[left - 1])
+							lab = union(parent, lab, labels[left - 1]);
+						if (r < height - 1 && mask[left + 1])
+							lab = union(parent, lab, labels[left + 1]);
+					}
+				}
+				if (lab == -1)
+				{
+					if (numProvisional == parent.length)
+						parent = Arrays.copyOf(parent, parent.length * 2);
+					parent[numProvisional] = numProvisional;
+					lab = numProvisional;
+					numProvisional++;
+				}
+				labels[index] = lab;
+			}
+		}
+
+		// Finding the first pixel in row order of every component
+		int[] firstPixel = new int[numProvisional];
+		Arrays.fill(firstPixel, Integer.MAX_VALUE);
+		for (int index = 0; index < numPixels; index++)
+		{
+			if (labels[index] == LabelMap.UNLABELED)
+				continue;
+			int root = find(parent, labels[index]);
+			labels[index] = root;
+			int rowOrder = (index % height) * width + index / height;
+			if (rowOrder < firstPixel[root])
+				firstPixel[root] = rowOrder;
+		}
+
+		// Numbering the components by their first pixel
+		int numComponents = 0;
+		for (int i = 0; i < numProvisional; i++)
+			if (parent[i] == i)
+				numComponents++;
+		long[] order = new long[numComponents];
+		int counter = 0;
+		for (int i = 0; i < numProvisional; i++)
+			if (parent[i] == i)
+			{
+				order[counter] = ((long) firstPixel[i] << 32) | i;
+				counter++;
+			}
+		Arrays.sort(order);
+		int[] finalLabel = parent;
+		for (int i = 0; i < numComponents; i++)
+			finalLabel[(int) (order[i] & 0xffffffffL)] = i;
+		for (int index = 0; index < numPixels; index++)
+			if (labels[index] != LabelMap.UNLABELED)
+				labels[index] = finalLabel[labels[index]];
+
+		return numComponents;
+	}
+
+	/** Merges the set of b into that of a (if any) and returns the root
+	 * @author BLM*/
+	static private int union(int[] parent, int a, int b)
+	{
+		int rootB = find(parent, b);
+		if (a == -1)
+			return rootB;
+		int rootA = find(parent, a);
+		if (rootA == rootB)
+			return rootA;
+		// Keeping the smaller label as root
+		if (rootA < rootB)
+		{
+			parent[rootB] = rootA;
+			return rootA;
+		}
+		parent[rootA] = rootB;
+		return rootB;
+	}
+
+	static private int find(int[] parent, int x)
+	{
+		while (parent[x] != x)
+		{
+			parent[x] = parent[parent[x]];
+			x = parent[x];
+		}
+		return x;
+	}
+}
@@ -0,0 +1,304 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+/**
+ * Exact Euclidean distance transforms, computed as two passes of the
+ * Felzenszwalb-Huttenlocher 1D lower envelope: along every row, then along
+ * every column. The lines of each pass are independent and are processed in
+ * parallel bands; every thread reuses its own scratch buffers, so a transform
+ * allocates nothing per line.
+ * 
+ * The float versions give the same values as the original
+ * SpatialFilter.distanceTransform(): the input holds 0 on background pixels
+ * and a large value (1e20) on foreground pixels, and comes back holding
+ * squared distances. squaredDistances() takes the mask itself and works in
+ * exact integer arithmetic, with no sentinel value.
+ * 
+ * @author BLM
+ */
+public final class DistanceTransform
+{
+	private DistanceTransform()
+	{
+	}
+
+	/** Per thread working arrays, grown to the longest line seen */
+	static private final class Scratch
+	{
+		float[] Line = new float[0];
+		float[] Out = new float[0];
+		float[] Z = new float[1];
+		int[] V = new int[0];
+		long[] G = new long[0];
+		long[] Zi = new long[1];
+
+		void ensure(int n)
+		{
+			if (Line.length < n)
+			{
+				Line = new float[n];
+				Out = new float[n];
+				Z = new float[n + 1];
+				V = new int[n];
+				G = new long[n];
+				Zi = new long[n + 1];
+			}
+		}
+	}
+
+	static private final ThreadLocal<Scratch> Scratches = new ThreadLocal<Scratch>()
+	{
+		protected Scratch initialValue()
+		{
+			return new Scratch();
+		}
+	};
+
+	/**
+	 * Transforms the given [row][col] image in place and returns it
+	 * 
+	 * @author BLM
+	 */
+	static public float[][] transform(final float[][] im)
+	{
+		final int rows = im.length;
+		final int cols = im[0].length;
+
+		// transform along rows
+		FilterEngine.forEachRowBand(rows, cols, new FilterEngine.RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				Scratch s = Scratches.get();
+				s.ensure(cols);
+				for (int r = rowStart; r < rowEnd; r++)
+				{
+					dt(im[r], cols, s);
+					System.arraycopy(s.Out, 0, im[r], 0, cols);
+				}
+			}
+		});
+
+		// transform along columns
+		FilterEngine.forEachRowBand(cols, rows, new FilterEngine.RowBand()
+		{
+			public void run(int colStart, int colEnd)
+			{
+				Scratch s = Scratches.get();
+				s.ensure(rows);
+				float[] f = s.Line;
+				for (int c = colStart; c < colEnd; c++)
+				{
+					for (int r = 0; r < rows; r++)
+						f[r] = im[r][c];
+					dt(f, rows, s);
+					float[] d = s.Out;
+					for (int r = 0; r < rows; r++)
+						im[r][c] = d[r];
+				}
+			}
+		});
+		return im;
+	}
+
+	/**
+	 * Transforms the given flat image, indexed row*width + col, in place
+	 * 
+	 * @author BLM
+	 */
+	static public void transform(final float[] im, final int height,
+			final int width)
+	{
+		FilterEngine.forEachRowBand(height, width, new FilterEngine.RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				Scratch s = Scratches.get();
+				s.ensure(width);
+				float[] f = s.Line;
+				for (int r = rowStart; r < rowEnd; r++)
+				{
+					int offset = r * width;
+					System.arraycopy(im, offset, f, 0, width);
+					dt(f, width, s);
+					System.arraycopy(s.Out, 0, im, offset, width);
+				}
+			}
+		});
+		FilterEngine.forEachRowBand(width, height, new FilterEngine.RowBand()
+		{
+			public void run(int colStart, int colEnd)
+			{
+				Scratch s = Scratches.get();
+				s.ensure(height);
+				float[] f = s.Line;
+				for (int c = colStart; c < colEnd; c++)
+				{
+					for (int r = 0; r < height; r++)
+						f[r] = im[r * width + c];
+					dt(f, height, s);
+					float[] d = s.Out;
+					for (int r = 0; r < height; r++)
+						im[r * width + c] = d[r];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the squared Euclidean distance of every pixel to the nearest
+	 * pixel that is not in the mask; 0 outside the mask. The mask and result
+	 * are indexed row*width + col. If the mask covers the whole image the
+	 * distances saturate at Integer.MAX_VALUE.
+	 * 
+	 * @author BLM
+	 */
+	static public int[] squaredDistances(final boolean[] mask,
+			final int height, final int width)
+	{
+		final int[] out = new int[height * width];
+		// Larger than any real distance along a line
+		final long none = (long) height + width + 1;
+		final long noneSq = none * none;
+
+		// 1D squared distances along each row
+		final long[] rowDist = new long[height * width];
+		FilterEngine.forEachRowBand(height, width, new FilterEngine.RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				for (int r = rowStart; r < rowEnd; r++)
+				{
+					int offset = r * width;
+					long d = none;
+					for (int c = 0; c < width; c++)
+					{
+						d = mask[offset + c] ? Math.min(none, d + 1) : 0;
+						rowDist[offset + c] = d;
+					}
+					d = none;
+					for (int c = width - 1; c >= 0; c--)
+					{
+						d = mask[offset + c] ? Math.min(none, d + 1) : 0;
+						long dd = Math.min(d, rowDist[offset + c]);
+						rowDist[offset + c] = dd == none ? noneSq : dd * dd;
+					}
+				}
+			}
+		});
+
+		// Lower envelope of the parabolas down each column
+		FilterEngine.forEachRowBand(width, height, new FilterEngine.RowBand()
+		{
+			public void run(int colStart, int colEnd)
+			{
+				Scratch s = Scratches.get();
+				s.ensure(height);
+				long[] g = s.G;
+				int[] v = s.V;
+				long[] z = s.Zi;
+				for (int c = colStart; c < colEnd; c++)
+				{
+					for (int r = 0; r < height; r++)
+						g[r] = rowDist[r * width + c];
+					int k = 0;
+					v[0] = 0;
+					z[0] = Long.MIN_VALUE;
+					z[1] = Long.MAX_VALUE;
+					for (int q = 1; q < height; q++)
+					{
+						long sep;
+						while (true)
+						{
+							int p = v[k];
+							// First row from which the parabola of q is no higher than that of p
+							long num = g[q] + (long) q * q - g[p] - (long) p * p;
+							long den = 2L * (q - p);
+							sep = num >= 0 ? (num + den - 1) / den : -((-num) / den);
+							if (sep <= z[k])
+								k--;
+							else
+								break;
+						}
+						k++;
+						v[k] = q;
+						z[k] = sep;
+						z[k + 1] = Long.MAX_VALUE;
+					}
+					k = 0;
+					for (int q = 0; q < height; q++)
+					{
+						while (z[k + 1] <= q)
+							k++;
+						long dq = q - v[k];
+						long d = dq * dq + g[v[k]];
+						// Only reachable when no pixel is outside the mask
+						if (d >= noneSq)
+							d = Integer.MAX_VALUE;
+						out[q * width + c] = d > Integer.MAX_VALUE ? Integer.MAX_VALUE
+								: (int) d;
+					}
+				}
+			}
+		});
+		return out;
+	}
+
+	/* dt of 1d function using squared distance, result in s.Out */
+	static private void dt(float[] f, int n, Scratch s)
+	{
+		float[] d = s.Out;
+		int[] v = s.V;
+		float[] z = s.Z;
+		int k = 0;
+		v[0] = 0;
+		z[0] = -1e20f;
+		z[1] = 1e20f;
+
+		for (int q = 1; q <= n - 1; q++)
+		{
+			float sq = ((f[q] + (float) q * (float) q) - (f[v[k]] + (float) v[k]
+					* (float) v[k]))
+					/ (2f * (float) q - 2f * (float) v[k]);
+			while (sq <= z[k])
+			{
+				k--;
+				sq = ((f[q] + (float) q * (float) q) - (f[v[k]] + (float) v[k]
+						* (float) v[k]))
+						/ (2f * (float) q - 2f * (float) v[k]);
+			}
+			k++;
+			v[k] = q;
+			z[k] = sq;
+			z[k + 1] = 1e20f;
+		}
+
+		k = 0;
+		for (int q = 0; q <= n - 1; q++)
+		{
+			while (z[k + 1] < q)
+				k++;
+			d[q] = ((float) q - (float) v[k]) * ((float) q - (float) v[k])
+					+ f[v[k]];
+		}
+	}
+}
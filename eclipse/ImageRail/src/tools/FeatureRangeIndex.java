@@ -0,0 +1,184 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * Plate wide min/max of every feature, kept together with the per-slot (e.g.
+ * per-well) min/max vectors it was merged from, so that replacing one slot's
+ * contribution costs O(features) instead of a rescan of the whole plate.
+ * Only when a slot that held a feature's min or max shrinks or goes away is
+ * that one feature rescanned across the slots.
+ * 
+ * NaN entries are "no value" for that feature and never count. Slot vectors
+ * may be shorter than the index, which grows to fit the longest one.
+ * 
+ * @author BLM
+ */
+public final class FeatureRangeIndex
+{
+	private final float[][] SlotMins;
+	private final float[][] SlotMaxs;
+	/** [0][feature] = min, [1][feature] = max */
+	private float[][] Range;
+
+	/** Creates an empty index for the given number of slots and features
+	 * @author BLM*/
+	public FeatureRangeIndex(int numSlots, int numFeatures)
+	{
+		SlotMins = new float[numSlots][];
+		SlotMaxs = new float[numSlots][];
+		Range = new float[2][];
+		Range[0] = new float[numFeatures];
+		Range[1] = new float[numFeatures];
+		Arrays.fill(Range[0], Float.POSITIVE_INFINITY);
+		Arrays.fill(Range[1], Float.NEGATIVE_INFINITY);
+	}
+
+	public int getNumSlots()
+	{
+		return SlotMins.length;
+	}
+
+	public int getNumFeatures()
+	{
+		return Range[0].length;
+	}
+
+	/**
+	 * Returns the 2xN matrix of min (row 0) and max (row 1) of each feature
+	 * over all slots, +/-infinity where no slot has a value. The arrays are
+	 * live and must not be modified.
+	 * 
+	 * @author BLM
+	 */
+	public float[][] getRange()
+	{
+		return Range;
+	}
+
+	/** Returns the min of the given feature over all slots, or +infinity if there is none
+	 * @author BLM*/
+	public float getMin(int feature)
+	{
+		if (feature < 0 || feature >= Range[0].length)
+			return Float.POSITIVE_INFINITY;
+		return Range[0][feature];
+	}
+
+	/** Returns the max of the given feature over all slots, or -infinity if there is none
+	 * @author BLM*/
+	public float getMax(int feature)
+	{
+		if (feature < 0 || feature >= Range[1].length)
+			return Float.NEGATIVE_INFINITY;
+		return Range[1][feature];
+	}
+
+	/**
+	 * Replaces the contribution of the given slot with the given per feature
+	 * min and max vectors (either may be null for none). The arrays are kept,
+	 * not copied, so callers must hand over arrays they no longer modify.
+	 * 
+	 * @author BLM
+	 */
+	public void set(int slot, float[] mins, float[] maxs)
+	{
+		float[] oldMins = SlotMins[slot];
+		float[] oldMaxs = SlotMaxs[slot];
+		SlotMins[slot] = mins;
+		SlotMaxs[slot] = maxs;
+
+		int len = Math.max(mins == null ? 0 : mins.length, maxs == null ? 0
+				: maxs.length);
+		if (len > Range[0].length)
+			grow(len);
+
+		float[] min = Range[0];
+		float[] max = Range[1];
+		int numF = min.length;
+		for (int f = 0; f < numF; f++)
+		{
+			float newMin = get(mins, f);
+			float oldMin = get(oldMins, f);
+			if (newMin < min[f])
+				min[f] = newMin;
+			else if (oldMin == min[f] && !(newMin <= oldMin))
+				min[f] = rescanMin(f);
+
+			float newMax = get(maxs, f);
+			float oldMax = get(oldMaxs, f);
+			if (newMax > max[f])
+				max[f] = newMax;
+			else if (oldMax == max[f] && !(newMax >= oldMax))
+				max[f] = rescanMax(f);
+		}
+	}
+
+	/** Removes the contribution of the given slot
+	 * @author BLM*/
+	public void clear(int slot)
+	{
+		set(slot, null, null);
+	}
+
+	private float rescanMin(int feature)
+	{
+		float min = Float.POSITIVE_INFINITY;
+		for (int i = 0; i < SlotMins.length; i++)
+		{
+			float val = get(SlotMins[i], feature);
+			if (val < min)
+				min = val;
+		}
+		return min;
+	}
+
+	private float rescanMax(int feature)
+	{
+		float max = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < SlotMaxs.length; i++)
+		{
+			float val = get(SlotMaxs[i], feature);
+			if (val > max)
+				max = val;
+		}
+		return max;
+	}
+
+	private void grow(int numFeatures)
+	{
+		int old = Range[0].length;
+		float[] min = Arrays.copyOf(Range[0], numFeatures);
+		float[] max = Arrays.copyOf(Range[1], numFeatures);
+		Arrays.fill(min, old, numFeatures, Float.POSITIVE_INFINITY);
+		Arrays.fill(max, old, numFeatures, Float.NEGATIVE_INFINITY);
+		Range = new float[][] { min, max };
+	}
+
+	static private float get(float[] values, int feature)
+	{
+		if (values == null || feature >= values.length)
+			return Float.NaN;
+		return values[feature];
+	}
+}
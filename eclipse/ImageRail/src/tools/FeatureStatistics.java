@@ -0,0 +1,357 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Running count, mean, sum of squared deviations (M2) and min/max of every
+ * feature over a set of cells, updated one cell at a time with Welford's
+ * method. Accumulators of separate fields merge exactly, so well and plate
+ * statistics are built from the per-field ones without revisiting any cell,
+ * and removing a cell is a single update rather than a full recompute.
+ * 
+ * Values outside +/-1e9 (and NaNs) are skipped, as the well mean
+ * computations always have. Removing a cell holding a feature's min or max
+ * leaves that bound stale: hasValidExtrema() then returns false until
+ * recomputeExtrema() is given the remaining cells.
+ * 
+ * @author BLM
+ */
+public final class FeatureStatistics
+{
+	static private final double LIMIT = 1000000000;
+
+	private final long[] Counts;
+	private final double[] Means;
+	private final double[] M2;
+	private final float[] Mins;
+	private final float[] Maxs;
+	private boolean ValidExtrema;
+
+	/** Creates empty statistics for the given number of features
+	 * @author BLM*/
+	public FeatureStatistics(int numFeatures)
+	{
+		Counts = new long[numFeatures];
+		Means = new double[numFeatures];
+		M2 = new double[numFeatures];
+		Mins = new float[numFeatures];
+		Maxs = new float[numFeatures];
+		Arrays.fill(Mins, Float.POSITIVE_INFINITY);
+		Arrays.fill(Maxs, Float.NEGATIVE_INFINITY);
+		ValidExtrema = true;
+	}
+
+	/**
+	 * Returns the statistics of the given [cell][feature] matrix, or null if
+	 * it holds no cells
+	 * 
+	 * @author BLM
+	 */
+	static public FeatureStatistics of(float[][] cellValues)
+	{
+		if (cellValues == null || cellValues.length == 0
+				|| cellValues[0] == null)
+			return null;
+		FeatureStatistics stats = new FeatureStatistics(cellValues[0].length);
+		for (int j = 0; j < cellValues.length; j++)
+			stats.add(cellValues[j]);
+		return stats;
+	}
+
+	/**
+	 * Returns the statistics of the given [feature][cell] columns holding
+	 * numCells values each, or null if there are no cells. Gives the same
+	 * result as of() on the transposed matrix.
+	 * 
+	 * @author BLM
+	 */
+	static public FeatureStatistics ofColumns(float[][] columns, int numCells)
+	{
+		if (columns == null || numCells == 0)
+			return null;
+		int numF = columns.length;
+		FeatureStatistics stats = new FeatureStatistics(numF);
+		for (int i = 0; i < numF; i++)
+		{
+			float[] col = columns[i];
+			long n = 0;
+			double mean = 0;
+			double m2 = 0;
+			float min = Float.POSITIVE_INFINITY;
+			float max = Float.NEGATIVE_INFINITY;
+			for (int j = 0; j < numCells; j++)
+			{
+				float val = col[j];
+				if (!(val > -LIMIT && val < LIMIT))
+					continue;
+				n++;
+				double delta = val - mean;
+				mean += delta / n;
+				m2 += delta * (val - mean);
+				if (val < min)
+					min = val;
+				if (val > max)
+					max = val;
+			}
+			stats.Counts[i] = n;
+			stats.Means[i] = mean;
+			stats.M2[i] = m2;
+			stats.Mins[i] = min;
+			stats.Maxs[i] = max;
+		}
+		return stats;
+	}
+
+	/**
+	 * Returns the merge of the given statistics, skipping nulls, or null if
+	 * there are none
+	 * 
+	 * @author BLM
+	 */
+	static public FeatureStatistics merge(ArrayList<FeatureStatistics> parts)
+	{
+		FeatureStatistics out = null;
+		for (int i = 0; i < parts.size(); i++)
+		{
+			FeatureStatistics part = parts.get(i);
+			if (part == null)
+				continue;
+			if (out == null)
+				out = part.copy();
+			else
+				out.merge(part);
+		}
+		return out;
+	}
+
+	public FeatureStatistics copy()
+	{
+		FeatureStatistics out = new FeatureStatistics(Counts.length);
+		out.merge(this);
+		out.ValidExtrema = ValidExtrema;
+		return out;
+	}
+
+	public int getNumFeatures()
+	{
+		return Counts.length;
+	}
+
+	/** Adds one cell's feature values
+	 * @author BLM*/
+	public void add(float[] values)
+	{
+		int numF = Math.min(values.length, Counts.length);
+		for (int i = 0; i < numF; i++)
+		{
+			float val = values[i];
+			if (!(val > -LIMIT && val < LIMIT))
+				continue;
+			long n = ++Counts[i];
+			double delta = val - Means[i];
+			Means[i] += delta / n;
+			M2[i] += delta * (val - Means[i]);
+			if (val < Mins[i])
+				Mins[i] = val;
+			if (val > Maxs[i])
+				Maxs[i] = val;
+		}
+	}
+
+	/** Removes one cell's feature values, which must have been added before
+	 * @author BLM*/
+	public void remove(float[] values)
+	{
+		int numF = Math.min(values.length, Counts.length);
+		for (int i = 0; i < numF; i++)
+		{
+			float val = values[i];
+			if (!(val > -LIMIT && val < LIMIT) || Counts[i] == 0)
+				continue;
+			long n = --Counts[i];
+			if (n == 0)
+			{
+				Means[i] = 0;
+				M2[i] = 0;
+				Mins[i] = Float.POSITIVE_INFINITY;
+				Maxs[i] = Float.NEGATIVE_INFINITY;
+				continue;
+			}
+			double oldMean = Means[i];
+			Means[i] = (oldMean * (n + 1) - val) / n;
+			M2[i] = Math.max(0, M2[i] - (val - oldMean) * (val - Means[i]));
+			if (val <= Mins[i] || val >= Maxs[i])
+				ValidExtrema = false;
+		}
+	}
+
+	/** Adds all cells counted by the given statistics
+	 * @author BLM*/
+	public void merge(FeatureStatistics other)
+	{
+		int numF = Math.min(other.Counts.length, Counts.length);
+		for (int i = 0; i < numF; i++)
+		{
+			long nb = other.Counts[i];
+			if (nb == 0)
+				continue;
+			long na = Counts[i];
+			long n = na + nb;
+			double delta = other.Means[i] - Means[i];
+			Means[i] += delta * nb / n;
+			M2[i] += other.M2[i] + delta * delta * ((double) na * nb / n);
+			Counts[i] = n;
+			if (other.Mins[i] < Mins[i])
+				Mins[i] = other.Mins[i];
+			if (other.Maxs[i] > Maxs[i])
+				Maxs[i] = other.Maxs[i];
+		}
+		ValidExtrema = ValidExtrema && other.ValidExtrema;
+	}
+
+	/** Returns false if a removal may have left a min or max stale
+	 * @author BLM*/
+	public boolean hasValidExtrema()
+	{
+		return ValidExtrema;
+	}
+
+	/** Resets the mins and maxs from the [feature][cell] columns of the cells currently counted,
+	 * each holding numCells values
+	 * @author BLM*/
+	public void recomputeExtrema_columns(float[][] columns, int numCells)
+	{
+		Arrays.fill(Mins, Float.POSITIVE_INFINITY);
+		Arrays.fill(Maxs, Float.NEGATIVE_INFINITY);
+		if (columns != null)
+		{
+			int numF = Math.min(columns.length, Counts.length);
+			for (int i = 0; i < numF; i++)
+			{
+				float[] col = columns[i];
+				for (int j = 0; j < numCells; j++)
+				{
+					float val = col[j];
+					if (!(val > -LIMIT && val < LIMIT))
+						continue;
+					if (val < Mins[i])
+						Mins[i] = val;
+					if (val > Maxs[i])
+						Maxs[i] = val;
+				}
+			}
+		}
+		ValidExtrema = true;
+	}
+
+	public long getCount(int feature)
+	{
+		return Counts[feature];
+	}
+
+	/** Returns the mean of every feature, NaN where nothing was counted
+	 * @author BLM*/
+	public float[] getMeans()
+	{
+		float[] out = new float[Counts.length];
+		for (int i = 0; i < out.length; i++)
+			out[i] = Counts[i] == 0 ? Float.NaN : (float) Means[i];
+		return out;
+	}
+
+	/** Returns the sample standard deviation of every feature, NaN where fewer than 2 values were counted
+	 * @author BLM*/
+	public float[] getStdevs()
+	{
+		float[] out = new float[Counts.length];
+		for (int i = 0; i < out.length; i++)
+			out[i] = Counts[i] < 2 ? Float.NaN : (float) Math
+					.sqrt(M2[i] / (Counts[i] - 1));
+		return out;
+	}
+
+	/** Returns the min of every feature, NaN where nothing was counted
+	 * @author BLM*/
+	public float[] getMins()
+	{
+		float[] out = new float[Counts.length];
+		for (int i = 0; i < out.length; i++)
+			out[i] = Counts[i] == 0 ? Float.NaN : Mins[i];
+		return out;
+	}
+
+	/** Returns the max of every feature, NaN where nothing was counted
+	 * @author BLM*/
+	public float[] getMaxs()
+	{
+		float[] out = new float[Counts.length];
+		for (int i = 0; i < out.length; i++)
+			out[i] = Counts[i] == 0 ? Float.NaN : Maxs[i];
+		return out;
+	}
+
+	/**
+	 * Packs the statistics into 5 rows of one value per feature, for storage:
+	 * count, mean, M2, min, max
+	 * 
+	 * @author BLM
+	 */
+	public double[][] toMatrix()
+	{
+		int numF = Counts.length;
+		double[][] out = new double[5][numF];
+		for (int i = 0; i < numF; i++)
+		{
+			out[0][i] = Counts[i];
+			out[1][i] = Means[i];
+			out[2][i] = M2[i];
+			out[3][i] = Mins[i];
+			out[4][i] = Maxs[i];
+		}
+		return out;
+	}
+
+	/**
+	 * Rebuilds statistics from the matrix written by toMatrix(), or returns
+	 * null if it is not one
+	 * 
+	 * @author BLM
+	 */
+	static public FeatureStatistics fromMatrix(double[][] matrix)
+	{
+		if (matrix == null || matrix.length != 5 || matrix[0] == null)
+			return null;
+		int numF = matrix[0].length;
+		FeatureStatistics out = new FeatureStatistics(numF);
+		for (int i = 0; i < numF; i++)
+		{
+			out.Counts[i] = (long) matrix[0][i];
+			out.Means[i] = matrix[1][i];
+			out.M2[i] = matrix[2][i];
+			out.Mins[i] = (float) matrix[3][i];
+			out.Maxs[i] = (float) matrix[4][i];
+		}
+		return out;
+	}
+}
@@ -0,0 +1,279 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * Pixel intensity histograms of every channel of one field, with one bin per
+ * 16-bit value. They are counted once when the field is decoded (see
+ * FieldRaster.getHistogram()) and stored with the field in the SDCube, so
+ * thresholds, percentiles and display histograms are answered by walking the
+ * bins instead of re-scanning the images.
+ * 
+ * Only the occupied range of each channel is kept: channel ch holds
+ * getCounts(ch)[i] pixels of value getMin(ch) + i.
+ * 
+ * @author BLM
+ */
+public final class FieldHistogram
+{
+	private final int NumPixels;
+	private final int[] Offsets;
+	private final int[][] Counts;
+
+	private FieldHistogram(int numPixels, int[] offsets, int[][] counts)
+	{
+		NumPixels = numPixels;
+		Offsets = offsets;
+		Counts = counts;
+	}
+
+	/** Counts every channel of the given raster
+	 * @author BLM*/
+	static public FieldHistogram compute(FieldRaster raster)
+	{
+		int numChannels = raster.getNumChannels();
+		int numPixels = raster.getNumPixels();
+		int[] offsets = new int[numChannels];
+		int[][] counts = new int[numChannels][];
+		int[] full = new int[FieldRaster.MAX_VALUE + 1];
+		for (int i = 0; i < numChannels; i++)
+		{
+			char[] plane = raster.getPlane(i);
+			for (int p = 0; p < numPixels; p++)
+				full[plane[p]]++;
+			int lo = 0;
+			while (lo < FieldRaster.MAX_VALUE && full[lo] == 0)
+				lo++;
+			int hi = FieldRaster.MAX_VALUE;
+			while (hi > lo && full[hi] == 0)
+				hi--;
+			offsets[i] = lo;
+			counts[i] = new int[hi - lo + 1];
+			System.arraycopy(full, lo, counts[i], 0, hi - lo + 1);
+			Arrays.fill(full, lo, hi + 1, 0);
+		}
+		return new FieldHistogram(numPixels, offsets, counts);
+	}
+
+	/**
+	 * Rebuilds a histogram from the matrix written by toMatrix(). Returns null
+	 * if the matrix is not a valid histogram.
+	 * 
+	 * @author BLM
+	 */
+	static public FieldHistogram fromMatrix(int[][] matrix)
+	{
+		if (matrix == null || matrix.length == 0)
+			return null;
+		int numChannels = matrix.length;
+		int[] offsets = new int[numChannels];
+		int[][] counts = new int[numChannels][];
+		long numPixels = -1;
+		for (int i = 0; i < numChannels; i++)
+		{
+			int[] row = matrix[i];
+			if (row.length < 2 || row[1] < 1 || row[1] > row.length - 2
+					|| row[0] < 0 || row[0] + row[1] > FieldRaster.MAX_VALUE + 1)
+				return null;
+			offsets[i] = row[0];
+			counts[i] = new int[row[1]];
+			System.arraycopy(row, 2, counts[i], 0, row[1]);
+			long total = 0;
+			for (int k = 0; k < counts[i].length; k++)
+				total += counts[i][k];
+			if (numPixels == -1)
+				numPixels = total;
+			else if (total != numPixels)
+				return null;
+		}
+		if (numPixels < 1 || numPixels > Integer.MAX_VALUE)
+			return null;
+		return new FieldHistogram((int) numPixels, offsets, counts);
+	}
+
+	/**
+	 * Packs the histogram into one row per channel, for storage in the SDCube:
+	 * [min value, number of bins, counts...], padded with zeros to the longest
+	 * channel
+	 * 
+	 * @author BLM
+	 */
+	public int[][] toMatrix()
+	{
+		int numChannels = Counts.length;
+		int len = 0;
+		for (int i = 0; i < numChannels; i++)
+			len = Math.max(len, Counts[i].length);
+		int[][] matrix = new int[numChannels][len + 2];
+		for (int i = 0; i < numChannels; i++)
+		{
+			matrix[i][0] = Offsets[i];
+			matrix[i][1] = Counts[i].length;
+			System.arraycopy(Counts[i], 0, matrix[i], 2, Counts[i].length);
+		}
+		return matrix;
+	}
+
+	public int getNumChannels()
+	{
+		return Counts.length;
+	}
+
+	public int getNumPixels()
+	{
+		return NumPixels;
+	}
+
+	/** Returns the lowest value present in the given channel
+	 * @author BLM*/
+	public int getMin(int channel)
+	{
+		return Offsets[channel];
+	}
+
+	/** Returns the highest value present in the given channel
+	 * @author BLM*/
+	public int getMax(int channel)
+	{
+		return Offsets[channel] + Counts[channel].length - 1;
+	}
+
+	/** Returns the backing counts of the given channel, starting at getMin(channel)
+	 * @author BLM*/
+	public int[] getCounts(int channel)
+	{
+		return Counts[channel];
+	}
+
+	/** Returns the number of pixels of the given channel with exactly this value
+	 * @author BLM*/
+	public int getCount(int channel, int value)
+	{
+		int i = value - Offsets[channel];
+		if (i < 0 || i >= Counts[channel].length)
+			return 0;
+		return Counts[channel][i];
+	}
+
+	/** Returns the mean pixel value of the given channel
+	 * @author BLM*/
+	public double getMean(int channel)
+	{
+		int[] counts = Counts[channel];
+		double sum = 0;
+		for (int i = 0; i < counts.length; i++)
+			sum += (double) i * counts[i];
+		return Offsets[channel] + sum / NumPixels;
+	}
+
+	/**
+	 * Returns the smallest value v of the given channel such that at least the
+	 * given fraction (0-1) of its pixels are <= v
+	 * 
+	 * @author BLM
+	 */
+	public int getPercentile(int channel, double fraction)
+	{
+		int[] counts = Counts[channel];
+		long target = (long) Math.ceil(fraction * NumPixels);
+		if (target < 1)
+			target = 1;
+		long cumulative = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			cumulative += counts[i];
+			if (cumulative >= target)
+				return Offsets[channel] + i;
+		}
+		return getMax(channel);
+	}
+
+	/**
+	 * Returns {low, high} display bounds for the given channel that clip the
+	 * given fractions of the darkest and brightest pixels, e.g. 0.001 and
+	 * 0.999
+	 * 
+	 * @author BLM
+	 */
+	public int[] getDisplayRange(int channel, double lowFraction,
+			double highFraction)
+	{
+		return new int[] { getPercentile(channel, lowFraction),
+				getPercentile(channel, highFraction) };
+	}
+
+	/** Returns the Otsu threshold of the given channel
+	 * @author BLM*/
+	public int getOtsuThreshold(int channel)
+	{
+		// Otsu is unchanged by shifting all values, so the trimmed bins do
+		return Offsets[channel] + AutoThresholder.Otsu(Counts[channel]);
+	}
+
+	/**
+	 * Returns the same 2xnumBins histogram as
+	 * ImageTools.getHistogram_bounds_norm() would for this channel: bin lower
+	 * bounds in the first row, counts normalized to 0-1 in the second
+	 * 
+	 * @author BLM
+	 */
+	public float[][] getHistogram_bounds_norm(int channel, int numBins,
+			int minRange, int maxRange)
+	{
+		float[][] bins = new float[2][numBins];
+		float min = minRange;
+		float max = maxRange;
+
+		int dx = (int) ((max - min) / numBins);
+		for (int i = 0; i < numBins; i++)
+			bins[0][i] = (int) (min + dx * i);
+
+		int[] counts = Counts[channel];
+		int offset = Offsets[channel];
+		for (int k = 0; k < counts.length; k++)
+		{
+			if (counts[k] == 0)
+				continue;
+			int index = (int) (((offset + k - min) / (max - min)) * numBins);
+			if (index >= numBins)
+				index = numBins - 1;
+			else if (index < 0)
+				index = 0;
+			bins[1][index] += counts[k];
+		}
+
+		//Normalizing
+		min = Float.MAX_VALUE;
+		max = Float.MIN_VALUE;
+		for (int i = 0; i < numBins; i++)
+		{
+			if (bins[1][i] < min)
+				min = (int) bins[1][i];
+			if (bins[1][i] > max)
+				max = (int) bins[1][i];
+		}
+		for (int i = 0; i < numBins; i++)
+			bins[1][i] = ((bins[1][i] - min) / (max - min));
+		return bins;
+	}
+}
@@ -0,0 +1,219 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Integrates the channels of a field over a threshold mask straight from its
+ * TIFF files, decoding one band of rows of each channel at a time with
+ * TiffReader.open(). The field is never held in memory as a whole, so many
+ * fields can be reduced at once and a well-average run is bound by disk
+ * rather than by heap. Files TiffReader cannot stream are decoded whole with
+ * ImageTools.getFieldRaster_FromFiles() instead.
+ * 
+ * @author BLM
+ */
+public final class FieldIntegrator
+{
+	private FieldIntegrator()
+	{
+	}
+
+	/** The integrated intensities of one field
+	 * @author BLM*/
+	static public final class Result
+	{
+		/** {height, width, numChannels} of the field */
+		public int[] dimensions;
+		/**
+		 * Per channel {integrated value, number of pixels used}, as returned by
+		 * DefaultSegmentor_v1.findTotalIntegrationAndTotalPixUsed()
+		 */
+		public float[][] integration;
+	}
+
+	/**
+	 * Sums every channel over the pixels whose maskChannel value is above
+	 * threshold and counts those pixels. Files are matched to channels by name
+	 * the same way ImageTools.getFieldRaster_FromFiles() does; channels with no
+	 * file count as all zero.
+	 * 
+	 * @return the sums, or null if none of the images could be read
+	 * @author BLM
+	 */
+	static public Result integrateOverMask(File[] inFiles, String[] channelNames,
+			int maskChannel, float threshold)
+	{
+		int numChannels = channelNames.length;
+		File[] files = new File[numChannels];
+		for (int i = 0; i < inFiles.length; i++)
+		{
+			String name = inFiles[i].getName();
+			if (name.indexOf(".tif") <= 0 && name.indexOf(".TIF") <= 0)
+				continue;
+			for (int j = 0; j < numChannels; j++)
+				if (name.indexOf(channelNames[j]) > 0)
+					files[j] = inFiles[i];
+		}
+
+		TiffReader[] readers = new TiffReader[numChannels];
+		try
+		{
+			int height = -1;
+			int width = -1;
+			boolean streamable = true;
+			for (int j = 0; j < numChannels && streamable; j++)
+			{
+				if (files[j] == null)
+					continue;
+				readers[j] = TiffReader.open(files[j]);
+				if (readers[j] == null)
+					streamable = false;
+				else if (height == -1)
+				{
+					height = readers[j].getHeight();
+					width = readers[j].getWidth();
+				}
+				else if (readers[j].getHeight() != height
+						|| readers[j].getWidth() != width)
+					streamable = false;
+			}
+			if (streamable && height > 0)
+				return integrate(readers, height, width, maskChannel, threshold);
+		}
+		catch (IOException e)
+		{
+			System.out.println("**** WARNING: could not stream field images, decoding them whole: "+e.getMessage());
+		}
+		finally
+		{
+			close(readers);
+		}
+
+		FieldRaster raster = ImageTools.getFieldRaster_FromFiles(inFiles,
+				channelNames);
+		if (raster == null)
+			return null;
+		return integrate(raster, maskChannel, threshold);
+	}
+
+	/** Integrates a field that is already in memory
+	 * @author BLM*/
+	static public Result integrate(FieldRaster raster, int maskChannel,
+			float threshold)
+	{
+		int numChannels = raster.getNumChannels();
+		int numPixels = raster.getNumPixels();
+		char[] mask = raster.getPlane(maskChannel);
+		double[] sums = new double[numChannels];
+		long count = 0;
+		for (int p = 0; p < numPixels; p++)
+			if (mask[p] > threshold)
+			{
+				count++;
+				for (int i = 0; i < numChannels; i++)
+					sums[i] += raster.get(p, i);
+			}
+		return toResult(raster.getHeight(), raster.getWidth(), sums, count);
+	}
+
+	static private Result integrate(TiffReader[] readers, int height, int width,
+			int maskChannel, float threshold) throws IOException
+	{
+		int numChannels = readers.length;
+		char[][] bands = new char[numChannels][];
+		int[] loaded = new int[numChannels];
+		int[] rowOffsets = new int[numChannels];
+		for (int j = 0; j < numChannels; j++)
+		{
+			loaded[j] = -1;
+			if (readers[j] != null)
+				bands[j] = new char[width * readers[j].getBandHeight()];
+		}
+		// A channel without a file is a plane of zeros
+		char[] zeros = new char[width];
+
+		double[] sums = new double[numChannels];
+		long count = 0;
+		for (int r = 0; r < height; r++)
+		{
+			for (int j = 0; j < numChannels; j++)
+			{
+				if (readers[j] == null)
+					continue;
+				int bh = readers[j].getBandHeight();
+				int band = r / bh;
+				if (band != loaded[j])
+				{
+					readers[j].readBand(band, bands[j]);
+					loaded[j] = band;
+				}
+				rowOffsets[j] = (r - band * bh) * width;
+			}
+			char[] mask = readers[maskChannel] == null ? zeros : bands[maskChannel];
+			int maskOffset = readers[maskChannel] == null ? 0 : rowOffsets[maskChannel];
+			for (int c = 0; c < width; c++)
+				if (mask[maskOffset + c] > threshold)
+				{
+					count++;
+					for (int j = 0; j < numChannels; j++)
+						if (bands[j] != null)
+							sums[j] += bands[j][rowOffsets[j] + c];
+				}
+		}
+		return toResult(height, width, sums, count);
+	}
+
+	static private Result toResult(int height, int width, double[] sums,
+			long count)
+	{
+		int numChannels = sums.length;
+		Result result = new Result();
+		result.dimensions = new int[] { height, width, numChannels };
+		result.integration = new float[numChannels][2];
+		for (int i = 0; i < numChannels; i++)
+		{
+			result.integration[i][0] = (float) sums[i];
+			result.integration[i][1] = count;
+		}
+		return result;
+	}
+
+	static private void close(TiffReader[] readers)
+	{
+		for (int j = 0; j < readers.length; j++)
+			if (readers[j] != null)
+			{
+				try
+				{
+					readers[j].close();
+				}
+				catch (IOException e)
+				{
+					System.out.println("error closing image: ");
+					e.printStackTrace();
+				}
+				readers[j] = null;
+			}
+	}
+}
@@ -0,0 +1,241 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+/**
+ * Multi-channel field image stored as one flat unsigned 16-bit plane per
+ * channel. Pixel (row, col) of channel ch lives at
+ * getPlane(ch)[row*width + col]. This replaces the int[height][width][channels]
+ * rasters, which need one small array object per pixel.
+ * 
+ * Code that still needs the old layout (e.g. third party segmentors or
+ * features) can get it from getIntRaster(), which is built once on demand and
+ * then cached.
+ * 
+ * @author BLM
+ */
+public final class FieldRaster
+{
+	static final public int MAX_VALUE = 65535;
+
+	private final int Height;
+	private final int Width;
+	private final char[][] Planes;
+	private int[][][] IntRaster;
+	private FieldHistogram Histogram;
+
+	/** Creates an empty (all zero) raster
+	 * @author BLM*/
+	public FieldRaster(int height, int width, int numChannels)
+	{
+		Height = height;
+		Width = width;
+		Planes = new char[numChannels][height * width];
+	}
+
+	/** Wraps the given row-major planes, one per channel, without copying
+	 * @author BLM*/
+	public FieldRaster(int height, int width, char[][] planes)
+	{
+		for (int i = 0; i < planes.length; i++)
+			if (planes[i].length != height * width)
+				throw new IllegalArgumentException("Plane " + i
+						+ " does not have " + height + "x" + width + " pixels");
+		Height = height;
+		Width = width;
+		Planes = planes;
+	}
+
+	/** Copies the given [row][col][channel] raster, clamping values to 0..65535
+	 * @author BLM*/
+	static public FieldRaster fromIntRaster(int[][][] raster)
+	{
+		int height = raster.length;
+		int width = raster[0].length;
+		int numChannels = raster[0][0].length;
+		FieldRaster out = new FieldRaster(height, width, numChannels);
+		for (int r = 0; r < height; r++)
+		{
+			int[][] row = raster[r];
+			int offset = r * width;
+			for (int c = 0; c < width; c++)
+				for (int i = 0; i < numChannels; i++)
+					out.Planes[i][offset + c] = clamp(row[c][i]);
+		}
+		return out;
+	}
+
+	public int getHeight()
+	{
+		return Height;
+	}
+
+	public int getWidth()
+	{
+		return Width;
+	}
+
+	public int getNumChannels()
+	{
+		return Planes.length;
+	}
+
+	public int getNumPixels()
+	{
+		return Height * Width;
+	}
+
+	/** Returns the row-major index of the given pixel
+	 * @author BLM*/
+	public int getIndex(int row, int col)
+	{
+		return row * Width + col;
+	}
+
+	/** Returns the value of the given pixel and channel
+	 * @author BLM*/
+	public int get(int row, int col, int channel)
+	{
+		return Planes[channel][row * Width + col];
+	}
+
+	/** Returns the value at the given row-major index and channel
+	 * @author BLM*/
+	public int get(int index, int channel)
+	{
+		return Planes[channel][index];
+	}
+
+	/** Sets the value of the given pixel and channel, clamping it to 0..65535
+	 * @author BLM*/
+	public void set(int row, int col, int channel, int value)
+	{
+		Planes[channel][row * Width + col] = clamp(value);
+		IntRaster = null;
+		Histogram = null;
+	}
+
+	/** Returns the backing row-major plane of the given channel. Values are unsigned,
+	 * so read them as ints: int v = plane[i];
+	 * @author BLM*/
+	public char[] getPlane(int channel)
+	{
+		return Planes[channel];
+	}
+
+	/**
+	 * Returns all channels in one column-major int array indexed as
+	 * row + col*height + channel*height*width, the layout used internally by
+	 * the ImageRail segmentors
+	 * 
+	 * @author BLM
+	 */
+	public int[] toColumnMajorArray()
+	{
+		int numChannels = Planes.length;
+		int[] linear = new int[Height * Width * numChannels];
+		for (int i = 0; i < numChannels; i++)
+		{
+			char[] plane = Planes[i];
+			int chOffset = i * Height * Width;
+			for (int r = 0; r < Height; r++)
+			{
+				int rowOffset = r * Width;
+				for (int c = 0; c < Width; c++)
+					linear[chOffset + r + c * Height] = plane[rowOffset + c];
+			}
+		}
+		return linear;
+	}
+
+	/** Copies the given rectangle of all channels into a new raster
+	 * @author BLM*/
+	public FieldRaster getSubRaster(int row, int col, int height, int width)
+	{
+		if (row < 0 || col < 0 || height < 1 || width < 1
+				|| row + height > Height || col + width > Width)
+			throw new IllegalArgumentException("Sub raster " + height + "x"
+					+ width + " at (" + row + "," + col + ") is outside the "
+					+ Height + "x" + Width + " raster");
+		int numChannels = Planes.length;
+		FieldRaster out = new FieldRaster(height, width, numChannels);
+		for (int i = 0; i < numChannels; i++)
+			for (int r = 0; r < height; r++)
+				System.arraycopy(Planes[i], (row + r) * Width + col,
+						out.Planes[i], r * width, width);
+		return out;
+	}
+
+	/**
+	 * Returns this raster in the old int[row][col][channel] layout. The copy is
+	 * built on first use and cached, so legacy plugins called once per cell do
+	 * not pay for it more than once per field.
+	 * 
+	 * @author BLM
+	 */
+	public synchronized int[][][] getIntRaster()
+	{
+		if (IntRaster == null)
+		{
+			int numChannels = Planes.length;
+			int[][][] rast = new int[Height][Width][numChannels];
+			for (int r = 0; r < Height; r++)
+			{
+				int offset = r * Width;
+				for (int c = 0; c < Width; c++)
+					for (int i = 0; i < numChannels; i++)
+						rast[r][c][i] = Planes[i][offset + c];
+			}
+			IntRaster = rast;
+		}
+		return IntRaster;
+	}
+
+	/**
+	 * Returns the per channel pixel histograms of this raster, counted on
+	 * first use and then cached. Code that writes into getPlane() directly
+	 * must do so before calling this.
+	 * 
+	 * @author BLM
+	 */
+	public synchronized FieldHistogram getHistogram()
+	{
+		if (Histogram == null)
+			Histogram = FieldHistogram.compute(this);
+		return Histogram;
+	}
+
+	/** Drops the cached int[][][] copy, if any
+	 * @author BLM*/
+	public synchronized void releaseIntRaster()
+	{
+		IntRaster = null;
+	}
+
+	static private char clamp(int value)
+	{
+		if (value < 0)
+			return 0;
+		if (value > MAX_VALUE)
+			return (char) MAX_VALUE;
+		return (char) value;
+	}
+}
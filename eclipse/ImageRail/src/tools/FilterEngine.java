@@ -0,0 +1,551 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel linear filtering of float rasters, in two flavours.
+ * 
+ * convolve() applies kernels by direct convolution, one row of output pixels
+ * at a time: each kernel weight is multiplied into a whole row of float
+ * accumulators before moving to the next weight. Every pixel still adds up
+ * its terms in the same order and precision as the old per-pixel loop of
+ * SpatialFilter.linearFilter(), so results are identical to it bit for bit.
+ * The segmentors threshold the smoothed distance maps closely enough for a
+ * last-bit difference to move seeds, so they use this path.
+ * 
+ * filter() picks the cheapest way to apply the kernel instead: running window
+ * sums for box kernels, whose cost per pixel does not depend on the kernel
+ * width, and two 1D passes for separable kernels. Its values can differ from
+ * convolve() in the last bits.
+ * 
+ * Both split large rasters into bands of rows processed in parallel.
+ * 
+ * @author BLM
+ */
+public final class FilterEngine
+{
+	/** Rasters with fewer pixels than this are filtered on the calling thread */
+	static private final int MIN_PARALLEL_PIXELS = 1 << 16;
+
+	static private ForkJoinPool ThePool;
+
+	private FilterEngine()
+	{
+	}
+
+	/**
+	 * Convolves the raster with the given square kernel. Same result as
+	 * SpatialFilter.linearFilter(): the kernel is centred on each pixel, its
+	 * first index running along columns, and pixels closer to the border than
+	 * half the kernel width are 0.
+	 * 
+	 * @author BLM
+	 */
+	static public float[][] convolve(final float[][] inputRaster,
+			float[][] kernal)
+	{
+		final float[][] weights = getWeights(kernal);
+		final int size = weights.length;
+		int half = (size - 1) / 2;
+
+		final int nRows = inputRaster.length;
+		final int nCols = inputRaster[0].length;
+		final float[][] out = new float[nRows][nCols];
+		final int h = half;
+		forEachRowBand(nRows, nCols, new RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				int width = nCols - 2 * h;
+				if (width <= 0)
+					return;
+				float[] acc = new float[width];
+				for (int r = Math.max(rowStart, h); r < Math.min(rowEnd,
+						nRows - h); r++)
+				{
+					Arrays.fill(acc, 0f);
+					// Same order of terms per pixel as the per-pixel loop:
+					// kernel rows outer, kernel columns inner
+					for (int dr = 0; dr < size; dr++)
+					{
+						float[] row = inputRaster[r + dr - h];
+						float[] w = weights[dr];
+						for (int dc = 0; dc < size; dc++)
+						{
+							float wt = w[dc];
+							for (int c = 0; c < width; c++)
+								acc[c] += wt * row[c + dc];
+						}
+					}
+					System.arraycopy(acc, 0, out[r], h, width);
+				}
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Applies the kernel with the same layout as convolve(), but the cheapest
+	 * way available:
+	 * <ul>
+	 * <li>Box kernels, whose weights are all equal such as every
+	 * LinearKernels.getLinearSmoothingKernal(), use running window sums along
+	 * each axis, so the cost per pixel does not depend on the kernel width.
+	 * On integer-valued rasters the sums are kept in long and are exact; only
+	 * the final multiplication by the weight rounds. Otherwise they are kept
+	 * in double.</li>
+	 * <li>Separable kernels of 5x5 and up run as two 1D passes.</li>
+	 * <li>Other kernels fall back on convolve().</li>
+	 * </ul>
+	 * The results can differ from convolve() in the last bits, which is why
+	 * the segmentors do not use it.
+	 * 
+	 * @author BLM
+	 */
+	static public float[][] filter(float[][] inputRaster, float[][] kernal)
+	{
+		float[][] weights = getWeights(kernal);
+		int size = weights.length;
+		int half = (size - 1) / 2;
+		if (isBox(weights))
+			return boxFilter(inputRaster, half, weights[0][0]);
+		if (size >= 5)
+		{
+			float[][] factors = getSeparableFactors(weights);
+			if (factors != null)
+				return separableFilter(inputRaster, factors[0], factors[1]);
+		}
+		return convolve(inputRaster, kernal);
+	}
+
+	/**
+	 * Smooths the raster with a box of the given width, each pixel becoming
+	 * the mean of the part of its window that lies inside the raster. Unlike
+	 * filter(), borders are not left 0, which suits small rasters such as
+	 * density plot bins.
+	 * 
+	 * @author BLM
+	 */
+	static public float[][] boxMean(float[][] inputRaster, int width)
+	{
+		final int half = Math.max(0, (width - 1) / 2);
+		final int nRows = inputRaster.length;
+		final int nCols = inputRaster[0].length;
+		final float[][] out = new float[nRows][nCols];
+		final double[][] sat = getSummedAreaTable(inputRaster, false);
+		forEachRowBand(nRows, nCols, new RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				for (int r = rowStart; r < rowEnd; r++)
+				{
+					int r0 = Math.max(0, r - half);
+					int r1 = Math.min(nRows, r + half + 1);
+					for (int c = 0; c < nCols; c++)
+					{
+						int c0 = Math.max(0, c - half);
+						int c1 = Math.min(nCols, c + half + 1);
+						double sum = sat[r1][c1] - sat[r0][c1] - sat[r1][c0]
+								+ sat[r0][c0];
+						out[r][c] = (float) (sum / ((r1 - r0) * (c1 - c0)));
+					}
+				}
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Returns the standard deviation of every pixel's window of rows
+	 * r-half..r+half-1 and columns c-half..c+half-1, computed from running
+	 * sums of the values and of their squares. Pixels whose window does not
+	 * fit are left 0.
+	 * 
+	 * @author BLM
+	 */
+	static public float[][] windowStdev(float[][] inputRaster, final int half)
+	{
+		final int nRows = inputRaster.length;
+		final int nCols = inputRaster[0].length;
+		final float[][] out = new float[nRows][nCols];
+		if (half < 1 || nRows < 2 * half || nCols < 2 * half)
+			return out;
+		// Summed-area tables of the values and their squares
+		final double[][] sat = getSummedAreaTable(inputRaster, false);
+		final double[][] sat2 = getSummedAreaTable(inputRaster, true);
+		final double count = 4.0 * half * half;
+		forEachRowBand(nRows, nCols, new RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				for (int r = Math.max(rowStart, half); r < Math.min(rowEnd,
+						nRows - half); r++)
+					for (int c = half; c < nCols - half; c++)
+					{
+						int r0 = r - half;
+						int r1 = r + half;
+						int c0 = c - half;
+						int c1 = c + half;
+						double sum = sat[r1][c1] - sat[r0][c1] - sat[r1][c0]
+								+ sat[r0][c0];
+						double sum2 = sat2[r1][c1] - sat2[r0][c1]
+								- sat2[r1][c0] + sat2[r0][c0];
+						double mean = sum / count;
+						double var = sum2 / count - mean * mean;
+						out[r][c] = (float) Math.sqrt(Math.max(0, var));
+					}
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Returns the summed-area table of the raster, or of its squared values:
+	 * entry [r][c] holds the sum over rows 0..r-1 and columns 0..c-1.
+	 */
+	static private double[][] getSummedAreaTable(float[][] inputRaster,
+			boolean squares)
+	{
+		int nRows = inputRaster.length;
+		int nCols = inputRaster[0].length;
+		double[][] sat = new double[nRows + 1][nCols + 1];
+		for (int r = 0; r < nRows; r++)
+		{
+			double rowSum = 0;
+			for (int c = 0; c < nCols; c++)
+			{
+				double v = inputRaster[r][c];
+				rowSum += squares ? v * v : v;
+				sat[r + 1][c + 1] = sat[r][c + 1] + rowSum;
+			}
+		}
+		return sat;
+	}
+
+	/**
+	 * Returns the odd-sized square of kernel weights actually applied, indexed
+	 * [dr][dc] for the input pixel at (r+dr-half, c+dc-half)
+	 */
+	static private float[][] getWeights(float[][] kernal)
+	{
+		int half = (int) (((float) kernal.length - 1f) / 2f);
+		int size = 2 * half + 1;
+		float[][] weights = new float[size][size];
+		for (int dr = 0; dr < size; dr++)
+			for (int dc = 0; dc < size; dc++)
+				weights[dr][dc] = kernal[dc][dr];
+		return weights;
+	}
+
+	static private boolean isBox(float[][] weights)
+	{
+		float w = weights[0][0];
+		for (int dr = 0; dr < weights.length; dr++)
+			for (int dc = 0; dc < weights.length; dc++)
+				if (weights[dr][dc] != w)
+					return false;
+		return true;
+	}
+
+	/**
+	 * Splits the weights into a column factor and a row factor whose outer
+	 * product gives them back, or returns null if the kernel is not separable
+	 */
+	static private float[][] getSeparableFactors(float[][] weights)
+	{
+		int size = weights.length;
+		int pr = 0;
+		int pc = 0;
+		float maxAbs = 0;
+		for (int dr = 0; dr < size; dr++)
+			for (int dc = 0; dc < size; dc++)
+				if (Math.abs(weights[dr][dc]) > maxAbs)
+				{
+					maxAbs = Math.abs(weights[dr][dc]);
+					pr = dr;
+					pc = dc;
+				}
+		if (maxAbs == 0)
+			return null;
+		float[] colFactor = new float[size];
+		float[] rowFactor = new float[size];
+		for (int i = 0; i < size; i++)
+		{
+			colFactor[i] = weights[i][pc];
+			rowFactor[i] = weights[pr][i] / weights[pr][pc];
+		}
+		float tolerance = 1e-6f * maxAbs;
+		for (int dr = 0; dr < size; dr++)
+			for (int dc = 0; dc < size; dc++)
+				if (Math.abs(weights[dr][dc] - colFactor[dr] * rowFactor[dc])
+						> tolerance)
+					return null;
+		return new float[][] { colFactor, rowFactor };
+	}
+
+	/**
+	 * Box filter from running window sums: first along each row, then down
+	 * the columns of those row sums
+	 */
+	static private float[][] boxFilter(final float[][] inputRaster,
+			final int half, final float weight)
+	{
+		final int nRows = inputRaster.length;
+		final int nCols = inputRaster[0].length;
+		final float[][] out = new float[nRows][nCols];
+		final int size = 2 * half + 1;
+		final int width = nCols - 2 * half;
+		if (width <= 0 || nRows < size)
+			return out;
+		if (isIntegral(inputRaster))
+		{
+			final long[][] rowSums = new long[nRows][width];
+			forEachRowBand(nRows, nCols, new RowBand()
+			{
+				public void run(int rowStart, int rowEnd)
+				{
+					for (int r = rowStart; r < rowEnd; r++)
+					{
+						float[] row = inputRaster[r];
+						long[] sums = rowSums[r];
+						long sum = 0;
+						for (int c = 0; c < size; c++)
+							sum += (long) row[c];
+						sums[0] = sum;
+						for (int c = 1; c < width; c++)
+						{
+							sum += (long) row[c + size - 1] - (long) row[c - 1];
+							sums[c] = sum;
+						}
+					}
+				}
+			});
+			forEachRowBand(nRows, nCols, new RowBand()
+			{
+				public void run(int rowStart, int rowEnd)
+				{
+					int first = Math.max(rowStart, half);
+					int last = Math.min(rowEnd, nRows - half);
+					if (first >= last)
+						return;
+					long[] acc = new long[width];
+					for (int r = first - half; r <= first + half; r++)
+						for (int c = 0; c < width; c++)
+							acc[c] += rowSums[r][c];
+					for (int r = first; r < last; r++)
+					{
+						if (r > first)
+						{
+							long[] in = rowSums[r + half];
+							long[] gone = rowSums[r - half - 1];
+							for (int c = 0; c < width; c++)
+								acc[c] += in[c] - gone[c];
+						}
+						float[] o = out[r];
+						for (int c = 0; c < width; c++)
+							o[c + half] = (float) (acc[c] * (double) weight);
+					}
+				}
+			});
+			return out;
+		}
+		final double[][] rowSums = new double[nRows][width];
+		forEachRowBand(nRows, nCols, new RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				for (int r = rowStart; r < rowEnd; r++)
+				{
+					float[] row = inputRaster[r];
+					double[] sums = rowSums[r];
+					double sum = 0;
+					for (int c = 0; c < size; c++)
+						sum += row[c];
+					sums[0] = sum;
+					for (int c = 1; c < width; c++)
+					{
+						sum += (double) row[c + size - 1] - row[c - 1];
+						sums[c] = sum;
+					}
+				}
+			}
+		});
+		forEachRowBand(nRows, nCols, new RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				int first = Math.max(rowStart, half);
+				int last = Math.min(rowEnd, nRows - half);
+				if (first >= last)
+					return;
+				double[] acc = new double[width];
+				for (int r = first - half; r <= first + half; r++)
+					for (int c = 0; c < width; c++)
+						acc[c] += rowSums[r][c];
+				for (int r = first; r < last; r++)
+				{
+					if (r > first)
+					{
+						double[] in = rowSums[r + half];
+						double[] gone = rowSums[r - half - 1];
+						for (int c = 0; c < width; c++)
+							acc[c] += in[c] - gone[c];
+					}
+					float[] o = out[r];
+					for (int c = 0; c < width; c++)
+						o[c + half] = (float) (acc[c] * weight);
+				}
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Whether every value is a whole number small enough for window sums of
+	 * any raster-sized box to fit in a long
+	 */
+	static private boolean isIntegral(float[][] inputRaster)
+	{
+		for (int r = 0; r < inputRaster.length; r++)
+		{
+			float[] row = inputRaster[r];
+			for (int c = 0; c < row.length; c++)
+			{
+				float v = row[c];
+				if (v != Math.rint(v) || Math.abs(v) > Integer.MAX_VALUE)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Applies weights[dr][dc] = colFactor[dr]*rowFactor[dc] as a pass along
+	 * the rows followed by a pass down the columns
+	 */
+	static private float[][] separableFilter(final float[][] inputRaster,
+			final float[] colFactor, final float[] rowFactor)
+	{
+		final int nRows = inputRaster.length;
+		final int nCols = inputRaster[0].length;
+		final float[][] out = new float[nRows][nCols];
+		final int size = rowFactor.length;
+		final int half = (size - 1) / 2;
+		final int width = nCols - 2 * half;
+		if (width <= 0 || nRows < size)
+			return out;
+		final float[][] rowPass = new float[nRows][width];
+		forEachRowBand(nRows, nCols, new RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				for (int r = rowStart; r < rowEnd; r++)
+				{
+					float[] row = inputRaster[r];
+					float[] acc = rowPass[r];
+					for (int dc = 0; dc < size; dc++)
+					{
+						float wt = rowFactor[dc];
+						for (int c = 0; c < width; c++)
+							acc[c] += wt * row[c + dc];
+					}
+				}
+			}
+		});
+		forEachRowBand(nRows, nCols, new RowBand()
+		{
+			public void run(int rowStart, int rowEnd)
+			{
+				float[] acc = new float[width];
+				for (int r = Math.max(rowStart, half); r < Math.min(rowEnd,
+						nRows - half); r++)
+				{
+					Arrays.fill(acc, 0f);
+					for (int dr = 0; dr < size; dr++)
+					{
+						float wt = colFactor[dr];
+						float[] row = rowPass[r + dr - half];
+						for (int c = 0; c < width; c++)
+							acc[c] += wt * row[c];
+					}
+					System.arraycopy(acc, 0, out[r], half, width);
+				}
+			}
+		});
+		return out;
+	}
+
+	/** Work on the rows rowStart (inclusive) to rowEnd (exclusive) */
+	interface RowBand
+	{
+		public void run(int rowStart, int rowEnd);
+	}
+
+	/**
+	 * Runs the task over all rows, split into bands processed in parallel if
+	 * the raster is large enough to be worth it. Also used by the other
+	 * engines of this package.
+	 */
+	static void forEachRowBand(int nRows, int nCols, final RowBand task)
+	{
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		if (numThreads < 2 || (long) nRows * nCols < MIN_PARALLEL_PIXELS
+				|| nRows < 2)
+		{
+			task.run(0, nRows);
+			return;
+		}
+		int numBands = Math.min(nRows, numThreads * 4);
+		final ArrayList<RecursiveAction> bands = new ArrayList<RecursiveAction>(
+				numBands);
+		for (int i = 0; i < numBands; i++)
+		{
+			final int rowStart = (int) ((long) nRows * i / numBands);
+			final int rowEnd = (int) ((long) nRows * (i + 1) / numBands);
+			bands.add(new RecursiveAction()
+			{
+				protected void compute()
+				{
+					task.run(rowStart, rowEnd);
+				}
+			});
+		}
+		getPool().invoke(new RecursiveAction()
+		{
+			protected void compute()
+			{
+				invokeAll(bands);
+			}
+		});
+	}
+
+	static private synchronized ForkJoinPool getPool()
+	{
+		if (ThePool == null)
+			ThePool = new ForkJoinPool();
+		return ThePool;
+	}
+}
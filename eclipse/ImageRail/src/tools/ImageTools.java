@@ -53,6 +53,7 @@ import javax.swing.JFrame;
 import models.Model_ParameterSet;
 import models.Model_Plate;
 import models.Model_Well;
+import models.SegmentationParameters;
 import segmentedobject.CellCoordinates;
 
 import com.sun.media.jai.codec.FileSeekableStream;
@@ -201,11 +202,13 @@ public class ImageTools
 		int width = raster[0].length;
 		int numChannels = raster[0][0].length;
 		
+		SegmentationParameters params = pset.compile();
+		int channel = params.getCytChannelIndex();
+		float thresh = params.getBkgdThreshold();
 		int	bkgdCounter=0;
 		for (int r = 0; r < height; r++)
 			for (int c = 0; c < width; c++)
-				if (raster[r][c][pset.getParameter_int("Thresh_Cyt_ChannelIndex")] < pset
-						.getParameter_float("Thresh_Bkgd_Value"))
+				if (raster[r][c][channel] < thresh)
 				{
 					for (int i=0; i < numChannels; i++)
 						backgrounds[i]+=raster[r][c][i];
@@ -228,6 +231,38 @@ public class ImageTools
 	
 	
 	
+	/** Computes the mean value of each channel over the background pixels of the given
+	 * field, i.e. the pixels whose Thresh_Cyt_ChannelIndex value is below Thresh_Bkgd_Value
+	 * @author BLM*/
+	static public void computeBackgroundValues(FieldRaster raster, float[] backgrounds, SegmentationParameters params)
+	{
+		for (int i = 0; i < backgrounds.length; i++)
+			backgrounds[i] = 0;
+		
+		int numPixels = raster.getNumPixels();
+		int numChannels = raster.getNumChannels();
+		char[] mask = raster.getPlane(params.getCytChannelIndex());
+		float thresh = params.getBkgdThreshold();
+		
+		//Same row-major float accumulation as the int[][][] version so results match exactly
+		int	bkgdCounter=0;
+		for (int p = 0; p < numPixels; p++)
+			if (mask[p] < thresh)
+			{
+				for (int i=0; i < numChannels; i++)
+					backgrounds[i]+=raster.get(p, i);
+				bkgdCounter++;
+			}
+		
+		if (bkgdCounter>0)
+			for (int i=0; i < numChannels; i++)
+				backgrounds[i]=backgrounds[i]/(float)bkgdCounter;
+		else
+			System.out.println("**** WARNING: This field does not have any background pixels -->  Will subtract 0 for background, but this will be inconsistent if other fields have a background >0");
+	}
+	
+	
+	
 	static public String getWellNameOfImage(String name, String[] wellNames)
 	{
 		int len = wellNames.length;
@@ -1152,83 +1187,104 @@ public class ImageTools
 	
 	static public int[][][] getImageRaster_FromFiles_copy(File[] inFiles,
 			String[] requiredChannelNames)
+	{
+		FieldRaster field = getFieldRaster_FromFiles(inFiles, requiredChannelNames);
+		if (field == null)
+			return null;
+		return field.getIntRaster();
+	}
+	
+	
+	/** Loads the channel TIFFs of one field into a planar FieldRaster, with its histograms
+	 * already counted. Each file is matched to its channel by name. Files are decoded with TiffReader straight into the channel
+	 * plane; only layouts it does not handle go through JAI, and then with a single bulk
+	 * getSamples() call rather than one getPixel() per pixel
+	 * @author BLM*/
+	static public FieldRaster getFieldRaster_FromFiles(File[] inFiles,
+			String[] requiredChannelNames)
 	{
 		//finding all tiff files only
-		int numFiles = inFiles.length;
-		ArrayList<File> arr = new ArrayList<File>();
-		for (int i =0; i < numFiles; i++)
-		{
-			File f = inFiles[i];
-			
-			if (f.getName().indexOf(".tif")>0||f.getName().indexOf(".TIF")>0)
-				arr.add(f);
-		}
-		numFiles = arr.size();
-		File[] files = new File[numFiles];
-		for (int i =0; i < numFiles; i++)
-			files[i] = (File)arr.get(i);
-		
-		
-		//init Raster dimensions with first file... then auto do others
-		SeekableStream ss = null;
-		PlanarImage op = null;
-		if (files.length==0)
+		ArrayList<File> files = new ArrayList<File>();
+		for (int i =0; i < inFiles.length; i++)
+			if (inFiles[i].getName().indexOf(".tif")>0||inFiles[i].getName().indexOf(".TIF")>0)
+				files.add(inFiles[i]);
+		if (files.size()==0)
 		{
 			System.out.println("**Not able to get rasters from channeled Images properly**");
 			return null;
 		}
-		try
-		{
-			ss = new FileSeekableStream(files[0]);
-			ImageDecoder decoder = ImageCodec.createImageDecoder("tiff", ss, null);
-			op = new NullOpImage(decoder.decodeAsRenderedImage(),null,OpImage.OP_IO_BOUND,null);
-		}
-		catch (IOException e) {System.out.println("error Loading image: ");e.printStackTrace();}
 		
-
-		// for (int r =0; r < height; r++)
-		// for (int c =0; c < width; c++)
-		// {
-		// ras.getPixel(c,r,pix);
-		// rast[r][c][0] = (int)((float)pix[0]);
-		// }
-		
-		// getting the raster
-		Raster ras = op.getData();
-		int width = ras.getWidth();
-		int height = ras.getHeight();
-		int[][][] rast = new int[height][width][requiredChannelNames.length];
-		int[] pix = new int[3];
-		//Now doing other files
-		for (int i = 0; i < numFiles; i++)
+		FieldRaster field = null;
+		for (int i = 0; i < files.size(); i++)
 		{
-			try
-			{
-				ss = new FileSeekableStream(files[i]);
-				ImageDecoder decoder = ImageCodec.createImageDecoder("tiff", ss, null);
-				op = new NullOpImage(decoder.decodeAsRenderedImage(),null,OpImage.OP_IO_BOUND,null);
-			}
-			catch (IOException e) {System.out.println("error Loading image: ");e.printStackTrace();}
+			File file = files.get(i);
 			// get channel index
-			String[] rNames = requiredChannelNames;
 			int thisIndex = -1;
-			for (int j = 0; j < rNames.length; j++) {
-				if (files[i].getName().indexOf(rNames[j]) > 0)
+			for (int j = 0; j < requiredChannelNames.length; j++) {
+				if (file.getName().indexOf(requiredChannelNames[j]) > 0)
 					thisIndex = j;
 			}
+			if (thisIndex == -1)
+			{
+				System.out.println("**** WARNING: image does not match any channel name, skipping: "+file.getName());
+				continue;
+			}
 			
-			// getting the raster
-			ras = op.getData();
-			for (int r =0; r < height; r++)
-				for (int c =0; c < width; c++)
+			TiffReader.Image img = null;
+			try
+			{
+				img = TiffReader.read(file);
+			}
+			catch (IOException e) {System.out.println("error Loading image: ");e.printStackTrace();}
+			
+			if (img != null)
+			{
+				//The first file decoded sets the field dimensions
+				if (field == null)
+					field = new FieldRaster(img.height, img.width, requiredChannelNames.length);
+				if (img.height != field.getHeight() || img.width != field.getWidth())
 				{
-					ras.getPixel(c,r,pix);
-					rast[r][c][thisIndex] = pix[0];
+					System.out.println("**** ERROR: image dimensions do not match the rest of the field: "+file.getName());
+					continue;
 				}
+				System.arraycopy(img.plane, 0, field.getPlane(thisIndex), 0, img.plane.length);
+				continue;
+			}
+			
+			//Falling back to JAI for anything TiffReader does not decode
+			PlanarImage op = null;
+			try
+			{
+				SeekableStream ss = new FileSeekableStream(file);
+				ImageDecoder decoder = ImageCodec.createImageDecoder("tiff", ss, null);
+				op = new NullOpImage(decoder.decodeAsRenderedImage(),null,OpImage.OP_IO_BOUND,null);
+			}
+			catch (IOException e) {System.out.println("error Loading image: ");e.printStackTrace();}
+			if (op == null)
+				continue;
+			
+			Raster ras = op.getData();
+			int width = ras.getWidth();
+			int height = ras.getHeight();
+			if (field == null)
+				field = new FieldRaster(height, width, requiredChannelNames.length);
+			if (height != field.getHeight() || width != field.getWidth())
+			{
+				System.out.println("**** ERROR: image dimensions do not match the rest of the field: "+file.getName());
+				continue;
+			}
+			int[] samples = ras.getSamples(ras.getMinX(), ras.getMinY(), width, height, 0, (int[])null);
+			char[] plane = field.getPlane(thisIndex);
+			for (int p = 0; p < samples.length; p++)
+			{
+				int val = samples[p];
+				plane[p] = (char)(val < 0 ? 0 : (val > FieldRaster.MAX_VALUE ? FieldRaster.MAX_VALUE : val));
+			}
 		}
-		
-		
-		return rast;
+		//Counting the histograms now, on the decoding thread, so nothing downstream re-scans the planes for them
+		if (field != null)
+			field.getHistogram();
+		return field;
 	}
 	
 	
@@ -1431,6 +1487,10 @@ public class ImageTools
 		return arr2;
 	}
 	
+	/** Filters the intensities with the kernel on FilterEngine, then rescales
+	 * them to 0..Pixel_maxIntensity. Pixels closer to the border than half
+	 * the kernel width keep their intensity before rescaling
+	 * @author BLM*/
 	static public int[][][] linearFilter(int[][][] inputRaster, float[][] kernal)
 	{
 		int kernalWidth = kernal.length;
@@ -1438,26 +1498,17 @@ public class ImageTools
 		int nRows = inputRaster.length;
 		int nCols = inputRaster[0].length;
 		int[][][] temp = tools.ImageTools.copyRaster(inputRaster);
+		float[][] intensity = new float[nRows][nCols];
+		for (int r = 0; r < nRows; r++)
+			for (int c = 0; c < nCols; c++)
+				intensity[r][c] = tools.ImageTools.getPixelIntensity(inputRaster[r][c]);
+		float[][] filtered = FilterEngine.filter(intensity, kernal);
 		int min = Integer.MAX_VALUE;
 		int max = Integer.MIN_VALUE;
 		for (int r = halfKernalWidth; r < nRows-halfKernalWidth; r++)
 			for (int c = halfKernalWidth; c < nCols-halfKernalWidth; c++)
 			{
-				int sum = 0;
-				int krow = 0;
-				int kcol = 0;
-				for (int n = r-halfKernalWidth; n < r+halfKernalWidth+1; n++)
-				{
-					for (int k = c-halfKernalWidth; k < c+halfKernalWidth+1; k++)
-					{
-//						System.out.println(n+"  "+kcol +" - "+ krow+"  "+k);
-						float w = kernal[kcol][krow];
-						sum+=w*tools.ImageTools.getPixelIntensity(inputRaster[n][k]);
-						kcol++;
-					}
-					kcol = 0;
-					krow++;
-				}
+				int sum = (int)filtered[r][c];
 				
 				if (sum < min)
 					min = sum;
@@ -1485,6 +1536,10 @@ public class ImageTools
 		return temp;
 	}
 	
+	/** Filters the raster with the kernel on FilterEngine, then rescales it
+	 * to 0..Pixel_maxIntensity. Pixels closer to the border than half the
+	 * kernel width keep their value before rescaling
+	 * @author BLM*/
 	static public float[][] linearFilter(float[][] inputRaster, float[][] kernal)
 	{
 		int kernalWidth = kernal.length;
@@ -1492,26 +1547,13 @@ public class ImageTools
 		int nRows = inputRaster.length;
 		int nCols = inputRaster[0].length;
 		float[][] temp = tools.ImageTools.copyRaster(inputRaster);
+		float[][] filtered = FilterEngine.filter(inputRaster, kernal);
 		int min = Integer.MAX_VALUE;
 		int max = Integer.MIN_VALUE;
 		for (int r = halfKernalWidth; r < nRows-halfKernalWidth; r++)
 			for (int c = halfKernalWidth; c < nCols-halfKernalWidth; c++)
 			{
-				int sum = 0;
-				int krow = 0;
-				int kcol = 0;
-				for (int n = r-halfKernalWidth; n < r+halfKernalWidth+1; n++)
-				{
-					for (int k = c-halfKernalWidth; k < c+halfKernalWidth+1; k++)
-					{
-//						System.out.println(n+"  "+kcol +" - "+ krow+"  "+k);
-						float w = kernal[kcol][krow];
-						sum+=w*inputRaster[n][k];
-						kcol++;
-					}
-					kcol = 0;
-					krow++;
-				}
+				int sum = (int)filtered[r][c];
 				
 				if (sum < min)
 					min = sum;
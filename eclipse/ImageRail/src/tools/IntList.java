@@ -0,0 +1,97 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+/**
+ * Growable list of primitive ints. Used by the segmentors to hold pixel index
+ * lists without boxing every entry into an Integer or Point.
+ * 
+ * @author BLM
+ */
+public final class IntList
+{
+	private int[] Data;
+	private int Size;
+
+	public IntList()
+	{
+		this(16);
+	}
+
+	public IntList(int initialCapacity)
+	{
+		Data = new int[Math.max(1, initialCapacity)];
+		Size = 0;
+	}
+
+	/** Appends the given value to the end of the list
+	 * @author BLM*/
+	public void add(int value)
+	{
+		if (Size == Data.length)
+		{
+			int[] temp = new int[Data.length * 2];
+			System.arraycopy(Data, 0, temp, 0, Size);
+			Data = temp;
+		}
+		Data[Size] = value;
+		Size++;
+	}
+
+	public int get(int index)
+	{
+		return Data[index];
+	}
+
+	public void set(int index, int value)
+	{
+		Data[index] = value;
+	}
+
+	public int size()
+	{
+		return Size;
+	}
+
+	/** Empties the list but keeps its storage for reuse
+	 * @author BLM*/
+	public void clear()
+	{
+		Size = 0;
+	}
+
+	/** Removes and returns the last value
+	 * @author BLM*/
+	public int pop()
+	{
+		Size--;
+		return Data[Size];
+	}
+
+	/** Returns a copy of the values trimmed to the list size
+	 * @author BLM*/
+	public int[] toArray()
+	{
+		int[] out = new int[Size];
+		System.arraycopy(Data, 0, out, 0, Size);
+		return out;
+	}
+}
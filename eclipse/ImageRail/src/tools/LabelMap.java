@@ -0,0 +1,379 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+import imagerailio.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Flat per-pixel label map used by the segmentors in place of one tools.Pixel
+ * object per pixel. Pixel (row, col) lives at index row + col*height, which is
+ * the column-major order of FieldRaster.toColumnMajorArray(), so the same index
+ * addresses both the label and the raster value of a pixel.
+ * 
+ * Neighbours are found by index arithmetic into a caller supplied int[8]
+ * buffer, so walking them allocates nothing. They come back in the same order
+ * Pixel.getNeighbors() returns them, which keeps region growing results
+ * identical to the Pixel based code.
+ * 
+ * @author BLM
+ */
+public final class LabelMap
+{
+	/** Label of a pixel that does not belong to anything yet */
+	static final public int UNLABELED = -1;
+
+	private final int Height;
+	private final int Width;
+	private final int[] Labels;
+	/** Index offsets of the 8 neighbours of a pixel away from the image border */
+	private final int[] BodyOffsets;
+
+	/** Creates a map with every pixel UNLABELED
+	 * @author BLM*/
+	public LabelMap(int height, int width)
+	{
+		Height = height;
+		Width = width;
+		Labels = new int[height * width];
+		Arrays.fill(Labels, UNLABELED);
+		int h = height;
+		BodyOffsets = new int[] { -1 - h, -1, -1 + h, -h, h, 1 - h, 1, 1 + h };
+	}
+
+	public int getHeight()
+	{
+		return Height;
+	}
+
+	public int getWidth()
+	{
+		return Width;
+	}
+
+	public int getNumPixels()
+	{
+		return Labels.length;
+	}
+
+	/** Returns the column-major index of the given pixel
+	 * @author BLM*/
+	public int getIndex(int row, int col)
+	{
+		return row + col * Height;
+	}
+
+	public int getRow(int index)
+	{
+		return index % Height;
+	}
+
+	public int getColumn(int index)
+	{
+		return index / Height;
+	}
+
+	public int get(int index)
+	{
+		return Labels[index];
+	}
+
+	public void set(int index, int label)
+	{
+		Labels[index] = label;
+	}
+
+	/** Returns the backing label array, indexed row + col*height
+	 * @author BLM*/
+	public int[] getLabels()
+	{
+		return Labels;
+	}
+
+	/** Sets every pixel back to UNLABELED
+	 * @author BLM*/
+	public void reset()
+	{
+		Arrays.fill(Labels, UNLABELED);
+	}
+
+	/**
+	 * Writes the indices of the 8-connected neighbours of the given pixel into
+	 * out, which must hold at least 8 values, and returns how many there are.
+	 * Border pixels have 3 or 5 neighbours.
+	 * 
+	 * @author BLM
+	 */
+	public int getNeighbors(int index, int[] out)
+	{
+		int h = Height;
+		int r = index % h;
+		int c = index / h;
+		if (r > 0 && r < h - 1 && c > 0 && c < Width - 1)
+		{
+			int[] offsets = BodyOffsets;
+			for (int i = 0; i < 8; i++)
+				out[i] = index + offsets[i];
+			return 8;
+		}
+		if (r == 0)
+		{
+			if (c == 0)
+			{
+				out[0] = index + h;
+				out[1] = index + 1 + h;
+				out[2] = index + 1;
+				return 3;
+			}
+			if (c == Width - 1)
+			{
+				out[0] = index - h;
+				out[1] = index + 1 - h;
+				out[2] = index + 1;
+				return 3;
+			}
+			out[0] = index - h;
+			out[1] = index + 1 - h;
+			out[2] = index + 1;
+			out[3] = index + 1 + h;
+			out[4] = index + h;
+			return 5;
+		}
+		if (r == h - 1)
+		{
+			if (c == 0)
+			{
+				out[0] = index - 1;
+				out[1] = index - 1 + h;
+				out[2] = index + h;
+				return 3;
+			}
+			if (c == Width - 1)
+			{
+				out[0] = index - h;
+				out[1] = index - 1 - h;
+				out[2] = index - 1;
+				return 3;
+			}
+			out[0] = index - h;
+			out[1] = index - 1 - h;
+			out[2] = index - 1;
+			out[3] = index - 1 + h;
+			out[4] = index + h;
+			return 5;
+		}
+		if (c == 0)
+		{
+			out[0] = index - 1;
+			out[1] = index - 1 + h;
+			out[2] = index + h;
+			out[3] = index + 1 + h;
+			out[4] = index + 1;
+			return 5;
+		}
+		// Right most column
+		out[0] = index - 1;
+		out[1] = index - 1 - h;
+		out[2] = index - h;
+		out[3] = index + 1 - h;
+		out[4] = index + 1;
+		return 5;
+	}
+
+	/**
+	 * Writes the indices of the 4-connected neighbours of the given pixel into
+	 * out, which must hold at least 4 values, and returns how many there are.
+	 * Like Pixel.getFourNeighbors(), pixels on the outer two rows or columns of
+	 * the image, or on the last row or column, have none.
+	 * 
+	 * @author BLM
+	 */
+	public int getFourNeighbors(int index, int[] out)
+	{
+		int h = Height;
+		int r = index % h;
+		int c = index / h;
+		if (r <= 1 || c <= 1 || r >= h - 1 || c >= Width - 1)
+			return 0;
+		out[0] = index - 1;
+		out[1] = index - h;
+		out[2] = index + h;
+		out[3] = index + 1;
+		return 4;
+	}
+
+	/** Returns true if any 8-connected neighbour of the given pixel has a different label
+	 * @author BLM*/
+	public boolean isBorder(int index, int[] buffer)
+	{
+		int label = Labels[index];
+		int num = getNeighbors(index, buffer);
+		for (int i = 0; i < num; i++)
+			if (Labels[buffer[i]] != label)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Grows competing regions outward into the growable pixels. Region k is
+	 * the list of pixels labelled k that may still grow; other pixels labelled
+	 * k must not border unlabelled growable pixels. Pixels claimed by a region
+	 * are labelled and appended to its list.
+	 * 
+	 * The result is the same as growing every region by one layer of
+	 * 8-connected neighbours per pass, regions in list order, until nothing
+	 * changes. Connected components of the growable and labelled pixels are
+	 * found first; a component touched by only one region goes to it
+	 * wholesale, and only components shared by several regions are grown
+	 * layer by layer. Each pass only visits the pixels added in the pass
+	 * before.
+	 * 
+	 * @author BLM
+	 */
+	public void growRegions(ArrayList<IntList> regions, boolean[] growable)
+	{
+		int numPixels = Labels.length;
+		int numRegions = regions.size();
+
+		boolean[] mask = new boolean[numPixels];
+		for (int i = 0; i < numPixels; i++)
+			mask[i] = growable[i] || Labels[i] != UNLABELED;
+		int[] component = new int[numPixels];
+		int numComponents = ConnectedComponents.label(mask, Height, Width,
+				true, component);
+		mask = null;
+
+		// Finding which region owns each component, or SHARED if several (or
+		// pixels of no region) touch it
+		final int NONE = -1;
+		final int SHARED = -2;
+		int[] owner = new int[numComponents];
+		Arrays.fill(owner, NONE);
+		for (int i = 0; i < numPixels; i++)
+		{
+			int label = Labels[i];
+			if (label == UNLABELED)
+				continue;
+			int comp = component[i];
+			if (label < 0 || label >= numRegions)
+				owner[comp] = SHARED;
+			else if (owner[comp] == NONE)
+				owner[comp] = label;
+			else if (owner[comp] != label)
+				owner[comp] = SHARED;
+		}
+
+		// Regions alone in their component take all of it
+		for (int i = 0; i < numPixels; i++)
+		{
+			if (Labels[i] != UNLABELED || component[i] == UNLABELED)
+				continue;
+			int k = owner[component[i]];
+			if (k >= 0)
+			{
+				Labels[i] = k;
+				regions.get(k).add(i);
+			}
+		}
+		component = null;
+
+		// The rest compete one layer at a time
+		growRegionsByLayer(regions, growable, false);
+	}
+
+	/**
+	 * Grows competing regions outward into the unlabelled growable pixels one
+	 * layer per pass, regions in list order, until nothing changes. A pixel
+	 * reached from a region pixel takes that pixel's label and is appended to
+	 * the region's list. Each pass only visits the pixels added in the pass
+	 * before.
+	 * 
+	 * Unlike growRegions() the labels need not match the list positions and
+	 * the other pixels of a region may border growable pixels, since only the
+	 * listed pixels ever grow. With fourConnected the neighbours are those of
+	 * getFourNeighbors(), otherwise those of getNeighbors().
+	 * 
+	 * @author BLM
+	 */
+	public void growRegionsByLayer(ArrayList<IntList> regions,
+			boolean[] growable, boolean fourConnected)
+	{
+		int numRegions = regions.size();
+		int[] frontier = new int[numRegions];
+		int[] neighbors = new int[8];
+		while (true)
+		{
+			boolean change = false;
+			for (int k = 0; k < numRegions; k++)
+			{
+				IntList arr = regions.get(k);
+				int numPix = arr.size();
+				for (int p = frontier[k]; p < numPix; p++)
+				{
+					int pix = arr.get(p);
+					int label = Labels[pix];
+					int len = fourConnected ? getFourNeighbors(pix, neighbors)
+							: getNeighbors(pix, neighbors);
+					for (int i = 0; i < len; i++)
+					{
+						int neigh = neighbors[i];
+						if (Labels[neigh] == UNLABELED && growable[neigh])
+						{
+							change = true;
+							arr.add(neigh);
+							Labels[neigh] = label;
+						}
+					}
+				}
+				frontier[k] = numPix;
+			}
+			if (!change)
+				break;
+		}
+	}
+
+	/** Creates a Point (x=column, y=row) for the given pixel index
+	 * @author BLM*/
+	public Point toPoint(int index)
+	{
+		return new Point(index / Height, index % Height);
+	}
+
+	/** Creates one Point per pixel index in the given list, in list order
+	 * @author BLM*/
+	public ArrayList<Point> toPoints(IntList indices)
+	{
+		int len = indices.size();
+		ArrayList<Point> pts = new ArrayList<Point>(len);
+		for (int i = 0; i < len; i++)
+			pts.add(toPoint(indices.get(i)));
+		return pts;
+	}
+
+	/** Returns the column-major pixel index of the given Point
+	 * @author BLM*/
+	public int getIndex(Point pt)
+	{
+		return pt.y + pt.x * Height;
+	}
+}
@@ -73,37 +73,30 @@ public class SpatialFilter
 	}
 	
 	
+	/**
+	 * Writes 100x the standard deviation of the summed channel intensity over
+	 * each pixel's width x width window into the given channel of a copy of the
+	 * raster. Uses summed-area tables, so the cost does not depend on the
+	 * window width.
+	 * 
+	 * @author BLM
+	 */
 	static public int[][][] stdevWindow(int[][][] inputRaster, int width,
 			int index) {
-		int kernalWidth = width;
-		int halfKernalWidth = (int) (((float) kernalWidth - 1f) / 2f);
+		int halfKernalWidth = (int) (((float) width - 1f) / 2f);
 		int nRows = inputRaster.length;
 		int nCols = inputRaster[0].length;
 		int[][][] temp = tools.ImageTools.copyRaster(inputRaster);
-		int halfway = (int) ((float) (width * width) / 2f);
-		float sum = 0;
+		float[][] intensity = new float[nRows][nCols];
+		for (int r = 0; r < nRows; r++)
+			for (int c = 0; c < nCols; c++)
+				intensity[r][c] = tools.ImageTools
+						.getPixelIntensity(inputRaster[r][c]);
+		float[][] stdev = FilterEngine.windowStdev(intensity,
+				halfKernalWidth);
 		for (int r = halfKernalWidth; r < nRows - halfKernalWidth; r++)
-			for (int c = halfKernalWidth; c < nCols - halfKernalWidth; c++) {
-				int counter = 0;
-				for (int n = r - halfKernalWidth; n < r + halfKernalWidth; n++)
-					for (int k = c - halfKernalWidth; k < c + halfKernalWidth; k++) {
-						sum = tools.ImageTools
-								.getPixelIntensity(inputRaster[n][k]);
-						counter++;
-					}
-
-				float mean = (float) sum / (float) counter;
-				sum = 0;
-				for (int n = r - halfKernalWidth; n < r + halfKernalWidth; n++) {
-					for (int k = c - halfKernalWidth; k < c + halfKernalWidth; k++) {
-						sum += Math.pow((tools.ImageTools
-								.getPixelIntensity(inputRaster[n][k]) - mean),
-								2);
-					}
-				}
-				double stdev = Math.sqrt(1f / (float) counter * sum);
-				temp[r][c][index] = (int) (stdev * 100);
-			}
+			for (int c = halfKernalWidth; c < nCols - halfKernalWidth; c++)
+				temp[r][c][index] = (int) (stdev[r][c] * 100);
 		return temp;
 	}
 	
@@ -311,37 +304,16 @@ public class SpatialFilter
 		return inputRaster;
 	}
 	
+	/**
+	 * Convolves the raster with the given square kernel; pixels closer to the
+	 * border than half the kernel width are 0. Runs on FilterEngine, which
+	 * gives the same values as the plain per-pixel convolution.
+	 * 
+	 * @author BLM
+	 */
 	static public float[][] linearFilter(float[][] inputRaster, float[][] kernal)
 	{
-		int kernalWidth = kernal.length;
-		int halfKernalWidth = (int)(((float)kernalWidth-1f)/2f);
-		int nRows = inputRaster.length;
-		int nCols = inputRaster[0].length;
-		float[][] temp = new float[nRows][nCols];
-		
-		for (int r = halfKernalWidth; r < nRows-halfKernalWidth; r++)
-			for (int c = halfKernalWidth; c < nCols-halfKernalWidth; c++)
-			{
-				float sum = 0;
-				int krow = 0;
-				int kcol = 0;
-				for (int n = r-halfKernalWidth; n < r+halfKernalWidth+1; n++)
-				{
-					for (int k = c-halfKernalWidth; k < c+halfKernalWidth+1; k++)
-					{
-						float w = kernal[kcol][krow];
-						sum += w * inputRaster[n][k];
-						kcol++;
-					}
-					kcol = 0;
-					krow++;
-				}
-				
-				temp[r][c] = sum;
-			}
-		
-		return temp;
-		
+		return FilterEngine.convolve(inputRaster, kernal);
 	}
 	
 	static public int[][] linearFilter(int[][] inputRaster, float[][] kernal)
@@ -716,83 +688,16 @@ public class SpatialFilter
 	
 
 	
-	/* dt of 2d function using squared distance */
+	/**
+	 * Squared Euclidean distance transform of the given image, in place: 0 on
+	 * background pixels, a large value (1e20) on foreground pixels. Runs on
+	 * DistanceTransform, which processes the rows and columns in parallel.
+	 * 
+	 * @author BLM
+	 */
 	static public float[][] distanceTransform(float[][] im)
 	{
-		int rows = im.length;
-		int cols = im[0].length;
-		
-		float[] f = null;
-		if(rows>cols)
-			f = new float[rows];
-		else
-			f = new float[cols];
-		
-		// transform along columns
-		for (int r = 0; r < rows; r++)
-		{
-			for (int c = 0; c < cols; c++)
-				f[c] = im[r][c];
-			
-			float[] d = dt(f, cols);
-			for (int c = 0; c < cols; c++)
-				im[r][c] = d[c];
-			d = null;
-		}
-		
-		// transform along rows
-		for (int c = 0; c < cols; c++)
-		{
-			for (int r = 0; r < rows; r++)
-				f[r] = im[r][c];
-			
-			float[] d = dt(f, rows);
-			for (int r = 0; r < rows; r++)
-				im[r][c] = d[r];
-		}
-		f = null;
-		
-		
-		return im;
-	}
-
-	
-	/* dt of 1d function using squared distance */
-	static float[] dt(float[] f, int n)
-	{
-		float[] d = new float[n];
-		int[] v = new int[n];
-		float[] z = new float[n+1];
-		int k = 0;
-		v[0] = 0;
-		z[0] = -1e20f;//-1000000000f;
-		z[1] = 1e20f;//1000000000f;
-		
-		for (int q = 1; q <= n-1; q++)
-		{
-			float s  = ((f[q]+(float)q*(float)q)-(f[v[k]]+(float)v[k]*(float)v[k]))/(2f*(float)q-2f*(float)v[k]);
-			while (s <= z[k])
-			{
-				k--;
-				s  = (( f[q]+(float)q*(float)q)-(f[v[k]]+(float)v[k]*(float)v[k]))/(2f*(float)q-2f*(float)v[k]);
-			}
-			k++;
-			v[k] = q;
-			z[k] = s;
-			z[k+1] = 1e20f;
-		}
-		
-		k = 0;
-		for (int q = 0; q <= n-1; q++)
-		{
-			while (z[k+1] < q)
-				k++;
-			d[q] = ((float)q-(float)v[k])*((float)q-(float)v[k]) + f[v[k]];
-		}
-		
-		v = null;
-		z = null;
-		return d;
+		return DistanceTransform.transform(im);
 	}
 	
 }
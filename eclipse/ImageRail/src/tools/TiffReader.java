@@ -0,0 +1,702 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Minimal TIFF reader for the single-channel microscopy images ImageRail
+ * processes. The file is read through a FileChannel in one bulk read and the
+ * first sample of every pixel is decoded straight into a row-major char[]
+ * plane, without going through JAI or per-pixel Raster calls.
+ * 
+ * Supports 8 and 16 bit unsigned samples in strips or tiles, uncompressed,
+ * LZW (with or without horizontal predictor) or PackBits compressed, in either
+ * byte order. For anything else read() returns null and the caller should fall
+ * back to the JAI decoder.
+ * 
+ * Code that only needs to reduce an image, not keep it, can instead open() the
+ * file and decode it one band of rows at a time; only the file's metadata and
+ * one strip are then ever held in memory.
+ * 
+ * @author BLM
+ */
+public class TiffReader
+{
+	static private final int TAG_WIDTH = 256;
+	static private final int TAG_HEIGHT = 257;
+	static private final int TAG_BITS_PER_SAMPLE = 258;
+	static private final int TAG_COMPRESSION = 259;
+	static private final int TAG_STRIP_OFFSETS = 273;
+	static private final int TAG_SAMPLES_PER_PIXEL = 277;
+	static private final int TAG_ROWS_PER_STRIP = 278;
+	static private final int TAG_STRIP_BYTE_COUNTS = 279;
+	static private final int TAG_PLANAR_CONFIG = 284;
+	static private final int TAG_PREDICTOR = 317;
+	static private final int TAG_TILE_WIDTH = 322;
+	static private final int TAG_TILE_LENGTH = 323;
+	static private final int TAG_TILE_OFFSETS = 324;
+	static private final int TAG_TILE_BYTE_COUNTS = 325;
+	static private final int TAG_SAMPLE_FORMAT = 339;
+
+	static private final int COMPRESSION_NONE = 1;
+	static private final int COMPRESSION_LZW = 5;
+	static private final int COMPRESSION_PACKBITS = 32773;
+
+	/** A decoded single-channel image
+	 * @author BLM*/
+	static public class Image
+	{
+		public int width;
+		public int height;
+		/** Row-major unsigned samples */
+		public char[] plane;
+	}
+
+	/** Rows decoded per band when streaming uncompressed strips */
+	static private final int STREAM_ROWS = 64;
+	/** Bytes of metadata read at a time when streaming */
+	static private final int WINDOW_BYTES = 64 * 1024;
+
+	private byte[] buf;
+	private boolean littleEndian;
+	/** File offset of buf[0]; always 0 unless streaming */
+	private long bufStart;
+	/** Open file when streaming, null when the whole file is in buf */
+	private FileChannel channel;
+	private long fileSize;
+
+	// Layout of the first image, set by readHeader()
+	private int width, height, spp, compression, predictor;
+	private int blockWidth, blockHeight, blocksAcross;
+	private int bytesPerSample, rowBytes, blockBytes;
+	private long[] offsets, byteCounts;
+	private boolean tiled;
+	private int bandHeight;
+	private byte[] block;
+	private byte[] raw;
+
+	private TiffReader(byte[] buf)
+	{
+		this.buf = buf;
+		fileSize = buf.length;
+	}
+
+	private TiffReader(FileChannel channel, long fileSize)
+	{
+		this.channel = channel;
+		this.fileSize = fileSize;
+		buf = new byte[0];
+	}
+
+	/**
+	 * Decodes the first image of the given TIFF file
+	 * 
+	 * @return the image, or null if the file uses a layout this reader does
+	 *         not handle
+	 * @throws IOException
+	 *             if the file cannot be read or is corrupt
+	 * @author BLM
+	 */
+	static public Image read(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				return null;
+			ByteBuffer bb = ByteBuffer.allocate((int) size);
+			while (bb.hasRemaining())
+				if (channel.read(bb) < 0)
+					throw new IOException("Unexpected end of file: " + file);
+			return new TiffReader(bb.array()).decode();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens the first image of the given TIFF file for reading one band of
+	 * rows at a time with readBand(), so only a strip's worth of the image is
+	 * ever in memory. The caller must close() it.
+	 * 
+	 * @return the reader, or null if the file uses a layout this reader does
+	 *         not handle
+	 * @throws IOException
+	 *             if the file cannot be read or is corrupt
+	 * @author BLM
+	 */
+	static public TiffReader open(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		boolean ok = false;
+		try
+		{
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				return null;
+			TiffReader reader = new TiffReader(channel, size);
+			if (!reader.readHeader())
+				return null;
+			// Uncompressed strips are read a few rows at a time, anything
+			// else has to be decoded a whole strip (or row of tiles) at once
+			if (reader.compression == COMPRESSION_NONE && !reader.tiled)
+				reader.bandHeight = Math.min(reader.blockHeight, STREAM_ROWS);
+			reader.block = new byte[reader.rowBytes * reader.bandHeight];
+			ok = true;
+			return reader;
+		}
+		finally
+		{
+			if (!ok)
+				in.close();
+		}
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/** Returns the number of rows in each band but perhaps the last
+	 * @author BLM*/
+	public int getBandHeight()
+	{
+		return bandHeight;
+	}
+
+	public int getNumBands()
+	{
+		return (height + bandHeight - 1) / bandHeight;
+	}
+
+	/**
+	 * Decodes the rows of the given band into out, row-major and getWidth()
+	 * values wide, and returns how many rows it holds
+	 * 
+	 * @author BLM
+	 */
+	public int readBand(int band, char[] out) throws IOException
+	{
+		int y0 = band * bandHeight;
+		int rows = Math.min(bandHeight, height - y0);
+		if (rows <= 0)
+			return 0;
+		if (compression == COMPRESSION_NONE && !tiled)
+		{
+			// Reading straight from the strips, one contiguous run per strip
+			int r = 0;
+			while (r < rows)
+			{
+				int y = y0 + r;
+				int strip = y / blockHeight;
+				int run = Math.min(rows - r, (strip + 1) * blockHeight - y);
+				long pos = offsets[strip] + (long) (y - strip * blockHeight)
+						* rowBytes;
+				int len = run * rowBytes;
+				if (pos < 0 || pos + len > fileSize)
+					throw new IOException("Corrupt TIFF: strip " + strip
+							+ " lies outside the file");
+				readFully(pos, block, len);
+				if (predictor == 2)
+					undoPredictor(block, blockWidth, run, spp, bytesPerSample);
+				copyBlock(block, 0, out, width, 0, r, run, width);
+				r += run;
+			}
+			return rows;
+		}
+		for (int b = band * blocksAcross; b < (band + 1) * blocksAcross
+				&& b < offsets.length; b++)
+		{
+			decodeBlock(b);
+			int x0 = (b % blocksAcross) * blockWidth;
+			copyBlock(block, 0, out, width, x0, 0, rows,
+					Math.min(blockWidth, width - x0));
+		}
+		return rows;
+	}
+
+	/** Closes the file opened by open()
+	 * @author BLM*/
+	public void close() throws IOException
+	{
+		if (channel != null)
+			channel.close();
+		channel = null;
+	}
+
+	private Image decode() throws IOException
+	{
+		if (!readHeader())
+			return null;
+		block = new byte[blockBytes];
+
+		Image img = new Image();
+		img.width = width;
+		img.height = height;
+		img.plane = new char[width * height];
+
+		for (int b = 0; b < offsets.length; b++)
+		{
+			int x0 = (b % blocksAcross) * blockWidth;
+			int y0 = (b / blocksAcross) * blockHeight;
+			if (y0 >= height)
+				break;
+			decodeBlock(b);
+			copyBlock(block, 0, img.plane, width, x0, y0,
+					Math.min(blockHeight, height - y0),
+					Math.min(blockWidth, width - x0));
+		}
+		return img;
+	}
+
+	/**
+	 * Parses the first IFD into the layout fields
+	 * 
+	 * @return false if the image uses a layout this reader does not handle
+	 * @author BLM
+	 */
+	private boolean readHeader() throws IOException
+	{
+		if (fileSize < 8)
+			throw new IOException("Not a TIFF file");
+		int h = at(0, 2);
+		if (buf[h] == 'I' && buf[h + 1] == 'I')
+			littleEndian = true;
+		else if (buf[h] == 'M' && buf[h + 1] == 'M')
+			littleEndian = false;
+		else
+			throw new IOException("Not a TIFF file");
+		if (u16(2) != 42)
+			return false; // BigTIFF or not a TIFF
+
+		int ifd = (int) u32(4);
+		int numEntries = u16(ifd);
+
+		int bits = 1, planar = 1, sampleFormat = 1;
+		int rowsPerStrip = Integer.MAX_VALUE, tileWidth = -1, tileLength = -1;
+		width = -1;
+		height = -1;
+		compression = 1;
+		spp = 1;
+		predictor = 1;
+
+		for (int i = 0; i < numEntries; i++)
+		{
+			int entry = ifd + 2 + i * 12;
+			int tag = u16(entry);
+			switch (tag)
+			{
+			case TAG_WIDTH:
+				width = (int) value(entry, 0);
+				break;
+			case TAG_HEIGHT:
+				height = (int) value(entry, 0);
+				break;
+			case TAG_BITS_PER_SAMPLE:
+				bits = (int) value(entry, 0);
+				break;
+			case TAG_COMPRESSION:
+				compression = (int) value(entry, 0);
+				break;
+			case TAG_SAMPLES_PER_PIXEL:
+				spp = (int) value(entry, 0);
+				break;
+			case TAG_ROWS_PER_STRIP:
+				rowsPerStrip = (int) value(entry, 0);
+				break;
+			case TAG_PLANAR_CONFIG:
+				planar = (int) value(entry, 0);
+				break;
+			case TAG_PREDICTOR:
+				predictor = (int) value(entry, 0);
+				break;
+			case TAG_TILE_WIDTH:
+				tileWidth = (int) value(entry, 0);
+				break;
+			case TAG_TILE_LENGTH:
+				tileLength = (int) value(entry, 0);
+				break;
+			case TAG_SAMPLE_FORMAT:
+				sampleFormat = (int) value(entry, 0);
+				break;
+			case TAG_STRIP_OFFSETS:
+			case TAG_TILE_OFFSETS:
+				offsets = values(entry);
+				break;
+			case TAG_STRIP_BYTE_COUNTS:
+			case TAG_TILE_BYTE_COUNTS:
+				byteCounts = values(entry);
+				break;
+			}
+		}
+
+		if (width <= 0 || height <= 0 || offsets == null)
+			return false;
+		if ((bits != 8 && bits != 16) || sampleFormat != 1)
+			return false;
+		if (spp > 1 && planar != 1)
+			return false;
+		if (compression != COMPRESSION_NONE && compression != COMPRESSION_LZW
+				&& compression != COMPRESSION_PACKBITS)
+			return false;
+		if (predictor != 1 && predictor != 2)
+			return false;
+		if (compression != COMPRESSION_NONE && byteCounts == null)
+			return false;
+
+		// A RowsPerStrip of 2^32-1 means one strip for the whole image
+		if (rowsPerStrip <= 0)
+			rowsPerStrip = height;
+
+		// Strips are just tiles as wide as the image
+		tiled = tileWidth > 0 && tileLength > 0;
+		blockWidth = tiled ? tileWidth : width;
+		blockHeight = tiled ? tileLength : Math.min(rowsPerStrip, height);
+		blocksAcross = (width + blockWidth - 1) / blockWidth;
+		bytesPerSample = bits / 8;
+		rowBytes = blockWidth * spp * bytesPerSample;
+		blockBytes = rowBytes * blockHeight;
+		bandHeight = blockHeight;
+		return true;
+	}
+
+	/** Decodes block b (a strip or tile) into block, predictor undone
+	 * @author BLM*/
+	private void decodeBlock(int b) throws IOException
+	{
+		long offset = offsets[b];
+		int count = byteCounts != null ? (int) byteCounts[b] : blockBytes;
+		if (offset < 0 || count < 0 || offset + count > fileSize)
+			throw new IOException("Corrupt TIFF: strip " + b
+					+ " lies outside the file");
+
+		byte[] src = buf;
+		int srcPos = (int) offset;
+		if (channel != null)
+		{
+			if (raw == null || raw.length < count)
+				raw = new byte[count];
+			readFully(offset, raw, count);
+			src = raw;
+			srcPos = 0;
+		}
+
+		if (compression == COMPRESSION_NONE)
+			// Last strip may be short
+			System.arraycopy(src, srcPos, block, 0, Math.min(count, blockBytes));
+		else if (compression == COMPRESSION_LZW)
+			decodeLZW(src, srcPos, count, block);
+		else
+			decodePackBits(src, srcPos, count, block);
+
+		if (predictor == 2)
+			undoPredictor(block, blockWidth, blockHeight, spp, bytesPerSample);
+	}
+
+	/** Copies the first sample of every pixel of a decoded block into the plane
+	 * @author BLM*/
+	private void copyBlock(byte[] src, int srcPos, char[] plane,
+			int planeWidth, int x0, int y0, int rows, int cols)
+	{
+		int pixelStride = spp * bytesPerSample;
+		for (int r = 0; r < rows; r++)
+		{
+			int in = srcPos + r * rowBytes;
+			int out = (y0 + r) * planeWidth + x0;
+			if (bytesPerSample == 1)
+			{
+				for (int c = 0; c < cols; c++, in += pixelStride)
+					plane[out + c] = (char) (src[in] & 0xff);
+			}
+			else if (littleEndian)
+			{
+				for (int c = 0; c < cols; c++, in += pixelStride)
+					plane[out + c] = (char) ((src[in] & 0xff) | ((src[in + 1] & 0xff) << 8));
+			}
+			else
+			{
+				for (int c = 0; c < cols; c++, in += pixelStride)
+					plane[out + c] = (char) (((src[in] & 0xff) << 8) | (src[in + 1] & 0xff));
+			}
+		}
+	}
+
+	/** Reads len bytes at the given file offset into out when streaming
+	 * @author BLM*/
+	private void readFully(long pos, byte[] out, int len) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.wrap(out, 0, len);
+		while (bb.hasRemaining())
+		{
+			int n = channel.read(bb, pos + bb.position());
+			if (n < 0)
+				throw new IOException("Unexpected end of file");
+		}
+	}
+
+	/**
+	 * Returns the index in buf of file offset p, making sure the n bytes from
+	 * there are loaded. Only streaming readers ever need to load anything.
+	 * 
+	 * @author BLM
+	 */
+	private int at(long p, int n) throws IOException
+	{
+		if (p < 0 || p + n > fileSize)
+			throw new IOException("Corrupt TIFF: offset " + p
+					+ " lies outside the file");
+		if (channel != null && (p < bufStart || p + n > bufStart + buf.length))
+		{
+			int len = (int) Math.min(Math.max(n, WINDOW_BYTES), fileSize - p);
+			if (buf.length != len)
+				buf = new byte[len];
+			readFully(p, buf, len);
+			bufStart = p;
+		}
+		return (int) (p - bufStart);
+	}
+
+	/** Reverses TIFF horizontal differencing (predictor 2) in place
+	 * @author BLM*/
+	private void undoPredictor(byte[] block, int blockWidth, int blockHeight,
+			int spp, int bytesPerSample)
+	{
+		int rowBytes = blockWidth * spp * bytesPerSample;
+		for (int r = 0; r < blockHeight; r++)
+		{
+			int row = r * rowBytes;
+			if (bytesPerSample == 1)
+			{
+				for (int i = spp; i < blockWidth * spp; i++)
+					block[row + i] += block[row + i - spp];
+			}
+			else
+			{
+				for (int i = spp; i < blockWidth * spp; i++)
+				{
+					int p = row + 2 * i;
+					int q = row + 2 * (i - spp);
+					int prev = sample16(block, q);
+					int cur = (sample16(block, p) + prev) & 0xffff;
+					if (littleEndian)
+					{
+						block[p] = (byte) cur;
+						block[p + 1] = (byte) (cur >> 8);
+					}
+					else
+					{
+						block[p] = (byte) (cur >> 8);
+						block[p + 1] = (byte) cur;
+					}
+				}
+			}
+		}
+	}
+
+	private int sample16(byte[] b, int p)
+	{
+		if (littleEndian)
+			return (b[p] & 0xff) | ((b[p + 1] & 0xff) << 8);
+		return ((b[p] & 0xff) << 8) | (b[p + 1] & 0xff);
+	}
+
+	/** Decodes a TIFF LZW strip (MSB-first codes, early change) into out
+	 * @author BLM*/
+	private void decodeLZW(byte[] src, int offset, int count, byte[] out)
+			throws IOException
+	{
+		// Each table entry is stored as (prefix code, last byte, length)
+		int[] prefix = new int[4096];
+		byte[] suffix = new byte[4096];
+		int[] length = new int[4096];
+		byte[] first = new byte[4096];
+		for (int i = 0; i < 256; i++)
+		{
+			suffix[i] = (byte) i;
+			first[i] = (byte) i;
+			length[i] = 1;
+			prefix[i] = -1;
+		}
+
+		int end = offset + count;
+		long bitBuf = 0;
+		int bitCount = 0;
+		int pos = offset;
+		int outPos = 0;
+		int next = 258;
+		int codeLen = 9;
+		int old = -1;
+
+		while (outPos < out.length)
+		{
+			while (bitCount < codeLen && pos < end)
+			{
+				bitBuf = (bitBuf << 8) | (src[pos++] & 0xff);
+				bitCount += 8;
+			}
+			if (bitCount < codeLen)
+				break;
+			int code = (int) ((bitBuf >> (bitCount - codeLen)) & ((1 << codeLen) - 1));
+			bitCount -= codeLen;
+
+			if (code == 257)
+				break;
+			if (code == 256)
+			{
+				next = 258;
+				codeLen = 9;
+				old = -1;
+				continue;
+			}
+
+			int emit = code;
+			if (old == -1)
+			{
+				if (code > 255)
+					throw new IOException("Corrupt LZW data");
+			}
+			else
+			{
+				if (code < next)
+					add(prefix, suffix, length, first, next, old, first[code]);
+				else if (code == next)
+					add(prefix, suffix, length, first, next, old, first[old]);
+				else
+					throw new IOException("Corrupt LZW data");
+				next++;
+			}
+			outPos = writeString(emit, prefix, suffix, length, out, outPos);
+			old = code;
+
+			if (next + 1 >= (1 << codeLen) && codeLen < 12)
+				codeLen++;
+		}
+	}
+
+	static private void add(int[] prefix, byte[] suffix, int[] length,
+			byte[] first, int code, int pre, byte c)
+	{
+		if (code >= 4096)
+			return;
+		prefix[code] = pre;
+		suffix[code] = c;
+		length[code] = length[pre] + 1;
+		first[code] = first[pre];
+	}
+
+	static private int writeString(int code, int[] prefix, byte[] suffix,
+			int[] length, byte[] out, int outPos)
+	{
+		int len = length[code];
+		int p = outPos + len - 1;
+		while (code != -1)
+		{
+			if (p < out.length)
+				out[p] = suffix[code];
+			p--;
+			code = prefix[code];
+		}
+		return Math.min(outPos + len, out.length);
+	}
+
+	/** Decodes a PackBits strip into out
+	 * @author BLM*/
+	private void decodePackBits(byte[] src, int offset, int count, byte[] out)
+	{
+		int pos = offset;
+		int end = offset + count;
+		int outPos = 0;
+		while (pos < end && outPos < out.length)
+		{
+			int n = src[pos++];
+			if (n >= 0)
+			{
+				int len = Math.min(n + 1, Math.min(end - pos, out.length - outPos));
+				System.arraycopy(src, pos, out, outPos, len);
+				pos += n + 1;
+				outPos += len;
+			}
+			else if (n != -128)
+			{
+				int len = Math.min(-n + 1, out.length - outPos);
+				byte b = src[pos++];
+				for (int i = 0; i < len; i++)
+					out[outPos++] = b;
+			}
+		}
+	}
+
+	private int u16(long p) throws IOException
+	{
+		int i = at(p, 2);
+		if (littleEndian)
+			return (buf[i] & 0xff) | ((buf[i + 1] & 0xff) << 8);
+		return ((buf[i] & 0xff) << 8) | (buf[i + 1] & 0xff);
+	}
+
+	private long u32(long p) throws IOException
+	{
+		int i = at(p, 4);
+		if (littleEndian)
+			return (buf[i] & 0xffL) | ((buf[i + 1] & 0xffL) << 8)
+					| ((buf[i + 2] & 0xffL) << 16) | ((buf[i + 3] & 0xffL) << 24);
+		return ((buf[i] & 0xffL) << 24) | ((buf[i + 1] & 0xffL) << 16)
+				| ((buf[i + 2] & 0xffL) << 8) | (buf[i + 3] & 0xffL);
+	}
+
+	/** Returns the index-th value of the given IFD entry (SHORT or LONG)
+	 * @author BLM*/
+	private long value(int entry, int index) throws IOException
+	{
+		int type = u16(entry + 2);
+		long count = u32(entry + 4);
+		int size = type == 3 ? 2 : 4;
+		long p = count * size <= 4 ? entry + 8 : u32(entry + 8);
+		p += (long) index * size;
+		return size == 2 ? u16(p) : u32(p);
+	}
+
+	/** Returns all values of the given IFD entry
+	 * @author BLM*/
+	private long[] values(int entry) throws IOException
+	{
+		int count = (int) u32(entry + 4);
+		long[] out = new long[count];
+		for (int i = 0; i < count; i++)
+			out[i] = value(entry, i);
+		return out;
+	}
+}
@@ -0,0 +1,189 @@
+/**  
+   ImageRail:
+   Software for high-throughput microscopy image analysis
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tools;
+
+import java.util.ArrayList;
+
+/**
+ * Linear time watershed building blocks shared by the segmentors, working on
+ * LabelMap indexed (column-major) arrays.
+ * 
+ * findSeeds() turns a smoothed distance map into nuclear seeds: the ultimate
+ * eroded points (pixels with no neighbour at a higher integer level) grouped
+ * into 8-connected components. The peak test only looks at a pixel's own
+ * neighbourhood, so no ordering of the pixels is needed at all.
+ * 
+ * flood() grows labelled regions over integer levels with a BucketQueue,
+ * highest level first (priority flood), so touching objects split along the
+ * valleys of the level map.
+ * 
+ * @author BLM
+ */
+public final class Watershed
+{
+	private Watershed()
+	{
+	}
+
+	/** Truncates the given map to integer levels, negative values become 0
+	 * @author BLM*/
+	static public int[] quantize(float[] map)
+	{
+		int len = map.length;
+		int[] levels = new int[len];
+		for (int i = 0; i < len; i++)
+			levels[i] = map[i] > 0 ? (int) map[i] : 0;
+		return levels;
+	}
+
+	/**
+	 * Finds the nuclear seeds of the given smoothed distance map. Every
+	 * ultimate eroded point is dilated by one pixel towards other peaks, then
+	 * touching peaks are grouped. On return the labels hold the seed ID of
+	 * every seed pixel and the distance map has been overwritten with the
+	 * seed mask (255 on seeds, 0 elsewhere).
+	 * 
+	 * @param dist
+	 *            smoothed distance map, indexed like the labels
+	 * @return the pixel indices of every seed, seed k being labelled k
+	 * @author BLM
+	 */
+	static public ArrayList<IntList> findSeeds(float[] dist, LabelMap labels)
+	{
+		int height = labels.getHeight();
+		int width = labels.getWidth();
+		int numPixels = dist.length;
+		int NOT_PEAK = 1;
+		int PEAK = 2;
+		int[] neighs = new int[8];
+		int[] neighs2 = new int[8];
+
+		// Finding the Ultimate Eroded Points
+		labels.reset();
+		for (int h = 0; h < numPixels; h++) {
+			int thisVal = (int) dist[h];
+			if (thisVal > 0) {
+				int num = labels.getNeighbors(h, neighs);
+				boolean hasUphillNeighbor = false;
+				for (int i = 0; i < num; i++)
+					if ((int) dist[neighs[i]] > thisVal) {
+						hasUphillNeighbor = true;
+						break;
+					}
+				if (hasUphillNeighbor)
+					labels.set(h, NOT_PEAK);
+				else
+					labels.set(h, PEAK);
+			}
+		}
+		for (int r = 0; r < height; r++)
+			for (int c = 0; c < width; c++) {
+				int index = r + c * height;
+				if (labels.get(index) == PEAK) {
+					dist[index] = 255f;
+
+					// Dilating 1x some pixels
+					int num = labels.getNeighbors(index, neighs);
+					for (int i = 0; i < num; i++) {
+						int num2 = labels.getNeighbors(neighs[i], neighs2);
+						int size = Math.min(num, num2);
+						for (int n = 0; n < size; n++) {
+							int p = neighs2[n];
+							if (labels.getRow(p) != r
+									&& labels.getColumn(p) != c)
+								if (dist[p] == 255)
+									dist[neighs[i]] = 255f;
+						}
+
+					}
+				} else if (dist[index] != 255)
+					dist[index] = 0;
+			}
+
+		// All the pixels that are turned on and directly connecting are
+		// called the same seed
+		boolean[] on = new boolean[numPixels];
+		for (int h = 0; h < numPixels; h++)
+			on[h] = dist[h] > 0;
+		int numSeeds = ConnectedComponents.label(on, height, width, true,
+				labels.getLabels());
+		on = null;
+		ArrayList<IntList> seeds = new ArrayList<IntList>(numSeeds);
+		for (int i = 0; i < numSeeds; i++)
+			seeds.add(new IntList());
+		for (int h = 0; h < numPixels; h++)
+			if (labels.get(h) != LabelMap.UNLABELED)
+				seeds.get(labels.get(h)).add(h);
+		return seeds;
+	}
+
+	/**
+	 * Grows the given regions over the growable pixels, highest level first.
+	 * Region k is the list of pixels labelled k; claimed pixels are labelled
+	 * and appended to their region. A pixel is never flooded at a level above
+	 * the one it was reached from, and pixels of equal level are taken in the
+	 * order they were reached, so with a flat level map this is the same as
+	 * growing all regions one layer at a time.
+	 * 
+	 * @author BLM
+	 */
+	static public void flood(LabelMap labels, ArrayList<IntList> regions,
+			int[] levels, boolean[] growable)
+	{
+		int max = 0;
+		for (int i = 0; i < levels.length; i++)
+			if (levels[i] > max)
+				max = levels[i];
+
+		BucketQueue queue = new BucketQueue(max + 1);
+		int[] neighbors = new int[8];
+		int numRegions = regions.size();
+		for (int k = 0; k < numRegions; k++) {
+			IntList arr = regions.get(k);
+			int numPix = arr.size();
+			for (int p = 0; p < numPix; p++)
+				claimNeighbors(labels, arr.get(p), k, max, arr, levels,
+						growable, queue, neighbors);
+		}
+		while (!queue.isEmpty()) {
+			int level = queue.getTopLevel();
+			int pix = queue.pop();
+			int k = labels.get(pix);
+			claimNeighbors(labels, pix, k, level, regions.get(k), levels,
+					growable, queue, neighbors);
+		}
+	}
+
+	static private void claimNeighbors(LabelMap labels, int pix, int k,
+			int level, IntList region, int[] levels, boolean[] growable,
+			BucketQueue queue, int[] neighbors)
+	{
+		int len = labels.getNeighbors(pix, neighbors);
+		for (int i = 0; i < len; i++) {
+			int neigh = neighbors[i];
+			if (labels.get(neigh) == LabelMap.UNLABELED && growable[neigh]) {
+				labels.set(neigh, k);
+				region.add(neigh);
+				queue.push(neigh, Math.min(levels[neigh], level));
+			}
+		}
+	}
+}
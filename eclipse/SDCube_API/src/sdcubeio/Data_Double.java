@@ -0,0 +1,85 @@
+/**
+   SDCube Programming Library
+   Software for the creation and manipulation of semantically-typed
+   data hypercubes
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as
+   published by the Free Software Foundation, either version 3 of the
+   License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public
+   License along with this program.  If not, see
+   <http://www.gnu.org/licenses/>.
+ */
+
+
+package sdcubeio;
+
+import ncsa.hdf.hdf5lib.HDF5Constants;
+
+/**
+ * Primitive double data object, 1D or flat row-major 2D
+ * 
+ * @author Bjorn Millard
+ */
+public class Data_Double extends Data_Primitive {
+
+	/**
+	 * Creates a 1D data object around the given array (no copy)
+	 * 
+	 * @author Bjorn Millard
+	 */
+	public Data_Double(double[] data, String name) {
+		this(data, -1, 1, name);
+	}
+
+	/**
+	 * Creates a 2D data object around the given flat row-major array (no
+	 * copy)
+	 * 
+	 * @author Bjorn Millard
+	 */
+	public Data_Double(double[] data, int rows, int cols, String name) {
+		super(data, rows, cols, HDF5Constants.H5T_NATIVE_DOUBLE, Data_1D.DOUBLE,
+				name);
+	}
+
+	/**
+	 * Creates a 2D data object by flattening the given matrix row by row
+	 * 
+	 * @author Bjorn Millard
+	 */
+	public Data_Double(double[][] matrix, String name) {
+		this((double[]) flatten(matrix), getNumRows(matrix),
+				getNumColumns(matrix), name);
+	}
+
+	public double[] getData() {
+		return (double[]) getBuffer();
+	}
+
+	public double get(int index) {
+		return getData()[index];
+	}
+
+	public double get(int row, int col) {
+		return getData()[indexOf(row, col)];
+	}
+
+	/**
+	 * Copies the values into a new [rows][cols] matrix
+	 * 
+	 * @author Bjorn Millard
+	 */
+	public double[][] toMatrix() {
+		return (double[][]) copyToMatrix();
+	}
+}
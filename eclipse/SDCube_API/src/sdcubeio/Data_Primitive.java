@@ -0,0 +1,198 @@
+/**
+   SDCube Programming Library
+   Software for the creation and manipulation of semantically-typed
+   data hypercubes
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as
+   published by the Free Software Foundation, either version 3 of the
+   License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public
+   License along with this program.  If not, see
+   <http://www.gnu.org/licenses/>.
+ */
+
+
+package sdcubeio;
+
+import java.lang.reflect.Array;
+
+/**
+ * Base of the primitive-typed data objects. Unlike Data_1D and Data_2D these
+ * hold their values in a single flat primitive array (row-major when rank is
+ * 2) so they can be handed straight to the HDF5 library without boxing every
+ * element. Subclasses only add the typed accessors for their array type.
+ * 
+ * @author Bjorn Millard
+ */
+public abstract class Data_Primitive implements DataObject {
+
+	private Object buffer;
+	private long[] dims;
+	private int hdfType;
+	private String name;
+	private String dataType;
+
+	/**
+	 * Wraps the given flat primitive array (no copy). A negative rows value
+	 * makes this a 1D object; otherwise rows x cols must equal the array
+	 * length.
+	 * 
+	 * @author Bjorn Millard
+	 */
+	protected Data_Primitive(Object buffer, int rows, int cols, int hdfType,
+			String dataType, String name) {
+		this.buffer = buffer;
+		this.dims = getDims(Array.getLength(buffer), rows, cols);
+		this.hdfType = hdfType;
+		this.dataType = dataType;
+		this.name = name;
+	}
+
+	/**
+	 * Returns the flat primitive array backing this object
+	 * 
+	 * @author Bjorn Millard
+	 * @return Object primitive array
+	 */
+	public Object getBuffer() {
+		return buffer;
+	}
+
+	public int getHDFType() {
+		return hdfType;
+	}
+
+	public long[] getDimensions() {
+		return dims;
+	}
+
+	public String getDataType() {
+		return dataType;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getRank() {
+		return dims.length;
+	}
+
+	/**
+	 * Returns the number of rows; the length for rank 1 data
+	 * 
+	 * @author Bjorn Millard
+	 */
+	public int getNumRows() {
+		return (int) dims[0];
+	}
+
+	/**
+	 * Returns the number of columns; 1 for rank 1 data
+	 * 
+	 * @author Bjorn Millard
+	 */
+	public int getNumColumns() {
+		return dims.length > 1 ? (int) dims[1] : 1;
+	}
+
+	/**
+	 * Returns the index into the flat buffer of the given row and column
+	 * 
+	 * @author Bjorn Millard
+	 */
+	protected int indexOf(int row, int col) {
+		return row * getNumColumns() + col;
+	}
+
+	/**
+	 * Copies the buffer into a new [rows][cols] primitive matrix of the same
+	 * element type
+	 * 
+	 * @author Bjorn Millard
+	 * @return Object primitive matrix
+	 */
+	protected Object copyToMatrix() {
+		int rows = getNumRows();
+		int cols = getNumColumns();
+		Object out = Array.newInstance(buffer.getClass().getComponentType(),
+				rows, cols);
+		for (int r = 0; r < rows; r++)
+			System.arraycopy(buffer, r * cols, Array.get(out, r), 0, cols);
+		return out;
+	}
+
+	/**
+	 * Flattens the given [rows][cols] primitive matrix row by row into a new
+	 * primitive array of the same element type
+	 * 
+	 * @author Bjorn Millard
+	 * @return Object primitive array
+	 */
+	static protected Object flatten(Object matrix) {
+		int rows = Array.getLength(matrix);
+		int cols = rows == 0 ? 0 : Array.getLength(Array.get(matrix, 0));
+		Object out = Array.newInstance(matrix.getClass().getComponentType()
+				.getComponentType(), rows * cols);
+		for (int r = 0; r < rows; r++)
+			System.arraycopy(Array.get(matrix, r), 0, out, r * cols, cols);
+		return out;
+	}
+
+	/**
+	 * Returns the number of rows of the given primitive matrix
+	 * 
+	 * @author Bjorn Millard
+	 */
+	static protected int getNumRows(Object matrix) {
+		return Array.getLength(matrix);
+	}
+
+	/**
+	 * Returns the number of columns of the given primitive matrix
+	 * 
+	 * @author Bjorn Millard
+	 */
+	static protected int getNumColumns(Object matrix) {
+		return Array.getLength(matrix) == 0 ? 0 : Array.getLength(Array.get(
+				matrix, 0));
+	}
+
+	/**
+	 * Returns the dimensions for a flat buffer holding rows x cols values
+	 * 
+	 * @author Bjorn Millard
+	 */
+	static private long[] getDims(int len, int rows, int cols) {
+		if (rows < 0)
+			return new long[] { len };
+		if (rows * cols != len)
+			throw new IllegalArgumentException("Buffer of length " + len
+					+ " does not hold " + rows + "x" + cols + " values");
+		return new long[] { rows, cols };
+	}
+
+	/**
+	 * Prints out the critical data for this object
+	 * */
+	public String toString() {
+		String st = "";
+		st += "Name: " + name + "\n";
+		st += "DataType: " + dataType + "\n";
+		st += "HDFType: " + hdfType + "\n";
+		st += "Dimensions: ";
+		for (int i = 0; i < dims.length; i++)
+			st += (i > 0 ? "x" : "") + dims[i];
+		st += "\n";
+		return st;
+	}
+}
@@ -58,6 +58,13 @@ public class H5IO<T> {
 	private int memspace_id  = -1;
 	private int dcpl_id      = -1;
 
+	// Session state: while a session is open the file stays open across
+	// openHDF5/closeHDF5 pairs and is only flushed at checkpoints
+	private String session_path = null;
+	private int session_depth = 0;
+	private int checkpoint_interval = 1;
+	private int checkpoints_since_flush = 0;
+
 	/**
 	 * Creates an HDF5 file at the file path given.
 	 * 
@@ -68,6 +75,9 @@ public class H5IO<T> {
 	 * @throws H5IO_Exception
 	 */
 	public void createHDF5(String fName) throws H5IO_Exception {
+		if (isSessionOpen())
+			throw new H5IO_Exception("Cannot create " + fName
+					+ " while a session is open on " + session_path);
 		try {
 			file_id = H5.H5Fcreate(fName, HDF5Constants.H5F_ACC_TRUNC,
 								   HDF5Constants.H5P_DEFAULT,
@@ -92,6 +102,13 @@ public class H5IO<T> {
 	 * @throws H5IO_Exception
 	 */
 	public void openHDF5(String fName) throws H5IO_Exception {
+		if (isSessionOpen()) {
+			// The file is already held open by the session
+			if (isSameFile(fName, session_path) && file_id >= 0)
+				return;
+			throw new H5IO_Exception("Cannot open " + fName
+					+ " while a session is open on " + session_path);
+		}
 		try {
 			// Open file using the default properties.
 			file_id = H5.H5Fopen(fName, HDF5Constants.H5F_ACC_RDWR,
@@ -231,6 +248,8 @@ public class H5IO<T> {
 	 */
 	public boolean existHDF5(String filePath) {
 		boolean result = false;
+		if (isSessionOpen())
+			return isSameFile(filePath, session_path) || new File(filePath).exists();
 		try {
 			// Open file using the default properties.
 			file_id = H5.H5Fopen(filePath, HDF5Constants.H5F_ACC_RDWR,
@@ -302,6 +321,9 @@ public class H5IO<T> {
 	 * @throws H5IO_Exception
 	 */
 	public void closeHDF5() throws H5IO_Exception {
+		// Inside a session the file is kept open until endSession()
+		if (isSessionOpen())
+			return;
 		try {
 			if (file_id >= 0) {
 				H5.H5Fflush(file_id, HDF5Constants.H5F_SCOPE_LOCAL);
@@ -315,6 +337,139 @@ public class H5IO<T> {
 		}
 	}
 
+	/**
+	 * Opens the given HDF5 file for a batch of operations. Until the matching
+	 * endSession() call, openHDF5 on the same file and closeHDF5 are no-ops so
+	 * the file is not re-opened and flushed for every dataset. Sessions may be
+	 * nested; the file is closed when the outermost session ends.
+	 * 
+	 * @author Bjorn Millard
+	 * @param String
+	 *            filePath
+	 * @return void
+	 * @throws H5IO_Exception
+	 */
+	public void beginSession(String fName) throws H5IO_Exception {
+		if (isSessionOpen()) {
+			if (!isSameFile(fName, session_path))
+				throw new H5IO_Exception("Cannot open a session on " + fName
+						+ " while a session is open on " + session_path);
+			session_depth++;
+			return;
+		}
+		// Make sure nothing is left open from a previous non-session call
+		closeHDF5();
+		openHDF5(fName);
+		session_path = fName;
+		session_depth = 1;
+		checkpoints_since_flush = 0;
+	}
+
+	/**
+	 * Ends the current session, flushing and closing the file when the
+	 * outermost session ends.
+	 * 
+	 * @author Bjorn Millard
+	 * @param null
+	 * @return void
+	 * @throws H5IO_Exception
+	 */
+	public void endSession() throws H5IO_Exception {
+		if (!isSessionOpen())
+			return;
+		session_depth--;
+		if (session_depth == 0) {
+			session_path = null;
+			closeHDF5();
+		}
+	}
+
+	/**
+	 * Drops any open session regardless of nesting and closes the file. Use
+	 * this on failure so the file is never left open.
+	 * 
+	 * @author Bjorn Millard
+	 * @param null
+	 * @return void
+	 * @throws H5IO_Exception
+	 */
+	public void abortSession() throws H5IO_Exception {
+		session_depth = 0;
+		session_path = null;
+		closeHDF5();
+	}
+
+	/**
+	 * Returns true if a session is currently holding the file open
+	 * 
+	 * @author Bjorn Millard
+	 * @return boolean
+	 */
+	public boolean isSessionOpen() {
+		return session_depth > 0;
+	}
+
+	/**
+	 * Marks the end of a logical unit of work (e.g. one field) inside a
+	 * session. The file is flushed every checkpoint_interval checkpoints.
+	 * 
+	 * @author Bjorn Millard
+	 * @param null
+	 * @return void
+	 * @throws H5IO_Exception
+	 */
+	public void checkpoint() throws H5IO_Exception {
+		if (!isSessionOpen())
+			return;
+		checkpoints_since_flush++;
+		if (checkpoint_interval > 0
+				&& checkpoints_since_flush >= checkpoint_interval)
+			flush();
+	}
+
+	/**
+	 * Flushes the currently opened HDF5 file to disk without closing it
+	 * 
+	 * @author Bjorn Millard
+	 * @param null
+	 * @return void
+	 * @throws H5IO_Exception
+	 */
+	public void flush() throws H5IO_Exception {
+		checkpoints_since_flush = 0;
+		try {
+			if (file_id >= 0)
+				H5.H5Fflush(file_id, HDF5Constants.H5F_SCOPE_LOCAL);
+		}
+		catch (HDF5LibraryException ex) {
+			logger.log(Level.SEVERE, "Not able to flush the file", ex);
+			throw new H5IO_Exception("Not able to flush the file: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Sets how many checkpoint() calls happen between flushes within a
+	 * session; 0 means only flush when the session ends
+	 * 
+	 * @author Bjorn Millard
+	 * @param int
+	 *            interval
+	 */
+	public void setCheckpointInterval(int interval) {
+		checkpoint_interval = Math.max(0, interval);
+	}
+
+	public int getCheckpointInterval() {
+		return checkpoint_interval;
+	}
+
+	private boolean isSameFile(String path1, String path2) {
+		if (path1 == null || path2 == null)
+			return false;
+		return new File(path1).getAbsoluteFile().equals(
+				new File(path2).getAbsoluteFile());
+	}
+
 	/**
 	 * Creates a String dataset with the given StringBuffer data array
 	 * 
@@ -1314,41 +1469,165 @@ public class H5IO<T> {
 
 
 	/**
-	 * Writes a primitive float[] to HDF5 dataset
+	 * Writes a primitive data object to an HDF5 dataset of the same rank and
+	 * dimensions in a single H5Dwrite, without boxing the values. Any prior
+	 * dataset at this path is replaced.
 	 * 
 	 * @author Bjorn Millard
 	 * @param String
-	 *            h5FilePath, String datasetPathFromProjectRoot, float[] dataset
+	 *            h5FilePath, String datasetPathFromProjectRoot, Data_Primitive
+	 *            data
 	 * @return void
 	 * */
-	public void writeDataset(String h5FilePath, String path,
-			 float[] in) throws H5IO_Exception {
+	public void writePrimitive(String h5FilePath, String path,
+			Data_Primitive data) throws H5IO_Exception {
 		//Creating the parent groups of this dataset if they dont already exist
 		createAllParentGroups(h5FilePath, path);
 
-		String datasetName = getDatasetName(path);
-
 		String datasetPath = path;
 		//check for and remove prior dataset for overwrite
-		if(existsDataset(datasetPath))
+		if (existsDataset(datasetPath))
 			removeDataset(datasetPath);
-		
-		// convert from primitive
-		int len = in.length;
-		Float[] dats = new Float[len];
-		for (int i = 0; i < len; i++)
-			dats[i] = new Float(in[i]);
 
+		try {
+			filespace_id = H5.H5Screate_simple(data.getRank(),
+					data.getDimensions(), null);
+			dataset_id = H5.H5Dcreate(file_id, datasetPath,
+					data.getHDFType(), filespace_id,
+					HDF5Constants.H5P_DEFAULT);
+			if (java.lang.reflect.Array.getLength(data.getBuffer()) > 0)
+				H5.H5Dwrite(dataset_id, data.getHDFType(),
+						HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL,
+						HDF5Constants.H5P_DEFAULT, data.getBuffer());
+		}
+		catch (Exception ex) {
+			throw new H5IO_Exception("Cannot write '" + datasetPath + "': "
+					+ ex.getMessage());
+		}
+		finally {
+			closeDataset();
+			closeFileSpace();
+		}
+		// Add dataset type attributes:
+		writeAttribute(datasetPath, "dataType", getTypeAttribute(data));
+	}
 
-		DataObject dataArray = new Data_1D<Float>(dats, Data_1D.FLOAT,
-				datasetName);
-		long[] dims = dataArray.getDimensions();
-		createDataset(datasetPath, "Float", dims);
-		writeArray(path, dataArray, 0, new long[] { 0 });
+	/**
+	 * Reads a whole dataset into a primitive data object of the matching type
+	 * (Data_Float, Data_Double, Data_Int, Data_Short or Data_Byte). Returns
+	 * null if the dataset does not exist.
+	 * 
+	 * @author Bjorn Millard
+	 * @param String
+	 *            pathToDatasetWithHDF5root
+	 * @return Data_Primitive
+	 * @throws H5IO_Exception
+	 * */
+	public Data_Primitive readPrimitive(String datasetPath)
+			throws H5IO_Exception {
+		if (!existsDataset(datasetPath))
+			return null;
+		long[] dims = getDimensions(datasetPath);
+		return readPrimitive(datasetPath, new long[dims.length], dims);
+	}
 
-		// Add dataset type attributes:
-		writeAttribute(datasetPath, "dataType", "H5T_NATIVE_FLOAT");
+	/**
+	 * Reads a hyperslab of a 1D or 2D dataset into a primitive data object of
+	 * the matching type. The result has the rank of the dataset and the
+	 * dimensions given by count.
+	 * 
+	 * @author Bjorn Millard
+	 * @param String
+	 *            pathToDatasetWithHDF5root, long[] offsets, long[] count
+	 * @return Data_Primitive
+	 * @throws H5IO_Exception
+	 * */
+	public Data_Primitive readPrimitive(String datasetPath, long[] offsets,
+			long[] count) throws H5IO_Exception {
+		Data_Primitive result = null;
+		String datasetName = getDatasetName(datasetPath);
+		try {
+			long total = 1;
+			for (int i = 0; i < count.length; i++)
+				total *= count[i];
+			int len = (int) total;
+			int rows = count.length > 1 ? (int) count[0] : -1;
+			int cols = count.length > 1 ? (int) count[1] : 1;
+
+			dataset_id = H5.H5Dopen(file_id, datasetPath);
+			filespace_id = H5.H5Dget_space(dataset_id);
+			H5.H5Sselect_hyperslab(filespace_id,
+					HDF5Constants.H5S_SELECT_SET, offsets, null, count, null);
+			memspace_id = H5.H5Screate_simple(count.length, count, null);
 
+			filetype_id = H5.H5Dget_type(dataset_id);
+			int typeClass = H5.H5Tget_class(filetype_id);
+			int typeSize = H5.H5Tget_size(filetype_id);
+			if (typeClass == HDF5Constants.H5T_FLOAT && typeSize == 4)
+				result = new Data_Float(new float[len], rows, cols, datasetName);
+			else if (typeClass == HDF5Constants.H5T_FLOAT && typeSize == 8)
+				result = new Data_Double(new double[len], rows, cols,
+						datasetName);
+			else if (typeClass == HDF5Constants.H5T_INTEGER && typeSize == 1)
+				result = new Data_Byte(new byte[len], rows, cols, datasetName);
+			else if (typeClass == HDF5Constants.H5T_INTEGER && typeSize == 2)
+				result = new Data_Short(new short[len], rows, cols, datasetName);
+			else if (typeClass == HDF5Constants.H5T_INTEGER && typeSize == 4)
+				result = new Data_Int(new int[len], rows, cols, datasetName);
+			else
+				throw new H5IO_Exception("Unsupported data type in '"
+						+ datasetPath + "'");
+
+			if (len > 0)
+				H5.H5Dread(dataset_id, result.getHDFType(), memspace_id,
+						filespace_id, HDF5Constants.H5P_DEFAULT,
+						result.getBuffer());
+		}
+		catch (H5IO_Exception ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			throw new H5IO_Exception("Cannot read '" + datasetPath + "': "
+					+ ex.getMessage());
+		}
+		finally {
+			closeDataset();
+			closeFileSpace();
+			closeFileType();
+			closeMemSpace();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the value of the "dataType" attribute written with datasets of
+	 * the type of the given object
+	 * 
+	 * @author Bjorn Millard
+	 */
+	private String getTypeAttribute(Data_Primitive data) {
+		if (data instanceof Data_Float)
+			return "H5T_NATIVE_FLOAT";
+		else if (data instanceof Data_Double)
+			return "H5T_NATIVE_DOUBLE";
+		else if (data instanceof Data_Int)
+			return "H5T_NATIVE_INTEGER";
+		else if (data instanceof Data_Short)
+			return "H5T_NATIVE_SHORT";
+		return "H5T_NATIVE_BYTE";
+	}
+
+	/**
+	 * Writes a primitive float[] to HDF5 dataset
+	 * 
+	 * @author Bjorn Millard
+	 * @param String
+	 *            h5FilePath, String datasetPathFromProjectRoot, float[] dataset
+	 * @return void
+	 * */
+	public void writeDataset(String h5FilePath, String path,
+			 float[] in) throws H5IO_Exception {
+		writePrimitive(h5FilePath, path, new Data_Float(in, getDatasetName(path)));
 	}
 
 	/**
@@ -1361,33 +1640,7 @@ public class H5IO<T> {
 	 * */
 	public void writeDataset(String h5FilePath, String path,
 			 float[][] in) throws H5IO_Exception {
-		//Creating the parent groups of this dataset if they dont already exist
-		createAllParentGroups(h5FilePath, path);
-
-		String datasetName = getDatasetName(path);
-
-		String datasetPath = path;
-		//check for and remove prior dataset for overwrite
-		if(existsDataset(datasetPath))
-			removeDataset(datasetPath);
-		
-		// convert from primitive
-		int len = in.length;
-		int len2 = in[0].length;
-		Float[][] dats = new Float[len][len2];
-		for (int i = 0; i < len; i++)
-			for (int j = 0; j < len2; j++)
-				dats[i][j] = new Float(in[i][j]);
-
-		Data_2D<Float> data = new Data_2D<Float>(dats, "FLOAT", datasetName);
-		long[] dims = data.getDimensions();
-		createDataset(datasetPath, "Float", dims);
-
-		// Parameter: datasetName, Data_2D, dim0, dim1, offsets
-		writeMatrix(datasetPath, data, 0, 1, new long[] { 0, 0 });
-		// Add dataset type attributes:
-		writeAttribute(datasetPath, "dataType", "H5T_NATIVE_FLOAT");
-
+		writePrimitive(h5FilePath, path, new Data_Float(in, getDatasetName(path)));
 	}
 
 	/**
@@ -1401,31 +1654,7 @@ public class H5IO<T> {
 	public void writeDataset(String h5FilePath, String path,
  double[] in)
 			throws H5IO_Exception {
-	
-		//Creating the parent groups of this dataset if they dont already exist
-		createAllParentGroups(h5FilePath, path);
-
-		String datasetName = getDatasetName(path);
-
-		String datasetPath = path;
-		//check for and remove prior dataset for overwrite
-		if(existsDataset(datasetPath))
-			removeDataset(datasetPath);
-		
-		// convert from primitive
-		int len = in.length;
-		Double[] dats = new Double[len];
-		for (int i = 0; i < len; i++)
-			dats[i] = new Double(in[i]);
-
-		DataObject dataArray = new Data_1D<Double>(dats, Data_1D.DOUBLE,
-				datasetName);
-		long[] dims = dataArray.getDimensions();
-		createDataset(datasetPath, "Double", dims);
-		writeArray(path, dataArray, 0, new long[] { 0 });
-
-
-		writeAttribute(datasetPath, "dataType", "H5T_NATIVE_DOUBLE");
+		writePrimitive(h5FilePath, path, new Data_Double(in, getDatasetName(path)));
 	}
 
 	/**
@@ -1439,32 +1668,7 @@ public class H5IO<T> {
 	 * */
 	public void writeDataset(String h5FilePath, String path,
 			double[][] in) throws H5IO_Exception {
-		//Creating the parent groups of this dataset if they dont already exist
-		createAllParentGroups(h5FilePath, path);
-
-		String datasetName = getDatasetName(path);
-		String datasetPath = path;
-		//check for and remove prior dataset for overwrite
-		if(existsDataset(datasetPath))
-			removeDataset(datasetPath);
-		
-		// convert from primitive
-		int len = in.length;
-		int len2 = in[0].length;
-		Double[][] dats = new Double[len][len2];
-		for (int i = 0; i < len; i++)
-			for (int j = 0; j < len2; j++)
-				dats[i][j] = new Double(in[i][j]);
-
-		Data_2D<Double> data = new Data_2D<Double>(dats, "DOUBLE", datasetName);
-		long[] dims = data.getDimensions();
-		createDataset(datasetPath, "Double", dims);
-
-		// Parameter: datasetName, Data_2D, dim0, dim1, offsets
-		writeMatrix(datasetPath, data, 0, 1, new long[] { 0, 0 });
-		// Add dataset type attributes:
-		writeAttribute(datasetPath, "dataType", "H5T_NATIVE_DOUBLE");
-
+		writePrimitive(h5FilePath, path, new Data_Double(in, getDatasetName(path)));
 	}
 
 	/**
@@ -1477,30 +1681,7 @@ public class H5IO<T> {
 	 * */
 	public void writeDataset(String h5FilePath, String path,
 			 int[] in) throws H5IO_Exception {
-		//Creating the parent groups of this dataset if they dont already exist
-		createAllParentGroups(h5FilePath, path);
-
-		String datasetName = getDatasetName(path);
-		String datasetPath = path;
-		//check for and remove prior dataset for overwrite
-		if(existsDataset(datasetPath))
-			removeDataset(datasetPath);
-		
-		// convert from primitive
-		int len = in.length;
-		Integer[] dats = new Integer[len];
-		for (int i = 0; i < len; i++)
-			dats[i] = new Integer(in[i]);
-
-		DataObject dataArray = new Data_1D<Integer>(dats, Data_1D.INTEGER,
-				datasetName);
-		long[] dims = dataArray.getDimensions();
-		createDataset(datasetPath, "Integer", dims);
-		writeArray(path, dataArray, 0, new long[] { 0 });
-
-		// Add dataset type attributes:
-		writeAttribute(datasetPath, "dataType", "H5T_NATIVE_INTEGER");
-
+		writePrimitive(h5FilePath, path, new Data_Int(in, getDatasetName(path)));
 	}
 
 	/**
@@ -1513,33 +1694,7 @@ public class H5IO<T> {
 	 * */
 	public void writeDataset(String h5FilePath, String path,
 			 int[][] in) throws H5IO_Exception {
-		//Creating the parent groups of this dataset if they dont already exist
-		createAllParentGroups(h5FilePath, path);
-
-		String datasetName = getDatasetName(path);
-		String datasetPath = path;
-		//check for and remove prior dataset for overwrite
-		if(existsDataset(datasetPath))
-			removeDataset(datasetPath);
-		
-		// convert from primitive
-		int len = in.length;
-		int len2 = in[0].length;
-		Integer[][] dats = new Integer[len][len2];
-		for (int i = 0; i < len; i++)
-			for (int j = 0; j < len2; j++)
-				dats[i][j] = new Integer(in[i][j]);
-
-		Data_2D<Integer> data = new Data_2D<Integer>(dats, "INTEGER",
-				datasetName);
-		long[] dims = data.getDimensions();
-		createDataset(datasetPath, "Integer", dims);
-
-		// Parameter: datasetName, Data_2D, dim0, dim1, offsets
-		writeMatrix(datasetPath, data, 0, 1, new long[] { 0, 0 });
-		// Add dataset type attributes:
-		writeAttribute(datasetPath, "dataType", "H5T_NATIVE_INTEGER");
-
+		writePrimitive(h5FilePath, path, new Data_Int(in, getDatasetName(path)));
 	}
 
 	/**
@@ -1628,32 +1783,7 @@ public class H5IO<T> {
 	 * */
 	public void writeDataset(String h5FilePath, String path,
 			 byte[] in) throws H5IO_Exception {
-
-		//Creating the parent groups of this dataset if they dont already exist
-		createAllParentGroups(h5FilePath, path);
-		
-
-		String datasetName = getDatasetName(path);
-		String datasetPath = path;
-		//check for and remove prior dataset for overwrite
-		if(existsDataset(datasetPath))
-			removeDataset(datasetPath);
-		
-		// convert from primitive
-		int len = in.length;
-		Byte[] dats = new Byte[len];
-		for (int i = 0; i < len; i++)
-			dats[i] = new Byte(in[i]);
-
-		DataObject dataArray = new Data_1D<Byte>(dats, Data_1D.BYTE,
-				datasetName);
-		long[] dims = dataArray.getDimensions();
-		createDataset(datasetPath, "Byte", dims);
-		writeArray(path, dataArray, 0, new long[] { 0 });
-
-		// Add dataset type attributes:
-		writeAttribute(datasetPath, "dataType", "H5T_NATIVE_BYTE");
-
+		writePrimitive(h5FilePath, path, new Data_Byte(in, getDatasetName(path)));
 	}
 
 	/**
@@ -1667,33 +1797,7 @@ public class H5IO<T> {
 	 * */
 	public void writeDataset(String h5FilePath, String path,
 			byte[][] in) throws H5IO_Exception {
-		
-		//Creating the parent groups of this dataset if they dont already exist
-		createAllParentGroups(h5FilePath, path);
-
-		String datasetName = getDatasetName(path);
-		String datasetPath = path;
-		//check for and remove prior dataset for overwrite
-		if(existsDataset(datasetPath))
-			removeDataset(datasetPath);
-		
-		// convert from primitive
-		int len = in.length;
-		int len2 = in[0].length;
-		Byte[][] dats = new Byte[len][len2];
-		for (int i = 0; i < len; i++)
-			for (int j = 0; j < len2; j++)
-				dats[i][j] = new Byte(in[i][j]);
-
-		Data_2D<Byte> data = new Data_2D<Byte>(dats, "BYTE", datasetName);
-		long[] dims = data.getDimensions();
-		createDataset(datasetPath, "Byte", dims);
-
-		// Parameter: datasetName, Data_2D, dim0, dim1, offsets
-		writeMatrix(datasetPath, data, 0, 1, new long[] { 0, 0 });
-		// Add dataset type attributes:
-		writeAttribute(datasetPath, "dataType", "H5T_NATIVE_BYTE");
-
+		writePrimitive(h5FilePath, path, new Data_Byte(in, getDatasetName(path)));
 	}
 
 	/**
@@ -1979,7 +2083,7 @@ public void closeAll() throws H5IO_Exception
 	closeMemType();
 		// close file
 		closeFileSpace();
-		closeHDF5();
+		abortSession();
 }
 
 	/**
@@ -2205,6 +2309,243 @@ public void closeAll() throws H5IO_Exception
 
 	}
 
+	/**
+	 * Copies a group, with all its subgroups, datasets and attributes, from
+	 * another HDF5 file into the currently opened file. Datasets are copied as
+	 * raw bytes in their stored type and layout, a block of rows at a time, so
+	 * nothing is converted to Java objects and at most chunkBytes of data are
+	 * held in memory. Variable length types are not supported.
+	 * 
+	 * @author Bjorn Millard
+	 * @param String
+	 *            srcH5Path the HDF5 file to copy from
+	 * @param String
+	 *            srcGroupPath the group to copy within the source file
+	 * @param String
+	 *            dstGroupPath where to put it in the opened file; must not
+	 *            exist yet
+	 * @param int chunkBytes the size of the copy buffer
+	 * @throws H5IO_Exception
+	 */
+	public void copyGroupFrom(String srcH5Path, String srcGroupPath,
+			String dstGroupPath, int chunkBytes) throws H5IO_Exception {
+		createAllParentGroups(null, dstGroupPath);
+		int src_fid = -1;
+		try {
+			src_fid = H5.H5Fopen(srcH5Path, HDF5Constants.H5F_ACC_RDONLY,
+					HDF5Constants.H5P_DEFAULT);
+			copyObject(src_fid, srcGroupPath, dstGroupPath, true,
+					new byte[Math.max(1, chunkBytes)]);
+		} catch (HDF5LibraryException ex) {
+			throw new H5IO_Exception("Cannot copy '" + srcH5Path + ":"
+					+ srcGroupPath + "': " + ex.getMessage());
+		} finally {
+			try {
+				if (src_fid >= 0)
+					H5.H5Fclose(src_fid);
+			} catch (HDF5LibraryException ex) {
+				logger.log(Level.SEVERE, "Cannot close " + srcH5Path, ex);
+			}
+		}
+	}
+
+	/**
+	 * Copies a single dataset from another HDF5 file into the currently opened
+	 * file, see copyGroupFrom()
+	 * 
+	 * @author Bjorn Millard
+	 * @throws H5IO_Exception
+	 */
+	public void copyDatasetFrom(String srcH5Path, String srcDatasetPath,
+			String dstDatasetPath, int chunkBytes) throws H5IO_Exception {
+		createAllParentGroups(null, dstDatasetPath);
+		int src_fid = -1;
+		try {
+			src_fid = H5.H5Fopen(srcH5Path, HDF5Constants.H5F_ACC_RDONLY,
+					HDF5Constants.H5P_DEFAULT);
+			copyObject(src_fid, srcDatasetPath, dstDatasetPath, false,
+					new byte[Math.max(1, chunkBytes)]);
+		} catch (HDF5LibraryException ex) {
+			throw new H5IO_Exception("Cannot copy '" + srcH5Path + ":"
+					+ srcDatasetPath + "': " + ex.getMessage());
+		} finally {
+			try {
+				if (src_fid >= 0)
+					H5.H5Fclose(src_fid);
+			} catch (HDF5LibraryException ex) {
+				logger.log(Level.SEVERE, "Cannot close " + srcH5Path, ex);
+			}
+		}
+	}
+
+	private void copyObject(int src_fid, String srcPath, String dstPath,
+			boolean isGroup, byte[] buffer) throws H5IO_Exception {
+		int src_id = -1;
+		int dst_id = -1;
+		try {
+			if (isGroup) {
+				src_id = H5.H5Gopen(src_fid, srcPath);
+				dst_id = H5.H5Gcreate(file_id, dstPath,
+						HDF5Constants.H5P_DEFAULT);
+				copyAttributes(src_id, dst_id);
+				H5.H5Gclose(dst_id);
+				dst_id = -1;
+
+				long[] num = new long[1];
+				H5.H5Gget_num_objs(src_id, num);
+				H5.H5Gclose(src_id);
+				src_id = -1;
+				if (num[0] == 0)
+					return;
+				String[] names = new String[(int) num[0]];
+				int[] types = new int[(int) num[0]];
+				H5.H5Gget_obj_info_all(src_fid, srcPath, names, types);
+				for (int i = 0; i < names.length; i++) {
+					if (types[i] == HDF5Constants.H5G_GROUP)
+						copyObject(src_fid, srcPath + "/" + names[i], dstPath
+								+ "/" + names[i], true, buffer);
+					else if (types[i] == HDF5Constants.H5G_DATASET)
+						copyObject(src_fid, srcPath + "/" + names[i], dstPath
+								+ "/" + names[i], false, buffer);
+				}
+			} else {
+				src_id = H5.H5Dopen(src_fid, srcPath);
+				dst_id = copyDataset(src_id, dstPath, buffer);
+				copyAttributes(src_id, dst_id);
+			}
+		} catch (H5IO_Exception ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new H5IO_Exception("Cannot copy '" + srcPath + "' to '"
+					+ dstPath + "': " + ex.getMessage());
+		} finally {
+			try {
+				if (isGroup) {
+					if (src_id >= 0)
+						H5.H5Gclose(src_id);
+					if (dst_id >= 0)
+						H5.H5Gclose(dst_id);
+				} else {
+					if (src_id >= 0)
+						H5.H5Dclose(src_id);
+					if (dst_id >= 0)
+						H5.H5Dclose(dst_id);
+				}
+			} catch (HDF5LibraryException ex) {
+				logger.log(Level.SEVERE, "Cannot close '" + srcPath + "'", ex);
+			}
+		}
+	}
+
+	/** Creates a copy of the given open dataset in the opened file and copies its values
+	 * over a block of rows at a time; returns the new dataset id*/
+	private int copyDataset(int src_id, String dstPath, byte[] buffer)
+			throws Exception {
+		int type = H5.H5Dget_type(src_id);
+		int src_space = H5.H5Dget_space(src_id);
+		int plist = H5.H5Dget_create_plist(src_id);
+		int dst_id = -1;
+		int dst_space = -1;
+		try {
+			if (H5.H5Tis_variable_str(type)
+					|| H5.H5Tdetect_class(type, HDF5Constants.H5T_VLEN))
+				throw new H5IO_Exception("Variable length data is not supported: "
+						+ dstPath);
+			dst_id = H5.H5Dcreate(file_id, dstPath, type, src_space, plist);
+			dst_space = H5.H5Dget_space(dst_id);
+
+			int rank = H5.H5Sget_simple_extent_ndims(src_space);
+			long npoints = H5.H5Sget_simple_extent_npoints(src_space);
+			if (npoints == 0)
+				return dst_id;
+			long elemSize = H5.H5Tget_size(type);
+			if (rank == 0 || npoints * elemSize <= buffer.length) {
+				// Small enough to move in one go
+				byte[] all = npoints * elemSize == buffer.length ? buffer
+						: new byte[(int) (npoints * elemSize)];
+				H5.H5Dread(src_id, type, HDF5Constants.H5S_ALL,
+						HDF5Constants.H5S_ALL, HDF5Constants.H5P_DEFAULT, all);
+				H5.H5Dwrite(dst_id, type, HDF5Constants.H5S_ALL,
+						HDF5Constants.H5S_ALL, HDF5Constants.H5P_DEFAULT, all);
+				return dst_id;
+			}
+
+			long[] dims = new long[rank];
+			H5.H5Sget_simple_extent_dims(src_space, dims, null);
+			long rowBytes = elemSize;
+			for (int i = 1; i < rank; i++)
+				rowBytes *= dims[i];
+			long rowsPerBlock = Math.max(1, buffer.length / rowBytes);
+			long[] start = new long[rank];
+			long[] count = new long[rank];
+			for (int i = 1; i < rank; i++)
+				count[i] = dims[i];
+			for (long row = 0; row < dims[0]; row += rowsPerBlock) {
+				start[0] = row;
+				count[0] = Math.min(rowsPerBlock, dims[0] - row);
+				byte[] block = count[0] * rowBytes == buffer.length ? buffer
+						: new byte[(int) (count[0] * rowBytes)];
+				int mem_space = H5.H5Screate_simple(rank, count, null);
+				try {
+					H5.H5Sselect_hyperslab(src_space,
+							HDF5Constants.H5S_SELECT_SET, start, null, count,
+							null);
+					H5.H5Sselect_hyperslab(dst_space,
+							HDF5Constants.H5S_SELECT_SET, start, null, count,
+							null);
+					H5.H5Dread(src_id, type, mem_space, src_space,
+							HDF5Constants.H5P_DEFAULT, block);
+					H5.H5Dwrite(dst_id, type, mem_space, dst_space,
+							HDF5Constants.H5P_DEFAULT, block);
+				} finally {
+					H5.H5Sclose(mem_space);
+				}
+			}
+			return dst_id;
+		} catch (Exception ex) {
+			if (dst_id >= 0)
+				H5.H5Dclose(dst_id);
+			throw ex;
+		} finally {
+			if (dst_space >= 0)
+				H5.H5Sclose(dst_space);
+			H5.H5Sclose(src_space);
+			H5.H5Pclose(plist);
+			H5.H5Tclose(type);
+		}
+	}
+
+	/** Copies every attribute of one open object to another*/
+	private void copyAttributes(int src_id, int dst_id) throws Exception {
+		int num = H5.H5Aget_num_attrs(src_id);
+		for (int i = 0; i < num; i++) {
+			int attr = H5.H5Aopen_idx(src_id, i);
+			int type = -1;
+			int space = -1;
+			int dst_attr = -1;
+			try {
+				String[] name = new String[1];
+				H5.H5Aget_name(attr, 1024, name);
+				type = H5.H5Aget_type(attr);
+				space = H5.H5Aget_space(attr);
+				long npoints = H5.H5Sget_simple_extent_npoints(space);
+				byte[] buf = new byte[(int) (npoints * H5.H5Tget_size(type))];
+				H5.H5Aread(attr, type, buf);
+				dst_attr = H5.H5Acreate(dst_id, name[0], type, space,
+						HDF5Constants.H5P_DEFAULT);
+				H5.H5Awrite(dst_attr, type, buf);
+			} finally {
+				if (dst_attr >= 0)
+					H5.H5Aclose(dst_attr);
+				if (space >= 0)
+					H5.H5Sclose(space);
+				if (type >= 0)
+					H5.H5Tclose(type);
+				H5.H5Aclose(attr);
+			}
+		}
+	}
+
 	/**
 	 * Reads a file that has been encoded into an HDF5 byte[] and writes it to a
 	 * standard file-system file
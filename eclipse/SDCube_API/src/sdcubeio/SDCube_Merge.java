@@ -0,0 +1,263 @@
+/**
+   SDCube Programming Library
+   Software for the creation and manipulation of semantically-typed
+   data hypercubes
+
+   Copyright (C) 2011 Bjorn Millard <bjornmillard@gmail.com>
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU Lesser General Public License as
+   published by the Free Software Foundation, either version 3 of the
+   License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU Lesser General Public License for more details.
+
+   You should have received a copy of the GNU Lesser General Public
+   License along with this program.  If not, see
+   <http://www.gnu.org/licenses/>.
+ */
+
+
+package sdcubeio;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Merges several SDCubes into one by copying their sample groups dataset to
+ * dataset at the HDF5 level. Nothing is loaded into SDCube_DataModule objects;
+ * every dataset is streamed a block of rows at a time in its stored type. The
+ * ExpDesign.xml of each input is parsed exactly once and its samples appended
+ * to the output's ExpDesign.
+ * 
+ * Every input is assigned its own range of ./Children/N target groups before
+ * any copying starts, so inputs never collide. Inputs are scanned and their
+ * XML parsed in parallel while earlier inputs are being copied; the copies
+ * themselves go through a single writer because the HDF5 library calls are
+ * serialized in this binding anyway.
+ * 
+ * @author Bjorn Millard
+ */
+public class SDCube_Merge {
+
+	/** Default size of the copy buffer: 8MB */
+	static public final int DEFAULT_CHUNK_BYTES = 8 * 1024 * 1024;
+
+	private String sdcPath_out;
+	private int numThreads;
+	private int chunkBytes = DEFAULT_CHUNK_BYTES;
+
+	/**
+	 * Merges into the SDCube at the given path, which is created if it does
+	 * not exist
+	 * 
+	 * @author Bjorn Millard
+	 * @param String
+	 *            pathOut
+	 */
+	public SDCube_Merge(String pathOut) {
+		this(pathOut, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Merges into the SDCube at the given path using up to numThreads threads
+	 * to prepare the inputs
+	 * 
+	 * @author Bjorn Millard
+	 */
+	public SDCube_Merge(String pathOut, int numThreads) {
+		this.sdcPath_out = pathOut;
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Sets the size of the buffer used to stream each dataset
+	 * 
+	 * @author Bjorn Millard
+	 */
+	public void setChunkBytes(int bytes) {
+		chunkBytes = Math.max(1, bytes);
+	}
+
+	/**
+	 * Appends all samples of the given SDCubes to the output SDCube
+	 * 
+	 * @author Bjorn Millard
+	 * @param String
+	 *            [] pathsIn
+	 * @return int number of samples copied
+	 * @throws H5IO_Exception
+	 */
+	public int merge(String[] pathsIn) throws H5IO_Exception {
+		File dir = new File(sdcPath_out);
+		if (!dir.exists())
+			dir.mkdirs();
+		String h5Path_out = sdcPath_out + "/Data.h5";
+		String xmlPath_out = sdcPath_out + "/ExpDesign.xml";
+		H5IO<Object> io = new H5IO<Object>();
+		if (!new File(h5Path_out).exists())
+			io.createHDF5(h5Path_out);
+
+		// Scanning the inputs in the background, in order
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+				numThreads, Math.max(1, pathsIn.length)));
+		ArrayList<Future<InputPlan>> plans = new ArrayList<Future<InputPlan>>();
+		for (int i = 0; i < pathsIn.length; i++) {
+			final String path = pathsIn[i];
+			plans.add(pool.submit(new Callable<InputPlan>() {
+				public InputPlan call() throws Exception {
+					return scanInput(path);
+				}
+			}));
+		}
+
+		ExpDesign_Model model = new ExpDesign_Model(sdcPath_out);
+		HashSet<String> ids = new HashSet<String>();
+		for (int i = 0; i < model.getSamples().size(); i++)
+			ids.add(model.getSamples().get(i).getId().trim());
+
+		int numCopied = 0;
+		try {
+			io.beginSession(h5Path_out);
+			int target = io.getGroupChildCount(h5Path_out, "./Children");
+
+			for (int i = 0; i < plans.size(); i++) {
+				InputPlan plan;
+				try {
+					plan = plans.get(i).get();
+				} catch (ExecutionException e) {
+					System.out.println("**ERROR reading SDCube: " + pathsIn[i]);
+					e.getCause().printStackTrace();
+					continue;
+				} catch (InterruptedException e) {
+					throw new H5IO_Exception("Merge interrupted");
+				}
+
+				long time = System.currentTimeMillis();
+				System.out.println("**Merging: " + plan.sdcPath + " ("
+						+ plan.sampleGroups.length + " samples)");
+				for (int s = 0; s < plan.sampleGroups.length; s++) {
+					while (io.existsGroup(h5Path_out, "./Children/" + target))
+						target++;
+					io.copyGroupFrom(plan.h5Path, "./Children/"
+							+ plan.sampleGroups[s], "./Children/" + target,
+							chunkBytes);
+					target++;
+					numCopied++;
+				}
+				copyRootMeta(io, plan, h5Path_out);
+
+				for (int s = 0; s < plan.expDesigns.size(); s++) {
+					ExpDesign_Sample sample = plan.expDesigns.get(s);
+					if (ids.add(sample.getId().trim()))
+						model.addSample(sample);
+					else
+						System.out.println("**WARNING: sample " + sample.getId()
+								+ " is already in the ExpDesign, keeping the first");
+				}
+				io.checkpoint();
+				System.out.println("dT: " + (System.currentTimeMillis() - time));
+			}
+
+			// Writing the merged ExpDesign and embedding it like SDCube.write() does
+			ExpDesign_IO.write(model);
+			try {
+				io.writeFileToHDF5(xmlPath_out, h5Path_out, "./Meta/ExpDesign.xml");
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			io.closeAll();
+		} catch (H5IO_Exception e) {
+			io.closeAll();
+			throw e;
+		} finally {
+			pool.shutdownNow();
+		}
+		return numCopied;
+	}
+
+	/**
+	 * Copies the top level Meta entries of an input (plate names, sizes and
+	 * the like) that the output does not have yet. Groups that exist in both
+	 * are merged one level deep. The embedded ExpDesign is rewritten at the
+	 * end instead.
+	 */
+	private void copyRootMeta(H5IO<?> io, InputPlan plan, String h5Path_out)
+			throws H5IO_Exception {
+		for (int i = 0; i < plan.metaNames.size(); i++) {
+			String name = plan.metaNames.get(i);
+			if (name.equals("ExpDesign.xml"))
+				continue;
+			String path = "./Meta/" + name;
+			String[] children = plan.metaGroupChildren.get(i);
+			if (children == null) {
+				if (!io.existsDataset(path))
+					io.copyDatasetFrom(plan.h5Path, path, path, chunkBytes);
+			} else if (!io.existsGroup(h5Path_out, path))
+				io.copyGroupFrom(plan.h5Path, path, path, chunkBytes);
+			else
+				for (int j = 0; j < children.length; j++) {
+					String child = path + "/" + children[j];
+					if (!io.existsDataset(child))
+						io.copyDatasetFrom(plan.h5Path, child, child,
+								chunkBytes);
+				}
+		}
+	}
+
+	/** Lists the samples and top level Meta entries of an input and parses its ExpDesign*/
+	static private InputPlan scanInput(String sdcPath) throws H5IO_Exception {
+		InputPlan plan = new InputPlan();
+		plan.sdcPath = sdcPath;
+		plan.h5Path = sdcPath + "/Data.h5";
+
+		H5IO<Object> io = new H5IO<Object>();
+		io.openHDF5(plan.h5Path);
+		try {
+			String[] names = io.getGroupChildNames(plan.h5Path, "./Children");
+			plan.sampleGroups = names == null ? new String[0] : names;
+			String[] meta = io.getGroupChildNames(plan.h5Path, "./Meta");
+			if (meta != null)
+				for (int i = 0; i < meta.length; i++) {
+					plan.metaNames.add(meta[i]);
+					if (io.existsGroup(plan.h5Path, "./Meta/" + meta[i])) {
+						String[] kids = io.getGroupChildNames(plan.h5Path,
+								"./Meta/" + meta[i]);
+						plan.metaGroupChildren.add(kids == null ? new String[0]
+								: kids);
+					} else
+						plan.metaGroupChildren.add(null);
+				}
+		} finally {
+			io.closeHDF5();
+		}
+
+		plan.expDesigns = ExpDesign_IO.parseSamples(sdcPath + "/ExpDesign.xml");
+		if (plan.expDesigns == null) {
+			System.out.println("**WARNING: could not parse " + sdcPath
+					+ "/ExpDesign.xml");
+			plan.expDesigns = new ArrayList<ExpDesign_Sample>();
+		}
+		return plan;
+	}
+
+	/** What needs to be copied from one input SDCube*/
+	static private class InputPlan {
+		String sdcPath;
+		String h5Path;
+		String[] sampleGroups;
+		ArrayList<String> metaNames = new ArrayList<String>();
+		/** Child names for Meta entries that are groups, null for datasets */
+		ArrayList<String[]> metaGroupChildren = new ArrayList<String[]>();
+		ArrayList<ExpDesign_Sample> expDesigns;
+	}
+}